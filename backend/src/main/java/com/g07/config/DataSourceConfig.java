@@ -0,0 +1,111 @@
+package com.g07.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据源：未配置从库时就是 spring.datasource 指向的主库；
+ * 配置了 datasource.replica.urls（逗号分隔）时，只读事务由 ReplicaRouter 分发到从库；
+ * 配置了 datasource.shards.urls（逗号分隔）时，主库作为 0 号分片，租户数据由 ShardingDataSource 按租户路由
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Value("${spring.datasource.url}")
+    private String url;
+
+    @Value("${spring.datasource.username}")
+    private String username;
+
+    @Value("${spring.datasource.password}")
+    private String password;
+
+    @Value("${spring.datasource.driver-class-name}")
+    private String driverClassName;
+
+    @Value("${datasource.replica.urls:}")
+    private String replicaUrls;
+
+    @Value("${datasource.replica.username:${spring.datasource.username}}")
+    private String replicaUsername;
+
+    @Value("${datasource.replica.password:${spring.datasource.password}}")
+    private String replicaPassword;
+
+    // 从库连不上时尽快失败，改走主库
+    @Value("${datasource.replica.connection-timeout-ms:3000}")
+    private long replicaConnectionTimeout;
+
+    @Value("${datasource.shards.urls:}")
+    private String shardUrls;
+
+    @Value("${datasource.shards.username:${spring.datasource.username}}")
+    private String shardUsername;
+
+    @Value("${datasource.shards.password:${spring.datasource.password}}")
+    private String shardPassword;
+
+    @Bean
+    public DataSource dataSource(ReplicaRouter router) {
+        DataSource primary = primary(router);
+        if (shardUrls == null || shardUrls.isBlank()) return primary;
+
+        // 返回的不再是连接池本身，容器不会自动关闭，交给 ReplicaRouter 统一释放
+        if (primary instanceof HikariDataSource) router.addPool(primary);
+        List<DataSource> shards = new ArrayList<>();
+        shards.add(primary);
+        for (String shardUrl : shardUrls.split(",")) {
+            if (shardUrl.isBlank()) continue;
+            HikariDataSource shard = pool("shard-" + shards.size(), shardUrl.trim(), shardUsername, shardPassword);
+            shards.add(shard);
+            router.addPool(shard);
+        }
+        System.out.println(">>> [DataSource] 租户分片已启用，共 " + shards.size() + " 个分片");
+        return new ShardingDataSource(shards);
+    }
+
+    private DataSource primary(ReplicaRouter router) {
+        HikariDataSource primary = pool("primary", url, username, password);
+        if (replicaUrls == null || replicaUrls.isBlank()) return primary;
+
+        router.setPrimary(primary);
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(ReplicaRouter.PRIMARY, primary);
+        int n = 0;
+        for (String replicaUrl : replicaUrls.split(",")) {
+            if (replicaUrl.isBlank()) continue;
+            String key = "replica-" + (++n);
+            HikariDataSource replica = pool(key, replicaUrl.trim(), replicaUsername, replicaPassword);
+            replica.setReadOnly(true);
+            replica.setConnectionTimeout(replicaConnectionTimeout);
+            targets.put(key, replica);
+            router.addReplica(key, replica);
+        }
+
+        RoutingDataSource routing = new RoutingDataSource(router);
+        routing.setTargetDataSources(targets);
+        routing.setDefaultTargetDataSource(primary);
+        routing.afterPropertiesSet();
+        System.out.println(">>> [DataSource] 读写分离已启用，从库 " + n + " 个");
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    private HikariDataSource pool(String name, String jdbcUrl, String user, String pass) {
+        HikariDataSource ds = new HikariDataSource();
+        ds.setPoolName(name);
+        ds.setJdbcUrl(jdbcUrl);
+        ds.setUsername(user);
+        ds.setPassword(pass);
+        ds.setDriverClassName(driverClassName);
+        return ds;
+    }
+}
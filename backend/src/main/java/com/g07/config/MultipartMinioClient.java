@@ -0,0 +1,41 @@
+package com.g07.config;
+
+import io.minio.MinioAsyncClient;
+import io.minio.messages.Part;
+
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MinioClient 没有公开 S3 分片上传的底层接口（它们在 S3Base 中是 protected），
+ * 这里继承 MinioAsyncClient 把 initiate / uploadPart / complete / abort 暴露出来，供断点续传使用。
+ */
+public class MultipartMinioClient extends MinioAsyncClient {
+
+    public MultipartMinioClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    public String initiate(String bucket, String object, String contentType) throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        if (contentType != null) headers.put("Content-Type", contentType);
+        return createMultipartUploadAsync(bucket, null, object, newMultimap(headers), null).get().result().uploadId();
+    }
+
+    /**
+     * 从文件上传一个分片，SDK 按文件读取并计算校验值，不会把整片读进内存
+     * @return 该分片的 ETag，完成上传时需要按分片号提交
+     */
+    public String uploadPart(String bucket, String object, String uploadId, int partNumber, RandomAccessFile file, long length) throws Exception {
+        return uploadPartAsync(bucket, null, object, file, length, uploadId, partNumber, null, null).get().etag();
+    }
+
+    public void complete(String bucket, String object, String uploadId, Part[] parts) throws Exception {
+        completeMultipartUploadAsync(bucket, null, object, uploadId, parts, null, null).get();
+    }
+
+    public void abort(String bucket, String object, String uploadId) throws Exception {
+        abortMultipartUploadAsync(bucket, null, object, uploadId, null, null).get();
+    }
+}
@@ -0,0 +1,48 @@
+package com.g07.config;
+
+import com.g07.service.RateLimitService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * 问答和上传接口限流，排在 LoginInterceptor 之后，只对 WebConfig 中登记的路径生效。
+ * 放行和拒绝都带 RateLimit-Limit / RateLimit-Remaining / RateLimit-Reset 响应头，拒绝时返回 429 和 Retry-After。
+ * 批量问答按问题数扣令牌，不经过这里，由 ChatController.batch 调用 RateLimitService。
+ */
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    @Autowired
+    private RateLimitService rateLimitService;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!"POST".equalsIgnoreCase(request.getMethod()) || !rateLimitService.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String group = path.startsWith("/chat/") ? RateLimitService.CHAT : RateLimitService.UPLOAD;
+
+        RateLimitService.Decision d = rateLimitService.acquire(group,
+                emptyToNull(request.getHeader("X-User-Id")), emptyToNull(request.getHeader("X-Tenant-Id")));
+        if (d == null) return true;
+
+        response.setHeader("RateLimit-Limit", String.valueOf(d.getLimit()));
+        response.setHeader("RateLimit-Remaining", String.valueOf(d.getRemaining()));
+        response.setHeader("RateLimit-Reset", String.valueOf(d.getResetSeconds()));
+        if (d.isAllowed()) return true;
+
+        response.setHeader("Retry-After", String.valueOf(d.getRetryAfterSeconds()));
+        response.setContentType("application/json;charset=UTF-8");
+        response.setStatus(429);
+        response.getWriter().write("{\"code\": 429, \"msg\": \"请求过于频繁，请 " + d.getRetryAfterSeconds() + " 秒后再试\"}");
+        return false;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+}
@@ -0,0 +1,42 @@
+package com.g07.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+/**
+ * 读己之写：非 GET 请求视为写请求，通知 ReplicaRouter 本次请求走主库，并绑定当前用户，
+ * 该用户在主库上的写入提交后由 ReplicaRouter 开启粘滞窗口
+ */
+@Component
+public class ReadRoutingInterceptor implements AsyncHandlerInterceptor {
+
+    @Autowired
+    private ReplicaRouter replicaRouter;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        replicaRouter.beginRequest(request.getHeader("X-User-Id"), isWrite(request));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        replicaRouter.endRequest(request.getHeader("X-User-Id"), isWrite(request));
+    }
+
+    /**
+     * 流式响应在其他线程继续执行，请求线程先清掉标记
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        replicaRouter.endRequest(request.getHeader("X-User-Id"), isWrite(request));
+    }
+
+    private static boolean isWrite(HttpServletRequest request) {
+        String method = request.getMethod();
+        return !"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method) && !"OPTIONS".equalsIgnoreCase(method);
+    }
+}
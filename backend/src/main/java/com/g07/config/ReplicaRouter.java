@@ -0,0 +1,240 @@
+package com.g07.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 读写分离路由：@Transactional(readOnly = true) 的方法在从库间轮询，其余一律走主库。
+ * - 写请求（非 GET）执行期间的所有查询走主库；主库上的写入提交后，该用户在 sticky-ms 内的读也走主库，保证读到自己刚写的数据。
+ *   粘滞窗口从提交时刻开始计算，流式响应、异步入库等在请求结束后才写入的场景用 runAs / callAs 绑定用户；
+ * - 定时检查每个从库的复制延迟，延迟超过 max-lag-seconds、复制中断或连不上的从库暂时摘除，全部摘除时回退主库。
+ * 粘滞窗口记录在本节点内存中，多节点部署时需要负载均衡按用户保持会话。
+ */
+@Component
+public class ReplicaRouter implements DisposableBean {
+
+    public static final String PRIMARY = "primary";
+
+    private static final ThreadLocal<Boolean> FORCE_PRIMARY = new ThreadLocal<>();
+    // 当前线程代表的用户，主库写入提交时为其开启粘滞窗口
+    private static final ThreadLocal<String> USER = new ThreadLocal<>();
+
+    @Value("${datasource.replica.sticky-ms:5000}")
+    private long stickyMs;
+
+    @Value("${datasource.replica.max-lag-seconds:3}")
+    private long maxLagSeconds;
+
+    private static class Replica {
+        final String key;
+        final DataSource dataSource;
+        volatile boolean healthy = true;
+        volatile long lagSeconds = -1;
+        volatile String lastError;
+        final AtomicLong routed = new AtomicLong();
+
+        Replica(String key, DataSource dataSource) {
+            this.key = key;
+            this.dataSource = dataSource;
+        }
+    }
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final List<DataSource> pools = new ArrayList<>();
+    private final Map<String, Long> stickyUntil = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final AtomicLong stickyReads = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    void setPrimary(DataSource primary) {
+        pools.add(primary);
+    }
+
+    /**
+     * 登记需要在关闭时释放的连接池（没有从库时的主库、各租户分片）
+     */
+    void addPool(DataSource pool) {
+        pools.add(pool);
+    }
+
+    void addReplica(String key, DataSource dataSource) {
+        replicas.add(new Replica(key, dataSource));
+        pools.add(dataSource);
+    }
+
+    /**
+     * @return 目标数据源的键
+     */
+    String route(boolean readOnly) {
+        if (!readOnly || replicas.isEmpty()) return PRIMARY;
+        if (Boolean.TRUE.equals(FORCE_PRIMARY.get())) {
+            stickyReads.incrementAndGet();
+            return PRIMARY;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica r = replicas.get((start + i) % replicas.size());
+            if (r.healthy) {
+                r.routed.incrementAndGet();
+                return r.key;
+            }
+        }
+        fallbacks.incrementAndGet();
+        return PRIMARY;
+    }
+
+    /**
+     * 从库取连接失败：立即摘除，等下次检查恢复
+     */
+    void markDown(String key, String error) {
+        for (Replica r : replicas) {
+            if (r.key.equals(key)) {
+                r.healthy = false;
+                r.lastError = error;
+                System.err.println(">>> [DataSource] 从库 " + key + " 不可用，暂时摘除: " + error);
+            }
+        }
+    }
+
+    // ==================== 读己之写 ====================
+
+    /**
+     * 请求开始时调用：写请求或刚写过数据的用户，本次请求内的查询都走主库
+     */
+    public void beginRequest(String userId, boolean write) {
+        if (replicas.isEmpty()) return;
+        if (userId != null) USER.set(userId);
+        Long until = userId != null ? stickyUntil.get(userId) : null;
+        if (write || (until != null && until > System.currentTimeMillis())) FORCE_PRIMARY.set(true);
+    }
+
+    public void endRequest(String userId, boolean write) {
+        FORCE_PRIMARY.remove();
+        USER.remove();
+    }
+
+    /**
+     * 在当前线程以某个用户的身份执行，期间主库上的写入提交后为该用户开启粘滞窗口
+     */
+    public void runAs(String userId, Runnable task) {
+        String previous = USER.get();
+        if (userId != null) USER.set(userId);
+        try {
+            task.run();
+        } finally {
+            if (previous != null) USER.set(previous); else USER.remove();
+        }
+    }
+
+    public <T> T callAs(String userId, Callable<T> task) throws Exception {
+        String previous = USER.get();
+        if (userId != null) USER.set(userId);
+        try {
+            return task.call();
+        } finally {
+            if (previous != null) USER.set(previous); else USER.remove();
+        }
+    }
+
+    /**
+     * 取主库连接时记下当前用户，连接上的写入提交后调用 committed
+     */
+    String currentUser() {
+        return USER.get();
+    }
+
+    void committed(String userId) {
+        if (userId != null && !replicas.isEmpty()) {
+            stickyUntil.put(userId, System.currentTimeMillis() + stickyMs);
+        }
+    }
+
+    // ==================== 延迟检查 ====================
+
+    @Scheduled(fixedDelayString = "${datasource.replica.check-interval-ms:5000}")
+    public void checkReplicas() {
+        long now = System.currentTimeMillis();
+        stickyUntil.values().removeIf(until -> until < now);
+
+        for (Replica r : replicas) {
+            try (Connection c = r.dataSource.getConnection(); Statement st = c.createStatement()) {
+                Long lag = replicationLag(st);
+                boolean ok = lag == null || lag <= maxLagSeconds;
+                if (ok != r.healthy) {
+                    System.out.println(">>> [DataSource] 从库 " + r.key + (ok ? " 恢复" : " 延迟 " + lag + " 秒，暂时摘除"));
+                }
+                r.lagSeconds = lag == null ? -1 : lag;
+                r.lastError = null;
+                r.healthy = ok;
+            } catch (Exception e) {
+                if (r.healthy) System.err.println(">>> [DataSource] 从库 " + r.key + " 检查失败，暂时摘除: " + e.getMessage());
+                r.healthy = false;
+                r.lastError = e.getMessage();
+            }
+        }
+    }
+
+    /**
+     * @return 复制延迟秒数；不是从库（如测试用的独立实例）时返回 null
+     * @throws SQLException 复制线程已停止
+     */
+    private static Long replicationLag(Statement st) throws SQLException {
+        try {
+            return replicationLag(st, "SHOW REPLICA STATUS", "Seconds_Behind_Source");
+        } catch (SQLSyntaxErrorException e) {
+            // MySQL 8.0.22 之前的写法
+            return replicationLag(st, "SHOW SLAVE STATUS", "Seconds_Behind_Master");
+        }
+    }
+
+    private static Long replicationLag(Statement st, String sql, String column) throws SQLException {
+        try (ResultSet rs = st.executeQuery(sql)) {
+            if (!rs.next()) return null;
+            Object lag = rs.getObject(column);
+            if (lag == null) throw new SQLException("复制已中断");
+            return ((Number) lag).longValue();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Replica r : replicas) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("key", r.key);
+            item.put("healthy", r.healthy);
+            item.put("lagSeconds", r.lagSeconds);
+            item.put("routed", r.routed.get());
+            item.put("lastError", r.lastError);
+            list.add(item);
+        }
+        data.put("replicas", list);
+        data.put("stickyReads", stickyReads.get());
+        data.put("fallbacks", fallbacks.get());
+        data.put("stickyUsers", stickyUntil.size());
+        return data;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (DataSource ds : pools) {
+            if (ds instanceof Closeable) ((Closeable) ds).close();
+        }
+    }
+}
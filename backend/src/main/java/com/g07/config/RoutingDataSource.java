@@ -0,0 +1,110 @@
+package com.g07.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 按当前事务是否只读选择主库或从库，外层需包一层 LazyConnectionDataSourceProxy，
+ * 保证取连接时事务的只读标记已经设置好。
+ * 主库连接会记录是否执行过写语句，提交（自动提交模式下为关闭连接）后通知 ReplicaRouter 为当前用户开启粘滞窗口
+ */
+public class RoutingDataSource extends AbstractRoutingDataSource {
+
+    private final ReplicaRouter router;
+
+    public RoutingDataSource(ReplicaRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return router.route(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+    }
+
+    /**
+     * 从库取连接失败时摘除该从库并改用主库，只读查询不因从库故障而失败
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        Object key = determineCurrentLookupKey();
+        DataSource target = getResolvedDataSources().get(key);
+        if (target == null || ReplicaRouter.PRIMARY.equals(key)) return primaryConnection();
+        try {
+            return target.getConnection();
+        } catch (SQLException e) {
+            router.markDown((String) key, e.getMessage());
+            return primaryConnection();
+        }
+    }
+
+    private Connection primaryConnection() throws SQLException {
+        Connection physical = getResolvedDefaultDataSource().getConnection();
+        String userId = router.currentUser();
+        if (userId == null) return physical;
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new WriteTracking(physical, userId));
+    }
+
+    /**
+     * 记录连接上是否执行过写语句，写入提交后才开启粘滞窗口，回滚的不算
+     */
+    private class WriteTracking implements InvocationHandler {
+        private final Connection target;
+        private final String userId;
+        private boolean written;
+
+        WriteTracking(Connection target, String userId) {
+            this.target = target;
+            this.userId = userId;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("unwrap".equals(name) && args[0] == Connection.class) return target;
+            boolean closing = "close".equals(name) && written && !target.isClosed() && target.getAutoCommit();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            switch (name) {
+                case "prepareStatement":
+                case "prepareCall":
+                    if (!isRead((String) args[0])) written = true;
+                    break;
+                case "createStatement":
+                    // 无法预知执行的语句，按写处理
+                    written = true;
+                    break;
+                case "commit":
+                    if (written) router.committed(userId);
+                    written = false;
+                    break;
+                case "rollback":
+                    if (args == null) written = false;
+                    break;
+                case "close":
+                    if (closing) router.committed(userId);
+                    break;
+                default:
+            }
+            return result;
+        }
+    }
+
+    private static boolean isRead(String sql) {
+        String s = sql.stripLeading();
+        return s.regionMatches(true, 0, "SELECT", 0, 6) || s.regionMatches(true, 0, "WITH", 0, 4)
+                || s.regionMatches(true, 0, "SHOW", 0, 4);
+    }
+}
@@ -0,0 +1,36 @@
+package com.g07.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+/**
+ * 按 X-Tenant-Id 把请求线程绑定到租户所在分片，请求结束后解除
+ */
+@Component
+public class ShardInterceptor implements AsyncHandlerInterceptor {
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        shardRouter.bind(request.getHeader("X-Tenant-Id"));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        shardRouter.clear();
+    }
+
+    /**
+     * 流式响应在其他线程继续执行，由业务代码自行绑定租户
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        shardRouter.clear();
+    }
+}
@@ -0,0 +1,250 @@
+package com.g07.config;
+
+import com.g07.entity.TenantShard;
+import com.g07.mapper.TenantShardMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 租户分片路由：租户的文档、切片、摘要、会话、问答记录和引用整体放在同一个分片上，
+ * 放在哪个分片由 0 号分片（主库）上的 tenant_shard 表决定，未登记的租户在 0 号分片。
+ * 请求线程由 ShardInterceptor 按 X-Tenant-Id 绑定，后台线程通过 run/call（按租户）或 runOnShard（按分片）绑定，
+ * ShardingDataSource 执行 SQL 时读取当前绑定决定连接哪个分片。
+ * 管理员可以操作其他企业的数据，这类接口不能按请求头路由，要先用 locate 找到目标行、再按行所属租户 withTenant。
+ * 分片表缓存在本节点，迁移时通过变更事件失效，另有 cache-ttl-ms 兜底。
+ */
+@Component
+public class ShardRouter {
+
+    public static final String ACTIVE = "active";
+    // 迁移中：数据照常读写，后台复制到目标分片
+    public static final String MOVING = "moving";
+    // 切换前的最后一轮复制：只读，写请求直接失败
+    public static final String FROZEN = "frozen";
+
+    /**
+     * 当前线程绑定的路由；tenantId 为空表示按分片直接绑定（后台任务遍历分片）
+     */
+    static class Route {
+        final String tenantId;
+        final int shard;
+        final boolean frozen;
+
+        Route(String tenantId, int shard, boolean frozen) {
+            this.tenantId = tenantId;
+            this.shard = shard;
+            this.frozen = frozen;
+        }
+    }
+
+    private static class Cached {
+        final int shard;
+        final String status;
+        final long loadedAt;
+
+        Cached(int shard, String status, long loadedAt) {
+            this.shard = shard;
+            this.status = status;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final ThreadLocal<Route> CURRENT = new ThreadLocal<>();
+
+    @Autowired
+    private TenantShardMapper tenantShardMapper;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${datasource.shards.cache-ttl-ms:30000}")
+    private long cacheTtlMs;
+
+    private final Map<String, Cached> shardMap = new ConcurrentHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    static Route current() {
+        return CURRENT.get();
+    }
+
+    public int shardCount() {
+        return dataSource instanceof ShardingDataSource ? ((ShardingDataSource) dataSource).shardCount() : 1;
+    }
+
+    public List<Integer> shardIds() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < shardCount(); i++) ids.add(i);
+        return ids;
+    }
+
+    /**
+     * 分片的物理数据源，迁移工具直接用 JDBC 读写；0 号分片即原有数据源（含读写分离）
+     */
+    public DataSource shardDataSource(int shard) {
+        return dataSource instanceof ShardingDataSource ? ((ShardingDataSource) dataSource).shard(shard) : dataSource;
+    }
+
+    public long cacheTtlMs() {
+        return cacheTtlMs;
+    }
+
+    public int shardOf(String tenantId) {
+        return lookup(tenantId).shard;
+    }
+
+    public String statusOf(String tenantId) {
+        return lookup(tenantId).status;
+    }
+
+    private Cached lookup(String tenantId) {
+        lookups.incrementAndGet();
+        if (tenantId == null || shardCount() == 1) return new Cached(0, ACTIVE, 0);
+        long now = System.currentTimeMillis();
+        Cached c = shardMap.get(tenantId);
+        if (c != null && now - c.loadedAt < cacheTtlMs) return c;
+
+        loads.incrementAndGet();
+        // tenant_shard 不是租户表，无论当前绑定如何都查 0 号分片
+        TenantShard ts = tenantShardMapper.selectById(tenantId);
+        c = ts == null ? new Cached(0, ACTIVE, now) : new Cached(ts.getShardId(), ts.getStatus(), now);
+        if (c.shard < 0 || c.shard >= shardCount()) {
+            System.err.println(">>> [Shard] 租户 " + tenantId + " 登记的分片 " + c.shard + " 不存在，回退到 0 号分片");
+            c = new Cached(0, c.status, now);
+        }
+        shardMap.put(tenantId, c);
+        return c;
+    }
+
+    public void evict(String tenantId) {
+        if (tenantId == null) {
+            shardMap.clear();
+        } else {
+            shardMap.remove(tenantId);
+        }
+    }
+
+    // ==================== 绑定 ====================
+
+    /**
+     * 请求开始时由拦截器调用
+     */
+    public void bind(String tenantId) {
+        if (tenantId == null || tenantId.isEmpty()) {
+            CURRENT.remove();
+            return;
+        }
+        Cached c = lookup(tenantId);
+        CURRENT.set(new Route(tenantId, c.shard, FROZEN.equals(c.status)));
+    }
+
+    public void clear() {
+        CURRENT.remove();
+    }
+
+    public void run(String tenantId, Runnable task) {
+        Route saved = CURRENT.get();
+        bind(tenantId);
+        try {
+            task.run();
+        } finally {
+            restore(saved);
+        }
+    }
+
+    public <T> T call(String tenantId, Callable<T> task) throws Exception {
+        Route saved = CURRENT.get();
+        bind(tenantId);
+        try {
+            return task.call();
+        } finally {
+            restore(saved);
+        }
+    }
+
+    /**
+     * 与 call 相同，任务不抛受检异常时使用
+     */
+    public <T> T withTenant(String tenantId, Supplier<T> task) {
+        Route saved = CURRENT.get();
+        bind(tenantId);
+        try {
+            return task.get();
+        } finally {
+            restore(saved);
+        }
+    }
+
+    /**
+     * 目标行所在的租户事先不知道时使用：先在当前绑定的分片上查，找不到再依次查其余分片
+     * @return 第一个不为空的结果，都没有时返回 null
+     */
+    public <T> T locate(Supplier<T> lookup) {
+        if (shardCount() == 1) return lookup.get();
+        Route saved = CURRENT.get();
+        List<Integer> order = shardIds();
+        if (saved != null) {
+            order.remove(Integer.valueOf(saved.shard));
+            order.add(0, saved.shard);
+        }
+        try {
+            for (int shard : order) {
+                CURRENT.set(new Route(null, shard, false));
+                T found = lookup.get();
+                if (found != null) return found;
+            }
+            return null;
+        } finally {
+            restore(saved);
+        }
+    }
+
+    /**
+     * 后台任务按分片遍历时使用：本线程访问租户数据的 SQL 都发往指定分片
+     */
+    public <T> T callOnShard(int shard, Callable<T> task) throws Exception {
+        Route saved = CURRENT.get();
+        CURRENT.set(new Route(null, shard, false));
+        try {
+            return task.call();
+        } finally {
+            restore(saved);
+        }
+    }
+
+    public void runOnShard(int shard, Runnable task) {
+        Route saved = CURRENT.get();
+        CURRENT.set(new Route(null, shard, false));
+        try {
+            task.run();
+        } finally {
+            restore(saved);
+        }
+    }
+
+    private static void restore(Route saved) {
+        if (saved == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(saved);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("shards", shardCount());
+        data.put("cachedTenants", shardMap.size());
+        data.put("lookups", lookups.get());
+        data.put("loads", loads.get());
+        if (dataSource instanceof ShardingDataSource) data.putAll(((ShardingDataSource) dataSource).stats());
+        return data;
+    }
+}
@@ -0,0 +1,302 @@
+package com.g07.config;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * 按租户分片的数据源：返回的是逻辑连接，每条 SQL 在 prepareStatement 时按涉及的表决定发往哪个分片，
+ * Mapper 不需要任何改动。
+ * - 涉及租户表（document / knowledge_chunk / document_summary / chat_session / qa_record / citation_mapping）的 SQL
+ *   发往当前线程绑定的分片；其余表（用户、租户、文件夹、审计、变更事件等）只在 0 号分片；
+ * - 物理连接按需打开，autoCommit / 只读 / 隔离级别记录在逻辑连接上，新打开的物理连接补齐同样的设置；
+ * - 提交和回滚依次作用于本事务打开过的所有物理连接。跨分片的事务不是两阶段提交，
+ *   常见的组合是租户表 + change_event，先提交租户分片再提交 0 号分片，前面的提交失败时其余连接全部回滚；
+ * - 租户是否冻结在绑定时就确定了，长请求可能跨过冻结时刻：写过租户表的事务提交前在 0 号分片上
+ *   锁住 tenant_shard 中该租户的行并重新检查，已冻结或已切换分片则整个事务回滚。
+ *   搬迁改状态时要等这把锁，所以冻结生效后不会再有写入提交到源分片；自动提交的写入在执行前检查。
+ */
+public class ShardingDataSource extends AbstractDataSource {
+
+    private static final Pattern TENANT_TABLES = Pattern.compile(
+            "\\b(?:FROM|JOIN|INTO|UPDATE)\\s+`?(?:document|knowledge_chunk|document_summary|chat_session|qa_record|citation_mapping)(?![\\w])",
+            Pattern.CASE_INSENSITIVE);
+
+    private final List<DataSource> shards;
+    private final AtomicLongArray routed;
+    private final AtomicLong unbound = new AtomicLong();
+    private final AtomicLong rejectedWrites = new AtomicLong();
+    private final AtomicLong multiShardCommits = new AtomicLong();
+    private final AtomicLong failedCommits = new AtomicLong();
+
+    public ShardingDataSource(List<DataSource> shards) {
+        this.shards = new ArrayList<>(shards);
+        this.routed = new AtomicLongArray(shards.size());
+    }
+
+    int shardCount() {
+        return shards.size();
+    }
+
+    DataSource shard(int shard) {
+        return shards.get(shard);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new LogicalConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("分片数据源不支持指定用户名取连接");
+    }
+
+    private static SQLException frozen() {
+        return new SQLException("租户正在迁移分片，暂时只读，请稍后重试");
+    }
+
+    private static boolean isRead(String sql) {
+        String s = sql.stripLeading();
+        return s.regionMatches(true, 0, "SELECT", 0, 6) || s.regionMatches(true, 0, "WITH", 0, 4);
+    }
+
+    private class LogicalConnection implements InvocationHandler {
+
+        private final Connection[] open = new Connection[shards.size()];
+        // 本事务写过的租户 -> 绑定时的分片，提交前重新检查
+        private final Map<String, Integer> written = new HashMap<>();
+        private boolean autoCommit = true;
+        private Boolean readOnly;
+        private Integer isolation;
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                case "prepareCall":
+                    return call(physical(route((String) args[0])), method, args);
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    forEachOpen(c -> c.setAutoCommit(autoCommit));
+                    return null;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setReadOnly":
+                    readOnly = (Boolean) args[0];
+                    forEachOpen(c -> c.setReadOnly(readOnly));
+                    return null;
+                case "isReadOnly":
+                    return Boolean.TRUE.equals(readOnly);
+                case "setTransactionIsolation":
+                    isolation = (Integer) args[0];
+                    forEachOpen(c -> c.setTransactionIsolation(isolation));
+                    return null;
+                case "commit":
+                    commit();
+                    return null;
+                case "rollback":
+                    if (args == null || args.length == 0) {
+                        written.clear();
+                        completeAll(Connection::rollback);
+                        return null;
+                    }
+                    return call(physical(0), method, args);
+                case "close":
+                    if (closed) return null;
+                    closed = true;
+                    completeAll(Connection::close);
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ShardingConnection" + Arrays.toString(open);
+                default:
+                    // createStatement、getMetaData 等无法按 SQL 路由的调用交给 0 号分片
+                    return call(physical(0), method, args);
+            }
+        }
+
+        /**
+         * @return SQL 应发往的分片
+         */
+        private int route(String sql) throws SQLException {
+            if (!TENANT_TABLES.matcher(sql).find()) return 0;
+            ShardRouter.Route r = ShardRouter.current();
+            if (r == null) {
+                // 没有绑定租户的后台线程，只能看到 0 号分片上的租户
+                unbound.incrementAndGet();
+                return 0;
+            }
+            if (!isRead(sql)) {
+                if (r.frozen) {
+                    rejectedWrites.incrementAndGet();
+                    throw frozen();
+                }
+                // 按分片绑定的后台任务不属于某个租户，不参与搬迁检查
+                if (r.tenantId != null && shards.size() > 1) {
+                    if (autoCommit) {
+                        verify(r.tenantId, r.shard, false);
+                    } else {
+                        written.put(r.tenantId, r.shard);
+                    }
+                }
+            }
+            routed.incrementAndGet(r.shard);
+            return r.shard;
+        }
+
+        /**
+         * 在 0 号分片上读取租户当前所在分片，与绑定时不一致或已冻结则拒绝写入
+         * @param lock 事务内加行锁直到 0 号分片提交，搬迁改状态要等本事务结束
+         */
+        private void verify(String tenantId, int shard, boolean lock) throws SQLException {
+            int current = 0;
+            String status = ShardRouter.ACTIVE;
+            try (PreparedStatement ps = physical(0).prepareStatement(
+                    "SELECT shard_id, status FROM tenant_shard WHERE tenant_id = ?" + (lock ? " FOR UPDATE" : ""))) {
+                ps.setString(1, tenantId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        current = rs.getInt(1);
+                        status = rs.getString(2);
+                    }
+                }
+            }
+            // 与 ShardRouter 一致：登记的分片不存在时按 0 号分片处理
+            if (current < 0 || current >= shards.size()) current = 0;
+            if (current != shard || ShardRouter.FROZEN.equals(status)) {
+                rejectedWrites.incrementAndGet();
+                throw frozen();
+            }
+        }
+
+        /**
+         * 先检查写过的租户仍可写，再从编号最大的分片往下提交（0 号分片最后，其上的 change_event
+         * 只在租户数据已提交后才对其他节点可见）；某个分片提交失败时其余尚未提交的连接全部回滚
+         */
+        private void commit() throws SQLException {
+            if (countOpen() > 1) multiShardCommits.incrementAndGet();
+            try {
+                for (Map.Entry<String, Integer> e : written.entrySet()) verify(e.getKey(), e.getValue(), true);
+            } catch (SQLException e) {
+                rollbackFrom(open.length - 1, e);
+                throw e;
+            } finally {
+                written.clear();
+            }
+            for (int i = open.length - 1; i >= 0; i--) {
+                if (open[i] == null) continue;
+                try {
+                    open[i].commit();
+                } catch (SQLException e) {
+                    failedCommits.incrementAndGet();
+                    rollbackFrom(i, e);
+                    throw e;
+                }
+            }
+        }
+
+        private void rollbackFrom(int from, SQLException cause) {
+            for (int i = from; i >= 0; i--) {
+                if (open[i] == null) continue;
+                try {
+                    open[i].rollback();
+                } catch (SQLException e) {
+                    cause.addSuppressed(e);
+                }
+            }
+        }
+
+        private Connection physical(int shard) throws SQLException {
+            if (closed) throw new SQLException("连接已关闭");
+            Connection c = open[shard];
+            if (c == null) {
+                c = shards.get(shard).getConnection();
+                try {
+                    if (readOnly != null) c.setReadOnly(readOnly);
+                    if (isolation != null) c.setTransactionIsolation(isolation);
+                    if (c.getAutoCommit() != autoCommit) c.setAutoCommit(autoCommit);
+                } catch (SQLException e) {
+                    c.close();
+                    throw e;
+                }
+                open[shard] = c;
+            }
+            return c;
+        }
+
+        private int countOpen() {
+            int n = 0;
+            for (Connection c : open) {
+                if (c != null) n++;
+            }
+            return n;
+        }
+
+        private void forEachOpen(ConnectionAction action) throws SQLException {
+            for (Connection c : open) {
+                if (c != null) action.apply(c);
+            }
+        }
+
+        /**
+         * 回滚和关闭：依次作用于所有已打开的连接（0 号分片最后），某个失败不影响其余的，最后抛出第一个异常
+         */
+        private void completeAll(ConnectionAction action) throws SQLException {
+            SQLException first = null;
+            for (int i = open.length - 1; i >= 0; i--) {
+                if (open[i] == null) continue;
+                try {
+                    action.apply(open[i]);
+                } catch (SQLException e) {
+                    if (first == null) first = e;
+                }
+            }
+            if (first != null) throw first;
+        }
+
+        private Object call(Connection target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ConnectionAction {
+        void apply(Connection c) throws SQLException;
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        List<Long> perShard = new ArrayList<>();
+        for (int i = 0; i < routed.length(); i++) perShard.add(routed.get(i));
+        data.put("routed", perShard);
+        data.put("unbound", unbound.get());
+        data.put("rejectedWrites", rejectedWrites.get());
+        data.put("multiShardCommits", multiShardCommits.get());
+        data.put("failedCommits", failedCommits.get());
+        return data;
+    }
+}
@@ -11,11 +11,27 @@ public class WebConfig implements WebMvcConfigurer {
     @Autowired
     private LoginInterceptor loginInterceptor;
 
+    @Autowired
+    private ReadRoutingInterceptor readRoutingInterceptor;
+
+    @Autowired
+    private ShardInterceptor shardInterceptor;
+
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(loginInterceptor)
                 .addPathPatterns("/**")             // 拦截所有 API
                 .excludePathPatterns("/auth/**")    // 放行登录和注册接口
                 .excludePathPatterns("/error");      // 放行系统错误页
+        // /chat/batch 按问题数扣令牌，要先读请求体，在 ChatController 中限流
+        registry.addInterceptor(rateLimitInterceptor)
+                .addPathPatterns("/chat/completions", "/docs/upload", "/docs/multipart/initiate", "/docs/import/**");
+        registry.addInterceptor(readRoutingInterceptor)
+                .addPathPatterns("/**");
+        registry.addInterceptor(shardInterceptor)
+                .addPathPatterns("/**");
     }
 }
\ No newline at end of file
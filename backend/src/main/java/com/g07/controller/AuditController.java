@@ -5,6 +5,7 @@ import com.g07.entity.AuditLog;
 import com.g07.mapper.AuditLogMapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import java.util.List;
 
@@ -20,6 +21,7 @@ public class AuditController {
      * 获取所有日志
      */
     @GetMapping("/logs")
+    @Transactional(readOnly = true)
     public R<List<AuditLog>> getAllLogs() {
         QueryWrapper<AuditLog> query = new QueryWrapper<>();
         query.orderByDesc("timestamp"); // 按时间倒序
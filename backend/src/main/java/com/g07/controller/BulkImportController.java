@@ -0,0 +1,133 @@
+package com.g07.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.g07.common.R;
+import com.g07.config.ReplicaRouter;
+import com.g07.config.ShardRouter;
+import com.g07.entity.User;
+import com.g07.mapper.UserMapper;
+import com.g07.service.AuditService;
+import com.g07.service.BulkImportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 批量导入
+ * POST /docs/import/archive   上传 zip / tar / tar.gz 压缩包
+ * POST /docs/import/prefix    导入 MinIO 暂存目录 _import/{tenantId}/{prefix} 下的文件（超过上传大小限制的语料用这种方式）
+ * 响应为 NDJSON（application/x-ndjson），每处理完一个文件输出一行进度，最后一行 type=done 为汇总
+ */
+@RestController
+@RequestMapping("/docs/import")
+@CrossOrigin
+public class BulkImportController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private AuditService auditService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ReplicaRouter replicaRouter;
+
+    private interface ImportTask {
+        Map<String, Object> run(Consumer<Map<String, Object>> progress) throws Exception;
+    }
+
+    @PostMapping("/archive")
+    public ResponseEntity<?> importArchive(@RequestParam("file") MultipartFile file,
+                                           @RequestHeader("X-Tenant-Id") String tenantId,
+                                           @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return ResponseEntity.ok(R.error("权限不足"));
+        }
+        if (file.isEmpty()) return ResponseEntity.ok(R.error("文件不能为空"));
+
+        String archiveName = file.getOriginalFilename() != null ? file.getOriginalFilename() : "import.zip";
+        Path tmp;
+        try {
+            // 响应是异步写出的，请求结束后 multipart 临时文件会被清理，先转存一份
+            tmp = Files.createTempFile("g07-import-", null);
+            file.transferTo(tmp);
+        } catch (Exception e) {
+            return ResponseEntity.ok(R.error("导入失败: " + e.getMessage()));
+        }
+
+        return stream(u, tenantId, "导入压缩包: " + archiveName, progress -> {
+            try (InputStream in = Files.newInputStream(tmp)) {
+                return bulkImportService.importArchive(tenantId, userId, archiveName, in, progress);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        });
+    }
+
+    @PostMapping("/prefix")
+    public ResponseEntity<?> importPrefix(@RequestBody Map<String, String> body,
+                                          @RequestHeader("X-Tenant-Id") String tenantId,
+                                          @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return ResponseEntity.ok(R.error("权限不足"));
+        }
+        String prefix = body.get("prefix");
+        return stream(u, tenantId, "导入暂存目录: " + (prefix == null ? "/" : prefix),
+                progress -> bulkImportService.importPrefix(tenantId, userId, prefix, progress));
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(User u, String tenantId, String detail, ImportTask task) {
+        StreamingResponseBody body = out -> {
+            Map<String, Object> summary;
+            try {
+                // 响应体在异步线程中写出，请求线程上的分片绑定已经解除
+                summary = shardRouter.call(tenantId, () -> replicaRouter.callAs(u.getUserId(), () -> task.run(event -> writeLine(out, event))));
+                auditService.record(u.getTenantId(), u.getUserId(), u.getUsername(), "IMPORT", detail, null,
+                        "成功 " + summary.get("succeeded") + "，失败 " + summary.get("failed") + "，跳过 " + summary.get("skipped"));
+            } catch (Exception e) {
+                e.printStackTrace();
+                summary = new LinkedHashMap<>();
+                summary.put("type", "error");
+                summary.put("error", e.getMessage());
+            }
+            writeLine(out, summary);
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    private void writeLine(OutputStream out, Map<String, Object> event) {
+        try {
+            out.write(objectMapper.writeValueAsString(event).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+            out.flush();
+        } catch (Exception e) {
+            // 客户端断开不影响导入本身继续完成
+            System.err.println(">>> [Import] 写出进度失败: " + e.getMessage());
+        }
+    }
+}
@@ -1,11 +1,27 @@
 package com.g07.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.g07.common.R;
+import com.g07.config.ReplicaRouter;
+import com.g07.config.ShardRouter;
 import com.g07.entity.QaRecord;
+import com.g07.service.AnswerCacheService;
+import com.g07.service.BatchChatService;
 import com.g07.service.ChatService;
+import com.g07.service.LlmUsageService;
+import com.g07.service.RateLimitService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,9 +30,32 @@ import java.util.Map;
 @CrossOrigin
 public class ChatController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     @Autowired
     private ChatService chatService;
 
+    @Autowired
+    private BatchChatService batchChatService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ReplicaRouter replicaRouter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${chat.batch.max-questions:500}")
+    private int maxBatchQuestions;
+
+    @Autowired
+    private AnswerCacheService answerCacheService;
+
+    @Autowired
+    private RateLimitService rateLimitService;
+
     /**
      * 智能问答接口
      * POST /chat/completions
@@ -36,12 +75,86 @@ public class ChatController {
             // 调用 Service 获取 AI 回答
             Map<String, Object> result = chatService.chat(userId, tenantId, sessionId, question);
             return R.ok(result);
+        } catch (LlmUsageService.QuotaExceededException e) {
+            return R.error(e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             return R.error("AI 服务暂时不可用: " + e.getMessage());
         }
     }
 
+    /**
+     * 批量问答：整批问题写入同一个新会话，并行回答
+     * POST /chat/batch  {"questions": ["...", "..."], "title": "可选", "concurrency": 8}
+     * 响应为 NDJSON（application/x-ndjson），每完成一个问题输出一行（按完成顺序，index 为问题序号），
+     * 最后一行 type=done 为汇总。
+     * 限流按问题数扣令牌（每个问题一个，与逐个调用 /chat/completions 相同），令牌不够时整批拒绝
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> batch(@RequestBody Map<String, Object> body,
+                                   @RequestHeader("X-User-Id") String userId,
+                                   @RequestHeader("X-Tenant-Id") String tenantId) {
+        if (!(body.get("questions") instanceof List)) return ResponseEntity.ok(R.error("问题列表不能为空"));
+        List<String> questions = new ArrayList<>();
+        for (Object q : (List<?>) body.get("questions")) {
+            if (q == null || q.toString().trim().isEmpty()) return ResponseEntity.ok(R.error("问题不能为空"));
+            questions.add(q.toString().trim());
+        }
+        if (questions.isEmpty()) return ResponseEntity.ok(R.error("问题列表不能为空"));
+        if (questions.size() > maxBatchQuestions) {
+            return ResponseEntity.ok(R.error("单批最多 " + maxBatchQuestions + " 个问题"));
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (rateLimitService.isEnabled()) {
+            RateLimitService.Decision d = rateLimitService.acquire(RateLimitService.CHAT, userId, tenantId, questions.size());
+            if (d != null) {
+                headers.set("RateLimit-Limit", String.valueOf(d.getLimit()));
+                headers.set("RateLimit-Remaining", String.valueOf(d.getRemaining()));
+                headers.set("RateLimit-Reset", String.valueOf(d.getResetSeconds()));
+                if (!d.isAllowed()) {
+                    headers.set("Retry-After", String.valueOf(d.getRetryAfterSeconds()));
+                    R<Object> r = R.error("请求过于频繁，本批 " + questions.size() + " 个问题请 " + d.getRetryAfterSeconds() + " 秒后再试");
+                    r.setCode(429);
+                    return ResponseEntity.status(429).headers(headers).body(r);
+                }
+            }
+        }
+        String title = body.get("title") != null ? body.get("title").toString() : "批量问答: " + questions.get(0);
+        int concurrency = body.get("concurrency") instanceof Number ? ((Number) body.get("concurrency")).intValue() : Integer.MAX_VALUE;
+
+        StreamingResponseBody stream = out -> {
+            Map<String, Object> summary;
+            try {
+                // 响应体在异步线程中写出，请求线程上的分片绑定已经解除
+                summary = shardRouter.call(tenantId, () -> replicaRouter.callAs(userId, () -> batchChatService.run(userId,
+                        tenantId, title, questions, concurrency, lines -> writeLines(out, lines))));
+            } catch (Exception e) {
+                e.printStackTrace();
+                summary = new LinkedHashMap<>();
+                summary.put("type", "error");
+                summary.put("error", e.getMessage());
+            }
+            writeLines(out, List.of(summary));
+        };
+        return ResponseEntity.ok().headers(headers).contentType(NDJSON).body(stream);
+    }
+
+    /**
+     * 一组结果写完后只 flush 一次
+     */
+    private void writeLines(OutputStream out, List<Map<String, Object>> lines) {
+        try {
+            for (Map<String, Object> line : lines) {
+                out.write(objectMapper.writeValueAsString(line).getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+            out.flush();
+        } catch (Exception e) {
+            // 客户端断开不影响整批继续完成，结果仍写入问答记录
+            System.err.println(">>> [BatchChat] 写出结果失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 获取会话历史记录
      * GET /chat/history?sessionId=xxx
@@ -50,4 +163,13 @@ public class ChatController {
     public R<List<QaRecord>> history(@RequestParam String sessionId) {
         return R.ok(chatService.getHistory(sessionId));
     }
+
+    /**
+     * 问答缓存统计（命中率、节省的 Token）
+     * GET /chat/cache/stats
+     */
+    @GetMapping("/cache/stats")
+    public R<Map<String, Object>> cacheStats(@RequestHeader("X-Tenant-Id") String tenantId) {
+        return R.ok(answerCacheService.stats(tenantId));
+    }
 }
\ No newline at end of file
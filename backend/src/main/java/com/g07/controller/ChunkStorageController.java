@@ -0,0 +1,67 @@
+package com.g07.controller;
+
+import com.g07.common.R;
+import com.g07.entity.User;
+import com.g07.mapper.UserMapper;
+import com.g07.service.AuditService;
+import com.g07.service.ChunkStorageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 切片存储格式管理（仅管理员）
+ * POST /admin/chunks/dictionary   为本租户重新训练压缩字典
+ * POST /admin/chunks/migrate      {"mode": "compress" | "decompress"} 后台转换本租户已有切片
+ * GET  /admin/chunks/stats        迁移进度与压缩前后字节数
+ */
+@RestController
+@RequestMapping("/admin/chunks")
+@CrossOrigin
+public class ChunkStorageController {
+
+    @Autowired
+    private ChunkStorageService chunkStorageService;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private AuditService auditService;
+
+    @PostMapping("/dictionary")
+    public R<Integer> train(@RequestHeader("X-Tenant-Id") String tenantId,
+                            @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || !"admin".equals(u.getRole())) return R.error("权限不足");
+
+        int dictId = chunkStorageService.train(tenantId);
+        if (dictId == 0) return R.error("切片数量不足，无法训练字典");
+        auditService.record(tenantId, userId, u.getUsername(), "CHUNK_DICT", "训练压缩字典", null, "字典 " + dictId);
+        return R.ok(dictId);
+    }
+
+    @PostMapping("/migrate")
+    public R<String> migrate(@RequestBody Map<String, String> body,
+                             @RequestHeader("X-Tenant-Id") String tenantId,
+                             @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || !"admin".equals(u.getRole())) return R.error("权限不足");
+
+        String mode = body.getOrDefault("mode", "compress");
+        if (!"compress".equals(mode) && !"decompress".equals(mode)) return R.error("参数错误");
+        if (!chunkStorageService.migrate(tenantId, "compress".equals(mode))) {
+            return R.error("已有迁移任务在运行");
+        }
+        auditService.record(tenantId, userId, u.getUsername(), "CHUNK_MIGRATE", "切片存储迁移", null, mode);
+        return R.ok("迁移已开始");
+    }
+
+    @GetMapping("/stats")
+    public R<Map<String, Object>> stats(@RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || !"admin".equals(u.getRole())) return R.error("权限不足");
+        return R.ok(chunkStorageService.stats());
+    }
+}
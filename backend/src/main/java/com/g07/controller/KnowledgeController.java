@@ -2,35 +2,48 @@ package com.g07.controller;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.g07.common.R;
-import com.g07.entity.AuditLog;
+import com.g07.config.ShardRouter;
 import com.g07.entity.Category;
 import com.g07.entity.Document;
 import com.g07.entity.KnowledgeChunk;
 import com.g07.entity.User;
-import com.g07.mapper.AuditLogMapper;
 import com.g07.mapper.CategoryMapper;
 import com.g07.mapper.DocumentMapper;
 import com.g07.mapper.KnowledgeChunkMapper;
 import com.g07.mapper.UserMapper;
-import com.g07.service.FileService;
-import io.minio.GetPresignedObjectUrlArgs;
+import com.g07.service.AnswerCacheService;
+import com.g07.service.AuditService;
+import com.g07.service.CategoryCacheService;
+import com.g07.service.ChunkSegmentService;
+import com.g07.service.ClusterEventService;
+import com.g07.service.DocumentBulkService;
+import com.g07.service.DocumentIndexService;
+import com.g07.service.DocumentUrlService;
+import com.g07.service.IngestService;
+import com.g07.service.PageStoreService;
+import com.g07.service.PopularityService;
+import com.g07.utils.TxUtils;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
-import io.minio.http.Method;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/docs")
@@ -50,46 +63,73 @@ public class KnowledgeController {
     private UserMapper userMapper;
 
     @Autowired
-    private AuditLogMapper auditLogMapper;
+    private KnowledgeChunkMapper chunkMapper;
 
     @Autowired
-    private KnowledgeChunkMapper chunkMapper;
+    private IngestService ingestService;
+
+    @Autowired
+    private AnswerCacheService answerCacheService;
+
+    @Autowired
+    private DocumentIndexService documentIndexService;
+
+    @Autowired
+    private DocumentUrlService documentUrlService;
+
+    @Autowired
+    private AuditService auditService;
+
+    @Autowired
+    private CategoryCacheService categoryCacheService;
+
+    @Autowired
+    private DocumentBulkService documentBulkService;
+
+    @Autowired
+    private PageStoreService pageStoreService;
+
+    @Autowired
+    private ChunkSegmentService chunkSegmentService;
+
+    @Autowired
+    private ClusterEventService clusterEventService;
+
+    @Autowired
+    private ShardRouter shardRouter;
 
     @Autowired
-    private FileService fileService;
+    private PopularityService popularityService;
 
     @Value("${minio.bucketName}")
     private String bucketName;
 
     private void recordLog(String tenantId, String userId, String username, String type, String target, String resourceId, String detail) {
-        try {
-            AuditLog log = new AuditLog();
-            log.setTenantId(tenantId != null ? tenantId : "unknown_tenant");
-            log.setUserId(userId != null ? userId : "unknown_user");
-            log.setUsername(username != null ? username : "unknown"); 
-            log.setOperationType(type);
-            
-            if (target != null && target.length() > 255) target = target.substring(0, 250) + "...";
-            log.setTargetResource(target);
-            log.setResourceId(resourceId);
-            
-            log.setOperationDetail(detail);
-            log.setTimestamp(LocalDateTime.now());
-            log.setStatus("SUCCESS");
-            
-            auditLogMapper.insert(log);
-        } catch (Exception e) {
-            System.err.println(">>> 审计日志写入异常: " + e.getMessage());
-            e.printStackTrace(); 
-        }
+        auditService.record(tenantId, userId, username, type, target, resourceId, detail);
+    }
+
+    /**
+     * 文件夹里的文档在文件夹所属企业的分片上；管理员能看到所有企业的文件夹，不能按请求头的企业路由
+     */
+    private <T> T onCategoryShard(String categoryId, Supplier<T> query) {
+        if (shardRouter.shardCount() == 1) return query.get();
+        Category c = categoryMapper.selectById(categoryId);
+        if (c == null) return query.get();
+        return shardRouter.withTenant(c.getTenantId(), query);
     }
 
     // ==================== 文件夹 (Category) 管理 ====================
 
     @PostMapping("/category/add")
+    @Transactional(rollbackFor = Exception.class)
     public R<String> addCategory(@RequestBody Map<String, String> body, 
                                  @RequestHeader("X-Tenant-Id") String tenantId,
                                  @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+
         String name = body.get("name");
         if (name == null || name.trim().isEmpty()) return R.error("文件夹名称不能为空");
 
@@ -102,13 +142,10 @@ public class KnowledgeController {
         cat.setCreateTime(LocalDateTime.now());
 
         categoryMapper.insert(cat);
+        clusterEventService.publish(tenantId, ClusterEventService.CATEGORY, null, null);
+        TxUtils.afterCommit("新建文件夹", () -> categoryCacheService.invalidate(tenantId));
 
-        User u = userMapper.selectById(userId);
-        if (u == null || "viewer".equals(u.getRole())) {
-            return R.error("权限不足");
-        }
-        String username = (u != null) ? u.getUsername() : "unknown";
-        recordLog(tenantId, userId, username, "CREATE_FOLDER", name, catId, "新建知识库文件夹");
+        recordLog(tenantId, userId, u.getUsername(), "CREATE_FOLDER", name, catId, "新建知识库文件夹");
 
         return R.ok("知识库文件夹创建成功");
     }
@@ -121,18 +158,16 @@ public class KnowledgeController {
 
         List<Category> list;
         if ("admin".equals(user.getRole())) {
-            list = categoryMapper.selectAllWithTenantName();
+            list = categoryCacheService.listAll();
         } else {
-            QueryWrapper<Category> query = new QueryWrapper<>();
-            query.eq("tenant_id", tenantId);
-            // 【修改】优先按 sort_order 升序，其次按时间
-            query.orderByAsc("sort_order").orderByDesc("create_time");
-            list = categoryMapper.selectList(query);
+            // 按租户缓存，排序规则见 CategoryCacheService
+            list = categoryCacheService.listByTenant(tenantId);
         }
         return R.ok(list);
     }
 
     @PostMapping("/category/rename")
+    @Transactional(rollbackFor = Exception.class)
     public R<String> renameCategory(@RequestBody Map<String, String> body,
                                     @RequestHeader("X-User-Id") String userId) {
         // 权限校验
@@ -151,6 +186,8 @@ public class KnowledgeController {
 
         cat.setName(newName);
         categoryMapper.updateById(cat);
+        clusterEventService.publish(cat.getTenantId(), ClusterEventService.CATEGORY, null, null);
+        TxUtils.afterCommit("重命名文件夹", () -> categoryCacheService.invalidate(cat.getTenantId()));
         
         // 记录简单的审计日志(复用你之前的 recordLog 逻辑，此处简略)
         // recordLog(..., "RENAME_FOLDER", newName, ...);
@@ -159,8 +196,10 @@ public class KnowledgeController {
     }
 
     @PostMapping("/category/reorder")
+    @Transactional(rollbackFor = Exception.class)
     public R<String> reorderCategories(@RequestBody List<String> sortedIds,
-                                       @RequestHeader("X-User-Id") String userId) {
+                                       @RequestHeader("X-User-Id") String userId,
+                                       @RequestHeader("X-Tenant-Id") String tenantId) {
         // 权限校验
         User u = userMapper.selectById(userId);
         if (u == null || "viewer".equals(u.getRole())) {
@@ -169,21 +208,23 @@ public class KnowledgeController {
 
         if (sortedIds == null || sortedIds.isEmpty()) return R.ok("无变化");
 
-        // 简单的循环更新（数量不大时性能可接受）
-        for (int i = 0; i < sortedIds.size(); i++) {
-            String catId = sortedIds.get(i);
-            Category cat = new Category();
-            cat.setId(catId);
-            cat.setSortOrder(i); // 索引即权重，0, 1, 2...
-            categoryMapper.updateById(cat);
-        }
+        // 一条 UPDATE ... CASE 完成排序，索引即权重，0, 1, 2...；其他企业的 ID 不会被改到
+        categoryMapper.updateSortOrder(tenantId, sortedIds);
+        clusterEventService.publish(tenantId, ClusterEventService.CATEGORY, null, null);
+        TxUtils.afterCommit("文件夹排序", () -> categoryCacheService.invalidate(tenantId));
 
         return R.ok("顺序已保存");
     }
 
     @DeleteMapping("/category/{id}")
+    @Transactional(rollbackFor = Exception.class)
     public R<String> deleteCategory(@PathVariable String id,
                                     @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+
         Long count = documentMapper.selectCount(new QueryWrapper<Document>().eq("category_id", id));
         if (count > 0) return R.error("文件夹内尚有文件，无法删除");
 
@@ -191,15 +232,10 @@ public class KnowledgeController {
         if (cat == null) return R.error("文件夹不存在");
 
         categoryMapper.deleteById(id);
+        clusterEventService.publish(cat.getTenantId(), ClusterEventService.CATEGORY, null, null);
+        TxUtils.afterCommit("删除文件夹", () -> categoryCacheService.invalidate(cat.getTenantId()));
 
-        User u = userMapper.selectById(userId);
-        if (u == null || "viewer".equals(u.getRole())) {
-            return R.error("权限不足");
-        }
-        String username = (u != null) ? u.getUsername() : "unknown";
-        String tenantId = cat.getTenantId();
-        
-        recordLog(tenantId, userId, username, "DELETE_FOLDER", cat.getName(), id, "删除文件夹");
+        recordLog(cat.getTenantId(), userId, u.getUsername(), "DELETE_FOLDER", cat.getName(), id, "删除文件夹");
 
         return R.ok("文件夹已删除");
     }
@@ -253,49 +289,12 @@ public class KnowledgeController {
             doc.setFilePath(objectName);
             doc.setFileType(fileType);
             doc.setFileSize(file.getSize());
-            doc.setStatus("completed");
+            doc.setStatus("processing");
             doc.setUploadTime(LocalDateTime.now());
-            documentMapper.insert(doc);
-
-            // ================== 文件内容解析与入库逻辑 ==================
-            String lowerType = fileType.toLowerCase();
-            if (lowerType.equals("pdf") || lowerType.equals("doc") || lowerType.equals("docx") || lowerType.equals("txt")) {
-                try {
-                    System.out.println(">>> [FileService] 开始解析文件: " + originalName);
-                    
-                    String fullText = fileService.extractTextFromMinio(objectName);
-                    
-                    if (fullText != null && !fullText.trim().isEmpty()) {
-                        List<String> textChunks = fileService.splitTextIntoChunks(fullText, 800, 100);
-                        
-                        int index = 0;
-                        for (String content : textChunks) {
-                            KnowledgeChunk chunk = new KnowledgeChunk();
-                            chunk.setChunkId(UUID.randomUUID().toString().replace("-", ""));
-                            chunk.setTenantId(tenantId);
-                            chunk.setDocId(docId);
-                            chunk.setContentType("text");
-                            chunk.setContent(content);
-                            chunk.setChunkIndex(index++);
-                            
-                            // ==========================================
-                            // 【核心修复】生成随机 UUID 作为 vectorId，确保唯一性
-                            // ==========================================
-                            chunk.setVectorId(UUID.randomUUID().toString().replace("-", "")); 
-                            
-                            chunk.setCreateTime(LocalDateTime.now());
-                            
-                            chunkMapper.insert(chunk);
-                        }
-                        System.out.println(">>> [FileService] 解析完成，共生成 " + index + " 个知识切片");
-                    } else {
-                        System.out.println(">>> [FileService] 警告：文件解析结果为空");
-                    }
-                } catch (Exception ex) {
-                    System.err.println(">>> [FileService] 解析过程异常: " + ex.getMessage());
-                }
-            }
-            // ==============================================================
+            ingestService.register(doc);
+
+            // 3. 文件内容解析与切片入库
+            ingestService.ingest(doc);
 
             recordLog(tenantId, userId, username, "UPLOAD", originalName, docId, "上传文件至文件夹: " + folderName);
 
@@ -308,10 +307,91 @@ public class KnowledgeController {
     }
 
     @GetMapping("/list")
+    @Transactional(readOnly = true)
     public R<List<Document>> list(@RequestParam("categoryId") String categoryId) {
-        QueryWrapper<Document> query = new QueryWrapper<>();
-        query.eq("category_id", categoryId).orderByDesc("upload_time");
-        return R.ok(documentMapper.selectList(query));
+        return R.ok(onCategoryShard(categoryId, () -> documentMapper.selectListByCategory(categoryId)));
+    }
+
+    /**
+     * 游标分页获取文件夹内的文档
+     * GET /docs/page?categoryId=xxx&limit=50&cursor=上一页返回的 nextCursor
+     * nextCursor 为空表示已经是最后一页
+     */
+    @GetMapping("/page")
+    @Transactional(readOnly = true)
+    public R<Map<String, Object>> page(@RequestParam("categoryId") String categoryId,
+                                       @RequestParam(value = "cursor", required = false) String cursor,
+                                       @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        limit = Math.max(1, Math.min(limit, 200));
+
+        LocalDateTime cursorTime = null;
+        String cursorId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int sep = decoded.indexOf('|');
+                cursorTime = LocalDateTime.parse(decoded.substring(0, sep));
+                cursorId = decoded.substring(sep + 1);
+            } catch (Exception e) {
+                return R.error("无效的分页游标");
+            }
+        }
+
+        LocalDateTime afterTime = cursorTime;
+        String afterId = cursorId;
+        int pageSize = limit;
+        List<Document> items = onCategoryShard(categoryId,
+                () -> documentMapper.selectPageByCategory(categoryId, afterTime, afterId, pageSize));
+
+        String nextCursor = null;
+        if (items.size() == limit) {
+            Document last = items.get(items.size() - 1);
+            String raw = last.getUploadTime() + "|" + last.getDocId();
+            nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("items", items);
+        data.put("nextCursor", nextCursor);
+        return R.ok(data);
+    }
+
+    @PostMapping("/rename")
+    @Transactional(rollbackFor = Exception.class)
+    public R<String> renameDocument(@RequestBody Map<String, String> body,
+                                    @RequestHeader("X-User-Id") String userId,
+                                    @RequestHeader("X-Tenant-Id") String tenantId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+
+        String docId = body.get("docId");
+        String newName = body.get("name");
+        if (docId == null || newName == null || newName.trim().isEmpty()) return R.error("参数错误");
+
+        // 与删除相同：按文档所属企业的分片查找，且只能重命名本企业的文档
+        Document doc = shardRouter.locate(() -> documentMapper.selectById(docId));
+        if (doc == null || !doc.getTenantId().equals(tenantId)) return R.error("文档不存在");
+
+        return shardRouter.withTenant(doc.getTenantId(), () -> {
+            String oldName = doc.getDocName();
+            Document update = new Document();
+            update.setDocId(docId);
+            update.setDocName(newName);
+            documentMapper.updateById(update);
+            clusterEventService.publish(doc.getTenantId(), ClusterEventService.DOC_RENAME, docId, null);
+
+            // 提交后再改索引、清缓存，回滚时仍是原名
+            TxUtils.afterCommit("重命名文档", () -> {
+                documentIndexService.onRename(doc.getTenantId(), docId, newName);
+                documentUrlService.invalidate(docId);
+                answerCacheService.invalidateDocument(doc.getTenantId(), docId);
+            });
+
+            recordLog(doc.getTenantId(), userId, u.getUsername(), "RENAME_DOC", newName, docId, "文档重命名，原名称: " + oldName);
+            return R.ok("重命名成功");
+        });
     }
 
     @GetMapping("/url/{type}/{docId}")
@@ -319,55 +399,120 @@ public class KnowledgeController {
                                 @PathVariable String type,
                                 @RequestHeader(value = "X-User-Id", required = false) String userId,
                                 @RequestHeader(value = "X-Tenant-Id", required = false) String tenantId) {
-        Document doc = documentMapper.selectById(docId);
-        if (doc == null) return R.error("文档不存在");
-
         try {
-            GetPresignedObjectUrlArgs.Builder builder = GetPresignedObjectUrlArgs.builder()
-                    .method(Method.GET)
-                    .bucket(bucketName)
-                    .object(doc.getFilePath())
-                    .expiry(2, TimeUnit.HOURS);
-
-            if ("download".equals(type)) {
-                Map<String, String> reqParams = new HashMap<>();
-                reqParams.put("response-content-disposition", "attachment; filename=\"" + doc.getDocName() + "\"");
-                builder.extraQueryParams(reqParams);
-            }
+            DocumentUrlService.PresignedUrl url = documentUrlService.getUrl(docId, type);
+            if (url == null) return R.error("文档不存在");
+
+            recordUrlAccess(docId, url, type, userId, tenantId);
+            return R.ok(url.getUrl());
+        } catch (Exception e) {
+            return R.error("生成链接失败");
+        }
+    }
 
-            String url = minioClient.getPresignedObjectUrl(builder.build());
+    /**
+     * 批量获取一页文档的预览/下载链接
+     * 其中多数只是预取、并不会被打开，审计只记一条批量记录，不逐个文档写
+     * POST /docs/url/batch  {"type": "preview", "docIds": ["..", ".."]}
+     */
+    @PostMapping("/url/batch")
+    public R<Map<String, String>> getFileUrls(@RequestBody Map<String, Object> body,
+                                              @RequestHeader(value = "X-User-Id", required = false) String userId,
+                                              @RequestHeader(value = "X-Tenant-Id", required = false) String tenantId) {
+        Object ids = body.get("docIds");
+        if (!(ids instanceof List) || ((List<?>) ids).isEmpty()) return R.error("参数错误");
+        String type = body.get("type") != null ? body.get("type").toString() : "preview";
+
+        List<String> docIds = new ArrayList<>();
+        for (Object id : (List<?>) ids) docIds.add(String.valueOf(id));
 
-            if (userId != null) {
-                User u = userMapper.selectById(userId);
-                String username = (u != null) ? u.getUsername() : "unknown";
-                String tId = (tenantId != null) ? tenantId : doc.getTenantId();
+        try {
+            Map<String, String> data = new LinkedHashMap<>();
+            String urlTenantId = null;
+            for (Map.Entry<String, DocumentUrlService.PresignedUrl> e : documentUrlService.getUrls(docIds, type).entrySet()) {
+                data.put(e.getKey(), e.getValue().getUrl());
+                if (urlTenantId == null) urlTenantId = e.getValue().getTenantId();
+            }
+            if (userId != null && !data.isEmpty()) {
                 String action = "download".equals(type) ? "DOWNLOAD" : "PREVIEW";
-                
-                recordLog(tId, userId, username, action, doc.getDocName(), docId, "获取链接: " + type);
+                String detail = "批量获取链接: " + type + "，共 " + data.size() + " 个: " + String.join(",", data.keySet());
+                if (detail.length() > 1000) detail = detail.substring(0, 997) + "...";
+                auditService.recordAsync(tenantId != null ? tenantId : urlTenantId, userId, null, action,
+                        "批量获取链接", null, detail);
             }
-
-            return R.ok(url);
+            return R.ok(data);
         } catch (Exception e) {
             return R.error("生成链接失败");
         }
     }
 
+    /**
+     * 预览/下载审计交给后台线程写入，用户名也在后台补查
+     */
+    private void recordUrlAccess(String docId, DocumentUrlService.PresignedUrl url, String type, String userId, String tenantId) {
+        if (userId == null) return;
+        String tId = (tenantId != null) ? tenantId : url.getTenantId();
+        String action = "download".equals(type) ? "DOWNLOAD" : "PREVIEW";
+        auditService.recordAsync(tId, userId, null, action, url.getDocName(), docId, "获取链接: " + type);
+    }
+
+    /**
+     * 按页读取解析后的文本（Range 请求只下载所需页），用于引用定位和预览
+     * GET /docs/{docId}/pages?from=3&to=4   页码从 1 开始，对应 knowledge_chunk.page_number
+     */
+    @GetMapping("/{docId}/pages")
+    public R<Map<String, Object>> pages(@PathVariable String docId,
+                                        @RequestParam(value = "from", defaultValue = "1") int from,
+                                        @RequestParam(value = "to", required = false) Integer to,
+                                        @RequestHeader("X-Tenant-Id") String tenantId) {
+        Document doc = documentMapper.selectById(docId);
+        if (doc == null || !doc.getTenantId().equals(tenantId)) return R.error("文档不存在");
+        try {
+            PageStoreService.PageIndex index = pageStoreService.index(doc.getFilePath());
+            if (index == null) return R.error("该文档没有分页文本");
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("paged", index.isPaged());
+            data.put("pageCount", index.pageCount());
+            data.put("pages", pageStoreService.read(doc.getFilePath(), from, to != null ? to : from));
+            return R.ok(data);
+        } catch (Exception e) {
+            return R.error("读取失败: " + e.getMessage());
+        }
+    }
+
     @DeleteMapping("/{docId}")
+    @Transactional(rollbackFor = Exception.class)
     public R<String> delete(@PathVariable String docId,
                             @RequestHeader("X-User-Id") String userId) {
         User operator = userMapper.selectById(userId);
         if (operator == null) return R.error("用户不存在");
         if (!"admin".equals(operator.getRole())) return R.error("权限不足");
 
-        Document doc = documentMapper.selectById(docId);
-        if (doc != null) {
+        // 管理员可以删除其他企业的文档：按文档所属企业的分片删除，而不是请求头里的企业
+        Document doc = shardRouter.locate(() -> documentMapper.selectById(docId));
+        if (doc == null) return R.error("记录不存在");
+        return shardRouter.withTenant(doc.getTenantId(), () -> {
             try {
-                minioClient.removeObject(RemoveObjectArgs.builder()
-                        .bucket(bucketName).object(doc.getFilePath()).build());
-                
-                documentMapper.deleteById(docId);
-
                 chunkMapper.delete(new QueryWrapper<KnowledgeChunk>().eq("doc_id", docId));
+                documentMapper.deleteById(docId);
+                clusterEventService.publish(doc.getTenantId(), ClusterEventService.DOC_DELETE, docId, doc.getFilePath());
+
+                // 提交后再删对象和清缓存：回滚时文档仍可用；对象删除失败只会留下孤儿对象，由 OrphanCollectorService 后台回收
+                TxUtils.afterCommit("删除文档", () -> {
+                    chunkSegmentService.removeDocuments(List.of(docId));
+                    popularityService.onDocumentsDeleted(List.of(docId));
+                    answerCacheService.invalidateDocument(doc.getTenantId(), docId);
+                    documentIndexService.onDelete(doc.getTenantId(), docId);
+                    documentUrlService.invalidate(docId);
+                    try {
+                        minioClient.removeObject(RemoveObjectArgs.builder()
+                                .bucket(bucketName).object(doc.getFilePath()).build());
+                    } catch (Exception ex) {
+                        System.err.println(">>> MinIO 对象删除失败，等待后台回收: " + ex.getMessage());
+                    }
+                    pageStoreService.delete(doc.getFilePath());
+                });
 
                 String tId = operator.getTenantId();
                 if (tId == null) tId = doc.getTenantId();
@@ -376,9 +521,72 @@ public class KnowledgeController {
 
                 return R.ok("文档已删除");
             } catch (Exception e) {
+                // 返回错误而不抛出，需要手动标记回滚，否则已执行的删除会被提交
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
                 return R.error("删除失败");
             }
+        });
+    }
+
+    /**
+     * 批量删除文档（仅管理员）
+     * POST /docs/batch/delete  {"docIds": ["..", ".."]}
+     * 返回 succeeded（已删除的文档 ID）和 failed（文档 ID -> 失败原因）
+     */
+    @PostMapping("/batch/delete")
+    public R<Map<String, Object>> batchDelete(@RequestBody Map<String, List<String>> body,
+                                              @RequestHeader("X-User-Id") String userId) {
+        User operator = userMapper.selectById(userId);
+        if (operator == null) return R.error("用户不存在");
+        if (!"admin".equals(operator.getRole())) return R.error("权限不足");
+
+        List<String> docIds = body.get("docIds");
+        if (docIds == null || docIds.isEmpty()) return R.error("参数错误");
+
+        try {
+            // 本节点缓存失效和 MinIO 删除在事务提交后由 DocumentBulkService 完成
+            DocumentBulkService.BulkResult result = documentBulkService.deleteDocuments(docIds);
+
+            recordLog(operator.getTenantId(), userId, operator.getUsername(), "BATCH_DELETE",
+                    result.getSucceeded().size() + " 个文档", null,
+                    "批量删除文件，成功 " + result.getSucceeded().size() + " 个，失败 " + result.getFailed().size() + " 个");
+            return R.ok(result.toMap());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return R.error("批量删除失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 批量移动文档到另一个文件夹
+     * POST /docs/batch/move  {"docIds": ["..", ".."], "categoryId": "目标文件夹"}
+     */
+    @PostMapping("/batch/move")
+    public R<Map<String, Object>> batchMove(@RequestBody Map<String, Object> body,
+                                            @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+
+        Object ids = body.get("docIds");
+        Object categoryId = body.get("categoryId");
+        if (!(ids instanceof List) || ((List<?>) ids).isEmpty() || categoryId == null) return R.error("参数错误");
+
+        Category target = categoryMapper.selectById(categoryId.toString());
+        if (target == null) return R.error("目标文件夹不存在");
+
+        List<String> docIds = new ArrayList<>();
+        for (Object id : (List<?>) ids) docIds.add(String.valueOf(id));
+
+        try {
+            DocumentBulkService.BulkResult result = documentBulkService.moveDocuments(docIds, target);
+            recordLog(target.getTenantId(), userId, u.getUsername(), "BATCH_MOVE", target.getName(), target.getId(),
+                    "批量移动文件，成功 " + result.getSucceeded().size() + " 个，失败 " + result.getFailed().size() + " 个");
+            return R.ok(result.toMap());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return R.error("批量移动失败: " + e.getMessage());
         }
-        return R.error("记录不存在");
     }
 }
\ No newline at end of file
@@ -0,0 +1,202 @@
+package com.g07.controller;
+
+import com.g07.common.R;
+import com.g07.config.ReplicaRouter;
+import com.g07.config.ShardRouter;
+import com.g07.entity.User;
+import com.g07.mapper.UserMapper;
+import com.g07.service.BatchChatService;
+import com.g07.service.ChunkSegmentService;
+import com.g07.service.CitationService;
+import com.g07.service.ClusterEventService;
+import com.g07.service.LlmRouterService;
+import com.g07.service.LlmUsageService;
+import com.g07.service.ModelCascadeService;
+import com.g07.service.OrphanCollectorService;
+import com.g07.service.ParseService;
+import com.g07.service.PopularityService;
+import com.g07.service.RateLimitService;
+import com.g07.service.SingleFlightService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/metrics")
+@CrossOrigin
+public class MetricsController {
+
+    @Autowired
+    private SingleFlightService singleFlightService;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private OrphanCollectorService orphanCollectorService;
+
+    @Autowired
+    private ParseService parseService;
+
+    @Autowired
+    private ChunkSegmentService chunkSegmentService;
+
+    @Autowired
+    private ClusterEventService clusterEventService;
+
+    @Autowired
+    private ReplicaRouter replicaRouter;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private CitationService citationService;
+
+    @Autowired
+    private PopularityService popularityService;
+
+    @Autowired
+    private RateLimitService rateLimitService;
+
+    @Autowired
+    private LlmUsageService usageService;
+
+    @Autowired
+    private LlmRouterService llmRouter;
+
+    @Autowired
+    private ModelCascadeService modelCascadeService;
+
+    @Autowired
+    private BatchChatService batchChatService;
+
+    /**
+     * 请求合并统计：各分组的调用次数、被合并的次数、失败与等待超时次数
+     * GET /metrics/singleflight
+     */
+    @GetMapping("/singleflight")
+    public R<Map<String, Object>> singleFlight() {
+        return R.ok(singleFlightService.stats());
+    }
+
+    /**
+     * 孤儿对象回收进度：游标、扫描/清理条数、回收字节数、当前批间停顿。统计跨所有租户，仅管理员可看
+     * GET /metrics/gc
+     */
+    @GetMapping("/gc")
+    public R<Map<String, Object>> gc(@RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || !"admin".equals(u.getRole())) return R.error("权限不足");
+        return R.ok(orphanCollectorService.stats());
+    }
+
+    /**
+     * 文档解析：工作线程数、正在解析数、完成/失败/超时/截断次数
+     * GET /metrics/parse
+     */
+    @GetMapping("/parse")
+    public R<Map<String, Object>> parse() {
+        return R.ok(parseService.stats());
+    }
+
+    /**
+     * 本地段存储：段文件数、总字节/存活字节、切片与文档数、命中/未命中、压实次数、同步水位线
+     * GET /metrics/segments
+     */
+    @GetMapping("/segments")
+    public R<Map<String, Object>> segments() {
+        return R.ok(chunkSegmentService.stats());
+    }
+
+    /**
+     * 多节点缓存失效：本节点 ID、事件游标、落后的事件数与毫秒数、已应用/跳过的事件数、空洞补查情况
+     * GET /metrics/cluster
+     */
+    @GetMapping("/cluster")
+    public R<Map<String, Object>> cluster() {
+        return R.ok(clusterEventService.stats());
+    }
+
+    /**
+     * 读写分离：各从库是否可用、复制延迟、分到的只读查询数，粘滞与回退主库次数
+     * GET /metrics/datasource
+     */
+    @GetMapping("/datasource")
+    public R<Map<String, Object>> datasource() {
+        return R.ok(replicaRouter.stats());
+    }
+
+    /**
+     * 租户分片：分片数、各分片路由的 SQL 数、未绑定租户的 SQL 数、迁移冻结期间拒绝的写入、跨分片提交次数
+     * GET /metrics/shards
+     */
+    @GetMapping("/shards")
+    public R<Map<String, Object>> shards() {
+        return R.ok(shardRouter.stats());
+    }
+
+    /**
+     * 大模型端点路由：各端点耗时 EWMA、对冲延迟、进行中/失败/被取消的请求数，以及对冲和失败转移次数
+     * GET /metrics/llm
+     */
+    @GetMapping("/llm")
+    public R<Map<String, Object>> llm() {
+        return R.ok(llmRouter.stats());
+    }
+
+    /**
+     * 批量问答：批次数、进行中的批次、问题数、批内去重的问题数、失败数
+     * GET /metrics/batch-chat
+     */
+    @GetMapping("/batch-chat")
+    public R<Map<String, Object>> batchChat() {
+        return R.ok(batchChatService.stats());
+    }
+
+    /**
+     * 模型分级：各档位调用次数、失败数、平均/最大耗时，快模型回答的升级次数和升级率，以及分级原因分布
+     * GET /metrics/cascade
+     */
+    @GetMapping("/cascade")
+    public R<Map<String, Object>> cascade() {
+        return R.ok(modelCascadeService.stats());
+    }
+
+    /**
+     * 大模型用量计量：内存计数器数、因额度被拒的调用、落库次数和失败次数
+     * GET /metrics/usage
+     */
+    @GetMapping("/usage")
+    public R<Map<String, Object>> usage() {
+        return R.ok(usageService.stats());
+    }
+
+    /**
+     * 接口限流：当前桶数、放行次数、被用户桶/租户桶拒绝的次数、清扫掉的桶数
+     * GET /metrics/ratelimit
+     */
+    @GetMapping("/ratelimit")
+    public R<Map<String, Object>> rateLimit() {
+        return R.ok(rateLimitService.stats());
+    }
+
+    /**
+     * 引用记录写入：队列长度、已写入/失败条数、批次数、队列满时调用方直接写入的条数
+     * GET /metrics/citations
+     */
+    @GetMapping("/citations")
+    public R<Map<String, Object>> citations() {
+        return R.ok(citationService.stats());
+    }
+
+    /**
+     * 热点常驻：参与计分的切片与文档数、常驻文档数/切片数/字节数、命中次数、重选次数
+     * GET /metrics/popularity
+     */
+    @GetMapping("/popularity")
+    public R<Map<String, Object>> popularity() {
+        return R.ok(popularityService.stats());
+    }
+}
@@ -0,0 +1,146 @@
+package com.g07.controller;
+
+import com.g07.common.R;
+import com.g07.entity.Document;
+import com.g07.entity.UploadPart;
+import com.g07.entity.UploadSession;
+import com.g07.entity.User;
+import com.g07.mapper.UserMapper;
+import com.g07.service.AuditService;
+import com.g07.service.MultipartUploadService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 大文件断点续传
+ * 1. POST   /docs/multipart/initiate                  创建上传会话，返回 uploadId、分片大小、分片数
+ * 2. PUT    /docs/multipart/{uploadId}/parts/{n}      上传第 n 片（请求体为原始字节，可带 X-Part-Sha256 校验）
+ * 3. GET    /docs/multipart/{uploadId}                查询已完成的分片，断线后只补传缺失部分
+ * 4. POST   /docs/multipart/{uploadId}/complete       合并分片并触发解析入库
+ * 5. DELETE /docs/multipart/{uploadId}                放弃上传
+ * 与普通上传相同，viewer 无权上传；会话只有发起人和管理员可以继续操作
+ */
+@RestController
+@RequestMapping("/docs/multipart")
+@CrossOrigin
+public class MultipartUploadController {
+
+    @Autowired
+    private MultipartUploadService multipartUploadService;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private AuditService auditService;
+
+    @PostMapping("/initiate")
+    public R<Map<String, Object>> initiate(@RequestBody Map<String, Object> body,
+                                           @RequestHeader("X-Tenant-Id") String tenantId,
+                                           @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+
+        Object fileName = body.get("fileName");
+        Object fileSize = body.get("fileSize");
+        Object categoryId = body.get("categoryId");
+        if (fileName == null || fileSize == null || categoryId == null) return R.error("参数错误");
+
+        try {
+            Long partSize = body.get("partSize") != null ? Long.valueOf(body.get("partSize").toString()) : null;
+            String contentType = body.get("contentType") != null ? body.get("contentType").toString() : null;
+            UploadSession session = multipartUploadService.initiate(tenantId, userId, categoryId.toString(),
+                    fileName.toString(), Long.parseLong(fileSize.toString()), contentType, partSize);
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("uploadId", session.getUploadId());
+            data.put("docId", session.getDocId());
+            data.put("partSize", session.getPartSize());
+            data.put("totalParts", session.getTotalParts());
+            return R.ok(data);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return R.error("创建上传会话失败: " + e.getMessage());
+        }
+    }
+
+    @PutMapping(value = "/{uploadId}/parts/{partNumber}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public R<Map<String, Object>> uploadPart(@PathVariable String uploadId,
+                                             @PathVariable int partNumber,
+                                             InputStream data,
+                                             @RequestHeader(value = "X-Part-Sha256", required = false) String sha256,
+                                             @RequestHeader("X-Tenant-Id") String tenantId,
+                                             @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+        try {
+            UploadPart part = multipartUploadService.uploadPart(tenantId, userId, "admin".equals(u.getRole()),
+                    uploadId, partNumber, data, sha256);
+            Map<String, Object> result = new HashMap<>();
+            result.put("partNumber", part.getPartNumber());
+            result.put("sha256", part.getSha256());
+            result.put("size", part.getSize());
+            return R.ok(result);
+        } catch (Exception e) {
+            return R.error("分片上传失败: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public R<Map<String, Object>> status(@PathVariable String uploadId,
+                                         @RequestHeader("X-Tenant-Id") String tenantId,
+                                         @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+        try {
+            return R.ok(multipartUploadService.status(tenantId, userId, "admin".equals(u.getRole()), uploadId));
+        } catch (Exception e) {
+            return R.error(e.getMessage());
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public R<String> complete(@PathVariable String uploadId,
+                              @RequestHeader("X-Tenant-Id") String tenantId,
+                              @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+        try {
+            Document doc = multipartUploadService.complete(tenantId, userId, "admin".equals(u.getRole()), uploadId);
+            auditService.record(tenantId, userId, u.getUsername(), "UPLOAD", doc.getDocName(), doc.getDocId(), "分片上传完成");
+            return R.ok(doc.getDocId());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return R.error("合并分片失败: " + e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public R<String> abort(@PathVariable String uploadId,
+                           @RequestHeader("X-Tenant-Id") String tenantId,
+                           @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || "viewer".equals(u.getRole())) {
+            return R.error("权限不足");
+        }
+        try {
+            multipartUploadService.abort(tenantId, userId, "admin".equals(u.getRole()), uploadId);
+            return R.ok("已取消上传");
+        } catch (Exception e) {
+            return R.error("取消上传失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.g07.controller;
+
+import com.g07.common.R;
+import com.g07.config.ShardRouter;
+import com.g07.entity.Tenant;
+import com.g07.entity.User;
+import com.g07.mapper.TenantMapper;
+import com.g07.mapper.UserMapper;
+import com.g07.service.AuditService;
+import com.g07.service.ShardMigrationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 租户分片管理（仅管理员）
+ * POST /admin/shards/move    {"tenantId": "...", "shard": 1} 后台把租户搬到指定分片
+ * GET  /admin/shards/stats   搬迁进度
+ */
+@RestController
+@RequestMapping("/admin/shards")
+@CrossOrigin
+public class ShardController {
+
+    @Autowired
+    private ShardMigrationService shardMigrationService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private TenantMapper tenantMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private AuditService auditService;
+
+    @PostMapping("/move")
+    public R<String> move(@RequestBody Map<String, Object> body,
+                          @RequestHeader("X-Tenant-Id") String tenantId,
+                          @RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || !"admin".equals(u.getRole())) return R.error("权限不足");
+
+        Object target = body.get("tenantId");
+        Object shard = body.get("shard");
+        if (target == null || shard == null) return R.error("参数错误");
+        Tenant t = tenantMapper.selectById(target.toString());
+        if (t == null) return R.error("租户不存在");
+
+        int from = shardRouter.shardOf(t.getTenantId());
+        int to;
+        try {
+            to = Integer.parseInt(shard.toString());
+            if (!shardMigrationService.move(t.getTenantId(), to)) return R.error("已有搬迁任务在运行");
+        } catch (IllegalArgumentException e) {
+            return R.error(e.getMessage());
+        }
+        auditService.record(tenantId, userId, u.getUsername(), "SHARD_MOVE", "搬迁租户分片", t.getTenantId(),
+                "分片 " + from + " -> " + to);
+        return R.ok("搬迁已开始");
+    }
+
+    @GetMapping("/stats")
+    public R<Map<String, Object>> stats(@RequestHeader("X-User-Id") String userId) {
+        User u = userMapper.selectById(userId);
+        if (u == null || !"admin".equals(u.getRole())) return R.error("权限不足");
+        return R.ok(shardMigrationService.stats());
+    }
+}
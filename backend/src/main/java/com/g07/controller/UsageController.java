@@ -0,0 +1,61 @@
+package com.g07.controller;
+
+import com.g07.common.R;
+import com.g07.entity.User;
+import com.g07.mapper.UserMapper;
+import com.g07.service.LlmUsageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/usage")
+@CrossOrigin
+public class UsageController {
+
+    @Autowired
+    private LlmUsageService usageService;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    /**
+     * 大模型用量汇总（读 llm_usage_daily，最近一个落库周期内的调用尚未计入）
+     * 管理员查看整个租户，其他角色只能查看自己的
+     * GET /usage?from=2024-05-01&to=2024-05-31&groupBy=day|user|model
+     */
+    @GetMapping
+    @Transactional(readOnly = true)
+    public R<List<Map<String, Object>>> usage(@RequestHeader("X-Tenant-Id") String tenantId,
+                                              @RequestHeader("X-User-Id") String userId,
+                                              @RequestParam(required = false) String from,
+                                              @RequestParam(required = false) String to,
+                                              @RequestParam(defaultValue = "day") String groupBy) {
+        User u = userMapper.selectById(userId);
+        if (u == null) return R.error("用户不存在");
+        LocalDate start, end;
+        try {
+            end = to == null ? LocalDate.now() : LocalDate.parse(to);
+            start = from == null ? end.withDayOfMonth(1) : LocalDate.parse(from);
+        } catch (DateTimeParseException e) {
+            return R.error("日期格式应为 yyyy-MM-dd");
+        }
+        if (start.isAfter(end)) return R.error("开始日期晚于结束日期");
+        String scope = "admin".equals(u.getRole()) ? null : userId;
+        return R.ok(usageService.query(tenantId, scope, start, end, groupBy));
+    }
+
+    /**
+     * 租户本月额度：已用 Token、软/硬额度及是否超出
+     * GET /usage/quota
+     */
+    @GetMapping("/quota")
+    public R<Map<String, Object>> quota(@RequestHeader("X-Tenant-Id") String tenantId) {
+        return R.ok(usageService.quota(tenantId));
+    }
+}
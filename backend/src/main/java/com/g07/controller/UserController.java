@@ -5,6 +5,9 @@ import com.g07.entity.AuditLog;
 import com.g07.entity.User;
 import com.g07.mapper.AuditLogMapper;
 import com.g07.mapper.UserMapper;
+import com.g07.service.ClusterEventService;
+import com.g07.service.RateLimitService;
+import com.g07.utils.TxUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
@@ -24,6 +27,20 @@ public class UserController {
     @Autowired
     private AuditLogMapper auditLogMapper;
 
+    @Autowired
+    private ClusterEventService clusterEventService;
+
+    @Autowired
+    private RateLimitService rateLimitService;
+
+    /**
+     * 角色变更后清掉限流服务缓存的角色，其他节点通过变更事件得知
+     */
+    private void onRoleChanged(User target) {
+        clusterEventService.publish(target.getTenantId(), ClusterEventService.USER_ROLE, target.getUserId(), null);
+        TxUtils.afterCommit("角色变更", () -> rateLimitService.evict(null, target.getUserId()));
+    }
+
     /**
      * 辅助方法：记录审计日志
      * 【修改】增加记录 username
@@ -57,6 +74,7 @@ public class UserController {
      * 【修改】调用自定义 Mapper 方法获取企业名称
      */
     @GetMapping("/list")
+    @Transactional(readOnly = true)
     public R<List<User>> getUserList() {
         // 使用联表查询，获取 tenantName
         return R.ok(userMapper.selectListWithTenantName());
@@ -81,6 +99,7 @@ public class UserController {
         if (targetUser != null) {
             targetUser.setRole(newRole);
             userMapper.updateById(targetUser);
+            onRoleChanged(targetUser);
             
             recordLog(admin, "UPDATE_ROLE", targetUser.getUsername(), "修改角色为: " + newRole);
             return R.ok("角色修改成功");
@@ -102,6 +121,7 @@ public class UserController {
         User targetUser = userMapper.selectById(targetUserId);
         if (targetUser != null) {
             userMapper.deleteById(targetUserId);
+            onRoleChanged(targetUser);
             recordLog(admin, "DELETE_USER", targetUser.getUsername(), "注销用户账户");
             return R.ok("用户已注销");
         }
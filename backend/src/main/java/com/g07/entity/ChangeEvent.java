@@ -0,0 +1,39 @@
+package com.g07.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.time.LocalDateTime;
+
+@TableName("change_event")
+public class ChangeEvent {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private String tenantId;
+    private String eventType;   // DOC_UPLOAD, DOC_RENAME, DOC_MOVE, DOC_DELETE, CATEGORY, TENANT_SHARD
+    private String resourceId;  // 文档 ID；文件夹变更时为空
+    private String payload;     // 文档删除时为对象名，其他为空
+    private String originNode;
+    private LocalDateTime createTime;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getTenantId() { return tenantId; }
+    public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+
+    public String getEventType() { return eventType; }
+    public void setEventType(String eventType) { this.eventType = eventType; }
+
+    public String getResourceId() { return resourceId; }
+    public void setResourceId(String resourceId) { this.resourceId = resourceId; }
+
+    public String getPayload() { return payload; }
+    public void setPayload(String payload) { this.payload = payload; }
+
+    public String getOriginNode() { return originNode; }
+    public void setOriginNode(String originNode) { this.originNode = originNode; }
+
+    public LocalDateTime getCreateTime() { return createTime; }
+    public void setCreateTime(LocalDateTime createTime) { this.createTime = createTime; }
+}
@@ -0,0 +1,31 @@
+package com.g07.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.time.LocalDateTime;
+
+@TableName("chunk_dictionary")
+public class ChunkDictionary {
+    @TableId(type = IdType.AUTO)
+    private Integer dictId;
+    private String tenantId;
+    private byte[] dictionary;  // deflate 预置字典，最大 32KB
+    private Integer sampleCount;
+    private LocalDateTime createTime;
+
+    public Integer getDictId() { return dictId; }
+    public void setDictId(Integer dictId) { this.dictId = dictId; }
+
+    public String getTenantId() { return tenantId; }
+    public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+
+    public byte[] getDictionary() { return dictionary; }
+    public void setDictionary(byte[] dictionary) { this.dictionary = dictionary; }
+
+    public Integer getSampleCount() { return sampleCount; }
+    public void setSampleCount(Integer sampleCount) { this.sampleCount = sampleCount; }
+
+    public LocalDateTime getCreateTime() { return createTime; }
+    public void setCreateTime(LocalDateTime createTime) { this.createTime = createTime; }
+}
@@ -0,0 +1,26 @@
+package com.g07.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+@TableName("citation_mapping")
+public class CitationMapping {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private String recordId;
+    private String chunkId;
+    private Float similarityScore;  // 问题二元词在切片中的命中比例
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getRecordId() { return recordId; }
+    public void setRecordId(String recordId) { this.recordId = recordId; }
+
+    public String getChunkId() { return chunkId; }
+    public void setChunkId(String chunkId) { this.chunkId = chunkId; }
+
+    public Float getSimilarityScore() { return similarityScore; }
+    public void setSimilarityScore(Float similarityScore) { this.similarityScore = similarityScore; }
+}
@@ -17,6 +17,8 @@ public class Document {
     private Long fileSize;
     private String status;
     private LocalDateTime uploadTime;
+    private LocalDateTime processedTime;
+    private String parseError;
 
     // --- 手动添加 Getters 和 Setters ---
 
@@ -49,4 +51,10 @@ public class Document {
 
     public LocalDateTime getUploadTime() { return uploadTime; }
     public void setUploadTime(LocalDateTime uploadTime) { this.uploadTime = uploadTime; }
+
+    public LocalDateTime getProcessedTime() { return processedTime; }
+    public void setProcessedTime(LocalDateTime processedTime) { this.processedTime = processedTime; }
+
+    public String getParseError() { return parseError; }
+    public void setParseError(String parseError) { this.parseError = parseError; }
 }
\ No newline at end of file
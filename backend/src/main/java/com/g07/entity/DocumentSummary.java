@@ -0,0 +1,46 @@
+package com.g07.entity;
+
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.time.LocalDateTime;
+
+@TableName("document_summary")
+public class DocumentSummary {
+    @TableId
+    private String docId;
+    private String tenantId;
+    private String summary;     // 全文摘要
+    private String outline;     // 章节提纲，每行 "标题：章节摘要"
+    private String method;      // 'extractive', 'llm'
+    private Integer tokenCount;
+    private Integer refineAttempts;
+    private LocalDateTime nextRefineTime;
+    private LocalDateTime createTime;
+
+    public String getDocId() { return docId; }
+    public void setDocId(String docId) { this.docId = docId; }
+
+    public String getTenantId() { return tenantId; }
+    public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+
+    public String getOutline() { return outline; }
+    public void setOutline(String outline) { this.outline = outline; }
+
+    public String getMethod() { return method; }
+    public void setMethod(String method) { this.method = method; }
+
+    public Integer getTokenCount() { return tokenCount; }
+    public void setTokenCount(Integer tokenCount) { this.tokenCount = tokenCount; }
+
+    public Integer getRefineAttempts() { return refineAttempts; }
+    public void setRefineAttempts(Integer refineAttempts) { this.refineAttempts = refineAttempts; }
+
+    public LocalDateTime getNextRefineTime() { return nextRefineTime; }
+    public void setNextRefineTime(LocalDateTime nextRefineTime) { this.nextRefineTime = nextRefineTime; }
+
+    public LocalDateTime getCreateTime() { return createTime; }
+    public void setCreateTime(LocalDateTime createTime) { this.createTime = createTime; }
+}
@@ -0,0 +1,38 @@
+package com.g07.entity;
+
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.time.LocalDateTime;
+
+@TableName("gc_checkpoint")
+public class GcCheckpoint {
+    @TableId
+    private String phase;
+    private String cursorValue;
+    private Long scanned;
+    private Long removed;
+    private Long reclaimedBytes;
+    private Integer cycles;
+    private LocalDateTime updateTime;
+
+    public String getPhase() { return phase; }
+    public void setPhase(String phase) { this.phase = phase; }
+
+    public String getCursorValue() { return cursorValue; }
+    public void setCursorValue(String cursorValue) { this.cursorValue = cursorValue; }
+
+    public Long getScanned() { return scanned; }
+    public void setScanned(Long scanned) { this.scanned = scanned; }
+
+    public Long getRemoved() { return removed; }
+    public void setRemoved(Long removed) { this.removed = removed; }
+
+    public Long getReclaimedBytes() { return reclaimedBytes; }
+    public void setReclaimedBytes(Long reclaimedBytes) { this.reclaimedBytes = reclaimedBytes; }
+
+    public Integer getCycles() { return cycles; }
+    public void setCycles(Integer cycles) { this.cycles = cycles; }
+
+    public LocalDateTime getUpdateTime() { return updateTime; }
+    public void setUpdateTime(LocalDateTime updateTime) { this.updateTime = updateTime; }
+}
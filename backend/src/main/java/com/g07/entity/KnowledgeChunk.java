@@ -13,7 +13,10 @@ public class KnowledgeChunk {
     private String tenantId;
     private String docId;
     private String contentType; // 'text', 'image'
-    private String content;     // 核心内容
+    private String content;     // 核心内容，压缩存储时为空串
+    private byte[] contentZ;    // deflate 压缩后的内容
+    private Integer dictId;     // 压缩所用的租户字典，0 表示未使用字典
+    private byte[] bigramSig;   // 内容二元词的布隆过滤器，打分时不必解压
     private String vectorId;
     private Integer pageNumber;
     private Integer chunkIndex;
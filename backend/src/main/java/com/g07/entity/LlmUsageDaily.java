@@ -0,0 +1,48 @@
+package com.g07.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.time.LocalDate;
+
+@TableName("llm_usage_daily")
+public class LlmUsageDaily {
+    private String tenantId;        // 后台任务的调用为空串
+    private String userId;          // 后台任务的调用为空串
+    private LocalDate usageDate;
+    private String model;
+    private Long calls;
+    private Long failedCalls;
+    private Long promptTokens;
+    private Long completionTokens;
+    private Long cacheHitTokens;    // 命中上游前缀缓存的输入 Token，包含在 promptTokens 中
+    private Long latencyMs;         // 调用耗时累计
+
+    public String getTenantId() { return tenantId; }
+    public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public LocalDate getUsageDate() { return usageDate; }
+    public void setUsageDate(LocalDate usageDate) { this.usageDate = usageDate; }
+
+    public String getModel() { return model; }
+    public void setModel(String model) { this.model = model; }
+
+    public Long getCalls() { return calls; }
+    public void setCalls(Long calls) { this.calls = calls; }
+
+    public Long getFailedCalls() { return failedCalls; }
+    public void setFailedCalls(Long failedCalls) { this.failedCalls = failedCalls; }
+
+    public Long getPromptTokens() { return promptTokens; }
+    public void setPromptTokens(Long promptTokens) { this.promptTokens = promptTokens; }
+
+    public Long getCompletionTokens() { return completionTokens; }
+    public void setCompletionTokens(Long completionTokens) { this.completionTokens = completionTokens; }
+
+    public Long getCacheHitTokens() { return cacheHitTokens; }
+    public void setCacheHitTokens(Long cacheHitTokens) { this.cacheHitTokens = cacheHitTokens; }
+
+    public Long getLatencyMs() { return latencyMs; }
+    public void setLatencyMs(Long latencyMs) { this.latencyMs = latencyMs; }
+}
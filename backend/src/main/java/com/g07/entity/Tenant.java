@@ -11,6 +11,10 @@ public class Tenant {
     private String tenantName;
     private String status;
     private Long maxStorage;
+    private Integer chatRpm;
+    private Integer uploadRpm;
+    private Long tokenQuotaSoft;
+    private Long tokenQuotaHard;
     private LocalDateTime createTime;
 
     // --- 手动添加 Getters 和 Setters ---
@@ -27,6 +31,18 @@ public class Tenant {
     public Long getMaxStorage() { return maxStorage; }
     public void setMaxStorage(Long maxStorage) { this.maxStorage = maxStorage; }
 
+    public Integer getChatRpm() { return chatRpm; }
+    public void setChatRpm(Integer chatRpm) { this.chatRpm = chatRpm; }
+
+    public Integer getUploadRpm() { return uploadRpm; }
+    public void setUploadRpm(Integer uploadRpm) { this.uploadRpm = uploadRpm; }
+
+    public Long getTokenQuotaSoft() { return tokenQuotaSoft; }
+    public void setTokenQuotaSoft(Long tokenQuotaSoft) { this.tokenQuotaSoft = tokenQuotaSoft; }
+
+    public Long getTokenQuotaHard() { return tokenQuotaHard; }
+    public void setTokenQuotaHard(Long tokenQuotaHard) { this.tokenQuotaHard = tokenQuotaHard; }
+
     public LocalDateTime getCreateTime() { return createTime; }
     public void setCreateTime(LocalDateTime createTime) { this.createTime = createTime; }
 }
\ No newline at end of file
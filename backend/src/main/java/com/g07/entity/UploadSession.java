@@ -0,0 +1,66 @@
+package com.g07.entity;
+
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.time.LocalDateTime;
+
+@TableName("upload_session")
+public class UploadSession {
+    @TableId
+    private String uploadId;
+    private String minioUploadId;
+    private String docId;
+    private String tenantId;
+    private String userId;
+    private String categoryId;
+    private String fileName;
+    private String objectName;
+    private String contentType;
+    private Long fileSize;
+    private Long partSize;
+    private Integer totalParts;
+    private String status;
+    private LocalDateTime createTime;
+
+    public String getUploadId() { return uploadId; }
+    public void setUploadId(String uploadId) { this.uploadId = uploadId; }
+
+    public String getMinioUploadId() { return minioUploadId; }
+    public void setMinioUploadId(String minioUploadId) { this.minioUploadId = minioUploadId; }
+
+    public String getDocId() { return docId; }
+    public void setDocId(String docId) { this.docId = docId; }
+
+    public String getTenantId() { return tenantId; }
+    public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public String getCategoryId() { return categoryId; }
+    public void setCategoryId(String categoryId) { this.categoryId = categoryId; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+
+    public String getObjectName() { return objectName; }
+    public void setObjectName(String objectName) { this.objectName = objectName; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public Long getFileSize() { return fileSize; }
+    public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
+
+    public Long getPartSize() { return partSize; }
+    public void setPartSize(Long partSize) { this.partSize = partSize; }
+
+    public Integer getTotalParts() { return totalParts; }
+    public void setTotalParts(Integer totalParts) { this.totalParts = totalParts; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public LocalDateTime getCreateTime() { return createTime; }
+    public void setCreateTime(LocalDateTime createTime) { this.createTime = createTime; }
+}
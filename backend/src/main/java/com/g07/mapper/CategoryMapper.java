@@ -3,7 +3,9 @@ package com.g07.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.g07.entity.Category;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import java.util.List;
 
 @Mapper
@@ -19,4 +21,15 @@ public interface CategoryMapper extends BaseMapper<Category> {
             "LEFT JOIN tenant t ON c.tenant_id = t.tenant_id " +
             "ORDER BY c.sort_order ASC, c.create_time DESC")
     List<Category> selectAllWithTenantName();
+
+    /**
+     * 一条语句完成排序：按传入顺序把下标写入 sort_order，只改本企业的文件夹
+     */
+    @Update("<script>" +
+            "UPDATE category SET sort_order = CASE id " +
+            "<foreach collection='ids' item='id' index='i'>WHEN #{id} THEN #{i} </foreach>" +
+            "END WHERE tenant_id = #{tenantId} AND id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    int updateSortOrder(@Param("tenantId") String tenantId, @Param("ids") List<String> ids);
 }
\ No newline at end of file
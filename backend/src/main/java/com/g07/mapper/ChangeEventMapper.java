@@ -0,0 +1,35 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.ChangeEvent;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Mapper
+public interface ChangeEventMapper extends BaseMapper<ChangeEvent> {
+
+    @Insert("<script>" +
+            "INSERT INTO change_event (tenant_id, event_type, resource_id, payload, origin_node, create_time) VALUES " +
+            "<foreach collection='list' item='e' separator=','>" +
+            "(#{e.tenantId}, #{e.eventType}, #{e.resourceId}, #{e.payload}, #{e.originNode}, #{e.createTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("list") List<ChangeEvent> events);
+
+    /**
+     * 按自增 ID 游标增量拉取，走主键范围扫描
+     */
+    @Select("SELECT * FROM change_event WHERE id > #{afterId} ORDER BY id LIMIT #{limit}")
+    List<ChangeEvent> selectAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    @Select("SELECT COALESCE(MAX(id), 0) FROM change_event")
+    long selectMaxId();
+
+    @Delete("DELETE FROM change_event WHERE create_time < #{before} LIMIT #{limit}")
+    int deleteBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
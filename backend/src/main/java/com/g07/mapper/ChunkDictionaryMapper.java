@@ -0,0 +1,9 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.ChunkDictionary;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface ChunkDictionaryMapper extends BaseMapper<ChunkDictionary> {
+}
@@ -0,0 +1,35 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.CitationMapping;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface CitationMappingMapper extends BaseMapper<CitationMapping> {
+
+    @Insert("<script>" +
+            "INSERT INTO citation_mapping (record_id, chunk_id, similarity_score) VALUES " +
+            "<foreach collection='list' item='c' separator=','>" +
+            "(#{c.recordId}, #{c.chunkId}, #{c.similarityScore})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("list") List<CitationMapping> citations);
+
+    /**
+     * 启动预热：最近一段时间内被引用最多的切片，含所属文档、租户、引用次数和最后一次引用时间
+     */
+    @Select("SELECT c.chunk_id AS chunkId, k.doc_id AS docId, k.tenant_id AS tenantId, " +
+            "COUNT(*) AS hits, MAX(q.qa_time) AS lastTime " +
+            "FROM citation_mapping c " +
+            "JOIN qa_record q ON q.record_id = c.record_id " +
+            "JOIN knowledge_chunk k ON k.chunk_id = c.chunk_id " +
+            "WHERE q.qa_time >= #{since} " +
+            "GROUP BY c.chunk_id, k.doc_id, k.tenant_id ORDER BY hits DESC LIMIT #{limit}")
+    List<Map<String, Object>> selectPopular(@Param("since") LocalDateTime since, @Param("limit") int limit);
+}
@@ -2,9 +2,12 @@ package com.g07.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.g07.entity.Document;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
@@ -15,6 +18,7 @@ public interface DocumentMapper extends BaseMapper<Document> {
      * 混合模糊搜索：
      * 1. 匹配文件名包含关键词 (doc_name LIKE %keyword%)
      * 2. 匹配关键词包含文件名 (keyword LIKE %doc_name%) - 用于处理用户直接说文件名的情况
+     * 问答检索已改用 DocumentIndexService 的内存索引，这里保留作对照与兜底
      */
     @Select("SELECT * FROM document " +
             "WHERE tenant_id = #{tenantId} " +
@@ -24,4 +28,61 @@ public interface DocumentMapper extends BaseMapper<Document> {
             ") " +
             "ORDER BY upload_time DESC LIMIT 3")
     List<Document> searchFuzzy(@Param("tenantId") String tenantId, @Param("keyword") String keyword);
-}
\ No newline at end of file
+
+    /**
+     * 文档名索引加载用的轻量投影，只取检索和拼 Prompt 需要的字段
+     */
+    @Select("SELECT doc_id, tenant_id, category_id, doc_name, file_path, file_type, upload_time " +
+            "FROM document WHERE tenant_id = #{tenantId}")
+    List<Document> selectNameIndexByTenant(@Param("tenantId") String tenantId);
+
+    /**
+     * 列表页轻量投影：不取 file_path 等列表用不到的字段
+     */
+    @Select("SELECT doc_id, category_id, doc_name, file_type, file_size, status, parse_error, upload_time " +
+            "FROM document WHERE category_id = #{categoryId} " +
+            "ORDER BY upload_time DESC, doc_id DESC")
+    List<Document> selectListByCategory(@Param("categoryId") String categoryId);
+
+    /**
+     * 游标分页 (keyset)：按 (upload_time, doc_id) 倒序，从上一页最后一条之后继续取，
+     * 配合 idx_category_upload 索引，翻到第几页都只扫描 limit 行
+     */
+    @Select("<script>" +
+            "SELECT doc_id, category_id, doc_name, file_type, file_size, status, parse_error, upload_time " +
+            "FROM document WHERE category_id = #{categoryId} " +
+            "<if test='cursorTime != null'>" +
+            "AND (upload_time &lt; #{cursorTime} OR (upload_time = #{cursorTime} AND doc_id &lt; #{cursorId})) " +
+            "</if>" +
+            "ORDER BY upload_time DESC, doc_id DESC LIMIT #{limit}" +
+            "</script>")
+    List<Document> selectPageByCategory(@Param("categoryId") String categoryId,
+                                        @Param("cursorTime") LocalDateTime cursorTime,
+                                        @Param("cursorId") String cursorId,
+                                        @Param("limit") int limit);
+
+    /**
+     * 批量移动文档到另一个文件夹（限定在同一租户内）
+     */
+    @Update("<script>" +
+            "UPDATE document SET category_id = #{categoryId} " +
+            "WHERE tenant_id = #{tenantId} AND doc_id IN " +
+            "<foreach collection='docIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    int moveToCategory(@Param("tenantId") String tenantId,
+                       @Param("categoryId") String categoryId,
+                       @Param("docIds") List<String> docIds);
+
+    /**
+     * 批量导入时一条语句写入多条文档记录
+     */
+    @Insert("<script>" +
+            "INSERT INTO document (doc_id, tenant_id, user_id, category_id, doc_name, file_path, file_type, " +
+            "file_size, status, parse_error, upload_time, processed_time) VALUES " +
+            "<foreach collection='docs' item='d' separator=','>" +
+            "(#{d.docId}, #{d.tenantId}, #{d.userId}, #{d.categoryId}, #{d.docName}, #{d.filePath}, #{d.fileType}, " +
+            "#{d.fileSize}, #{d.status}, #{d.parseError}, #{d.uploadTime}, #{d.processedTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("docs") List<Document> docs);
+}
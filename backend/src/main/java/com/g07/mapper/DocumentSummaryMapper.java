@@ -0,0 +1,50 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.Document;
+import com.g07.entity.DocumentSummary;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import java.util.List;
+
+@Mapper
+public interface DocumentSummaryMapper extends BaseMapper<DocumentSummary> {
+
+    /**
+     * 写入或覆盖摘要（入库与后台补算可能同时写同一文档），覆盖时清空改写失败记录
+     */
+    @Insert("<script>" +
+            "INSERT INTO document_summary (doc_id, tenant_id, summary, outline, method, token_count, create_time) VALUES " +
+            "<foreach collection='list' item='s' separator=','>" +
+            "(#{s.docId}, #{s.tenantId}, #{s.summary}, #{s.outline}, #{s.method}, #{s.tokenCount}, #{s.createTime})" +
+            "</foreach>" +
+            " ON DUPLICATE KEY UPDATE summary = VALUES(summary), outline = VALUES(outline), method = VALUES(method), " +
+            "token_count = VALUES(token_count), create_time = VALUES(create_time), refine_attempts = 0, next_refine_time = NULL" +
+            "</script>")
+    int upsertBatch(@Param("list") List<DocumentSummary> summaries);
+
+    /**
+     * 补算摘要：按 doc_id 顺序扫描 afterId 之后的 scan 个文档，返回其中已解析完成但还没有摘要的（功能上线前入库的老数据）
+     */
+    @Select("SELECT d.doc_id, d.tenant_id, d.doc_name FROM " +
+            "(SELECT doc_id, tenant_id, doc_name, status FROM document WHERE doc_id > #{afterId} ORDER BY doc_id LIMIT #{scan}) d " +
+            "LEFT JOIN document_summary s ON s.doc_id = d.doc_id " +
+            "WHERE s.doc_id IS NULL AND d.status = 'completed' ORDER BY d.doc_id")
+    List<Document> selectDocsWithoutSummary(@Param("afterId") String afterId, @Param("scan") int scan);
+
+    /**
+     * 上面那次扫描的最后一个 doc_id，作为下一轮的起点；扫到表尾时为空
+     */
+    @Select("SELECT MAX(doc_id) FROM (SELECT doc_id FROM document WHERE doc_id > #{afterId} ORDER BY doc_id LIMIT #{scan}) t")
+    String selectScanEnd(@Param("afterId") String afterId, @Param("scan") int scan);
+
+    /**
+     * 待改写的抽取式摘要，跳过仍在退避期内的
+     */
+    @Select("SELECT doc_id, tenant_id, summary, outline, method, token_count, refine_attempts FROM document_summary " +
+            "WHERE method = 'extractive' AND summary <> '' AND (next_refine_time IS NULL OR next_refine_time <= NOW(6)) " +
+            "ORDER BY next_refine_time, doc_id LIMIT #{limit}")
+    List<DocumentSummary> selectRefinable(@Param("limit") int limit);
+}
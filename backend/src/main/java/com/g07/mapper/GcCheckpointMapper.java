@@ -0,0 +1,9 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.GcCheckpoint;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface GcCheckpointMapper extends BaseMapper<GcCheckpoint> {
+}
@@ -2,21 +2,111 @@ package com.g07.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.g07.entity.KnowledgeChunk;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
 public interface KnowledgeChunkMapper extends BaseMapper<KnowledgeChunk> {
 
     /**
-     * 简单的关键词检索 (基于 MySQL LIKE)
-     * 限制 tenantId 确保数据隔离
+     * 上下文打包用：取打分需要的元数据和签名，不取压缩内容；未压缩的老数据 content 仍在
      */
-    @Select("SELECT * FROM knowledge_chunk " +
+    @Select("SELECT chunk_id, doc_id, chunk_index, page_number, token_count, dict_id, bigram_sig, content " +
+            "FROM knowledge_chunk WHERE doc_id = #{docId} ORDER BY chunk_index")
+    List<KnowledgeChunk> selectForPacking(@Param("docId") String docId);
+
+    /**
+     * 关键词检索（未开启压缩存储时）：直接对 content 做 LIKE
+     */
+    @Select("SELECT chunk_id, doc_id, chunk_index, page_number, token_count, content, create_time FROM knowledge_chunk " +
+            "WHERE tenant_id = #{tenantId} AND content LIKE CONCAT('%', #{keyword}, '%') " +
+            "ORDER BY create_time DESC LIMIT #{limit}")
+    List<KnowledgeChunk> searchByKeyword(@Param("tenantId") String tenantId,
+                                         @Param("keyword") String keyword,
+                                         @Param("limit") int limit);
+
+    /**
+     * 关键词检索（压缩存储时）：按 (create_time, chunk_id) 倒序分批取签名，不取正文
+     */
+    @Select("<script>" +
+            "SELECT chunk_id, doc_id, chunk_index, page_number, token_count, bigram_sig, create_time FROM knowledge_chunk " +
             "WHERE tenant_id = #{tenantId} " +
-            "AND content LIKE CONCAT('%', #{keyword}, '%') " +
-            "ORDER BY create_time DESC LIMIT 5")
-    List<KnowledgeChunk> searchByKeyword(@Param("tenantId") String tenantId, @Param("keyword") String keyword);
-}
\ No newline at end of file
+            "<if test='beforeTime != null'>AND (create_time &lt; #{beforeTime} OR (create_time = #{beforeTime} AND chunk_id &lt; #{beforeId})) </if>" +
+            "ORDER BY create_time DESC, chunk_id DESC LIMIT #{limit}" +
+            "</script>")
+    List<KnowledgeChunk> selectSignaturesBefore(@Param("tenantId") String tenantId,
+                                                @Param("beforeTime") LocalDateTime beforeTime,
+                                                @Param("beforeId") String beforeId,
+                                                @Param("limit") int limit);
+
+    /**
+     * 只取入选切片的压缩内容，按需解压
+     */
+    @Select("<script>" +
+            "SELECT chunk_id, content, content_z, dict_id FROM knowledge_chunk WHERE chunk_id IN " +
+            "<foreach collection='chunkIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    List<KnowledgeChunk> selectBodies(@Param("chunkIds") List<String> chunkIds);
+
+    /**
+     * 存储格式迁移：按 chunk_id 游标分批取出某租户的切片
+     */
+    @Select("SELECT chunk_id, tenant_id, content, content_z, dict_id, bigram_sig FROM knowledge_chunk " +
+            "WHERE tenant_id = #{tenantId} AND chunk_id > #{afterId} ORDER BY chunk_id LIMIT #{limit}")
+    List<KnowledgeChunk> selectBatchAfter(@Param("tenantId") String tenantId,
+                                          @Param("afterId") String afterId,
+                                          @Param("limit") int limit);
+
+    /**
+     * 本地段存储增量同步：按 (create_time, chunk_id) 游标取出新写入的切片，只取定位字段
+     */
+    @Select("SELECT chunk_id, doc_id, create_time FROM knowledge_chunk " +
+            "WHERE (create_time > #{afterTime} OR (create_time = #{afterTime} AND chunk_id > #{afterId})) " +
+            "AND create_time <= #{before} ORDER BY create_time, chunk_id LIMIT #{limit}")
+    List<KnowledgeChunk> selectCreatedAfter(@Param("afterTime") LocalDateTime afterTime,
+                                            @Param("afterId") String afterId,
+                                            @Param("before") LocalDateTime before,
+                                            @Param("limit") int limit);
+
+    /**
+     * 本地段存储同步：按文档整体取出切片
+     */
+    @Select("<script>" +
+            "SELECT chunk_id, doc_id, chunk_index, page_number, token_count, content, content_z, dict_id, bigram_sig, create_time " +
+            "FROM knowledge_chunk WHERE doc_id IN " +
+            "<foreach collection='docIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    List<KnowledgeChunk> selectForSegment(@Param("docIds") List<String> docIds);
+
+    @Update("UPDATE knowledge_chunk SET content = #{c.content}, content_z = #{c.contentZ}, " +
+            "dict_id = #{c.dictId}, bigram_sig = #{c.bigramSig} WHERE chunk_id = #{c.chunkId}")
+    int updateStorage(@Param("c") KnowledgeChunk chunk);
+
+    /**
+     * 按文档批量清理切片
+     */
+    @Delete("<script>" +
+            "DELETE FROM knowledge_chunk WHERE doc_id IN " +
+            "<foreach collection='docIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    int deleteByDocIds(@Param("docIds") List<String> docIds);
+
+    /**
+     * 一条语句写入多条切片，代替逐条 insert
+     */
+    @Insert("<script>" +
+            "INSERT INTO knowledge_chunk (chunk_id, tenant_id, doc_id, content_type, content, content_z, dict_id, " +
+            "bigram_sig, vector_id, page_number, chunk_index, token_count, create_time) VALUES " +
+            "<foreach collection='chunks' item='c' separator=','>" +
+            "(#{c.chunkId}, #{c.tenantId}, #{c.docId}, #{c.contentType}, #{c.content}, #{c.contentZ}, #{c.dictId}, " +
+            "#{c.bigramSig}, #{c.vectorId}, #{c.pageNumber}, #{c.chunkIndex}, #{c.tokenCount}, #{c.createTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("chunks") List<KnowledgeChunk> chunks);
+}
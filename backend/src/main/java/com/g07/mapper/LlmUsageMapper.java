@@ -0,0 +1,55 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.LlmUsageDaily;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface LlmUsageMapper extends BaseMapper<LlmUsageDaily> {
+
+    /**
+     * 各节点把本节点一个周期内的增量累加到汇总行上
+     */
+    @Insert("<script>" +
+            "INSERT INTO llm_usage_daily (tenant_id, user_id, usage_date, model, calls, failed_calls, " +
+            "prompt_tokens, completion_tokens, cache_hit_tokens, latency_ms) VALUES " +
+            "<foreach collection='list' item='u' separator=','>" +
+            "(#{u.tenantId}, #{u.userId}, #{u.usageDate}, #{u.model}, #{u.calls}, #{u.failedCalls}, " +
+            "#{u.promptTokens}, #{u.completionTokens}, #{u.cacheHitTokens}, #{u.latencyMs})" +
+            "</foreach> " +
+            "ON DUPLICATE KEY UPDATE calls = calls + VALUES(calls), failed_calls = failed_calls + VALUES(failed_calls), " +
+            "prompt_tokens = prompt_tokens + VALUES(prompt_tokens), " +
+            "completion_tokens = completion_tokens + VALUES(completion_tokens), " +
+            "cache_hit_tokens = cache_hit_tokens + VALUES(cache_hit_tokens), latency_ms = latency_ms + VALUES(latency_ms)" +
+            "</script>")
+    int upsertBatch(@Param("list") List<LlmUsageDaily> rows);
+
+    /**
+     * 各租户自 since 起累计的 Token（输入 + 输出），用于月度额度判断
+     */
+    @Select("SELECT tenant_id AS tenantId, SUM(prompt_tokens + completion_tokens) AS tokens " +
+            "FROM llm_usage_daily WHERE usage_date >= #{since} AND tenant_id <> '' GROUP BY tenant_id")
+    List<Map<String, Object>> selectTenantTotals(@Param("since") LocalDate since);
+
+    /**
+     * 按日期、用户或模型汇总某租户的用量；groupBy 只允许传入列名白名单中的值
+     */
+    @Select("<script>" +
+            "SELECT ${groupBy} AS groupKey, SUM(calls) AS calls, SUM(failed_calls) AS failedCalls, " +
+            "SUM(prompt_tokens) AS promptTokens, SUM(completion_tokens) AS completionTokens, " +
+            "SUM(cache_hit_tokens) AS cacheHitTokens, SUM(latency_ms) AS latencyMs " +
+            "FROM llm_usage_daily WHERE tenant_id = #{tenantId} " +
+            "<if test='userId != null'>AND user_id = #{userId} </if>" +
+            "AND usage_date BETWEEN #{from} AND #{to} " +
+            "GROUP BY ${groupBy} ORDER BY ${groupBy}" +
+            "</script>")
+    List<Map<String, Object>> selectRollup(@Param("tenantId") String tenantId, @Param("userId") String userId,
+                                           @Param("from") LocalDate from, @Param("to") LocalDate to,
+                                           @Param("groupBy") String groupBy);
+}
@@ -2,8 +2,19 @@ package com.g07.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.g07.entity.QaRecord;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import java.util.List;
 
 @Mapper
 public interface QaRecordMapper extends BaseMapper<QaRecord> {
+
+    @Insert("<script>" +
+            "INSERT INTO qa_record (record_id, session_id, question, answer, qa_time) VALUES " +
+            "<foreach collection='list' item='r' separator=','>" +
+            "(#{r.recordId}, #{r.sessionId}, #{r.question}, #{r.answer}, #{r.qaTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("list") List<QaRecord> records);
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.TenantShard;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface TenantShardMapper extends BaseMapper<TenantShard> {
+
+    @Insert("INSERT INTO tenant_shard (tenant_id, shard_id, status, update_time) VALUES (#{tenantId}, #{shardId}, #{status}, NOW(6)) " +
+            "ON DUPLICATE KEY UPDATE shard_id = VALUES(shard_id), status = VALUES(status), update_time = VALUES(update_time)")
+    int upsert(@Param("tenantId") String tenantId, @Param("shardId") int shardId, @Param("status") String status);
+}
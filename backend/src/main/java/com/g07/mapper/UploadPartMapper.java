@@ -0,0 +1,18 @@
+package com.g07.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.g07.entity.UploadPart;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface UploadPartMapper extends BaseMapper<UploadPart> {
+
+    /**
+     * 同一分片重复上传时覆盖原记录，并发重试也不会撞唯一键
+     */
+    @Insert("INSERT INTO upload_part (upload_id, part_number, etag, size, sha256, create_time) " +
+            "VALUES (#{uploadId}, #{partNumber}, #{etag}, #{size}, #{sha256}, #{createTime}) " +
+            "ON DUPLICATE KEY UPDATE etag = VALUES(etag), size = VALUES(size), sha256 = VALUES(sha256), create_time = VALUES(create_time)")
+    int upsert(UploadPart part);
+}
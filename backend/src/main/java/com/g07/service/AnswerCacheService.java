@@ -0,0 +1,196 @@
+package com.g07.service;
+
+import com.g07.utils.TextUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按租户隔离的问答缓存
+ * 1. 先按归一化后的问题精确命中；
+ * 2. 未命中时可按二元词 Jaccard 相似度做近似命中（阈值 <= 0 时关闭）；
+ * 3. 记录每条答案引用了哪些文档，文档上传/替换/删除时只失效相关条目；
+ * 4. 每个租户维护一个失效代数，生成答案前记下，写入时代数变了（期间有文档变更）就不写，避免旧答案写回缓存。
+ */
+@Service
+public class AnswerCacheService {
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.max-entries:500}")
+    private int maxEntries;
+
+    @Value("${ai.cache.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    @Value("${ai.cache.similarity-threshold:0.85}")
+    private double similarityThreshold;
+
+    private final Map<String, TenantCache> tenants = new ConcurrentHashMap<>();
+
+    public static class CachedAnswer {
+        private final String question;
+        private final String answer;
+        private final List<String> citations;
+        private final Set<String> docIds;
+        private final List<ContextPackService.CitedChunk> citedChunks;
+        private final int costTokens;
+        private final long createTime = System.currentTimeMillis();
+        private final Set<String> grams;
+
+        public CachedAnswer(String question, String answer, List<String> citations, Collection<String> docIds,
+                            List<ContextPackService.CitedChunk> citedChunks, int costTokens) {
+            this.question = question;
+            this.answer = answer;
+            this.citations = new ArrayList<>(citations);
+            this.docIds = new HashSet<>(docIds);
+            this.citedChunks = new ArrayList<>(citedChunks);
+            this.costTokens = costTokens;
+            this.grams = TextUtils.bigrams(question);
+        }
+
+        public String getQuestion() { return question; }
+        public String getAnswer() { return answer; }
+        public List<String> getCitations() { return citations; }
+        public List<ContextPackService.CitedChunk> getCitedChunks() { return citedChunks; }
+        public int getCostTokens() { return costTokens; }
+    }
+
+    public CachedAnswer lookup(String tenantId, String question) {
+        if (!enabled || tenantId == null) return null;
+        TenantCache cache = tenants.computeIfAbsent(tenantId, k -> new TenantCache());
+        CachedAnswer hit = cache.find(question);
+        if (hit == null) {
+            cache.misses.incrementAndGet();
+            return null;
+        }
+        cache.hits.incrementAndGet();
+        cache.savedTokens.addAndGet(hit.getCostTokens());
+        return hit;
+    }
+
+    /**
+     * 当前失效代数，检索前调用，写入时传给 put
+     */
+    public long epoch(String tenantId) {
+        if (tenantId == null) return 0;
+        return tenants.computeIfAbsent(tenantId, k -> new TenantCache()).epoch();
+    }
+
+    /**
+     * @param epoch 检索前取得的失效代数；之后有文档变更时不写入
+     */
+    public void put(String tenantId, CachedAnswer answer, long epoch) {
+        if (!enabled || tenantId == null) return;
+        tenants.computeIfAbsent(tenantId, k -> new TenantCache()).put(answer, epoch);
+    }
+
+    /**
+     * 文档被删除或替换：失效所有引用了它的答案
+     */
+    public void invalidateDocument(String tenantId, String docId) {
+        if (tenantId == null) return;
+        tenants.computeIfAbsent(tenantId, k -> new TenantCache()).removeByDoc(docId);
+    }
+
+    /**
+     * 新文档上传：同名文档视为替换，引用了同名文档的答案失效；
+     * 之前没有命中任何文档的答案也可能因为新文档而改变，一并失效
+     */
+    public void invalidateOnUpload(String tenantId, String docName) {
+        if (tenantId == null) return;
+        tenants.computeIfAbsent(tenantId, k -> new TenantCache()).removeOnUpload(docName);
+    }
+
+    public Map<String, Object> stats(String tenantId) {
+        TenantCache cache = tenants.get(tenantId);
+        long hits = cache != null ? cache.hits.get() : 0;
+        long misses = cache != null ? cache.misses.get() : 0;
+        Map<String, Object> data = new HashMap<>();
+        data.put("entries", cache != null ? cache.size() : 0);
+        data.put("hits", hits);
+        data.put("misses", misses);
+        data.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        data.put("savedTokens", cache != null ? cache.savedTokens.get() : 0);
+        data.put("staleSkips", cache != null ? cache.staleSkips.get() : 0);
+        return data;
+    }
+
+    private class TenantCache {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong savedTokens = new AtomicLong();
+        final AtomicLong staleSkips = new AtomicLong();
+        private long epoch;
+
+        // 访问顺序的 LinkedHashMap 作为 LRU，超出容量时淘汰最久未用的条目
+        private final LinkedHashMap<String, CachedAnswer> entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAnswer> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        synchronized long epoch() {
+            return epoch;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized CachedAnswer find(String question) {
+            String key = TextUtils.normalize(question);
+            CachedAnswer exact = entries.get(key);
+            if (exact != null) {
+                if (!expired(exact)) return exact;
+                entries.remove(key);
+            }
+            if (similarityThreshold <= 0) return null;
+
+            Set<String> grams = TextUtils.bigrams(question);
+            CachedAnswer best = null;
+            double bestScore = similarityThreshold;
+            Iterator<CachedAnswer> it = entries.values().iterator();
+            while (it.hasNext()) {
+                CachedAnswer a = it.next();
+                if (expired(a)) {
+                    it.remove();
+                    continue;
+                }
+                double score = TextUtils.jaccard(grams, a.grams);
+                if (score >= bestScore) {
+                    best = a;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+
+        synchronized void put(CachedAnswer answer, long seenEpoch) {
+            if (seenEpoch != epoch) {
+                staleSkips.incrementAndGet();
+                return;
+            }
+            entries.put(TextUtils.normalize(answer.getQuestion()), answer);
+        }
+
+        synchronized void removeByDoc(String docId) {
+            epoch++;
+            entries.values().removeIf(a -> a.docIds.contains(docId));
+        }
+
+        synchronized void removeOnUpload(String docName) {
+            epoch++;
+            entries.values().removeIf(a -> a.docIds.isEmpty() || a.citations.contains(docName));
+        }
+
+        private boolean expired(CachedAnswer a) {
+            return System.currentTimeMillis() - a.createTime > ttlMinutes * 60_000L;
+        }
+    }
+}
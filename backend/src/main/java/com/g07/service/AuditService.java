@@ -0,0 +1,81 @@
+package com.g07.service;
+
+import com.g07.entity.AuditLog;
+import com.g07.entity.User;
+import com.g07.mapper.AuditLogMapper;
+import com.g07.mapper.UserMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.*;
+
+/**
+ * 审计日志写入
+ * record 同步写入；recordAsync 交给后台单线程写入，不占用请求线程（队列满时退化为调用方线程写入）
+ */
+@Service
+public class AuditService {
+
+    @Autowired
+    private AuditLogMapper auditLogMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    private final ExecutorService writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(10000),
+            r -> {
+                Thread t = new Thread(r, "audit-writer");
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    public void record(String tenantId, String userId, String username, String type, String target, String resourceId, String detail) {
+        write(tenantId, userId, username, type, target, resourceId, detail, LocalDateTime.now());
+    }
+
+    public void recordAsync(String tenantId, String userId, String username, String type, String target, String resourceId, String detail) {
+        // 时间戳取事件发生时刻，而不是后台真正写入的时刻
+        LocalDateTime now = LocalDateTime.now();
+        writer.execute(() -> write(tenantId, userId, username, type, target, resourceId, detail, now));
+    }
+
+    private void write(String tenantId, String userId, String username, String type, String target, String resourceId,
+                       String detail, LocalDateTime timestamp) {
+        try {
+            AuditLog log = new AuditLog();
+            log.setTenantId(tenantId != null ? tenantId : "unknown_tenant");
+            log.setUserId(userId != null ? userId : "unknown_user");
+
+            // 调用方没有带用户名时在这里补查，异步写入时不占用请求线程
+            if (username == null && userId != null) {
+                User u = userMapper.selectById(userId);
+                username = (u != null) ? u.getUsername() : null;
+            }
+            log.setUsername(username != null ? username : "unknown");
+            log.setOperationType(type);
+
+            if (target != null && target.length() > 255) target = target.substring(0, 250) + "...";
+            log.setTargetResource(target);
+            log.setResourceId(resourceId);
+
+            log.setOperationDetail(detail);
+            log.setTimestamp(timestamp);
+            log.setStatus("SUCCESS");
+
+            auditLogMapper.insert(log);
+        } catch (Exception e) {
+            System.err.println(">>> 审计日志写入异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,284 @@
+package com.g07.service;
+
+import com.g07.config.ReplicaRouter;
+import com.g07.config.ShardRouter;
+import com.g07.entity.QaRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 批量问答：整批问题放在同一个会话里，由本节点共享的工作线程池并行处理，每批的并发数另有上限。
+ * - 关键词检索结果和文档切片在整批问题之间共享（ChatService.SharedRetrieval），相同的问题只回答一次；
+ * - 工作线程只负责回答，结果放进本批的队列；调用 run 的线程是唯一的写出方：取出当前已完成的全部结果，
+ *   问答记录按 record-batch 条一组批量写入并登记引用，写入成功后才带着 recordId 输出，
+ *   写出慢的客户端只拖慢这一个线程，不占用工作线程；
+ * - 某个问题触发租户额度上限后，尚未开始的问题直接返回失败，不再调用模型。
+ */
+@Service
+public class BatchChatService {
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private CitationService citationService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ReplicaRouter replicaRouter;
+
+    @Value("${chat.batch.pool-size:16}")
+    private int poolSize;
+
+    @Value("${chat.batch.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${chat.batch.record-batch:100}")
+    private int recordBatch;
+
+    private ExecutorService pool;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong questions = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong failedQuestions = new AtomicLong();
+    private final AtomicLong unsavedRecords = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * 一个问题的结果；record 为空表示没有回答成功
+     */
+    private static class Done {
+        final Map<String, Object> line;
+        final QaRecord record;
+        final List<ContextPackService.CitedChunk> cited;
+
+        Done(Map<String, Object> line, QaRecord record, List<ContextPackService.CitedChunk> cited) {
+            this.line = line;
+            this.record = record;
+            this.cited = cited;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger seq = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread t = new Thread(r, "chat-batch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 提交整批问题并等待全部完成，调用线程需已绑定租户分片（写问答记录）
+     * @param concurrency 本批的并发数，超过 max-concurrency 时按上限处理
+     * @param emit        每写完一组问答记录调用一次，参数为这一组的结果行；只在调用线程上调用
+     * @return 汇总（type=done）
+     */
+    public Map<String, Object> run(String userId, String tenantId, String title, List<String> questionList,
+                                   int concurrency, Consumer<List<Map<String, Object>>> emit) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        batches.incrementAndGet();
+        running.incrementAndGet();
+        int permits = Math.max(1, Math.min(concurrency, maxConcurrency));
+        String sessionId = chatService.createSession(userId, tenantId, title);
+
+        ChatService.SharedRetrieval shared = new ChatService.SharedRetrieval();
+        Map<String, CompletableFuture<ChatService.Answer>> sameQuestion = new ConcurrentHashMap<>();
+        BlockingQueue<Done> results = new LinkedBlockingQueue<>();
+        AtomicBoolean quotaExceeded = new AtomicBoolean();
+        int succeeded = 0;
+        int failed = 0;
+        int cached = 0;
+        int unsaved = 0;
+
+        try {
+            int submitted = 0;
+            int finished = 0;
+            List<Done> group = new ArrayList<>();
+            while (finished < questionList.size()) {
+                // 在途的问题不超过 permits 个，每取回一个结果补交一个
+                while (submitted < questionList.size() && submitted - finished < permits) {
+                    submit(userId, tenantId, sessionId, submitted, questionList.get(submitted), shared, sameQuestion,
+                            quotaExceeded, results);
+                    submitted++;
+                }
+                group.clear();
+                group.add(results.take());
+                results.drainTo(group);
+                finished += group.size();
+
+                for (Done d : group) {
+                    if (d.record == null) {
+                        failed++;
+                    } else {
+                        succeeded++;
+                        if (Boolean.TRUE.equals(d.line.get("cached"))) cached++;
+                    }
+                }
+                for (int i = 0; i < group.size(); i += recordBatch) {
+                    List<Done> part = group.subList(i, Math.min(group.size(), i + recordBatch));
+                    unsaved += save(tenantId, part);
+                    List<Map<String, Object>> lines = new ArrayList<>();
+                    for (Done d : part) lines.add(d.line);
+                    emit.accept(lines);
+                }
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+
+        questions.addAndGet(questionList.size());
+        failedQuestions.addAndGet(failed);
+        unsavedRecords.addAndGet(unsaved);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("type", "done");
+        summary.put("sessionId", sessionId);
+        summary.put("total", questionList.size());
+        summary.put("succeeded", succeeded);
+        summary.put("failed", failed);
+        summary.put("cached", cached);
+        if (unsaved > 0) summary.put("unsaved", unsaved);
+        summary.put("sharedKeywords", shared.cachedKeywords());
+        summary.put("sharedDocuments", shared.cachedDocuments());
+        summary.put("elapsedMs", System.currentTimeMillis() - start);
+        if (quotaExceeded.get()) summary.put("quotaExceeded", true);
+        return summary;
+    }
+
+    /**
+     * 在工作线程上回答一个问题，无论成败都恰好放入一个结果
+     */
+    private void submit(String userId, String tenantId, String sessionId, int index, String question,
+                        ChatService.SharedRetrieval shared, Map<String, CompletableFuture<ChatService.Answer>> sameQuestion,
+                        AtomicBoolean quotaExceeded, BlockingQueue<Done> results) {
+        pool.execute(() -> {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("type", "result");
+            line.put("index", index);
+            line.put("question", question);
+            Done done = new Done(line, null, null);
+            try {
+                done = shardRouter.call(tenantId, () -> replicaRouter.callAs(userId, () -> {
+                    if (quotaExceeded.get()) {
+                        throw new LlmUsageService.QuotaExceededException("本月大模型 Token 额度已用完");
+                    }
+                    ChatService.Answer a = answerOnce(userId, tenantId, question, shared, sameQuestion);
+                    line.put("answer", a.getAnswer());
+                    line.put("citations", a.getCitations());
+                    line.put("cached", a.isCached());
+                    return new Done(line, newRecord(sessionId, question, a.getAnswer()), a.getCitedChunks());
+                }));
+            } catch (LlmUsageService.QuotaExceededException e) {
+                quotaExceeded.set(true);
+                line.put("error", e.getMessage());
+            } catch (Throwable e) {
+                line.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+            } finally {
+                results.add(done);
+            }
+        });
+    }
+
+    /**
+     * 同一批内相同的问题只回答一次，后到的等待先到的结果
+     */
+    private ChatService.Answer answerOnce(String userId, String tenantId, String question,
+                                          ChatService.SharedRetrieval shared,
+                                          Map<String, CompletableFuture<ChatService.Answer>> sameQuestion) throws Exception {
+        CompletableFuture<ChatService.Answer> mine = new CompletableFuture<>();
+        CompletableFuture<ChatService.Answer> existing = sameQuestion.putIfAbsent(question, mine);
+        if (existing != null) {
+            deduplicated.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                throw e;
+            }
+        }
+        try {
+            ChatService.Answer a = chatService.answer(userId, tenantId, question, shared);
+            mine.complete(a);
+            return a;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static QaRecord newRecord(String sessionId, String question, String answer) {
+        QaRecord record = new QaRecord();
+        record.setRecordId(UUID.randomUUID().toString().replace("-", ""));
+        record.setSessionId(sessionId);
+        record.setQuestion(question);
+        record.setAnswer(answer);
+        record.setQaTime(LocalDateTime.now());
+        return record;
+    }
+
+    /**
+     * 批量写入问答记录，写入后再登记引用（引用行引用问答记录）；写入成功的结果行才带 recordId
+     * @return 没有写入的记录数
+     */
+    private int save(String tenantId, List<Done> batch) {
+        List<QaRecord> records = new ArrayList<>();
+        for (Done d : batch) {
+            if (d.record != null) records.add(d.record);
+        }
+        if (records.isEmpty()) return 0;
+        try {
+            chatService.saveRecords(records);
+        } catch (Exception e) {
+            System.err.println(">>> [BatchChat] 写入 " + records.size() + " 条问答记录失败: " + e.getMessage());
+            for (Done d : batch) {
+                if (d.record != null) d.line.put("saveError", "问答记录写入失败");
+            }
+            return records.size();
+        }
+        for (Done d : batch) {
+            if (d.record != null) d.line.put("recordId", d.record.getRecordId());
+        }
+        try {
+            for (Done d : batch) {
+                if (d.record != null) citationService.record(tenantId, d.record.getRecordId(), d.cited);
+            }
+        } catch (Exception e) {
+            System.err.println(">>> [BatchChat] 登记引用失败: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("batches", batches.get());
+        data.put("running", running.get());
+        data.put("questions", questions.get());
+        data.put("deduplicated", deduplicated.get());
+        data.put("failed", failedQuestions.get());
+        data.put("unsavedRecords", unsavedRecords.get());
+        data.put("poolSize", poolSize);
+        data.put("maxConcurrency", maxConcurrency);
+        return data;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,454 @@
+package com.g07.service;
+
+import com.g07.entity.Category;
+import com.g07.entity.Document;
+import com.g07.entity.DocumentSummary;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.mapper.CategoryMapper;
+import com.g07.mapper.DocumentMapper;
+import com.g07.utils.TxUtils;
+import io.minio.*;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * 批量导入：把 ZIP/TAR(.gz) 压缩包或 MinIO 暂存目录下的全部文件一次性导入知识库。
+ * - 目录结构映射为文件夹：a/b/x.pdf 导入到名为 "a/b" 的文件夹，不存在则新建；根目录下的文件进入默认文件夹；
+ * - 读取线程顺序读包，解析交给专用的固定大小线程池并行执行（工作线程会阻塞等待 ParseService，不能用 ForkJoinPool），
+ *   同时在途的文件数受信号量限制，内存占用可控；
+ * - 文档、切片与摘要攒够一批后在一个事务里用多值 INSERT 写入，提交后再更新内存索引和缓存；
+ * - 每个文件处理完通过回调推送进度，最后推送汇总。
+ */
+@Service
+public class BulkImportService {
+
+    // 压缩包里的系统垃圾文件
+    private static final Set<String> IGNORED_NAMES = Set.of(".DS_Store", "Thumbs.db", "desktop.ini");
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private CategoryMapper categoryMapper;
+
+    @Autowired
+    private CategoryCacheService categoryCacheService;
+
+    @Autowired
+    private DocumentIndexService documentIndexService;
+
+    @Autowired
+    private AnswerCacheService answerCacheService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private SummaryService summaryService;
+
+    @Autowired
+    private ClusterEventService clusterEventService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${minio.bucketName}")
+    private String bucketName;
+
+    // 解析并行度，0 表示 CPU 核数
+    @Value("${import.parallelism:0}")
+    private int parallelism;
+
+    // 累积多少条切片写一次库
+    @Value("${import.flush-chunks:1000}")
+    private int flushChunks;
+
+    @Value("${import.max-entry-mb:50}")
+    private long maxEntryMb;
+
+    // MinIO 暂存目录，实际前缀为 {staging-prefix}{tenantId}/
+    @Value("${import.staging-prefix:_import/}")
+    private String stagingPrefix;
+
+    private int threads;
+    private ExecutorService pool;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "import-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 某个文件在导入时写入 MinIO 的方式：压缩包条目是上传字节，暂存目录里的对象是服务端复制
+     * @return 文件内容，用于解析
+     */
+    private interface EntryWriter {
+        byte[] store(String objectName) throws Exception;
+    }
+
+    private static class Parsed {
+        Document doc;
+        List<KnowledgeChunk> chunks = Collections.emptyList();
+        DocumentSummary summary;
+        String path;
+        // 来自暂存目录时的源对象，登记提交后删除
+        String source;
+        String error;
+        boolean stored;
+    }
+
+    /**
+     * 一次导入任务的上下文，只在读取线程中访问
+     */
+    private class ImportJob {
+        final String tenantId;
+        final String userId;
+        final String defaultCategory;
+        final Consumer<Map<String, Object>> progress;
+        final Semaphore inFlight = new Semaphore(threads * 2);
+        final ExecutorCompletionService<Parsed> completion = new ExecutorCompletionService<>(pool);
+        final Map<String, String> categories = new HashMap<>();
+        final List<Document> pendingDocs = new ArrayList<>();
+        final List<KnowledgeChunk> pendingChunks = new ArrayList<>();
+        final List<DocumentSummary> pendingSummaries = new ArrayList<>();
+        final List<String> pendingSources = new ArrayList<>();
+        final long start = System.currentTimeMillis();
+        int submitted, succeeded, failed, skipped;
+        boolean categoriesChanged;
+
+        ImportJob(String tenantId, String userId, String defaultCategory, Consumer<Map<String, Object>> progress) {
+            this.tenantId = tenantId;
+            this.userId = userId;
+            this.defaultCategory = defaultCategory;
+            this.progress = progress;
+            for (Category c : categoryCacheService.listByTenant(tenantId)) {
+                categories.putIfAbsent(c.getName(), c.getId());
+            }
+        }
+    }
+
+    /**
+     * 导入压缩包，支持 zip / tar / tar.gz / tgz
+     */
+    public Map<String, Object> importArchive(String tenantId, String userId, String archiveName,
+                                             InputStream input, Consumer<Map<String, Object>> progress) throws Exception {
+        ImportJob job = new ImportJob(tenantId, userId, baseName(archiveName), progress);
+        long maxBytes = maxEntryMb * 1024 * 1024;
+
+        InputStream in = new BufferedInputStream(input);
+        String lower = archiveName.toLowerCase();
+        if (lower.endsWith(".gz") || lower.endsWith(".tgz")) {
+            in = new BufferedInputStream(new CompressorStreamFactory().createCompressorInputStream(in));
+        }
+        try (ArchiveInputStream archive = new ArchiveStreamFactory("UTF-8").createArchiveInputStream(in)) {
+            ArchiveEntry entry;
+            while ((entry = archive.getNextEntry()) != null) {
+                if (entry.isDirectory() || isIgnored(entry.getName())) continue;
+                if (!archive.canReadEntryData(entry) || entry.getSize() > maxBytes) {
+                    skip(job, entry.getName(), "文件过大或无法读取");
+                    continue;
+                }
+                byte[] data = readEntry(archive, maxBytes);
+                if (data == null) {
+                    skip(job, entry.getName(), "文件过大");
+                    continue;
+                }
+                submit(job, entry.getName(), data.length, null, objectName -> {
+                    minioClient.putObject(PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .stream(new ByteArrayInputStream(data), data.length, -1)
+                            .build());
+                    return data;
+                });
+            }
+        }
+        return finish(job);
+    }
+
+    /**
+     * 导入 MinIO 暂存目录下的全部对象；文档登记的事务提交后暂存对象会被删除，失败时保留以便重试
+     * @param prefix 相对于该租户暂存目录的前缀，可为空
+     */
+    public Map<String, Object> importPrefix(String tenantId, String userId, String prefix,
+                                            Consumer<Map<String, Object>> progress) throws Exception {
+        String root = stagingPrefix + tenantId + "/";
+        String relative = prefix == null ? "" : prefix.replaceAll("^/+", "");
+        if (relative.contains("..")) throw new IllegalArgumentException("非法的导入路径");
+
+        ImportJob job = new ImportJob(tenantId, userId, "导入", progress);
+        long maxBytes = maxEntryMb * 1024 * 1024;
+
+        Iterable<Result<Item>> items = minioClient.listObjects(ListObjectsArgs.builder()
+                .bucket(bucketName)
+                .prefix(root + relative)
+                .recursive(true)
+                .build());
+        for (Result<Item> r : items) {
+            Item item = r.get();
+            String source = item.objectName();
+            String path = source.substring(root.length());
+            if (item.isDir() || isIgnored(path)) continue;
+            if (item.size() > maxBytes) {
+                skip(job, path, "文件过大");
+                continue;
+            }
+            submit(job, path, item.size(), source, objectName -> {
+                minioClient.copyObject(CopyObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .source(CopySource.builder().bucket(bucketName).object(source).build())
+                        .build());
+                byte[] data;
+                try (InputStream stream = minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(objectName).build())) {
+                    data = stream.readAllBytes();
+                }
+                return data;
+            });
+        }
+        return finish(job);
+    }
+
+    private void submit(ImportJob job, String entryName, long size, String source, EntryWriter writer) throws Exception {
+        String path = entryName.replaceAll("^(\\./|/)+", "");
+        String dir = path.contains("/") ? path.substring(0, path.lastIndexOf('/')) : "";
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        String categoryId = resolveCategory(job, dir.isEmpty() ? job.defaultCategory : dir);
+
+        String docId = UUID.randomUUID().toString().replace("-", "");
+        Document doc = new Document();
+        doc.setDocId(docId);
+        doc.setTenantId(job.tenantId);
+        doc.setUserId(job.userId);
+        doc.setCategoryId(categoryId);
+        doc.setDocName(fileName);
+        doc.setFilePath(job.tenantId + "/" + categoryId + "/" + docId + "_" + fileName);
+        doc.setFileType(fileName.contains(".") ? fileName.substring(fileName.lastIndexOf(".") + 1) : "unknown");
+        doc.setFileSize(size);
+        doc.setUploadTime(LocalDateTime.now());
+
+        // 在途文件达到上限时先处理已完成的结果，避免读取线程把整个包读进内存
+        while (!job.inFlight.tryAcquire()) {
+            collect(job, job.completion.take());
+        }
+        job.submitted++;
+        job.completion.submit(() -> {
+            Parsed p = new Parsed();
+            p.doc = doc;
+            p.path = path;
+            p.source = source;
+            try {
+                byte[] data = writer.store(doc.getFilePath());
+                p.stored = true;
+                if (IngestService.isParsable(doc.getFileType())) {
+                    IngestService.Prepared prepared = ingestService.prepare(doc, fileService.extractPages(path, data));
+                    p.chunks = prepared.getChunks();
+                    p.summary = prepared.getSummary();
+                }
+                doc.setStatus("completed");
+            } catch (Exception e) {
+                doc.setStatus("failed");
+                doc.setParseError(IngestService.describeFailure(e));
+                p.error = doc.getParseError();
+            }
+            doc.setProcessedTime(LocalDateTime.now());
+            return p;
+        });
+
+        Future<Parsed> done;
+        while ((done = job.completion.poll()) != null) {
+            collect(job, done);
+        }
+    }
+
+    private void collect(ImportJob job, Future<Parsed> future) throws Exception {
+        job.inFlight.release();
+        Parsed p = future.get();
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "file");
+        event.put("path", p.path);
+        event.put("docId", p.doc.getDocId());
+        event.put("status", p.doc.getStatus());
+        event.put("chunks", p.chunks.size());
+        if (p.error != null) {
+            event.put("error", p.error);
+            job.failed++;
+        } else {
+            job.succeeded++;
+        }
+        // 已写入 MinIO 但解析失败的文件仍登记文档（状态 failed），和普通上传一致；写入失败的不登记
+        if (p.stored) {
+            job.pendingDocs.add(p.doc);
+            job.pendingChunks.addAll(p.chunks);
+            if (p.summary != null) job.pendingSummaries.add(p.summary);
+            if (p.source != null) job.pendingSources.add(p.source);
+        } else {
+            event.put("docId", null);
+        }
+        if (job.pendingChunks.size() >= flushChunks || job.pendingDocs.size() >= flushChunks) {
+            flush(job);
+        }
+        job.progress.accept(event);
+    }
+
+    /**
+     * 一批文档、切片、摘要和变更事件同一事务写入，失败时整批回滚，不会留下没有切片的文档；
+     * 暂存源对象在提交后才删除，回滚时仍可重新导入
+     */
+    private void flush(ImportJob job) {
+        if (job.pendingDocs.isEmpty()) return;
+        List<Document> docs = new ArrayList<>(job.pendingDocs);
+        List<String> sources = new ArrayList<>(job.pendingSources);
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < docs.size(); i += flushChunks) {
+                documentMapper.insertBatch(docs.subList(i, Math.min(i + flushChunks, docs.size())));
+            }
+            clusterEventService.publishDocuments(docs, ClusterEventService.DOC_UPLOAD);
+            ingestService.saveChunks(job.pendingChunks);
+            summaryService.saveBatch(job.pendingSummaries);
+            TxUtils.afterCommit("批量导入", () -> {
+                for (Document d : docs) {
+                    documentIndexService.onUpload(d);
+                    answerCacheService.invalidateOnUpload(d.getTenantId(), d.getDocName());
+                }
+                if (!sources.isEmpty()) removeSources(sources);
+            });
+        });
+        job.pendingDocs.clear();
+        job.pendingChunks.clear();
+        job.pendingSummaries.clear();
+        job.pendingSources.clear();
+    }
+
+    /**
+     * 暂存目录不在孤儿回收范围内，删除失败只打日志，下次导入同一前缀会重复登记，需要人工清理
+     */
+    private void removeSources(List<String> sources) {
+        List<DeleteObject> objects = new ArrayList<>();
+        for (String s : sources) objects.add(new DeleteObject(s));
+        for (Result<DeleteError> r : minioClient.removeObjects(RemoveObjectsArgs.builder().bucket(bucketName).objects(objects).build())) {
+            try {
+                DeleteError err = r.get();
+                System.err.println(">>> [Import] 暂存对象删除失败: " + err.objectName() + " " + err.message());
+            } catch (Exception e) {
+                System.err.println(">>> [Import] 解析暂存对象删除结果失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private Map<String, Object> finish(ImportJob job) throws Exception {
+        while (job.succeeded + job.failed < job.submitted) {
+            collect(job, job.completion.take());
+        }
+        flush(job);
+        if (job.categoriesChanged) {
+            categoryCacheService.invalidate(job.tenantId);
+            clusterEventService.publish(job.tenantId, ClusterEventService.CATEGORY, null, null);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("type", "done");
+        summary.put("total", job.submitted + job.skipped);
+        summary.put("succeeded", job.succeeded);
+        summary.put("failed", job.failed);
+        summary.put("skipped", job.skipped);
+        summary.put("elapsedMs", System.currentTimeMillis() - job.start);
+        System.out.println(">>> [Import] 批量导入完成: " + summary);
+        return summary;
+    }
+
+    private void skip(ImportJob job, String path, String reason) {
+        job.skipped++;
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "file");
+        event.put("path", path);
+        event.put("status", "skipped");
+        event.put("error", reason);
+        job.progress.accept(event);
+    }
+
+    /**
+     * 目录名对应的文件夹 ID，不存在时新建
+     */
+    private String resolveCategory(ImportJob job, String dir) {
+        String name = dir.length() > 100 ? dir.substring(dir.length() - 100) : dir;
+        return job.categories.computeIfAbsent(name, k -> {
+            Category cat = new Category();
+            cat.setId(UUID.randomUUID().toString().replace("-", ""));
+            cat.setName(k);
+            cat.setTenantId(job.tenantId);
+            cat.setCreateTime(LocalDateTime.now());
+            categoryMapper.insert(cat);
+            job.categoriesChanged = true;
+            return cat.getId();
+        });
+    }
+
+    /**
+     * 读取当前条目，超过上限返回 null（条目头里的大小可能缺失，需要边读边判断）
+     */
+    private byte[] readEntry(InputStream in, long maxBytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[64 * 1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            total += n;
+            if (total > maxBytes) return null;
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private boolean isIgnored(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return path.startsWith("__MACOSX/") || name.startsWith(".") || IGNORED_NAMES.contains(name);
+    }
+
+    private String baseName(String archiveName) {
+        String name = archiveName.substring(archiveName.lastIndexOf('/') + 1);
+        for (String ext : new String[]{".tar.gz", ".tgz", ".zip", ".tar"}) {
+            if (name.toLowerCase().endsWith(ext)) return name.substring(0, name.length() - ext.length());
+        }
+        return name;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
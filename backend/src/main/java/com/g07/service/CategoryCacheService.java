@@ -0,0 +1,55 @@
+package com.g07.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.g07.entity.Category;
+import com.g07.mapper.CategoryMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文件夹列表缓存：按租户缓存排好序的文件夹列表，管理员看到的全量列表单独缓存一份。
+ * 新建、重命名、排序、删除文件夹时失效。
+ */
+@Service
+public class CategoryCacheService {
+
+    // 管理员全量列表使用的缓存键（租户 ID 是 32 位 UUID，不会与之冲突）
+    private static final String ALL_TENANTS = "*";
+
+    @Autowired
+    private CategoryMapper categoryMapper;
+
+    private final Map<String, List<Category>> cache = new ConcurrentHashMap<>();
+
+    public List<Category> listByTenant(String tenantId) {
+        return cache.computeIfAbsent(tenantId, k -> {
+            QueryWrapper<Category> query = new QueryWrapper<>();
+            query.eq("tenant_id", k);
+            // 优先按 sort_order 升序，其次按时间
+            query.orderByAsc("sort_order").orderByDesc("create_time");
+            return Collections.unmodifiableList(categoryMapper.selectList(query));
+        });
+    }
+
+    public List<Category> listAll() {
+        return cache.computeIfAbsent(ALL_TENANTS,
+                k -> Collections.unmodifiableList(categoryMapper.selectAllWithTenantName()));
+    }
+
+    /**
+     * 某个租户的文件夹发生变化；管理员的全量列表同时失效
+     */
+    public void invalidate(String tenantId) {
+        if (tenantId != null) cache.remove(tenantId);
+        cache.remove(ALL_TENANTS);
+    }
+
+    public void invalidateAll() {
+        cache.clear();
+    }
+}
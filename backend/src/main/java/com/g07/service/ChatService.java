@@ -3,16 +3,19 @@ package com.g07.service;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.g07.entity.ChatSession;
 import com.g07.entity.Document;
+import com.g07.entity.KnowledgeChunk;
 import com.g07.entity.QaRecord;
 import com.g07.mapper.ChatSessionMapper;
-import com.g07.mapper.DocumentMapper;
 import com.g07.mapper.QaRecordMapper;
+import com.g07.utils.TokenUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class ChatService {
@@ -20,22 +23,100 @@ public class ChatService {
     @Autowired private DeepSeekService deepSeekService;
     @Autowired private ChatSessionMapper sessionMapper;
     @Autowired private QaRecordMapper qaRecordMapper;
-    @Autowired private DocumentMapper documentMapper;
-    @Autowired private FileService fileService;
+    @Autowired private DocumentIndexService documentIndexService;
+    @Autowired private ContextPackService contextPackService;
+    @Autowired private AnswerCacheService answerCacheService;
+    @Autowired private SingleFlightService singleFlightService;
+    @Autowired private CitationService citationService;
+    @Autowired private ModelCascadeService modelCascadeService;
+
+    /**
+     * 一次问答的结果，不含会话和问答记录
+     */
+    public static class Answer {
+        private final String answer;
+        private final List<String> citations;
+        private final List<ContextPackService.CitedChunk> citedChunks;
+        private final boolean cached;
+
+        Answer(String answer, List<String> citations, List<ContextPackService.CitedChunk> citedChunks, boolean cached) {
+            this.answer = answer;
+            this.citations = citations;
+            this.citedChunks = citedChunks;
+            this.cached = cached;
+        }
+
+        public String getAnswer() { return answer; }
+        public List<String> getCitations() { return citations; }
+        public List<ContextPackService.CitedChunk> getCitedChunks() { return citedChunks; }
+        public boolean isCached() { return cached; }
+    }
+
+    /**
+     * 批量问答时整批问题共享的检索结果：关键词 → 命中的文档，文档 → 切片。
+     * 切片对象在问题之间共用，正文第一次装入上下文时加载，之后的问题直接复用
+     */
+    public static class SharedRetrieval {
+        private final Map<String, List<Document>> docs = new ConcurrentHashMap<>();
+        private final Map<String, List<KnowledgeChunk>> chunks = new ConcurrentHashMap<>();
+        // 第一个问题检索前的问答缓存失效代数，之后的问题复用的检索结果都不晚于它
+        private final AtomicLong cacheEpoch = new AtomicLong(-1);
+
+        public int cachedKeywords() { return docs.size(); }
+        public int cachedDocuments() { return chunks.size(); }
+    }
 
     @Transactional
     public Map<String, Object> chat(String userId, String tenantId, String sessionId, String question) {
         
         // 1. 初始化会话
         if (sessionId == null || sessionId.trim().isEmpty()) {
-            sessionId = UUID.randomUUID().toString().replace("-", "");
-            ChatSession session = new ChatSession();
-            session.setSessionId(sessionId);
-            session.setUserId(userId);
-            session.setTenantId(tenantId);
-            session.setTitle(question.length() > 20 ? question.substring(0, 20) : question);
-            session.setStartTime(LocalDateTime.now());
-            sessionMapper.insert(session);
+            sessionId = createSession(userId, tenantId, question);
+        }
+
+        Answer a = answer(userId, tenantId, question, null);
+
+        // 保存记录和引用的切片
+        String recordId = saveRecord(sessionId, question, a.getAnswer());
+        citationService.record(tenantId, recordId, a.getCitedChunks());
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("sessionId", sessionId);
+        result.put("answer", a.getAnswer());
+        result.put("citations", a.getCitations());
+        result.put("cached", a.isCached());
+        return result;
+    }
+
+    public String createSession(String userId, String tenantId, String title) {
+        String sessionId = UUID.randomUUID().toString().replace("-", "");
+        ChatSession session = new ChatSession();
+        session.setSessionId(sessionId);
+        session.setUserId(userId);
+        session.setTenantId(tenantId);
+        session.setTitle(title.length() > 20 ? title.substring(0, 20) : title);
+        session.setStartTime(LocalDateTime.now());
+        sessionMapper.insert(session);
+        return sessionId;
+    }
+
+    /**
+     * 检索 + 生成回答，不写问答记录
+     * @param shared 批量问答时整批共享的检索结果，单次问答为空
+     */
+    public Answer answer(String userId, String tenantId, String question, SharedRetrieval shared) {
+        // 2. 命中问答缓存时跳过检索和两次 AI 调用
+        AnswerCacheService.CachedAnswer cached = answerCacheService.lookup(tenantId, question);
+        if (cached != null) {
+            System.out.println(">>> 问答缓存命中: [" + cached.getQuestion() + "]");
+            return new Answer(cached.getAnswer(), cached.getCitations(), cached.getCitedChunks(), true);
+        }
+
+        // 检索前记下失效代数：生成期间文档被删除或替换时，答案不再写回缓存
+        long cacheEpoch = answerCacheService.epoch(tenantId);
+        if (shared != null) {
+            shared.cacheEpoch.compareAndSet(-1, cacheEpoch);
+            cacheEpoch = shared.cacheEpoch.get();
         }
 
         List<String> context = new ArrayList<>();
@@ -51,57 +132,97 @@ public class ChatService {
         
         // 只有当问题比较长（比如超过4个字）时，才调用 AI 提取，节省时间
         if (question.length() > 4) {
-            extractedKeyword = deepSeekService.extractKeywords(question);
+            extractedKeyword = deepSeekService.extractKeywords(tenantId, userId, question);
             // 清洗一下 AI 可能返回的标点
             extractedKeyword = extractedKeyword.replace("。", "").replace("：", "").trim();
             System.out.println(">>> AI 提取的关键词: [" + extractedKeyword + "]");
         }
 
         // =========================================================
-        // Step 2: 使用提取出的关键词查库
+        // Step 2 / 3: 用关键词查库，在 Token 预算内挑选相关切片
+        // =========================================================
+        ContextPackService.PackedContext packed = retrieve(tenantId, question, extractedKeyword, shared);
+        context.addAll(packed.getContext());
+        citations.addAll(packed.getCitations());
+        System.out.println(">>> 参考资料占用 Token 约: " + packed.getUsedTokens());
+
+        if (citations.isEmpty()) {
+            context.add("系统提示：在知识库中未找到与“" + extractedKeyword + "”相关的文档。请基于通用知识回答，并礼貌告知用户未引用企业文档。");
+        }
+
         // =========================================================
+        // Step 4: 将提取的内容 + 用户原话 发送给 AI 生成最终回答
+        // =========================================================
+        // 按问题复杂度选择模型档位，未开启分级时等同于 deepSeekService.getResponse
+        String answer = modelCascadeService.answer(tenantId, userId, question, context,
+                packed.getUsedTokens(), packed.getCitedDocIds().size());
+
+        // 5. 写入问答缓存（记下引用的文档，便于文档变更时精确失效）
+        // AI 调用失败时 callDeepSeek 会原样返回问题，这种结果不缓存
+        if (!answer.equals(question)) {
+            int costTokens = TokenUtils.estimateTokens(question) * 2 + TokenUtils.estimateTokens(extractedKeyword)
+                    + packed.getUsedTokens() + TokenUtils.estimateTokens(answer);
+            answerCacheService.put(tenantId, new AnswerCacheService.CachedAnswer(
+                    question, answer, citations, packed.getCitedDocIds(), packed.getCitedChunks(), costTokens), cacheEpoch);
+        }
+
+        return new Answer(answer, citations, packed.getCitedChunks(), false);
+    }
+
+    /**
+     * 检索并打包参考资料：先用提取出的关键词查文档，没命中再用原话兜底，最后在 Token 预算内挑选切片。
+     * 不调用大模型，检索评测也直接调用这里
+     */
+    public ContextPackService.PackedContext retrieve(String tenantId, String question, String extractedKeyword,
+                                                     SharedRetrieval shared) {
         List<Document> matchedDocs = new ArrayList<>();
         
         // 策略 A: 优先用 AI 提取的精准关键词搜
         if (extractedKeyword != null && !extractedKeyword.isEmpty()) {
-            matchedDocs = documentMapper.searchFuzzy(tenantId, extractedKeyword);
+            matchedDocs = searchDocs(tenantId, extractedKeyword, shared);
         }
 
         // 策略 B: 如果 AI 提取的词没搜到，尝试用原话模糊搜 (兜底)
-        if (matchedDocs.isEmpty() && !extractedKeyword.equals(question)) {
+        if (matchedDocs.isEmpty() && !question.equals(extractedKeyword)) {
             System.out.println(">>> AI 关键词未命中，降级使用原话模糊搜索");
-            matchedDocs = documentMapper.searchFuzzy(tenantId, question);
+            matchedDocs = searchDocs(tenantId, question, shared);
         }
 
         System.out.println(">>> 最终找到相关文档数: " + matchedDocs.size());
 
-        // =========================================================
-        // Step 3: 读取文档内容并构建 Prompt
-        // =========================================================
-        for (Document doc : matchedDocs) {
-            System.out.println(">>> 读取文件: " + doc.getDocName());
-            String fileContent = fileService.extractTextFromMinio(doc.getFilePath());
-            
-            if (fileContent != null && !fileContent.trim().isEmpty()) {
-                // 截取防止超长
-                if (fileContent.length() > 6000) {
-                    fileContent = fileContent.substring(0, 6000) + "...(下文省略)";
-                }
-                context.add("【参考文档：" + doc.getDocName() + "】\n" + fileContent);
-                citations.add(doc.getDocName());
-            }
-        }
+        // 在 Token 预算内挑选相关切片并构建 Prompt
+        return contextPackService.pack(matchedDocs, question, extractedKeyword,
+                shared != null ? shared.chunks : null);
+    }
 
-        if (citations.isEmpty()) {
-            context.add("系统提示：在知识库中未找到与“" + extractedKeyword + "”相关的文档。请基于通用知识回答，并礼貌告知用户未引用企业文档。");
+    /**
+     * 基于内存文档名索引检索；同一租户下相同关键词的并发检索合并为一次
+     */
+    private List<Document> searchDocs(String tenantId, String keyword, SharedRetrieval shared) {
+        if (shared != null) {
+            List<Document> hit = shared.docs.get(keyword);
+            if (hit != null) return hit;
         }
+        try {
+            List<Document> docs = singleFlightService.run("retrieval", tenantId + "|" + keyword,
+                    () -> documentIndexService.search(tenantId, keyword));
+            if (shared != null && docs != null) shared.docs.putIfAbsent(keyword, docs);
+            return docs;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("文档检索失败: " + e.getMessage(), e);
+        }
+    }
 
-        // =========================================================
-        // Step 4: 将提取的内容 + 用户原话 发送给 AI 生成最终回答
-        // =========================================================
-        String answer = deepSeekService.getResponse(question, context);
+    /**
+     * 批量写入问答记录，recordId 和 qaTime 由调用方填好
+     */
+    public void saveRecords(List<QaRecord> records) {
+        if (!records.isEmpty()) qaRecordMapper.insertBatch(records);
+    }
 
-        // 5. 保存记录
+    private String saveRecord(String sessionId, String question, String answer) {
         QaRecord record = new QaRecord();
         record.setRecordId(UUID.randomUUID().toString().replace("-", ""));
         record.setSessionId(sessionId);
@@ -109,15 +230,10 @@ public class ChatService {
         record.setAnswer(answer);
         record.setQaTime(LocalDateTime.now());
         qaRecordMapper.insert(record);
-
-        Map<String, Object> result = new HashMap<>();
-        result.put("sessionId", sessionId);
-        result.put("answer", answer);
-        result.put("citations", citations); 
-        
-        return result;
+        return record.getRecordId();
     }
 
+    @Transactional(readOnly = true)
     public List<QaRecord> getHistory(String sessionId) {
         QueryWrapper<QaRecord> query = new QueryWrapper<>();
         query.eq("session_id", sessionId).orderByAsc("qa_time");
@@ -0,0 +1,547 @@
+package com.g07.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.g07.config.ShardRouter;
+import com.g07.entity.Document;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.mapper.DocumentMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 本地切片段存储（可选，segments.enabled）
+ * 每个节点把切片正文和元数据追加写入本地段文件（seg-000001.dat …），段文件以内存映射方式读取，
+ * 内存中只保留按 chunk_id / doc_id 的偏移索引。上下文打包时直接从映射区解码正文，不再查 MySQL。
+ * - MySQL 仍是唯一数据源：本机写入切片后同步追加；其他节点写入的切片由定时任务按 create_time 增量拉取；
+ *   文档删除时从索引摘除，其他节点的删除由定时对账发现；
+ * - 段文件只追加不修改，删除只产生垃圾，垃圾占比超过 compact-ratio 的段在后台把存活记录搬到当前段后删除；
+ * - 启动时扫描已有段文件重建索引（CRC 校验，遇到半条记录即停），再从最大 create_time 往前回看一段时间补拉。
+ * 本地文件只是缓存，删掉整个目录即可从 MySQL 重建。
+ */
+@Service
+public class ChunkSegmentService {
+
+    // 记录头：负载长度 + CRC32
+    private static final int HEADER_BYTES = 8;
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    @Autowired
+    private KnowledgeChunkMapper chunkMapper;
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private ChunkStorageService chunkStorageService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${segments.enabled:false}")
+    private boolean enabled;
+
+    @Value("${segments.dir:${java.io.tmpdir}/g07-segments}")
+    private String dir;
+
+    @Value("${segments.segment-mb:64}")
+    private int segmentMb;
+
+    @Value("${segments.sync-batch:1000}")
+    private int syncBatch;
+
+    // 增量拉取时回看的秒数：create_time 在应用侧生成，晚提交的切片时间戳可能早于水位线
+    @Value("${segments.sync-lag-seconds:60}")
+    private int syncLagSeconds;
+
+    // 只拉取 create_time 早于此秒数的切片，保证同一文档的切片已全部写完
+    @Value("${segments.sync-settle-seconds:10}")
+    private int syncSettleSeconds;
+
+    @Value("${segments.compact-ratio:0.5}")
+    private double compactRatio;
+
+    @Value("${segments.reconcile-batch:500}")
+    private int reconcileBatch;
+
+    private static class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        // 仅在持有存储锁时修改；读取方只访问索引中已发布的区间
+        int writePos;
+        final AtomicLong liveBytes = new AtomicLong();
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * 一条切片在段文件中的位置；段被压实后旧 Entry 仍引用旧的映射区，正在进行的读取不受影响
+     */
+    private static class Entry {
+        final Segment segment;
+        final int offset;
+        final int size;
+        final String chunkId;
+        final String docId;
+        final int chunkIndex;
+        final int pageNumber;
+        final int tokenCount;
+        final int sigOffset;
+        final int sigLength;
+        final int textOffset;
+        final int textLength;
+
+        Entry(Segment segment, int offset, int size, String chunkId, String docId, int chunkIndex, int pageNumber,
+              int tokenCount, int sigOffset, int sigLength, int textOffset, int textLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.chunkId = chunkId;
+            this.docId = docId;
+            this.chunkIndex = chunkIndex;
+            this.pageNumber = pageNumber;
+            this.tokenCount = tokenCount;
+            this.sigOffset = sigOffset;
+            this.sigLength = sigLength;
+            this.textOffset = textOffset;
+            this.textLength = textLength;
+        }
+    }
+
+    private final Map<String, Entry> byChunk = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Integer, Entry>> byDoc = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private Segment active;
+
+    private volatile boolean ready;
+    private volatile LocalDateTime watermarkTime = EPOCH;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong compacted = new AtomicLong();
+    private Thread loader;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) return;
+        loader = new Thread(() -> {
+            try {
+                Files.createDirectories(Paths.get(dir));
+                long start = System.currentTimeMillis();
+                load();
+                sync();
+                ready = true;
+                System.out.println(">>> [Segments] 本地段存储就绪：" + byChunk.size() + " 条切片，耗时 "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                System.err.println(">>> [Segments] 加载本地段存储失败，检索继续走数据库: " + e.getMessage());
+            }
+        }, "segment-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // ==================== 读取 ====================
+
+    /**
+     * 文档的全部切片（不含正文，带二元词签名），按 chunk_index 排序
+     * @return 本地没有该文档时返回 null，调用方回退到数据库
+     */
+    public List<KnowledgeChunk> chunksOf(String docId) {
+        if (!ready) return null;
+        ConcurrentSkipListMap<Integer, Entry> entries = byDoc.get(docId);
+        if (entries == null || entries.isEmpty()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        List<KnowledgeChunk> chunks = new ArrayList<>(entries.size());
+        for (Entry e : entries.values()) {
+            KnowledgeChunk c = new KnowledgeChunk();
+            c.setChunkId(e.chunkId);
+            c.setDocId(e.docId);
+            c.setChunkIndex(e.chunkIndex);
+            c.setPageNumber(e.pageNumber < 0 ? null : e.pageNumber);
+            c.setTokenCount(e.tokenCount);
+            // 签名不到 2KB，复制出来交给 ChunkStorageService 打分
+            byte[] sig = new byte[e.sigLength];
+            e.segment.buffer.get(e.sigOffset, sig);
+            c.setBigramSig(sig);
+            chunks.add(c);
+        }
+        return chunks;
+    }
+
+    /**
+     * 给还没有正文的切片从映射区解码正文；本地没有的保持为空，由调用方回退到数据库
+     */
+    public void loadContents(Collection<KnowledgeChunk> chunks) {
+        if (!ready) return;
+        for (KnowledgeChunk c : chunks) {
+            if (c.getContent() != null && !c.getContent().isEmpty()) continue;
+            Entry e = byChunk.get(c.getChunkId());
+            if (e != null) c.setContent(text(e));
+        }
+    }
+
+    private static String text(Entry e) {
+        ByteBuffer src = e.segment.buffer.duplicate();
+        src.limit(e.textOffset + e.textLength).position(e.textOffset);
+        return StandardCharsets.UTF_8.decode(src).toString();
+    }
+
+    // ==================== 写入 ====================
+
+    /**
+     * 本机写入切片后同步追加；加载完成前写入的切片由加载后的增量同步补上
+     */
+    public void append(List<KnowledgeChunk> chunks) {
+        if (!ready || chunks.isEmpty()) return;
+        write(chunks);
+    }
+
+    /**
+     * 已存在的切片跳过
+     */
+    private synchronized void write(List<KnowledgeChunk> chunks) {
+        try {
+            for (KnowledgeChunk c : chunks) {
+                if (byChunk.containsKey(c.getChunkId())) continue;
+                appendRecord(encode(c));
+            }
+        } catch (Exception e) {
+            // 本地段只是缓存，写失败时这些切片继续走数据库
+            System.err.println(">>> [Segments] 追加切片失败: " + e.getMessage());
+        }
+    }
+
+    private byte[] encode(KnowledgeChunk c) {
+        byte[] chunkId = c.getChunkId().getBytes(StandardCharsets.UTF_8);
+        byte[] docId = c.getDocId().getBytes(StandardCharsets.UTF_8);
+        byte[] sig = c.getBigramSig() != null ? c.getBigramSig() : new byte[0];
+        byte[] text = chunkStorageService.contentOf(c).getBytes(StandardCharsets.UTF_8);
+        LocalDateTime time = c.getCreateTime() != null ? c.getCreateTime() : LocalDateTime.now();
+
+        int payload = 2 + chunkId.length + 2 + docId.length + 4 * 3 + 8 + 2 + sig.length + 4 + text.length;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + payload);
+        buf.putInt(payload).putInt(0);
+        buf.putShort((short) chunkId.length).put(chunkId);
+        buf.putShort((short) docId.length).put(docId);
+        buf.putInt(c.getChunkIndex() != null ? c.getChunkIndex() : 0);
+        buf.putInt(c.getPageNumber() != null ? c.getPageNumber() : -1);
+        buf.putInt(c.getTokenCount() != null ? c.getTokenCount() : 0);
+        buf.putLong(time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1000);
+        buf.putShort((short) sig.length).put(sig);
+        buf.putInt(text.length).put(text);
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER_BYTES, payload);
+        buf.putInt(4, (int) crc.getValue());
+        return buf.array();
+    }
+
+    /**
+     * 写入一条完整记录（含记录头），当前段放不下时新开一段。调用方持有存储锁
+     */
+    private Entry appendRecord(byte[] record) throws Exception {
+        if (record.length > segmentBytes()) throw new IllegalStateException("切片过大，超过单个段文件容量");
+        if (active == null || active.writePos + record.length > active.buffer.capacity()) {
+            active = openSegment(active == null ? 1 : active.id + 1, segmentBytes());
+        }
+        int offset = active.writePos;
+        active.buffer.put(offset, record);
+        active.writePos += record.length;
+        Entry e = parse(active, offset);
+        index(e);
+        return e;
+    }
+
+    private void index(Entry e) {
+        Entry old = byChunk.put(e.chunkId, e);
+        if (old != null) old.segment.liveBytes.addAndGet(-old.size);
+        e.segment.liveBytes.addAndGet(e.size);
+        byDoc.computeIfAbsent(e.docId, k -> new ConcurrentSkipListMap<>()).put(e.chunkIndex, e);
+    }
+
+    // ==================== 删除与压实 ====================
+
+    /**
+     * 文档删除后调用：摘除索引，段文件中的记录变为垃圾，等待压实
+     */
+    public synchronized void removeDocuments(Collection<String> docIds) {
+        if (!enabled) return;
+        for (String docId : docIds) {
+            ConcurrentSkipListMap<Integer, Entry> entries = byDoc.remove(docId);
+            if (entries == null) continue;
+            for (Entry e : entries.values()) {
+                if (byChunk.remove(e.chunkId, e)) e.segment.liveBytes.addAndGet(-e.size);
+            }
+        }
+    }
+
+    private void compact() throws Exception {
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment s : segments.values()) {
+            if (s == active || s.writePos == 0) continue;
+            if (1.0 - (double) s.liveBytes.get() / s.writePos >= compactRatio) candidates.add(s);
+        }
+        for (Segment s : candidates) {
+            int moved = 0;
+            synchronized (this) {
+                int pos = 0;
+                while (pos < s.writePos) {
+                    Entry e = parse(s, pos);
+                    pos += e.size;
+                    // 只搬仍被索引引用的记录
+                    Entry current = byChunk.get(e.chunkId);
+                    if (current != null && current.segment == s && current.offset == e.offset) {
+                        byte[] record = new byte[e.size];
+                        s.buffer.get(e.offset, record);
+                        appendRecord(record);
+                        moved++;
+                    }
+                }
+                segments.remove(s.id);
+            }
+            // 映射区在没有读取方引用后由 GC 释放，Linux 下先删文件不影响已有映射
+            Files.deleteIfExists(s.path);
+            compacted.incrementAndGet();
+            System.out.println(">>> [Segments] 压实段 " + s.path.getFileName() + "，搬移 " + moved + " 条存活切片");
+        }
+    }
+
+    // ==================== 同步 ====================
+
+    /**
+     * 增量拉取其他节点写入的切片，然后压实垃圾过多的段
+     */
+    @Scheduled(initialDelayString = "${segments.sync-interval-ms:5000}", fixedDelayString = "${segments.sync-interval-ms:5000}")
+    public void scheduledSync() {
+        if (!ready) return;
+        try {
+            sync();
+            compact();
+        } catch (Exception e) {
+            System.err.println(">>> [Segments] 同步失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 各分片从同一水位线拉到同一截止时间，全部成功后才推进水位线
+     */
+    private void sync() throws Exception {
+        LocalDateTime from = watermarkTime.minusSeconds(syncLagSeconds);
+        if (from.isBefore(EPOCH)) from = EPOCH;
+        LocalDateTime before = LocalDateTime.now().minusSeconds(syncSettleSeconds);
+        LocalDateTime reached = watermarkTime;
+        for (int shard : shardRouter.shardIds()) {
+            LocalDateTime start = from;
+            LocalDateTime t = shardRouter.callOnShard(shard, () -> syncShard(start, before));
+            if (t.isAfter(reached)) reached = t;
+        }
+        watermarkTime = reached;
+    }
+
+    /**
+     * @return 拉到的最大 create_time
+     */
+    private LocalDateTime syncShard(LocalDateTime from, LocalDateTime before) throws Exception {
+        LocalDateTime afterTime = from;
+        String afterId = "";
+        while (true) {
+            List<KnowledgeChunk> rows = chunkMapper.selectCreatedAfter(afterTime, afterId, before, syncBatch);
+            if (rows.isEmpty()) return afterTime;
+            KnowledgeChunk last = rows.get(rows.size() - 1);
+            afterTime = last.getCreateTime();
+            afterId = last.getChunkId();
+
+            // 按文档整体拉取，保证本地要么有文档的全部切片，要么完全没有
+            Set<String> newDocs = new LinkedHashSet<>();
+            for (KnowledgeChunk r : rows) {
+                if (!byChunk.containsKey(r.getChunkId())) newDocs.add(r.getDocId());
+            }
+            if (!newDocs.isEmpty()) {
+                write(chunkMapper.selectForSegment(new ArrayList<>(newDocs)));
+            }
+        }
+    }
+
+    /**
+     * 对账：找出数据库中已经不存在的文档（其他节点删除或 GC 回收），从本地摘除
+     */
+    @Scheduled(initialDelayString = "${segments.reconcile-interval-ms:600000}", fixedDelayString = "${segments.reconcile-interval-ms:600000}")
+    public void reconcile() {
+        if (!ready) return;
+        try {
+            List<String> docIds = new ArrayList<>(byDoc.keySet());
+            int removed = 0;
+            for (int i = 0; i < docIds.size(); i += reconcileBatch) {
+                List<String> batch = docIds.subList(i, Math.min(i + reconcileBatch, docIds.size()));
+                // 文档可能在任一分片上
+                Set<String> existing = new HashSet<>();
+                for (int shard : shardRouter.shardIds()) {
+                    shardRouter.runOnShard(shard, () -> {
+                        for (Document d : documentMapper.selectList(new QueryWrapper<Document>().select("doc_id").in("doc_id", batch))) {
+                            existing.add(d.getDocId());
+                        }
+                    });
+                }
+                List<String> missing = new ArrayList<>();
+                for (String id : batch) {
+                    if (!existing.contains(id)) missing.add(id);
+                }
+                removeDocuments(missing);
+                removed += missing.size();
+            }
+            if (removed > 0) System.out.println(">>> [Segments] 对账摘除已删除文档 " + removed + " 个");
+        } catch (Exception e) {
+            System.err.println(">>> [Segments] 对账失败: " + e.getMessage());
+        }
+    }
+
+    // ==================== 段文件 ====================
+
+    private int segmentBytes() {
+        return segmentMb * 1024 * 1024;
+    }
+
+    private Segment openSegment(int id, long size) throws Exception {
+        Path path = Paths.get(dir, String.format("seg-%06d.dat", id));
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            if (raf.length() < size) raf.setLength(size);
+            // 映射在通道关闭后依然有效
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            Segment s = new Segment(id, path, buffer);
+            segments.put(id, s);
+            return s;
+        }
+    }
+
+    /**
+     * 启动时扫描已有段文件重建索引，并把水位线设为其中最大的 create_time
+     */
+    private void load() throws Exception {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(Paths.get(dir))) {
+            files = list.filter(p -> p.getFileName().toString().matches("seg-\\d{6}\\.dat")).sorted().toList();
+        }
+        LocalDateTime maxTime = EPOCH;
+        synchronized (this) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Segment s = openSegment(Integer.parseInt(name.substring(4, 10)), 0);
+                int pos = 0;
+                while (pos + HEADER_BYTES <= s.buffer.capacity()) {
+                    int payload = s.buffer.getInt(pos);
+                    if (payload <= 0 || pos + HEADER_BYTES + payload > s.buffer.capacity()) break;
+                    CRC32 crc = new CRC32();
+                    crc.update(s.buffer.slice(pos + HEADER_BYTES, payload));
+                    // 进程在写入中途退出时末尾可能有半条记录
+                    if ((int) crc.getValue() != s.buffer.getInt(pos + 4)) break;
+
+                    Entry e = parse(s, pos);
+                    if (!byChunk.containsKey(e.chunkId)) index(e);
+                    LocalDateTime time = timeOf(s, pos);
+                    if (time.isAfter(maxTime)) maxTime = time;
+                    pos += e.size;
+                }
+                s.writePos = pos;
+                active = s;
+            }
+        }
+        watermarkTime = maxTime;
+    }
+
+    private static Entry parse(Segment s, int offset) {
+        ByteBuffer buf = s.buffer.duplicate();
+        buf.position(offset);
+        int payload = buf.getInt();
+        buf.getInt();
+        String chunkId = readString(buf);
+        String docId = readString(buf);
+        int chunkIndex = buf.getInt();
+        int pageNumber = buf.getInt();
+        int tokenCount = buf.getInt();
+        buf.getLong();
+        int sigLength = buf.getShort();
+        int sigOffset = buf.position();
+        buf.position(sigOffset + sigLength);
+        int textLength = buf.getInt();
+        int textOffset = buf.position();
+        return new Entry(s, offset, HEADER_BYTES + payload, chunkId, docId, chunkIndex, pageNumber, tokenCount,
+                sigOffset, sigLength, textOffset, textLength);
+    }
+
+    private static LocalDateTime timeOf(Segment s, int offset) {
+        ByteBuffer buf = s.buffer.duplicate();
+        buf.position(offset + HEADER_BYTES);
+        readString(buf);
+        readString(buf);
+        buf.position(buf.position() + 12);
+        long micros = buf.getLong();
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getShort();
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("enabled", enabled);
+        data.put("ready", ready);
+        data.put("segments", segments.size());
+        long total = 0, live = 0;
+        for (Segment s : segments.values()) {
+            total += s.writePos;
+            live += s.liveBytes.get();
+        }
+        data.put("bytes", total);
+        data.put("liveBytes", live);
+        data.put("chunks", byChunk.size());
+        data.put("documents", byDoc.size());
+        data.put("hits", hits.get());
+        data.put("misses", misses.get());
+        data.put("compacted", compacted.get());
+        data.put("watermark", String.valueOf(watermarkTime));
+        return data;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (loader != null) loader.interrupt();
+        synchronized (this) {
+            for (Segment s : segments.values()) s.buffer.force();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.g07.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.g07.config.ShardRouter;
+import com.g07.entity.ChunkDictionary;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.entity.Tenant;
+import com.g07.mapper.ChunkDictionaryMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.mapper.TenantMapper;
+import com.g07.utils.TextUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 切片压缩存储（可选，chunks.compression.enabled）
+ * - 内容用 deflate 压缩进 content_z，content 置为空串；每个租户从自己的切片中抽样训练一份预置字典，
+ *   同一租户的文档格式、术语高度重复，短切片也能压得动；
+ * - 每个切片另存一个二元词布隆过滤器 bigram_sig，位数按切片的二元词数确定（每词约 10 位、7 个哈希，单词误判约 1%），
+ *   上下文打包时靠它给切片打分，关键词检索时靠它预筛最近的若干批切片，只有入选的切片才取出 content_z 解压；
+ * - migrate 把已有数据在两种格式之间转换（压缩 / 还原），后台单线程分批执行。
+ * 字典只增不删：切片记录用到的 dict_id 始终可以解压。
+ */
+@Service
+public class ChunkStorageService {
+
+    // 签名：首字节为哈希个数，其后是位图，总长为 1 + 8 的倍数字节（奇数）
+    private static final int SIG_BITS_PER_GRAM = 10;
+    private static final int SIG_HASHES = 7;
+    private static final int MIN_SIG_BITS = 512;
+    private static final int MAX_SIG_BITS = 2040 * 8;
+    // deflate 预置字典的有效窗口
+    private static final int MAX_DICT_BYTES = 32 * 1024;
+    private static final int GRAM_CHARS = 12;
+
+    @Autowired
+    private KnowledgeChunkMapper chunkMapper;
+
+    @Autowired
+    private ChunkDictionaryMapper dictionaryMapper;
+
+    @Autowired
+    private TenantMapper tenantMapper;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${chunks.compression.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chunks.compression.level:6}")
+    private int level;
+
+    @Value("${chunks.compression.dictionary-samples:2000}")
+    private int dictionarySamples;
+
+    @Value("${chunks.compression.migrate-batch:500}")
+    private int migrateBatch;
+
+    // 关键词检索每批扫描的签名数
+    @Value("${chunks.compression.search-batch:1000}")
+    private int searchBatch;
+
+    // 关键词检索最多扫描的签名数，扫完仍不够时退回到对明文切片的 LIKE
+    @Value("${chunks.compression.search-max-scan:20000}")
+    private int searchMaxScan;
+
+    // dict_id -> 字典内容
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    // tenant_id -> 当前使用的 dict_id，0 表示该租户还没有字典
+    private final Map<String, Integer> activeDict = new ConcurrentHashMap<>();
+
+    private final ExecutorService migrator = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chunk-migrator");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean migrating = new AtomicBoolean(false);
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong bytesBefore = new AtomicLong();
+    private final AtomicLong bytesAfter = new AtomicLong();
+    private volatile String migrateState = "idle";
+
+    /**
+     * 写入前调用：总是生成签名；开启压缩且压缩有收益时改为压缩存储
+     */
+    public void encode(List<KnowledgeChunk> chunks) {
+        for (KnowledgeChunk c : chunks) {
+            c.setBigramSig(signature(c.getContent()));
+            if (enabled) compress(c);
+        }
+    }
+
+    private void compress(KnowledgeChunk c) {
+        if (c.getContent() == null || c.getContent().isEmpty()) return;
+        int dictId = dictIdFor(c.getTenantId());
+        byte[] raw = c.getContent().getBytes(StandardCharsets.UTF_8);
+        byte[] packed = deflate(raw, dictId == 0 ? null : dictionary(dictId));
+        if (packed.length >= raw.length) return;
+        c.setContentZ(packed);
+        c.setDictId(dictId);
+        c.setContent("");
+    }
+
+    private void decompress(KnowledgeChunk c) {
+        c.setContent(contentOf(c));
+        c.setContentZ(null);
+        c.setDictId(null);
+    }
+
+    /**
+     * 切片正文；压缩存储的在这里解压
+     */
+    public String contentOf(KnowledgeChunk c) {
+        if (c.getContentZ() == null) return c.getContent();
+        Integer dictId = c.getDictId();
+        return inflate(c.getContentZ(), dictId == null || dictId == 0 ? null : dictionary(dictId));
+    }
+
+    /**
+     * 给还没有正文的切片（压缩存储）批量补上正文，一次查询只取这些切片的压缩内容
+     */
+    public void loadContents(Collection<KnowledgeChunk> chunks) {
+        Map<String, KnowledgeChunk> missing = new HashMap<>();
+        for (KnowledgeChunk c : chunks) {
+            if (c.getContent() == null || c.getContent().isEmpty()) missing.put(c.getChunkId(), c);
+        }
+        if (missing.isEmpty()) return;
+        for (KnowledgeChunk body : chunkMapper.selectBodies(new ArrayList<>(missing.keySet()))) {
+            KnowledgeChunk c = missing.get(body.getChunkId());
+            if (c != null) c.setContent(contentOf(body));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 压缩存储下的关键词检索，语义同 content LIKE '%keyword%'（不区分大小写）：按写入时间倒序分批扫描签名，
+     * 签名包含关键词全部二元词的切片才取出正文解压比对，凑够 limit 条为止。
+     * 最多扫描 search-max-scan 个签名；仍不够时用 LIKE 补上未压缩的切片（压缩无收益的短切片、迁移前的老数据），
+     * 更早的压缩切片不再检索。
+     */
+    public List<KnowledgeChunk> searchContent(String tenantId, String keyword, int limit) {
+        List<KnowledgeChunk> found = new ArrayList<>();
+        String needle = keyword.toLowerCase();
+        Set<String> grams = TextUtils.bigrams(keyword);
+        LocalDateTime beforeTime = null;
+        String beforeId = null;
+        int scanned = 0;
+        boolean exhausted = false;
+        while (found.size() < limit) {
+            if (scanned >= searchMaxScan) break;
+            List<KnowledgeChunk> batch = chunkMapper.selectSignaturesBefore(tenantId, beforeTime, beforeId,
+                    Math.min(searchBatch, searchMaxScan - scanned));
+            if (batch.isEmpty()) {
+                exhausted = true;
+                break;
+            }
+            scanned += batch.size();
+            KnowledgeChunk last = batch.get(batch.size() - 1);
+            beforeTime = last.getCreateTime();
+            beforeId = last.getChunkId();
+
+            List<KnowledgeChunk> candidates = new ArrayList<>();
+            for (KnowledgeChunk c : batch) {
+                if (mightContainAll(c.getBigramSig(), grams)) candidates.add(c);
+            }
+            loadContents(candidates);
+            for (KnowledgeChunk c : candidates) {
+                if (found.size() >= limit) break;
+                if (c.getContent() != null && c.getContent().toLowerCase().contains(needle)) found.add(c);
+            }
+        }
+        if (found.size() < limit && !exhausted) {
+            Set<String> seen = new HashSet<>();
+            for (KnowledgeChunk c : found) seen.add(c.getChunkId());
+            for (KnowledgeChunk c : chunkMapper.searchByKeyword(tenantId, keyword, limit)) {
+                if (found.size() >= limit) break;
+                if (seen.add(c.getChunkId())) found.add(c);
+            }
+        }
+        return found;
+    }
+
+    private static boolean mightContainAll(byte[] sig, Set<String> grams) {
+        if (sig == null || sig.length == 0) return true;
+        for (String g : grams) {
+            if (!mightContain(sig, g)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 切片与查询二元词的命中数：有签名时查布隆过滤器（少量误判可以接受），没有时退回到正文匹配
+     */
+    public int countHits(KnowledgeChunk c, Set<String> terms) {
+        if (terms.isEmpty()) return 0;
+        byte[] sig = c.getBigramSig();
+        int hits = 0;
+        if (sig == null || sig.length == 0) {
+            if (c.getContent() == null) return 0;
+            String lower = c.getContent().toLowerCase();
+            for (String t : terms) {
+                if (lower.contains(t)) hits++;
+            }
+            return hits;
+        }
+        for (String t : terms) {
+            if (mightContain(sig, t)) hits++;
+        }
+        return hits;
+    }
+
+    /**
+     * 位数取二元词数 × 10，按 64 位取整并限制在 [512, 16320] 之间
+     */
+    public static byte[] signature(String content) {
+        Set<String> grams = content == null ? Collections.emptySet() : TextUtils.bigrams(content);
+        int bits = (grams.size() * SIG_BITS_PER_GRAM + 63) / 64 * 64;
+        bits = Math.max(MIN_SIG_BITS, Math.min(MAX_SIG_BITS, bits));
+        byte[] sig = new byte[1 + bits / 8];
+        sig[0] = SIG_HASHES;
+        for (String gram : grams) {
+            int h1 = gram.hashCode();
+            int h2 = mix(h1);
+            for (int i = 0; i < SIG_HASHES; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                sig[1 + (bit >>> 3)] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return sig;
+    }
+
+    private static boolean mightContain(byte[] sig, String gram) {
+        int hashes = sig[0];
+        int bits = (sig.length - 1) * 8;
+        int h1 = gram.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            if ((sig[1 + (bit >>> 3)] & (1 << (bit & 7))) == 0) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h | 1;
+    }
+
+    // ==================== 字典 ====================
+
+    private int dictIdFor(String tenantId) {
+        return activeDict.computeIfAbsent(tenantId, k -> {
+            List<ChunkDictionary> list = dictionaryMapper.selectList(new QueryWrapper<ChunkDictionary>()
+                    .select("dict_id")
+                    .eq("tenant_id", k)
+                    .orderByDesc("dict_id")
+                    .last("LIMIT 1"));
+            return list.isEmpty() ? 0 : list.get(0).getDictId();
+        });
+    }
+
+    private byte[] dictionary(int dictId) {
+        return dictionaries.computeIfAbsent(dictId, id -> {
+            ChunkDictionary d = dictionaryMapper.selectById(id);
+            if (d == null) throw new IllegalStateException("压缩字典不存在: " + id);
+            return d.getDictionary();
+        });
+    }
+
+    /**
+     * 从租户现有切片中抽样训练字典：统计定长子串出现次数，高频子串拼成字典，
+     * 最高频的放在末尾（deflate 回溯距离越短编码越省）
+     * @return 新字典 ID，样本不足时返回 0
+     */
+    public int train(String tenantId) {
+        List<KnowledgeChunk> samples = chunkMapper.selectList(new QueryWrapper<KnowledgeChunk>()
+                .select("chunk_id", "content", "content_z", "dict_id")
+                .eq("tenant_id", tenantId)
+                .last("ORDER BY RAND() LIMIT " + dictionarySamples));
+        if (samples.size() < 20) return 0;
+
+        Map<String, Integer> freq = new HashMap<>();
+        for (KnowledgeChunk c : samples) {
+            String text = contentOf(c);
+            for (int i = 0; i + GRAM_CHARS <= text.length(); i += GRAM_CHARS / 3) {
+                freq.merge(text.substring(i, i + GRAM_CHARS), 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> grams = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : freq.entrySet()) {
+            if (e.getValue() >= 3) grams.add(e);
+        }
+        grams.sort((a, b) -> b.getValue() - a.getValue());
+
+        List<byte[]> picked = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> e : grams) {
+            byte[] bytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > MAX_DICT_BYTES) break;
+            picked.add(bytes);
+            size += bytes.length;
+        }
+        if (picked.isEmpty()) return 0;
+
+        ByteArrayOutputStream dict = new ByteArrayOutputStream();
+        for (int i = picked.size() - 1; i >= 0; i--) dict.writeBytes(picked.get(i));
+
+        ChunkDictionary d = new ChunkDictionary();
+        d.setTenantId(tenantId);
+        d.setDictionary(dict.toByteArray());
+        d.setSampleCount(samples.size());
+        d.setCreateTime(LocalDateTime.now());
+        dictionaryMapper.insert(d);
+        dictionaries.put(d.getDictId(), d.getDictionary());
+        activeDict.put(tenantId, d.getDictId());
+        System.out.println(">>> [Chunks] 租户 " + tenantId + " 训练压缩字典 " + d.getDictId() + "，" + dict.size() + " 字节");
+        return d.getDictId();
+    }
+
+    // ==================== 迁移 ====================
+
+    /**
+     * 后台把已有切片转换为压缩存储（compress=true）或还原为明文；tenantId 为空时处理所有租户。
+     * 压缩前没有字典的租户先训练一份。没有 bigram_sig 的老数据同时补上。
+     * @return false 表示已有迁移在运行
+     */
+    public boolean migrate(String tenantId, boolean compress) {
+        if (!migrating.compareAndSet(false, true)) return false;
+        migrated.set(0);
+        bytesBefore.set(0);
+        bytesAfter.set(0);
+        migrator.execute(() -> {
+            try {
+                List<String> tenants = new ArrayList<>();
+                if (tenantId != null && !tenantId.isEmpty()) {
+                    tenants.add(tenantId);
+                } else {
+                    for (Tenant t : tenantMapper.selectList(null)) tenants.add(t.getTenantId());
+                }
+                for (String t : tenants) {
+                    migrateState = (compress ? "compress " : "decompress ") + t;
+                    shardRouter.run(t, () -> {
+                        if (compress && dictIdFor(t) == 0) train(t);
+                        migrateTenant(t, compress);
+                    });
+                }
+                migrateState = "done";
+            } catch (Exception e) {
+                migrateState = "failed: " + e.getMessage();
+                System.err.println(">>> [Chunks] 迁移失败: " + e.getMessage());
+            } finally {
+                migrating.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void migrateTenant(String tenantId, boolean compress) {
+        String cursor = "";
+        while (true) {
+            List<KnowledgeChunk> batch = chunkMapper.selectBatchAfter(tenantId, cursor, migrateBatch);
+            if (batch.isEmpty()) return;
+            cursor = batch.get(batch.size() - 1).getChunkId();
+
+            for (KnowledgeChunk c : batch) {
+                boolean isCompressed = c.getContentZ() != null;
+                boolean missingSig = c.getBigramSig() == null;
+                if (isCompressed == compress && !missingSig) continue;
+
+                long before = storedBytes(c);
+                if (missingSig) c.setBigramSig(signature(contentOf(c)));
+                if (compress && !isCompressed) compress(c);
+                if (!compress && isCompressed) decompress(c);
+                chunkMapper.updateStorage(c);
+
+                migrated.incrementAndGet();
+                bytesBefore.addAndGet(before);
+                bytesAfter.addAndGet(storedBytes(c));
+            }
+        }
+    }
+
+    private static long storedBytes(KnowledgeChunk c) {
+        long n = c.getContent() != null ? c.getContent().getBytes(StandardCharsets.UTF_8).length : 0;
+        return n + (c.getContentZ() != null ? c.getContentZ().length : 0);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("enabled", enabled);
+        data.put("migrating", migrating.get());
+        data.put("state", migrateState);
+        data.put("migrated", migrated.get());
+        data.put("bytesBefore", bytesBefore.get());
+        data.put("bytesAfter", bytesAfter.get());
+        data.put("dictionaries", dictionaries.size());
+        return data;
+    }
+
+    // ==================== deflate ====================
+
+    private byte[] deflate(byte[] raw, byte[] dict) {
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dict != null) deflater.setDictionary(dict);
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private String inflate(byte[] packed, byte[] dict) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(packed.length * 3);
+            byte[] buf = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0) {
+                    if (inflater.needsDictionary() && dict != null) {
+                        inflater.setDictionary(dict);
+                    } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new IllegalStateException("切片内容已损坏");
+                    }
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("切片内容已损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.g07.service;
+
+import com.g07.config.ShardRouter;
+import com.g07.entity.CitationMapping;
+import com.g07.mapper.CitationMappingMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 问答引用记录：每次回答引用的切片写入 citation_mapping，同时计入热点统计。
+ * 写入由后台单线程攒批完成（满 batch-size 条或等待 flush-interval-ms），按租户分组写到各自分片；
+ * 在事务中调用时等事务提交后才入队，队列满时退化为调用方线程直接写入。
+ * 租户搬迁分片冻结期间写不进去，先暂存在内存（上限 queue-capacity 条），写线程每轮检查，解冻后补写。
+ */
+@Service
+public class CitationService {
+
+    @Autowired
+    private CitationMappingMapper citationMapper;
+
+    @Autowired
+    private PopularityService popularityService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${citations.enabled:true}")
+    private boolean enabled;
+
+    @Value("${citations.batch-size:500}")
+    private int batchSize;
+
+    @Value("${citations.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${citations.queue-capacity:20000}")
+    private int queueCapacity;
+
+    private static class Pending {
+        final String tenantId;
+        final CitationMapping row;
+
+        Pending(String tenantId, CitationMapping row) {
+            this.tenantId = tenantId;
+            this.row = row;
+        }
+    }
+
+    private BlockingQueue<Pending> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong callerWrites = new AtomicLong();
+    private final AtomicLong deferredTotal = new AtomicLong();
+
+    // 冻结中的租户 -> 暂存的引用记录
+    private final Map<String, List<CitationMapping>> deferred = new HashMap<>();
+    private int deferredRows;
+
+    @PostConstruct
+    public void init() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        writer = new Thread(this::drainLoop, "citation-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 记录一次回答引用的切片
+     */
+    public void record(String tenantId, String recordId, List<ContextPackService.CitedChunk> cited) {
+        if (cited == null || cited.isEmpty()) return;
+        popularityService.hit(tenantId, cited);
+        if (!enabled) return;
+
+        List<Pending> rows = new ArrayList<>();
+        for (ContextPackService.CitedChunk c : cited) {
+            CitationMapping m = new CitationMapping();
+            m.setRecordId(recordId);
+            m.setChunkId(c.getChunkId());
+            m.setSimilarityScore(c.getSimilarity());
+            rows.add(new Pending(tenantId, m));
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 问答记录回滚时引用也不写
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(rows);
+                }
+            });
+        } else {
+            enqueue(rows);
+        }
+    }
+
+    private void enqueue(List<Pending> rows) {
+        List<Pending> overflow = new ArrayList<>();
+        for (Pending p : rows) {
+            if (!queue.offer(p)) overflow.add(p);
+        }
+        if (!overflow.isEmpty()) {
+            callerWrites.addAndGet(overflow.size());
+            write(overflow);
+        }
+    }
+
+    private void drainLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                retryDeferred();
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println(">>> [Citation] 写入引用记录失败: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 按租户分组写到各自分片；冻结中的租户暂存，整批失败（通常是切片刚被删除触发外键约束）时逐条重试，跳过写不进去的
+     */
+    private void write(List<Pending> batch) {
+        Map<String, List<CitationMapping>> byTenant = new LinkedHashMap<>();
+        for (Pending p : batch) byTenant.computeIfAbsent(p.tenantId, k -> new ArrayList<>()).add(p.row);
+        for (Map.Entry<String, List<CitationMapping>> e : byTenant.entrySet()) {
+            String tenantId = e.getKey();
+            List<CitationMapping> rows = e.getValue();
+            if (isFrozen(tenantId)) {
+                defer(tenantId, rows);
+                continue;
+            }
+            boolean ok = shardRouter.withTenant(tenantId, () -> {
+                try {
+                    citationMapper.insertBatch(rows);
+                    written.addAndGet(rows.size());
+                    return true;
+                } catch (Exception ex) {
+                    return false;
+                }
+            });
+            if (ok) continue;
+
+            // 本机缓存可能还没看到冻结或切换，按最新状态重新判断和路由
+            shardRouter.evict(tenantId);
+            if (isFrozen(tenantId)) {
+                defer(tenantId, rows);
+                continue;
+            }
+            shardRouter.run(tenantId, () -> {
+                for (CitationMapping row : rows) {
+                    try {
+                        citationMapper.insert(row);
+                        written.incrementAndGet();
+                    } catch (Exception rowEx) {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        batches.incrementAndGet();
+    }
+
+    private boolean isFrozen(String tenantId) {
+        return ShardRouter.FROZEN.equals(shardRouter.statusOf(tenantId));
+    }
+
+    private void defer(String tenantId, List<CitationMapping> rows) {
+        synchronized (deferred) {
+            if (deferredRows + rows.size() > queueCapacity) {
+                failed.addAndGet(rows.size());
+                System.err.println(">>> [Citation] 冻结期间暂存的引用已满，丢弃 " + rows.size() + " 条");
+                return;
+            }
+            deferred.computeIfAbsent(tenantId, k -> new ArrayList<>()).addAll(rows);
+            deferredRows += rows.size();
+        }
+        deferredTotal.addAndGet(rows.size());
+    }
+
+    /**
+     * 已解冻租户的暂存引用重新写入
+     */
+    private void retryDeferred() {
+        List<String> tenants;
+        synchronized (deferred) {
+            if (deferred.isEmpty()) return;
+            tenants = new ArrayList<>(deferred.keySet());
+        }
+        List<Pending> ready = new ArrayList<>();
+        for (String tenantId : tenants) {
+            if (isFrozen(tenantId)) continue;
+            List<CitationMapping> rows;
+            synchronized (deferred) {
+                rows = deferred.remove(tenantId);
+                if (rows == null) continue;
+                deferredRows -= rows.size();
+            }
+            for (CitationMapping row : rows) ready.add(new Pending(tenantId, row));
+        }
+        if (!ready.isEmpty()) write(ready);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("enabled", enabled);
+        data.put("queued", queue.size());
+        data.put("written", written.get());
+        data.put("failed", failed.get());
+        data.put("batches", batches.get());
+        data.put("callerWrites", callerWrites.get());
+        data.put("deferredTotal", deferredTotal.get());
+        synchronized (deferred) {
+            data.put("deferred", deferredRows);
+        }
+        return data;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // 写线程把队列写完后自行退出
+        running = false;
+        writer.join(10000);
+        synchronized (deferred) {
+            if (deferredRows > 0) System.err.println(">>> [Citation] 关闭时仍有 " + deferredRows + " 条引用等待租户解冻，未写入");
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.g07.service;
+
+import com.g07.config.ShardRouter;
+import com.g07.entity.ChangeEvent;
+import com.g07.entity.Document;
+import com.g07.mapper.ChangeEventMapper;
+import com.g07.mapper.DocumentMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多节点缓存失效：文档和文件夹的每次变更都在同一事务里写一条 change_event，
+ * 各节点按自增 ID 游标定时拉取，按 ID 顺序应用到本机缓存（租户分片表、文档名索引、问答缓存、预签名 URL、
+ * 文件夹列表、分页索引、本地段存储、热点常驻）。不需要消息中间件。
+ * - 本节点产生的事件在写入时已经就地失效，拉取时跳过；
+ * - 文档类事件按数据库当前状态重建（文档还在就重新放入索引，不在就摘除），重复或迟到的事件都不会弄错状态；
+ * - 自增 ID 在事务提交前就已分配，晚提交的事务会在游标后面留下空洞，空洞在 gap-timeout-ms 内反复补查，
+ *   超时视为事务已回滚。
+ */
+@Service
+public class ClusterEventService {
+
+    public static final String DOC_UPLOAD = "DOC_UPLOAD";
+    public static final String DOC_RENAME = "DOC_RENAME";
+    public static final String DOC_MOVE = "DOC_MOVE";
+    public static final String DOC_DELETE = "DOC_DELETE";
+    public static final String CATEGORY = "CATEGORY";
+    public static final String TENANT_SHARD = "TENANT_SHARD";
+    // 用户角色变更或用户被删除，resourceId 为用户 ID
+    public static final String USER_ROLE = "USER_ROLE";
+
+    // 单次最多记录的空洞数，防止 auto_increment_increment > 1 等配置下无限增长
+    private static final int MAX_GAPS = 1000;
+
+    @Autowired
+    private ChangeEventMapper eventMapper;
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private DocumentIndexService documentIndexService;
+
+    @Autowired
+    private AnswerCacheService answerCacheService;
+
+    @Autowired
+    private DocumentUrlService documentUrlService;
+
+    @Autowired
+    private CategoryCacheService categoryCacheService;
+
+    @Autowired
+    private PageStoreService pageStoreService;
+
+    @Autowired
+    private ChunkSegmentService chunkSegmentService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private RateLimitService rateLimitService;
+
+    @Autowired
+    private PopularityService popularityService;
+
+    @Value("${cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${cluster.poll-batch:500}")
+    private int pollBatch;
+
+    @Value("${cluster.gap-timeout-ms:30000}")
+    private long gapTimeoutMs;
+
+    @Value("${cluster.retention-hours:24}")
+    private int retentionHours;
+
+    private volatile long cursor;
+    // 空洞 ID -> 首次发现时间
+    private final Map<Long, Long> gaps = new TreeMap<>();
+
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong skippedOwn = new AtomicLong();
+    private final AtomicLong gapsFilled = new AtomicLong();
+    private final AtomicLong gapsExpired = new AtomicLong();
+    private volatile long lagEvents;
+    private volatile long lagMillis;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId == null || nodeId.isEmpty()) {
+            nodeId = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+        }
+        if (!enabled) return;
+        // 启动时本机缓存都是空的，不需要回放历史事件
+        cursor = eventMapper.selectMaxId();
+        System.out.println(">>> [Cluster] 节点 " + nodeId + " 从事件 " + cursor + " 开始同步");
+    }
+
+    // ==================== 发布 ====================
+
+    /**
+     * 在变更所在的事务中调用，事件与变更一起提交或回滚
+     */
+    public void publish(String tenantId, String type, String resourceId, String payload) {
+        if (!enabled) return;
+        eventMapper.insert(event(tenantId, type, resourceId, payload));
+    }
+
+    public void publishDocuments(Collection<Document> docs, String type) {
+        if (!enabled || docs.isEmpty()) return;
+        List<ChangeEvent> events = new ArrayList<>();
+        for (Document d : docs) {
+            events.add(event(d.getTenantId(), type, d.getDocId(), DOC_DELETE.equals(type) ? d.getFilePath() : null));
+        }
+        eventMapper.insertBatch(events);
+    }
+
+    private ChangeEvent event(String tenantId, String type, String resourceId, String payload) {
+        ChangeEvent e = new ChangeEvent();
+        e.setTenantId(tenantId);
+        e.setEventType(type);
+        e.setResourceId(resourceId);
+        e.setPayload(payload);
+        e.setOriginNode(nodeId);
+        e.setCreateTime(LocalDateTime.now());
+        return e;
+    }
+
+    // ==================== 拉取与应用 ====================
+
+    @Scheduled(fixedDelayString = "${cluster.poll-interval-ms:1000}")
+    public synchronized void poll() {
+        if (!enabled) return;
+        try {
+            List<ChangeEvent> events = new ArrayList<>(recheckGaps());
+            List<ChangeEvent> fresh = eventMapper.selectAfter(cursor, pollBatch);
+            long expected = cursor + 1;
+            for (ChangeEvent e : fresh) {
+                for (long id = expected; id < e.getId() && gaps.size() < MAX_GAPS; id++) {
+                    gaps.put(id, System.currentTimeMillis());
+                }
+                expected = e.getId() + 1;
+            }
+            events.addAll(fresh);
+            events.sort(Comparator.comparing(ChangeEvent::getId));
+
+            for (ChangeEvent e : events) {
+                if (nodeId.equals(e.getOriginNode())) {
+                    skippedOwn.incrementAndGet();
+                } else {
+                    // 文档按事件所属租户到对应分片查当前状态
+                    shardRouter.run(e.getTenantId(), () -> apply(e));
+                    applied.incrementAndGet();
+                }
+            }
+            if (!fresh.isEmpty()) {
+                ChangeEvent last = fresh.get(fresh.size() - 1);
+                cursor = last.getId();
+                lagMillis = Duration.between(last.getCreateTime(), LocalDateTime.now()).toMillis();
+            } else {
+                lagMillis = 0;
+            }
+            lagEvents = Math.max(0, eventMapper.selectMaxId() - cursor);
+        } catch (Exception e) {
+            System.err.println(">>> [Cluster] 拉取变更事件失败: " + e.getMessage());
+        }
+    }
+
+    private List<ChangeEvent> recheckGaps() {
+        if (gaps.isEmpty()) return Collections.emptyList();
+        List<ChangeEvent> found = eventMapper.selectBatchIds(new ArrayList<>(gaps.keySet()));
+        for (ChangeEvent e : found) gaps.remove(e.getId());
+        gapsFilled.addAndGet(found.size());
+
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Long, Long>> it = gaps.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue() > gapTimeoutMs) {
+                it.remove();
+                gapsExpired.incrementAndGet();
+            }
+        }
+        return found;
+    }
+
+    private void apply(ChangeEvent e) {
+        String tenantId = e.getTenantId();
+        if (TENANT_SHARD.equals(e.getEventType())) {
+            shardRouter.evict(tenantId);
+            return;
+        }
+        if (USER_ROLE.equals(e.getEventType())) {
+            // 限流按角色取限额，角色缓存在本机
+            rateLimitService.evict(null, e.getResourceId());
+            return;
+        }
+        if (CATEGORY.equals(e.getEventType())) {
+            // 旧版本节点发出的排序事件不带租户，整体失效
+            if (tenantId == null) {
+                categoryCacheService.invalidateAll();
+            } else {
+                categoryCacheService.invalidate(tenantId);
+            }
+            return;
+        }
+
+        String docId = e.getResourceId();
+        Document doc = documentMapper.selectById(docId);
+        documentUrlService.invalidate(docId);
+        answerCacheService.invalidateDocument(tenantId, docId);
+        if (doc == null) {
+            documentIndexService.onDelete(tenantId, docId);
+            chunkSegmentService.removeDocuments(List.of(docId));
+            popularityService.onDocumentsDeleted(List.of(docId));
+            if (e.getPayload() != null) pageStoreService.evict(e.getPayload());
+            return;
+        }
+        documentIndexService.onUpload(doc);
+        if (DOC_UPLOAD.equals(e.getEventType())) {
+            answerCacheService.invalidateOnUpload(tenantId, doc.getDocName());
+        }
+    }
+
+    /**
+     * 清理过期事件，所有节点都执行，删除条数有上限
+     */
+    @Scheduled(initialDelayString = "${cluster.purge-interval-ms:3600000}", fixedDelayString = "${cluster.purge-interval-ms:3600000}")
+    public void purge() {
+        if (!enabled) return;
+        try {
+            LocalDateTime before = LocalDateTime.now().minusHours(retentionHours);
+            int total = 0, n;
+            do {
+                n = eventMapper.deleteBefore(before, 1000);
+                total += n;
+            } while (n == 1000);
+            if (total > 0) System.out.println(">>> [Cluster] 清理过期变更事件 " + total + " 条");
+        } catch (Exception e) {
+            System.err.println(">>> [Cluster] 清理变更事件失败: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("enabled", enabled);
+        data.put("nodeId", nodeId);
+        data.put("cursor", cursor);
+        data.put("lagEvents", lagEvents);
+        data.put("lagMillis", lagMillis);
+        data.put("applied", applied.get());
+        data.put("skippedOwn", skippedOwn.get());
+        synchronized (this) {
+            data.put("openGaps", gaps.size());
+        }
+        data.put("gapsFilled", gapsFilled.get());
+        data.put("gapsExpired", gapsExpired.get());
+        return data;
+    }
+}
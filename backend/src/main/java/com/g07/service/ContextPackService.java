@@ -0,0 +1,278 @@
+package com.g07.service;
+
+import com.g07.entity.Document;
+import com.g07.entity.DocumentSummary;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.utils.TextUtils;
+import com.g07.utils.TokenUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * 上下文打包：在固定的 Token 预算内，按相关度贪心挑选知识切片，
+ * 去掉相邻切片之间的重叠部分并合并成连续段落，再交给大模型。
+ */
+@Service
+public class ContextPackService {
+
+    @Autowired
+    private KnowledgeChunkMapper chunkMapper;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private SummaryService summaryService;
+
+    @Autowired
+    private ChunkStorageService chunkStorageService;
+
+    @Autowired
+    private ChunkSegmentService chunkSegmentService;
+
+    @Autowired
+    private PopularityService popularityService;
+
+    // 整个 Prompt 中参考资料部分允许占用的 Token 上限
+    @Value("${ai.context.max-tokens:4000}")
+    private int maxTokens;
+
+    // 与入库时 splitTextIntoChunks 的参数保持一致
+    @Value("${ai.context.chunk-size:800}")
+    private int chunkSize;
+
+    @Value("${ai.context.chunk-overlap:100}")
+    private int chunkOverlap;
+
+    // 总结类问题：摘要之外再补充的原文切片 Token 上限
+    @Value("${ai.context.summary-chunk-tokens:800}")
+    private int summaryChunkTokens;
+
+    public static class PackedContext {
+        private final List<String> context = new ArrayList<>();
+        private final List<String> citations = new ArrayList<>();
+        private final List<String> citedDocIds = new ArrayList<>();
+        private final List<CitedChunk> citedChunks = new ArrayList<>();
+        private int usedTokens;
+
+        public List<String> getContext() { return context; }
+        public List<String> getCitations() { return citations; }
+        public List<String> getCitedDocIds() { return citedDocIds; }
+        public List<CitedChunk> getCitedChunks() { return citedChunks; }
+        public int getUsedTokens() { return usedTokens; }
+
+        void addTokens(int tokens) { usedTokens += tokens; }
+    }
+
+    /**
+     * 入选的切片，similarity 为问题二元词在切片中的命中比例
+     */
+    public static class CitedChunk {
+        private final String chunkId;
+        private final String docId;
+        private final float similarity;
+
+        public CitedChunk(String chunkId, String docId, float similarity) {
+            this.chunkId = chunkId;
+            this.docId = docId;
+            this.similarity = similarity;
+        }
+
+        public String getChunkId() { return chunkId; }
+        public String getDocId() { return docId; }
+        public float getSimilarity() { return similarity; }
+    }
+
+    /**
+     * @param docs     已按相关度排好序的文档（越靠前越相关）
+     * @param question 用户原话
+     * @param keyword  AI 提取出的关键词
+     */
+    public PackedContext pack(List<Document> docs, String question, String keyword) {
+        return pack(docs, question, keyword, null);
+    }
+
+    /**
+     * @param sharedChunks 批量问答时整批共享的 文档 → 切片，为空时每次都加载
+     */
+    public PackedContext pack(List<Document> docs, String question, String keyword,
+                              Map<String, List<KnowledgeChunk>> sharedChunks) {
+        PackedContext packed = new PackedContext();
+        if (docs == null || docs.isEmpty()) return packed;
+
+        // 0. 总结类问题优先使用入库时生成的摘要和提纲，原文切片只作少量补充
+        Map<String, DocumentSummary> summaries = new HashMap<>();
+        int used = 0;
+        int budget = maxTokens;
+        if (SummaryService.isSummaryQuestion(question)) {
+            List<String> ids = new ArrayList<>();
+            for (Document d : docs) ids.add(d.getDocId());
+            for (Map.Entry<String, DocumentSummary> e : summaryService.getAll(ids).entrySet()) {
+                int cost = e.getValue().getTokenCount() != null ? e.getValue().getTokenCount() : 0;
+                if (used + cost > budget) continue;
+                summaries.put(e.getKey(), e.getValue());
+                used += cost;
+            }
+            if (!summaries.isEmpty()) budget = Math.min(maxTokens, used + summaryChunkTokens);
+        }
+
+        Set<String> terms = new HashSet<>();
+        terms.addAll(TextUtils.bigrams(question));
+        terms.addAll(TextUtils.bigrams(keyword));
+
+        // 1. 给所有候选切片打分：文档排名权重 + 与问题的二元词重合度，开头切片(通常是标题/摘要)略加分；
+        //    压缩存储的切片用二元词签名打分，不解压
+        List<Candidate> candidates = new ArrayList<>();
+        for (int rank = 0; rank < docs.size(); rank++) {
+            Document doc = docs.get(rank);
+            double docWeight = (docs.size() - rank) * 2.0;
+            for (KnowledgeChunk chunk : loadChunks(doc, sharedChunks)) {
+                int hits = chunkStorageService.countHits(chunk, terms);
+                double score = docWeight + hits;
+                if (chunk.getChunkIndex() != null && chunk.getChunkIndex() == 0) score += 1.0;
+                candidates.add(new Candidate(rank, chunk, score, terms.isEmpty() ? 0f : (float) hits / terms.size()));
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(b.score, a.score));
+
+        // 2. 贪心装箱：相邻切片已入选时，重叠部分不重复计费
+        Map<Integer, TreeMap<Integer, KnowledgeChunk>> selected = new HashMap<>();
+        int unindexed = 0;
+        for (Candidate c : candidates) {
+            TreeMap<Integer, KnowledgeChunk> picked = selected.computeIfAbsent(c.docRank, k -> new TreeMap<>());
+            // 没有序号的切片给一个互不相邻的负数键：排在最前面，不参与重叠扣减和合并
+            int index = c.chunk.getChunkIndex() != null ? c.chunk.getChunkIndex() : -2 * ++unindexed;
+            int cost = tokensOf(c.chunk);
+            if (picked.containsKey(index - 1)) cost -= overlapTokens(c.chunk);
+            if (picked.containsKey(index + 1)) cost -= overlapTokens(picked.get(index + 1));
+            cost = Math.max(cost, 0);
+
+            if (used + cost > budget) continue;
+            picked.put(index, c.chunk);
+            used += cost;
+            // 临时切片（老文档现场解析）没有 ID，不记录引用
+            if (c.chunk.getChunkId() != null) {
+                packed.citedChunks.add(new CitedChunk(c.chunk.getChunkId(), c.chunk.getDocId(), c.similarity));
+            }
+        }
+
+        // 3. 只取出入选切片的正文，按文档原始顺序输出，摘要在前，连续切片合并为一段
+        List<KnowledgeChunk> chosen = new ArrayList<>();
+        for (TreeMap<Integer, KnowledgeChunk> picked : selected.values()) chosen.addAll(picked.values());
+        popularityService.loadContents(chosen);
+        chunkSegmentService.loadContents(chosen);
+        chunkStorageService.loadContents(chosen);
+        for (int rank = 0; rank < docs.size(); rank++) {
+            Document doc = docs.get(rank);
+            DocumentSummary summary = summaries.get(doc.getDocId());
+            TreeMap<Integer, KnowledgeChunk> picked = selected.getOrDefault(rank, new TreeMap<>());
+            if (summary == null && picked.isEmpty()) continue;
+
+            List<String> segments = new ArrayList<>();
+            if (summary != null) segments.add(summaryService.render(summary));
+            StringBuilder current = null;
+            int lastIndex = Integer.MIN_VALUE;
+            for (Map.Entry<Integer, KnowledgeChunk> e : picked.entrySet()) {
+                String content = e.getValue().getContent();
+                if (current != null && e.getKey() == lastIndex + 1) {
+                    appendWithoutOverlap(current, content);
+                } else {
+                    if (current != null) segments.add(current.toString());
+                    current = new StringBuilder(content);
+                }
+                lastIndex = e.getKey();
+            }
+            if (current != null) segments.add(current.toString());
+
+            packed.context.add("【参考文档：" + doc.getDocName() + "】\n" + String.join("\n……\n", segments));
+            packed.citations.add(doc.getDocName());
+            packed.citedDocIds.add(doc.getDocId());
+        }
+        packed.usedTokens = used;
+        return packed;
+    }
+
+    /**
+     * 优先读取入库时生成的切片（依次查热点常驻内存、本地段存储、数据库）；老数据或未解析类型的文档没有切片时，临时解析全文并在内存中切片
+     */
+    private List<KnowledgeChunk> loadChunks(Document doc, Map<String, List<KnowledgeChunk>> shared) {
+        if (shared == null) return loadChunks(doc);
+        List<KnowledgeChunk> chunks = shared.get(doc.getDocId());
+        if (chunks != null) return chunks;
+        chunks = loadChunks(doc);
+        List<KnowledgeChunk> existing = shared.putIfAbsent(doc.getDocId(), chunks);
+        return existing != null ? existing : chunks;
+    }
+
+    private List<KnowledgeChunk> loadChunks(Document doc) {
+        List<KnowledgeChunk> pinned = popularityService.chunksOf(doc.getDocId());
+        if (pinned != null) return pinned;
+
+        List<KnowledgeChunk> local = chunkSegmentService.chunksOf(doc.getDocId());
+        if (local != null) return local;
+
+        List<KnowledgeChunk> chunks = chunkMapper.selectForPacking(doc.getDocId());
+        if (chunks != null && !chunks.isEmpty()) return chunks;
+
+        List<KnowledgeChunk> temp = new ArrayList<>();
+        String fullText = fileService.extractTextFromMinio(doc.getFilePath());
+        if (fullText == null || fullText.trim().isEmpty()) return temp;
+
+        int index = 0;
+        for (String content : fileService.splitTextIntoChunks(fullText, chunkSize, chunkOverlap)) {
+            KnowledgeChunk chunk = new KnowledgeChunk();
+            chunk.setDocId(doc.getDocId());
+            chunk.setContent(content);
+            chunk.setChunkIndex(index++);
+            chunk.setTokenCount(TokenUtils.estimateTokens(content));
+            temp.add(chunk);
+        }
+        return temp;
+    }
+
+    private int tokensOf(KnowledgeChunk chunk) {
+        if (chunk.getTokenCount() == null) {
+            chunk.setTokenCount(TokenUtils.estimateTokens(chunk.getContent()));
+        }
+        return chunk.getTokenCount();
+    }
+
+    private int overlapTokens(KnowledgeChunk chunk) {
+        String content = chunk.getContent();
+        // 压缩存储的切片此时还没有正文，按重叠字符占切片长度的比例估算
+        if (content == null || content.isEmpty()) return tokensOf(chunk) * chunkOverlap / chunkSize;
+        return TokenUtils.estimateTokens(content.substring(0, Math.min(chunkOverlap, content.length())));
+    }
+
+    /**
+     * 切片之间按 chunkOverlap 字符重叠，拼接时找出前一段结尾与后一段开头的最长公共部分并去掉
+     */
+    private void appendWithoutOverlap(StringBuilder prev, String next) {
+        int max = Math.min(chunkOverlap, Math.min(prev.length(), next.length()));
+        for (int k = max; k > 0; k--) {
+            if (prev.substring(prev.length() - k).equals(next.substring(0, k))) {
+                prev.append(next, k, next.length());
+                return;
+            }
+        }
+        prev.append(next);
+    }
+
+    private static class Candidate {
+        final int docRank;
+        final KnowledgeChunk chunk;
+        final double score;
+        final float similarity;
+
+        Candidate(int docRank, KnowledgeChunk chunk, double score, float similarity) {
+            this.docRank = docRank;
+            this.chunk = chunk;
+            this.score = score;
+            this.similarity = similarity;
+        }
+    }
+}
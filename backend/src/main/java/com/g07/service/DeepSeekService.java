@@ -1,43 +1,56 @@
 package com.g07.service;
 
+import com.g07.utils.TextUtils;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.*;
 
 @Service
 public class DeepSeekService {
 
-    @Value("${ai.api.url}")
-    private String aiApiUrl;
-
-    @Value("${ai.api.key}")
-    private String apiKey;
-
+    // 单飞合并的 key 和失败计量用默认模型，成功调用按实际应答端点的模型计量
     @Value("${ai.model}")
     private String model;
 
-    private final RestTemplate restTemplate;
+    private final LlmRouterService llmRouter;
+
+    private final SingleFlightService singleFlightService;
+
+    private final LlmUsageService usageService;
 
-    public DeepSeekService(RestTemplate restTemplate) {
-        this.restTemplate = restTemplate;
+    public DeepSeekService(LlmRouterService llmRouter, SingleFlightService singleFlightService,
+                           LlmUsageService usageService) {
+        this.llmRouter = llmRouter;
+        this.singleFlightService = singleFlightService;
+        this.usageService = usageService;
     }
 
     /**
      * 原有的 RAG 问答方法 (保持不变，或内部调用下面的通用方法)
+     * tenantId / userId 用于用量计量和额度检查
+     */
+    public String getResponse(String tenantId, String userId, String question, List<String> context) {
+        LlmRouterService.Result result = answer(tenantId, userId, question, context, null, null);
+        return result == null || result.getContent() == null ? question : result.getContent();
+    }
+
+    /**
+     * 按指定的模型档位回答，供 ModelCascadeService 使用；调用失败时返回 null，由调用方决定是否升级
+     * @param tier 模型档位，为空时不限
+     * @param tierModel 该档位的模型，为空时用端点自己的模型
      */
-    public String getResponse(String question, List<String> context) {
+    public LlmRouterService.Result answer(String tenantId, String userId, String question, List<String> context,
+                                          String tier, String tierModel) {
         String systemPrompt = buildSystemPrompt(context);
-        return callDeepSeek(systemPrompt, question);
+        return callModel("answer", tier, tierModel, tenantId, userId, systemPrompt, question);
     }
 
     /**
      * 【新增】专门用于关键词提取的轻量级方法
      * 允许自定义 System Prompt
      */
-    public String extractKeywords(String userQuestion) {
+    public String extractKeywords(String tenantId, String userId, String userQuestion) {
         // 专门的提示词，要求 AI 只输出关键词，不要啰嗦
         String systemPrompt = "你是一个文档检索关键词提取助手。请从用户的自然语言描述中，提取出最核心的文件名关键词。" +
                 "规则：\n" +
@@ -46,52 +59,96 @@ public class DeepSeekService {
                 "3. 如果用户问题本身就很短（小于5个字），直接原样输出。\n" +
                 "4. 举例：用户输入“帮我找一下金可的调研报告”，你应该输出“金可调研报告”。";
         
-        return callDeepSeek(systemPrompt, userQuestion);
+        return callDeepSeek("keywords", tenantId, userId, systemPrompt, userQuestion);
+    }
+
+    /**
+     * 离线改写文档摘要：输入抽取式的摘要和提纲，输出一段通顺的全文摘要
+     */
+    public String refineSummary(String tenantId, String draft) {
+        String systemPrompt = "你是一个文档摘要助手。下面是从一篇文档中抽取出的关键句和章节提纲，" +
+                "请据此写一段不超过200字的中文摘要，概括文档的主题、主要内容和结论。" +
+                "只输出摘要正文，不要添加标题、解释或原文中没有的信息。";
+        return callDeepSeek("summary", tenantId, null, systemPrompt, draft);
     }
 
     /**
      * 【新增】通用的底层调用方法
+     * 相同模型 + 相同 Prompt 的并发请求合并为一次调用，用量记在实际发起调用的租户上
+     * 租户本月额度用完时抛出 QuotaExceededException，不降级
+     * @param kind 调用类型，LlmRouterService 据此决定是否对冲
      */
-    private String callDeepSeek(String systemPrompt, String userMessage) {
+    private String callDeepSeek(String kind, String tenantId, String userId, String systemPrompt, String userMessage) {
+        LlmRouterService.Result result = callModel(kind, null, null, tenantId, userId, systemPrompt, userMessage);
+        // 如果 AI 挂了，降级为返回原话
+        return result == null || result.getContent() == null ? userMessage : result.getContent();
+    }
+
+    private LlmRouterService.Result callModel(String kind, String tier, String tierModel, String tenantId, String userId,
+                                              String systemPrompt, String userMessage) {
+        usageService.checkQuota(tenantId);
         try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(apiKey);
-
-            List<Map<String, Object>> messages = new ArrayList<>();
-            Map<String, Object> systemMsg = new HashMap<>();
-            systemMsg.put("role", "system");
-            systemMsg.put("content", systemPrompt);
-            messages.add(systemMsg);
-
-            Map<String, Object> userMsg = new HashMap<>();
-            userMsg.put("role", "user");
-            userMsg.put("content", userMessage);
-            messages.add(userMsg);
-
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("messages", messages);
-            requestBody.put("temperature", 0.3); // 提取关键词时温度设低一点，更精准
-            requestBody.put("stream", false);
-
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-            String endpoint = aiApiUrl.endsWith("/") ? aiApiUrl + "chat/completions" : aiApiUrl + "/chat/completions";
-
-            ResponseEntity<Map> response = restTemplate.postForEntity(endpoint, entity, Map.class);
-
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                List<Map<String, Object>> choices = (List<Map<String, Object>>) response.getBody().get("choices");
-                if (choices != null && !choices.isEmpty()) {
-                    Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-                    return (String) message.get("content");
-                }
-            }
+            // 用量按租户记账，不同租户的相同问题各自调用，不能搭别人的车
+            String promptKey = TextUtils.sha256Hex(tenantId + "\n" + (tierModel != null ? tierModel : model) + "\n"
+                    + (tier != null ? tier : "") + "\n" + systemPrompt + "\n" + userMessage);
+            return singleFlightService.run("llm", promptKey,
+                    () -> doCall(kind, tier, tierModel, tenantId, userId, systemPrompt, userMessage));
         } catch (Exception e) {
             System.err.println("AI 调用异常: " + e.getMessage());
-            return userMessage; // 如果 AI 挂了，降级为返回原话
+            return null;
         }
-        return userMessage;
+    }
+
+    private LlmRouterService.Result doCall(String kind, String tier, String tierModel, String tenantId, String userId,
+                                           String systemPrompt, String userMessage) throws Exception {
+        List<Map<String, Object>> messages = new ArrayList<>();
+        Map<String, Object> systemMsg = new HashMap<>();
+        systemMsg.put("role", "system");
+        systemMsg.put("content", systemPrompt);
+        messages.add(systemMsg);
+
+        Map<String, Object> userMsg = new HashMap<>();
+        userMsg.put("role", "user");
+        userMsg.put("content", userMessage);
+        messages.add(userMsg);
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("messages", messages);
+        requestBody.put("temperature", 0.3); // 提取关键词时温度设低一点，更精准
+        requestBody.put("stream", false);
+        if (tierModel != null) requestBody.put("model", tierModel);
+
+        // 端点选择、对冲和失败转移由 LlmRouterService 负责，model 由选中的端点填入
+        long start = System.currentTimeMillis();
+        LlmRouterService.Result result;
+        try {
+            result = llmRouter.call(kind, tier, requestBody);
+        } catch (Exception e) {
+            usageService.recordFailure(tenantId, userId, tierModel != null ? tierModel : model,
+                    System.currentTimeMillis() - start);
+            throw e;
+        }
+        recordUsage(tenantId, userId, result.getModel(), result.getUsage(), result.getLatencyMs());
+        return result;
+    }
+
+    /**
+     * 记录响应中的 usage：DeepSeek 返回 prompt_cache_hit_tokens，OpenAI 兼容接口返回 prompt_tokens_details.cached_tokens
+     */
+    private void recordUsage(String tenantId, String userId, String model, Map<String, Object> usage, long latencyMs) {
+        if (usage == null) {
+            usageService.record(tenantId, userId, model, 0, 0, 0, latencyMs);
+            return;
+        }
+        long cacheHit = number(usage.get("prompt_cache_hit_tokens"));
+        Object details = usage.get("prompt_tokens_details");
+        if (cacheHit == 0 && details instanceof Map) cacheHit = number(((Map<?, ?>) details).get("cached_tokens"));
+        usageService.record(tenantId, userId, model,
+                number(usage.get("prompt_tokens")), number(usage.get("completion_tokens")), cacheHit, latencyMs);
+    }
+
+    private static long number(Object v) {
+        return v instanceof Number ? ((Number) v).longValue() : 0;
     }
 
     // 原有的构建提示词方法
@@ -0,0 +1,236 @@
+package com.g07.service;
+
+import com.g07.config.ShardRouter;
+import com.g07.entity.Category;
+import com.g07.entity.Document;
+import com.g07.mapper.DocumentMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.utils.TxUtils;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * 文档批量操作：批量删除、批量移动
+ * 数据库部分在同一事务内按批执行；MinIO 删除和本节点缓存失效在事务提交后进行。
+ * 管理员可以批量删除多个企业的文档，文档按所属企业分组，在各自的分片上删除。
+ */
+@Service
+public class DocumentBulkService {
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private KnowledgeChunkMapper chunkMapper;
+
+    @Autowired
+    private ClusterEventService clusterEventService;
+
+    @Autowired
+    private AnswerCacheService answerCacheService;
+
+    @Autowired
+    private DocumentIndexService documentIndexService;
+
+    @Autowired
+    private DocumentUrlService documentUrlService;
+
+    @Autowired
+    private ChunkSegmentService chunkSegmentService;
+
+    @Autowired
+    private PageStoreService pageStoreService;
+
+    @Autowired
+    private CategoryCacheService categoryCacheService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private PopularityService popularityService;
+
+    @Value("${minio.bucketName}")
+    private String bucketName;
+
+    // 单条 SQL 的 IN 列表上限
+    @Value("${docs.bulk.batch-size:500}")
+    private int batchSize;
+
+    public static class BulkResult {
+        private final List<Document> succeeded = new ArrayList<>();
+        private final Map<String, String> failed = new LinkedHashMap<>();
+
+        public List<Document> getSucceeded() { return succeeded; }
+        public Map<String, String> getFailed() { return failed; }
+
+        public Map<String, Object> toMap() {
+            List<String> ids = new ArrayList<>();
+            for (Document d : succeeded) ids.add(d.getDocId());
+            Map<String, Object> data = new HashMap<>();
+            data.put("succeeded", ids);
+            data.put("failed", failed);
+            return data;
+        }
+    }
+
+    /**
+     * 先在事务内删除切片和文档记录，事务提交后再删 MinIO 对象、失效本节点缓存；
+     * 对象删除失败只留下孤儿文件，由后台回收，不会出现记录指向已删除文件的情况
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BulkResult deleteDocuments(List<String> docIds) {
+        BulkResult result = new BulkResult();
+        Map<String, Document> docs = loadFromAllShards(docIds, result);
+        if (docs.isEmpty()) return result;
+
+        // 1. 按企业分组，在各自的分片上删除切片与文档记录，按批执行
+        Map<String, List<String>> byTenant = new LinkedHashMap<>();
+        for (Document d : docs.values()) byTenant.computeIfAbsent(d.getTenantId(), k -> new ArrayList<>()).add(d.getDocId());
+        for (Map.Entry<String, List<String>> e : byTenant.entrySet()) {
+            shardRouter.run(e.getKey(), () -> {
+                for (List<String> batch : partition(e.getValue())) {
+                    chunkMapper.deleteByDocIds(batch);
+                    documentMapper.deleteBatchIds(batch);
+                }
+            });
+        }
+        clusterEventService.publishDocuments(docs.values(), ClusterEventService.DOC_DELETE);
+        result.succeeded.addAll(docs.values());
+        List<String> ids = new ArrayList<>(docs.keySet());
+
+        // 2. 提交后：MinIO 批量删除（客户端内部按 1000 个一组发送）和缓存失效
+        List<Document> deleted = new ArrayList<>(docs.values());
+        TxUtils.afterCommit("批量删除文档", () -> {
+            for (Document d : deleted) {
+                answerCacheService.invalidateDocument(d.getTenantId(), d.getDocId());
+                documentIndexService.onDelete(d.getTenantId(), d.getDocId());
+                documentUrlService.invalidate(d.getDocId());
+                pageStoreService.evict(d.getFilePath());
+            }
+            chunkSegmentService.removeDocuments(ids);
+            popularityService.onDocumentsDeleted(ids);
+            removeObjects(deleted);
+        });
+        return result;
+    }
+
+    private void removeObjects(List<Document> docs) {
+        List<DeleteObject> objects = new ArrayList<>();
+        for (Document d : docs) {
+            objects.add(new DeleteObject(d.getFilePath()));
+            for (String artifact : PageStoreService.artifactsOf(d.getFilePath())) objects.add(new DeleteObject(artifact));
+        }
+        Iterable<Result<DeleteError>> errors = minioClient.removeObjects(RemoveObjectsArgs.builder()
+                .bucket(bucketName)
+                .objects(objects)
+                .build());
+        for (Result<DeleteError> r : errors) {
+            try {
+                DeleteError err = r.get();
+                System.err.println(">>> [Bulk] MinIO 删除失败，留给后台回收: " + err.objectName() + " " + err.message());
+            } catch (Exception e) {
+                System.err.println(">>> [Bulk] 解析 MinIO 删除结果失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 事务提交后更新本节点的文档名索引（文件夹字段）、问答缓存、链接缓存和文件夹列表缓存，其他节点通过 DOC_MOVE 事件更新
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BulkResult moveDocuments(List<String> docIds, Category target) {
+        BulkResult result = new BulkResult();
+        // 只能移动到同一企业的文件夹，按目标文件夹所属企业的分片查找和更新
+        return shardRouter.withTenant(target.getTenantId(), () -> move(docIds, target, result));
+    }
+
+    private BulkResult move(List<String> docIds, Category target, BulkResult result) {
+        Map<String, Document> docs = load(docIds, result);
+
+        Iterator<Document> it = docs.values().iterator();
+        while (it.hasNext()) {
+            Document d = it.next();
+            if (!target.getTenantId().equals(d.getTenantId())) {
+                result.failed.put(d.getDocId(), "文档不属于目标文件夹所在企业");
+                it.remove();
+            }
+        }
+
+        List<String> ids = new ArrayList<>(docs.keySet());
+        for (List<String> batch : partition(ids)) {
+            documentMapper.moveToCategory(target.getTenantId(), target.getId(), batch);
+        }
+        clusterEventService.publishDocuments(docs.values(), ClusterEventService.DOC_MOVE);
+        result.succeeded.addAll(docs.values());
+
+        List<Document> moved = new ArrayList<>(docs.values());
+        TxUtils.afterCommit("批量移动文档", () -> {
+            for (Document d : moved) {
+                d.setCategoryId(target.getId());
+                documentIndexService.onUpload(d);
+                answerCacheService.invalidateDocument(d.getTenantId(), d.getDocId());
+                documentUrlService.invalidate(d.getDocId());
+            }
+            categoryCacheService.invalidate(target.getTenantId());
+        });
+        return result;
+    }
+
+    private Map<String, Document> load(List<String> docIds, BulkResult result) {
+        Map<String, Document> docs = new LinkedHashMap<>();
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(docIds));
+        for (List<String> batch : partition(distinct)) {
+            for (Document d : documentMapper.selectBatchIds(batch)) {
+                docs.put(d.getDocId(), d);
+            }
+        }
+        for (String id : distinct) {
+            if (!docs.containsKey(id)) result.failed.put(id, "文档不存在");
+        }
+        return docs;
+    }
+
+    /**
+     * 逐个分片查找，前面分片已找到的文档不再查；只用来确定文档所属企业，删除时再按企业路由
+     */
+    private Map<String, Document> loadFromAllShards(List<String> docIds, BulkResult result) {
+        if (shardRouter.shardCount() == 1) return load(docIds, result);
+        Map<String, Document> docs = new LinkedHashMap<>();
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(docIds));
+        for (int shard : shardRouter.shardIds()) {
+            List<String> missing = new ArrayList<>(distinct);
+            missing.removeAll(docs.keySet());
+            if (missing.isEmpty()) break;
+            shardRouter.runOnShard(shard, () -> {
+                for (List<String> batch : partition(missing)) {
+                    for (Document d : documentMapper.selectBatchIds(batch)) docs.putIfAbsent(d.getDocId(), d);
+                }
+            });
+        }
+        for (String id : distinct) {
+            if (!docs.containsKey(id)) result.failed.put(id, "文档不存在");
+        }
+        return docs;
+    }
+
+    private List<List<String>> partition(List<String> ids) {
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            batches.add(ids.subList(i, Math.min(i + batchSize, ids.size())));
+        }
+        return batches;
+    }
+}
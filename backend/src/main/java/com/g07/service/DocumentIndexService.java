@@ -0,0 +1,239 @@
+package com.g07.service;
+
+import com.g07.entity.Document;
+import com.g07.mapper.DocumentMapper;
+import com.g07.utils.AhoCorasick;
+import com.g07.utils.TextUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按租户的文档名内存索引，替代 searchFuzzy 中无法走索引的双向 LIKE：
+ * 1. 问题中包含文档名：对归一化后的文档名建 Aho-Corasick 自动机，一次扫描找出全部命中；
+ * 2. 文档名中包含关键词：对文档名建二元词倒排表，求交后再做一次 contains 校验。
+ * 上传/重命名/删除时只更新对应租户的内存结构，不回表重建。
+ * 首次加载租户期间到达的更新先记下来，加载完成后按顺序重放，避免加载查询之后提交的文档丢失；
+ * 检索返回的是副本，调用方修改不影响索引，重命名也不会改到调用方手里的对象。
+ */
+@Service
+public class DocumentIndexService {
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    // 与原 searchFuzzy 的 LIMIT 3 保持一致
+    @Value("${docs.index.max-results:3}")
+    private int maxResults;
+
+    private final Map<String, TenantIndex> tenants = new ConcurrentHashMap<>();
+
+    public List<Document> search(String tenantId, String keyword) {
+        if (tenantId == null || keyword == null || keyword.trim().isEmpty()) return new ArrayList<>();
+        return index(tenantId).search(keyword);
+    }
+
+    public void onUpload(Document doc) {
+        TenantIndex idx = tenants.get(doc.getTenantId());
+        if (idx != null) idx.put(copy(doc));
+    }
+
+    public void onRename(String tenantId, String docId, String newName) {
+        TenantIndex idx = tenants.get(tenantId);
+        if (idx != null) idx.rename(docId, newName);
+    }
+
+    public void onDelete(String tenantId, String docId) {
+        TenantIndex idx = tenants.get(tenantId);
+        if (idx != null) idx.remove(docId);
+    }
+
+    /**
+     * 丢弃某个租户的索引，下次查询时从数据库重新加载
+     */
+    public void evict(String tenantId) {
+        tenants.remove(tenantId);
+    }
+
+    /**
+     * 先把空索引放进 map，加载期间的上传/重命名/删除能找到它并排队，查库放在 computeIfAbsent 之外
+     */
+    private TenantIndex index(String tenantId) {
+        TenantIndex idx = tenants.computeIfAbsent(tenantId, k -> new TenantIndex());
+        idx.ensureLoaded(tenantId);
+        return idx;
+    }
+
+    private static Document copy(Document d) {
+        Document c = new Document();
+        c.setDocId(d.getDocId());
+        c.setTenantId(d.getTenantId());
+        c.setUserId(d.getUserId());
+        c.setCategoryId(d.getCategoryId());
+        c.setDocName(d.getDocName());
+        c.setFilePath(d.getFilePath());
+        c.setFileType(d.getFileType());
+        c.setFileSize(d.getFileSize());
+        c.setStatus(d.getStatus());
+        c.setUploadTime(d.getUploadTime());
+        c.setProcessedTime(d.getProcessedTime());
+        c.setParseError(d.getParseError());
+        return c;
+    }
+
+    /**
+     * 去掉扩展名后归一化，对应原 SQL 中的 REPLACE(doc_name, 扩展名, '')
+     */
+    static String titleKey(String docName) {
+        if (docName == null) return "";
+        int dot = docName.lastIndexOf('.');
+        String base = dot > 0 ? docName.substring(0, dot) : docName;
+        return TextUtils.normalize(base);
+    }
+
+    private class TenantIndex {
+        private final Map<String, Document> docs = new HashMap<>();
+        private final Map<String, String> keys = new HashMap<>();
+        private final Map<String, Set<String>> postings = new HashMap<>();
+        private AhoCorasick<String> automaton;
+        private final Object loadLock = new Object();
+        private boolean loaded;
+        // 加载完成前到达的更新，加载后重放
+        private List<Runnable> pending = new ArrayList<>();
+
+        void ensureLoaded(String tenantId) {
+            synchronized (this) {
+                if (loaded) return;
+            }
+            synchronized (loadLock) {
+                synchronized (this) {
+                    if (loaded) return;
+                }
+                List<Document> rows = documentMapper.selectNameIndexByTenant(tenantId);
+                synchronized (this) {
+                    for (Document doc : rows) doPut(doc);
+                    for (Runnable r : pending) r.run();
+                    pending = null;
+                    loaded = true;
+                }
+            }
+        }
+
+        synchronized void put(Document doc) {
+            if (!loaded) {
+                pending.add(() -> doPut(doc));
+                return;
+            }
+            doPut(doc);
+        }
+
+        synchronized void rename(String docId, String newName) {
+            if (!loaded) {
+                pending.add(() -> doRename(docId, newName));
+                return;
+            }
+            doRename(docId, newName);
+        }
+
+        synchronized void remove(String docId) {
+            if (!loaded) {
+                pending.add(() -> doRemove(docId));
+                return;
+            }
+            doRemove(docId);
+        }
+
+        private void doPut(Document doc) {
+            doRemove(doc.getDocId());
+            String key = titleKey(doc.getDocName());
+            docs.put(doc.getDocId(), doc);
+            keys.put(doc.getDocId(), key);
+            for (String g : TextUtils.bigrams(key)) {
+                postings.computeIfAbsent(g, k -> new HashSet<>()).add(doc.getDocId());
+            }
+            automaton = null;
+        }
+
+        private void doRename(String docId, String newName) {
+            Document doc = docs.get(docId);
+            if (doc == null) return;
+            Document renamed = copy(doc);
+            renamed.setDocName(newName);
+            doPut(renamed);
+        }
+
+        private void doRemove(String docId) {
+            String key = keys.remove(docId);
+            if (docs.remove(docId) == null) return;
+            for (String g : TextUtils.bigrams(key)) {
+                Set<String> ids = postings.get(g);
+                if (ids == null) continue;
+                ids.remove(docId);
+                if (ids.isEmpty()) postings.remove(g);
+            }
+            automaton = null;
+        }
+
+        synchronized List<Document> search(String keyword) {
+            String normalized = TextUtils.normalize(keyword);
+            Set<String> hits = new HashSet<>();
+
+            // 方向一：文档名出现在问题中
+            if (automaton == null) automaton = buildAutomaton();
+            hits.addAll(automaton.findAll(normalized));
+
+            // 方向二：关键词出现在文档名中
+            hits.addAll(containing(normalized));
+
+            List<Document> result = new ArrayList<>();
+            for (String id : hits) result.add(docs.get(id));
+            result.sort(Comparator.comparing(Document::getUploadTime,
+                    Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder())));
+            List<Document> top = new ArrayList<>();
+            for (Document d : result.subList(0, Math.min(maxResults, result.size()))) top.add(copy(d));
+            return top;
+        }
+
+        private Set<String> containing(String normalized) {
+            Set<String> result = new HashSet<>();
+            if (normalized.isEmpty()) return result;
+
+            // 单字关键词没有二元词可用，直接扫描
+            if (normalized.length() < 2) {
+                keys.forEach((id, key) -> {
+                    if (key.contains(normalized)) result.add(id);
+                });
+                return result;
+            }
+
+            Set<String> candidates = null;
+            for (String g : TextUtils.bigrams(normalized)) {
+                Set<String> ids = postings.get(g);
+                if (ids == null) return result;
+                if (candidates == null) {
+                    candidates = new HashSet<>(ids);
+                } else {
+                    candidates.retainAll(ids);
+                }
+                if (candidates.isEmpty()) return result;
+            }
+            if (candidates == null) return result;
+            for (String id : candidates) {
+                if (keys.get(id).contains(normalized)) result.add(id);
+            }
+            return result;
+        }
+
+        private AhoCorasick<String> buildAutomaton() {
+            Map<String, List<String>> patterns = new HashMap<>();
+            keys.forEach((docId, key) -> {
+                if (!key.isEmpty()) patterns.computeIfAbsent(key, k -> new ArrayList<>()).add(docId);
+            });
+            return new AhoCorasick<>(patterns);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.g07.service;
+
+import com.g07.entity.Document;
+import com.g07.mapper.DocumentMapper;
+import io.minio.GetPresignedObjectUrlArgs;
+import io.minio.MinioClient;
+import io.minio.http.Method;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 预签名链接缓存
+ * 链接有效期 expiry-hours，本地缓存时间 cache-minutes 必须明显小于有效期，
+ * 保证前端拿到的链接至少还有 (有效期 - 缓存时间) 可用。文档删除或重命名时失效。
+ */
+@Service
+public class DocumentUrlService {
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Value("${minio.bucketName}")
+    private String bucketName;
+
+    @Value("${minio.presign.expiry-hours:2}")
+    private int expiryHours;
+
+    @Value("${minio.presign.cache-minutes:90}")
+    private long cacheMinutes;
+
+    @Value("${minio.presign.cache-max-entries:10000}")
+    private int maxEntries;
+
+    private final Map<String, PresignedUrl> cache = new ConcurrentHashMap<>();
+
+    public static class PresignedUrl {
+        private final String url;
+        private final String docName;
+        private final String tenantId;
+        private final long cachedAt = System.currentTimeMillis();
+
+        PresignedUrl(String url, String docName, String tenantId) {
+            this.url = url;
+            this.docName = docName;
+            this.tenantId = tenantId;
+        }
+
+        public String getUrl() { return url; }
+        public String getDocName() { return docName; }
+        public String getTenantId() { return tenantId; }
+    }
+
+    /**
+     * @return 文档不存在时返回 null
+     */
+    public PresignedUrl getUrl(String docId, String type) throws Exception {
+        PresignedUrl cached = fresh(docId, type);
+        if (cached != null) return cached;
+
+        Document doc = documentMapper.selectById(docId);
+        if (doc == null) return null;
+        return presign(doc, type);
+    }
+
+    /**
+     * 批量获取一页文档的链接，未缓存的文档一次 selectBatchIds 查出；不存在的文档不出现在结果中
+     */
+    public Map<String, PresignedUrl> getUrls(List<String> docIds, String type) throws Exception {
+        Map<String, PresignedUrl> result = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String docId : docIds) {
+            PresignedUrl cached = fresh(docId, type);
+            if (cached != null) {
+                result.put(docId, cached);
+            } else {
+                missing.add(docId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Document doc : documentMapper.selectBatchIds(missing)) {
+                result.put(doc.getDocId(), presign(doc, type));
+            }
+        }
+        return result;
+    }
+
+    public void invalidate(String docId) {
+        cache.remove(key(docId, "preview"));
+        cache.remove(key(docId, "download"));
+    }
+
+    private PresignedUrl fresh(String docId, String type) {
+        String key = key(docId, type);
+        PresignedUrl cached = cache.get(key);
+        if (cached == null) return null;
+        if (System.currentTimeMillis() - cached.cachedAt > TimeUnit.MINUTES.toMillis(cacheMinutes)) {
+            cache.remove(key, cached);
+            return null;
+        }
+        return cached;
+    }
+
+    private PresignedUrl presign(Document doc, String type) throws Exception {
+        GetPresignedObjectUrlArgs.Builder builder = GetPresignedObjectUrlArgs.builder()
+                .method(Method.GET)
+                .bucket(bucketName)
+                .object(doc.getFilePath())
+                .expiry(expiryHours, TimeUnit.HOURS);
+
+        if ("download".equals(type)) {
+            Map<String, String> reqParams = new HashMap<>();
+            reqParams.put("response-content-disposition", "attachment; filename=\"" + doc.getDocName() + "\"");
+            builder.extraQueryParams(reqParams);
+        }
+
+        PresignedUrl url = new PresignedUrl(minioClient.getPresignedObjectUrl(builder.build()), doc.getDocName(), doc.getTenantId());
+        if (cache.size() >= maxEntries) purgeExpired();
+        cache.put(key(doc.getDocId(), type), url);
+        return url;
+    }
+
+    private void purgeExpired() {
+        long deadline = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(cacheMinutes);
+        cache.values().removeIf(u -> u.cachedAt < deadline);
+        // 全部都还新鲜时直接清空，保证内存有上限
+        if (cache.size() >= maxEntries) cache.clear();
+    }
+
+    private static String key(String docId, String type) {
+        return docId + "|" + ("download".equals(type) ? "download" : "preview");
+    }
+}
@@ -2,11 +2,11 @@ package com.g07.service;
 
 import io.minio.GetObjectArgs;
 import io.minio.MinioClient;
-import org.apache.tika.Tika;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,33 +17,64 @@ public class FileService {
     @Autowired
     private MinioClient minioClient;
 
+    @Autowired
+    private SingleFlightService singleFlightService;
+
     @Value("${minio.bucketName}")
     private String bucketName;
 
-    // Tika 实例，用于自动检测类型并提取文字
-    private final Tika tika = new Tika();
+    // 解析统一交给 ParseService，受线程数、时限和输出大小约束
+    @Autowired
+    private ParseService parseService;
+
+    @Autowired
+    private PageStoreService pageStoreService;
 
     /**
      * 核心功能：从 MinIO 下载文件 -> 提取纯文本
      * 支持 .txt, .pdf, .docx, .doc 等常见格式
      */
     public String extractTextFromMinio(String objectName) {
-        try (InputStream stream = minioClient.getObject(
-                GetObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .build())) {
-            
-            // Tika 会自动检测文件流的类型并解析内容
-            // 对于扫描版 PDF (纯图片)，这里提取不到文字，需要 OCR (稍后可扩展)
-            return tika.parseToString(stream);
-            
+        try {
+            // 入库时已写过分页文件的直接读取，不再下载原文件重新解析
+            String stored = pageStoreService.readAll(objectName);
+            if (stored != null) return stored;
+            // 同一对象的并发解析合并为一次下载 + 解析
+            return singleFlightService.run("extract", objectName, () -> parseObject(objectName));
         } catch (Exception e) {
             System.err.println("文件解析失败 [" + objectName + "]: " + e.getMessage());
             return ""; // 解析失败返回空字符串，避免报错中断主流程
         }
     }
 
+    /**
+     * 入库用：保留分页信息，解析失败或超时抛出异常
+     */
+    public ParseService.ParsedText parsePagesFromMinio(String objectName, ParseService.Lane lane) throws Exception {
+        return singleFlightService.run("extract-pages", objectName, () -> parseService.parsePages(objectName, () -> openObject(objectName), lane));
+    }
+
+    private InputStream openObject(String objectName) throws Exception {
+        return minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .build());
+    }
+
+    private String parseObject(String objectName) throws Exception {
+        // Tika 会自动检测文件流的类型并解析内容
+        // 对于扫描版 PDF (纯图片)，这里提取不到文字，需要 OCR (稍后可扩展)
+        return parseService.parse(objectName, () -> openObject(objectName));
+    }
+
+    /**
+     * 解析已经在内存中的文件内容（批量导入时避免再从 MinIO 下载一次）
+     */
+    public ParseService.ParsedText extractPages(String name, byte[] data) throws Exception {
+        return parseService.parsePages(name, () -> new ByteArrayInputStream(data), ParseService.Lane.IMPORT);
+    }
+
     /**
      * 文本切片 (Chunking)
      * 将长文本切分为较小的段落，以便存入数据库和发送给 AI (避免超出 Token 限制)
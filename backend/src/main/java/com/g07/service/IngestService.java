@@ -0,0 +1,295 @@
+package com.g07.service;
+
+import com.g07.config.ReplicaRouter;
+import com.g07.config.ShardRouter;
+import com.g07.entity.Document;
+import com.g07.entity.DocumentSummary;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.mapper.DocumentMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.utils.TokenUtils;
+import com.g07.utils.TxUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文档入库：登记 Document 记录，解析文件内容、切片并写入 knowledge_chunk。
+ * 普通上传同步执行；分片上传完成后异步执行，通过 Document.status 反映处理进度。
+ */
+@Service
+public class IngestService {
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private KnowledgeChunkMapper chunkMapper;
+
+    @Autowired
+    private ChunkStorageService chunkStorageService;
+
+    @Autowired
+    private ChunkSegmentService chunkSegmentService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private DocumentIndexService documentIndexService;
+
+    @Autowired
+    private AnswerCacheService answerCacheService;
+
+    @Autowired
+    private SummaryService summaryService;
+
+    @Autowired
+    private PageStoreService pageStoreService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ReplicaRouter replicaRouter;
+
+    @Autowired
+    private ClusterEventService clusterEventService;
+
+    @Value("${ai.context.chunk-size:800}")
+    private int chunkSize;
+
+    @Value("${ai.context.chunk-overlap:100}")
+    private int chunkOverlap;
+
+    // 异步入库的工作线程数
+    @Value("${ingest.threads:2}")
+    private int threads;
+
+    // 每条 INSERT 最多写入的切片数
+    @Value("${ingest.insert-batch-size:200}")
+    private int insertBatchSize;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ingest-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static boolean isParsable(String fileType) {
+        if (fileType == null) return false;
+        String lowerType = fileType.toLowerCase();
+        return lowerType.equals("pdf") || lowerType.equals("doc") || lowerType.equals("docx") || lowerType.equals("txt");
+    }
+
+    /**
+     * 写入 Document 记录，提交后再通知文档名索引和问答缓存，其他节点通过变更事件得知
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void register(Document doc) {
+        documentMapper.insert(doc);
+        clusterEventService.publish(doc.getTenantId(), ClusterEventService.DOC_UPLOAD, doc.getDocId(), null);
+        TxUtils.afterCommit("登记文档", () -> {
+            documentIndexService.onUpload(doc);
+            answerCacheService.invalidateOnUpload(doc.getTenantId(), doc.getDocName());
+        });
+    }
+
+    public void ingestAsync(Document doc) {
+        executor.execute(() -> shardRouter.run(doc.getTenantId(),
+                () -> replicaRouter.runAs(doc.getUserId(), () -> ingest(doc, ParseService.Lane.BULK))));
+    }
+
+    public int ingest(Document doc) {
+        return ingest(doc, ParseService.Lane.INTERACTIVE);
+    }
+
+    /**
+     * 解析并切片入库，结束后更新文档状态；有切片写入时再失效一次问答缓存
+     * @param lane 同步上传走交互线程池，异步入库走后台线程池
+     * @return 生成的切片数
+     */
+    public int ingest(Document doc, ParseService.Lane lane) {
+        int index = 0;
+        String status = "completed";
+        String error = null;
+        if (isParsable(doc.getFileType())) {
+            try {
+                System.out.println(">>> [FileService] 开始解析文件: " + doc.getDocName());
+
+                ParseService.ParsedText parsed = fileService.parsePagesFromMinio(doc.getFilePath(), lane);
+                Prepared prepared = prepare(doc, parsed);
+
+                if (!prepared.getChunks().isEmpty()) {
+                    saveChunks(prepared.getChunks());
+                    index = prepared.getChunks().size();
+                    saveSummary(prepared.getSummary());
+                    System.out.println(">>> [FileService] 解析完成，共生成 " + index + " 个知识切片");
+                } else {
+                    System.out.println(">>> [FileService] 警告：文件解析结果为空");
+                }
+            } catch (Exception ex) {
+                status = "failed";
+                error = describeFailure(ex);
+                System.err.println(">>> [FileService] 解析过程异常: " + error);
+            }
+        }
+
+        Document update = new Document();
+        update.setDocId(doc.getDocId());
+        update.setStatus(status);
+        update.setParseError(error);
+        update.setProcessedTime(LocalDateTime.now());
+        documentMapper.updateById(update);
+        doc.setStatus(status);
+        doc.setParseError(error);
+        if (index > 0) {
+            // 登记时已失效过一次，但入库期间的问答可能只检索到部分切片；切片写完后再失效一次，其他节点随事件失效
+            clusterEventService.publish(doc.getTenantId(), ClusterEventService.DOC_UPLOAD, doc.getDocId(), null);
+            TxUtils.afterCommit("切片入库完成", () -> answerCacheService.invalidateOnUpload(doc.getTenantId(), doc.getDocName()));
+        }
+        return index;
+    }
+
+    /**
+     * 摘要只影响"总结类"问题的 Prompt，生成失败不影响文档状态，之后由后台补算
+     */
+    private void saveSummary(DocumentSummary summary) {
+        if (summary == null) return;
+        try {
+            summaryService.save(summary);
+        } catch (Exception e) {
+            System.err.println(">>> [Summary] 保存摘要失败 " + summary.getDocId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 解析结果的后续处理：写分页文件，生成带页码的切片和摘要。切片和摘要不落库，由调用方决定单条写还是攒批写
+     */
+    public static class Prepared {
+        private List<KnowledgeChunk> chunks = new ArrayList<>();
+        private DocumentSummary summary;
+
+        public List<KnowledgeChunk> getChunks() { return chunks; }
+        public DocumentSummary getSummary() { return summary; }
+    }
+
+    public Prepared prepare(Document doc, ParseService.ParsedText parsed) {
+        Prepared prepared = new Prepared();
+        if (parsed == null || parsed.getText() == null || parsed.getText().trim().isEmpty()) return prepared;
+
+        List<String> pages = pageStoreService.segment(parsed);
+        try {
+            pageStoreService.write(doc.getFilePath(), pages, parsed.isPaged());
+        } catch (Exception e) {
+            // 分页文件只是读取加速，写失败时读取方回退到解析原文件
+            System.err.println(">>> [Pages] 写入分页文件失败 " + doc.getDocName() + ": " + e.getMessage());
+        }
+        prepared.chunks = buildChunks(doc, pages);
+        try {
+            prepared.summary = summaryService.build(doc, String.join("\n", pages));
+        } catch (Exception e) {
+            System.err.println(">>> [Summary] 生成摘要失败 " + doc.getDocName() + ": " + e.getMessage());
+        }
+        return prepared;
+    }
+
+    /**
+     * 写入 document.parse_error 的失败原因，超时与其他失败区分开
+     */
+    public static String describeFailure(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        if (e instanceof ParseService.ParseFailure && ((ParseService.ParseFailure) e).isTimeout()) {
+            message = "[timeout] " + message;
+        }
+        return message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    /**
+     * 把各页文本拼成全文切片并生成 KnowledgeChunk，不落库；page_number 取切片起始位置所在的页
+     */
+    public List<KnowledgeChunk> buildChunks(Document doc, List<String> pages) {
+        // 先按 splitTextIntoChunks 的规则逐页清洗再拼接，清洗后的偏移即切片偏移
+        StringBuilder clean = new StringBuilder();
+        List<Integer> pageStarts = new ArrayList<>();
+        for (String page : pages) {
+            String c = page.replaceAll("\\s+", " ").trim();
+            if (!c.isEmpty() && clean.length() > 0) clean.append(' ');
+            pageStarts.add(clean.length());
+            clean.append(c);
+        }
+
+        List<KnowledgeChunk> chunks = new ArrayList<>();
+        int index = 0;
+        for (String content : fileService.splitTextIntoChunks(clean.toString(), chunkSize, chunkOverlap)) {
+            int offset = index * (chunkSize - chunkOverlap);
+            KnowledgeChunk chunk = new KnowledgeChunk();
+            chunk.setChunkId(UUID.randomUUID().toString().replace("-", ""));
+            chunk.setTenantId(doc.getTenantId());
+            chunk.setDocId(doc.getDocId());
+            chunk.setContentType("text");
+            chunk.setContent(content);
+            chunk.setPageNumber(Math.min(pageOf(pageStarts, offset), 65535));
+            chunk.setChunkIndex(index++);
+            chunk.setTokenCount(TokenUtils.estimateTokens(content));
+
+            // 生成随机 UUID 作为 vectorId，确保唯一性
+            chunk.setVectorId(UUID.randomUUID().toString().replace("-", ""));
+
+            chunk.setCreateTime(LocalDateTime.now());
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * 起始偏移不大于 offset 的最后一页，页码从 1 开始
+     */
+    private static int pageOf(List<Integer> pageStarts, int offset) {
+        int lo = 0, hi = pageStarts.size() - 1, page = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (pageStarts.get(mid) <= offset) {
+                page = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return page + 1;
+    }
+
+    /**
+     * 按批写入切片，每批一条 INSERT；在事务中调用时，提交后才追加到本地切片段文件
+     */
+    public void saveChunks(List<KnowledgeChunk> chunks) {
+        chunkStorageService.encode(chunks);
+        for (int i = 0; i < chunks.size(); i += insertBatchSize) {
+            chunkMapper.insertBatch(chunks.subList(i, Math.min(i + insertBatchSize, chunks.size())));
+        }
+        List<KnowledgeChunk> saved = new ArrayList<>(chunks);
+        TxUtils.afterCommit("追加切片段", () -> chunkSegmentService.append(saved));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+}
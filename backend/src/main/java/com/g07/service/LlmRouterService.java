@@ -0,0 +1,478 @@
+package com.g07.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 大模型多端点路由：ai.endpoints 中配置多个 OpenAI 兼容的端点（为空时只有 ai.api.url 一个）。
+ * - 选端点：按权重随机抽两个，取 观测耗时 EWMA ×（进行中请求数 + 1）较小的一个；连续失败的端点暂时摘除；
+ * - 对冲：ai.hedge.calls 中的调用类型（默认只有关键词提取），主请求超过该端点耗时的 ai.hedge.percentile 分位
+ *   仍未返回时，向另一个端点再发一份，先成功的为准，另一份直接取消（断开连接）；
+ * - 失败转移：请求失败时换一个端点重试一次；4xx（408、429 除外）是请求本身的问题，直接失败，不转移也不计入端点失败；
+ *   没有第二个可用端点时既不对冲也不转移；
+ * - 模型档位：ai.endpoints.tiers 可把端点标记为某一档（fast / strong），按档位调用时只选该档的端点；
+ *   未标记的端点服务所有档位，请求体里带了 model 时用请求的模型。
+ * 端点地址可以是本地的桩服务（如 http://localhost:18080），便于在没有上游的环境里压测路由和对冲。
+ */
+@Service
+public class LlmRouterService {
+
+    private static final int WINDOW = 128;
+
+    /**
+     * 一次调用的结果：回答、结束原因、上游返回的 usage、实际应答的模型和耗时
+     */
+    public static class Result {
+        private final String content;
+        private final String finishReason;
+        private final Map<String, Object> usage;
+        private final String model;
+        private final long latencyMs;
+
+        Result(String content, String finishReason, Map<String, Object> usage, String model, long latencyMs) {
+            this.content = content;
+            this.finishReason = finishReason;
+            this.usage = usage;
+            this.model = model;
+            this.latencyMs = latencyMs;
+        }
+
+        public String getContent() { return content; }
+        public String getFinishReason() { return finishReason; }
+        public Map<String, Object> getUsage() { return usage; }
+        public String getModel() { return model; }
+        public long getLatencyMs() { return latencyMs; }
+    }
+
+    private class Endpoint {
+        final String url;
+        final String key;
+        final String model;
+        final int weight;
+        final String tier;
+        // 观测耗时的指数移动平均，并发更新时偶尔丢一次样本不影响选路
+        volatile double ewmaMs;
+        final AtomicInteger inflight = new AtomicInteger();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        volatile long downUntil;
+        // 最近 WINDOW 次成功调用的耗时，用于计算对冲延迟
+        final AtomicLongArray window = new AtomicLongArray(WINDOW);
+        final AtomicLong samples = new AtomicLong();
+        volatile long hedgeDelayMs = defaultDelayMs;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();
+
+        Endpoint(String url, String key, String model, int weight, String tier) {
+            this.url = url.endsWith("/") ? url + "chat/completions" : url + "/chat/completions";
+            this.key = key;
+            this.model = model;
+            this.weight = Math.max(1, weight);
+            this.tier = tier;
+        }
+
+        boolean up(long now) {
+            return downUntil <= now;
+        }
+
+        boolean serves(String t) {
+            return t == null || tier.isEmpty() || tier.equals(t);
+        }
+
+        double score() {
+            return ewmaMs * (inflight.get() + 1);
+        }
+
+        void observe(long latencyMs) {
+            ewmaMs = ewmaMs == 0 ? latencyMs : ewmaMs + ewmaAlpha * (latencyMs - ewmaMs);
+        }
+
+        void succeeded(long latencyMs) {
+            consecutiveFailures.set(0);
+            observe(latencyMs);
+            long n = samples.getAndIncrement();
+            window.set((int) (n % WINDOW), latencyMs);
+            if ((n + 1) % 16 == 0) hedgeDelayMs = percentile(Math.min(n + 1, WINDOW));
+        }
+
+        void failed() {
+            failures.incrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= downAfterFailures) {
+                downUntil = System.currentTimeMillis() + downMs;
+                consecutiveFailures.set(0);
+                System.err.println(">>> [LLM] 端点 " + url + " 连续失败，摘除 " + downMs + "ms");
+            }
+        }
+
+        long percentile(long count) {
+            if (count < 20) return defaultDelayMs;
+            long[] sorted = new long[(int) count];
+            for (int i = 0; i < count; i++) sorted[i] = window.get(i);
+            Arrays.sort(sorted);
+            int idx = (int) Math.min(count - 1, Math.ceil(count * hedgePercentile / 100.0) - 1);
+            return Math.max(minDelayMs, sorted[Math.max(0, idx)]);
+        }
+    }
+
+    /**
+     * 上游拒绝了请求本身（参数错误、鉴权失败等），换端点重试也不会成功
+     */
+    public static class ClientError extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ClientError(String message, int status) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() { return status; }
+    }
+
+    private static boolean isClientError(int status) {
+        return status / 100 == 4 && status != 408 && status != 429;
+    }
+
+    /**
+     * 一次发往某个端点的请求；取消时取消底层的 HTTP 交换，而不只是结果
+     */
+    private static class Attempt {
+        final CompletableFuture<HttpResponse<String>> http;
+        final CompletableFuture<Result> result;
+
+        Attempt(CompletableFuture<HttpResponse<String>> http, CompletableFuture<Result> result) {
+            this.http = http;
+            this.result = result;
+        }
+
+        void cancel() {
+            if (!result.isDone()) http.cancel(true);
+        }
+    }
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${ai.api.url}")
+    private String defaultUrl;
+
+    @Value("${ai.api.key}")
+    private String defaultKey;
+
+    @Value("${ai.model}")
+    private String defaultModel;
+
+    @Value("${ai.endpoints.urls:}")
+    private String urls;
+
+    @Value("${ai.endpoints.keys:}")
+    private String keys;
+
+    @Value("${ai.endpoints.models:}")
+    private String models;
+
+    @Value("${ai.endpoints.weights:}")
+    private String weights;
+
+    @Value("${ai.endpoints.tiers:}")
+    private String tiers;
+
+    @Value("${ai.routing.ewma-alpha:0.2}")
+    private double ewmaAlpha;
+
+    @Value("${ai.routing.down-after-failures:3}")
+    private int downAfterFailures;
+
+    @Value("${ai.routing.down-ms:30000}")
+    private long downMs;
+
+    @Value("${ai.routing.connect-timeout-ms:10000}")
+    private long connectTimeoutMs;
+
+    @Value("${ai.routing.request-timeout-ms:600000}")
+    private long requestTimeoutMs;
+
+    @Value("${ai.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${ai.hedge.calls:keywords}")
+    private String hedgeCalls;
+
+    @Value("${ai.hedge.percentile:95}")
+    private double hedgePercentile;
+
+    @Value("${ai.hedge.min-delay-ms:100}")
+    private long minDelayMs;
+
+    @Value("${ai.hedge.default-delay-ms:1000}")
+    private long defaultDelayMs;
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private Set<String> hedgedKinds;
+    private HttpClient httpClient;
+
+    private final AtomicLong hedgesFired = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (urls == null || urls.isBlank()) {
+            endpoints.add(new Endpoint(defaultUrl, defaultKey, defaultModel, 1, ""));
+        } else {
+            String[] u = urls.split(",");
+            for (int i = 0; i < u.length; i++) {
+                if (u[i].isBlank()) continue;
+                endpoints.add(new Endpoint(u[i].trim(),
+                        pick(keys, i, defaultKey), pick(models, i, defaultModel),
+                        Integer.parseInt(pick(weights, i, "1")), pick(tiers, i, "")));
+            }
+        }
+        hedgedKinds = new HashSet<>();
+        for (String k : hedgeCalls.split(",")) {
+            if (!k.isBlank()) hedgedKinds.add(k.trim());
+        }
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        System.out.println(">>> [LLM] 端点数: " + endpoints.size() + "，对冲调用: " + hedgedKinds);
+    }
+
+    private static String pick(String csv, int i, String fallback) {
+        if (csv == null || csv.isBlank()) return fallback;
+        String[] parts = csv.split(",", -1);
+        return i < parts.length && !parts[i].isBlank() ? parts[i].trim() : fallback;
+    }
+
+    /**
+     * 发起一次 chat/completions 调用
+     * @param kind 调用类型（keywords / answer / summary），决定是否对冲
+     * @param body 请求体，不含 model 时由选中的端点填入
+     */
+    public Result call(String kind, Map<String, Object> body) throws Exception {
+        return call(kind, null, body);
+    }
+
+    /**
+     * @param tier 模型档位，为空表示不限
+     */
+    public Result call(String kind, String tier, Map<String, Object> body) throws Exception {
+        Endpoint primary = choose(tier, null);
+        Attempt first = attempt(primary, body);
+        boolean hedge = hedgeEnabled && endpoints.size() > 1 && hedgedKinds.contains(kind);
+        try {
+            return first.result.get(hedge ? primary.hedgeDelayMs : requestTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            first.cancel();
+            throw e;
+        } catch (TimeoutException e) {
+            if (!hedge) {
+                first.cancel();
+                throw e;
+            }
+            Endpoint backup = choose(tier, primary);
+            // 没有另一个端点可选时，再发一份只会给同一个端点加压
+            if (backup == primary) {
+                try {
+                    return await(first.result, Math.max(1, requestTimeoutMs - primary.hedgeDelayMs));
+                } finally {
+                    first.cancel();
+                }
+            }
+            return hedged(first, backup, body);
+        } catch (ExecutionException e) {
+            if (endpoints.size() < 2 || e.getCause() instanceof ClientError) throw unwrap(e);
+            Endpoint backup = choose(tier, primary);
+            if (backup == primary) throw unwrap(e);
+            failovers.incrementAndGet();
+            return await(attempt(backup, body).result, requestTimeoutMs);
+        }
+    }
+
+    private Result hedged(Attempt first, Endpoint backup, Map<String, Object> body) throws Exception {
+        hedgesFired.incrementAndGet();
+        Attempt second = attempt(backup, body);
+        CompletableFuture<Result> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(2);
+        // 先定胜负、计数，再完成 winner：调用方醒来时统计已经是最新的
+        AtomicBoolean decided = new AtomicBoolean(false);
+        for (Attempt a : List.of(first, second)) {
+            a.result.whenComplete((r, e) -> {
+                if (e == null) {
+                    if (decided.compareAndSet(false, true)) {
+                        if (a == second) hedgeWins.incrementAndGet();
+                        winner.complete(r);
+                    }
+                } else if ((pending.decrementAndGet() == 0 || e.getCause() instanceof ClientError)
+                        && decided.compareAndSet(false, true)) {
+                    // 请求本身被拒绝时另一份也不会成功，不再等
+                    winner.completeExceptionally(e);
+                }
+            });
+        }
+        try {
+            return await(winner, requestTimeoutMs);
+        } finally {
+            // 输的一方断开连接，上游不再继续生成
+            first.cancel();
+            second.cancel();
+        }
+    }
+
+    private static Result await(CompletableFuture<Result> f, long timeoutMs) throws Exception {
+        try {
+            return f.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    /**
+     * 在服务该档位的端点中按权重随机抽两个可用的，取得分低的；全部被摘除时忽略摘除状态，没有端点服务该档位时不限档位
+     */
+    private Endpoint choose(String tier, Endpoint exclude) {
+        long now = System.currentTimeMillis();
+        List<Endpoint> candidates = new ArrayList<>();
+        for (Endpoint e : endpoints) {
+            if (e != exclude && e.serves(tier) && e.up(now)) candidates.add(e);
+        }
+        if (candidates.isEmpty()) {
+            for (Endpoint e : endpoints) {
+                if (e != exclude && e.serves(tier)) candidates.add(e);
+            }
+        }
+        if (candidates.isEmpty() && tier != null) return choose(null, exclude);
+        if (candidates.isEmpty()) return exclude;
+        if (candidates.size() == 1) return candidates.get(0);
+        Endpoint a = weighted(candidates);
+        Endpoint b = weighted(candidates);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    private static Endpoint weighted(List<Endpoint> candidates) {
+        int total = 0;
+        for (Endpoint e : candidates) total += e.weight;
+        int r = ThreadLocalRandom.current().nextInt(total);
+        for (Endpoint e : candidates) {
+            r -= e.weight;
+            if (r < 0) return e;
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Attempt attempt(Endpoint ep, Map<String, Object> body) throws Exception {
+        Map<String, Object> payload = new HashMap<>(body);
+        // 标记了档位的端点固定用自己的模型
+        String model = ep.tier.isEmpty() && body.get("model") != null ? (String) body.get("model") : ep.model;
+        payload.put("model", model);
+        HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(ep.url))
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(payload)));
+        if (ep.key != null && !ep.key.isBlank()) req.header("Authorization", "Bearer " + ep.key);
+
+        ep.calls.incrementAndGet();
+        ep.inflight.incrementAndGet();
+        long start = System.currentTimeMillis();
+        CompletableFuture<HttpResponse<String>> http = httpClient.sendAsync(req.build(), HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<Result> result = http.handle((resp, err) -> {
+            ep.inflight.decrementAndGet();
+            long latency = System.currentTimeMillis() - start;
+            if (err != null) {
+                Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                if (cause instanceof CancellationException) {
+                    // 被对冲取消的请求至少要这么久，计入 EWMA，否则总输的端点耗时一直是 0 而被优先选中
+                    ep.cancelled.incrementAndGet();
+                    ep.observe(latency);
+                } else {
+                    ep.failed();
+                }
+                throw new CompletionException(cause);
+            }
+            if (isClientError(resp.statusCode())) {
+                // 端点正常应答，只是不接受这个请求
+                ep.observe(latency);
+                throw new CompletionException(new ClientError(
+                        "端点 " + ep.url + " 返回 HTTP " + resp.statusCode(), resp.statusCode()));
+            }
+            if (resp.statusCode() / 100 != 2) {
+                ep.failed();
+                throw new CompletionException(new IllegalStateException(
+                        "端点 " + ep.url + " 返回 HTTP " + resp.statusCode()));
+            }
+            try {
+                Map<String, Object> json = objectMapper.readValue(resp.body(), Map.class);
+                ep.succeeded(latency);
+                return new Result(contentOf(json), finishReasonOf(json), (Map<String, Object>) json.get("usage"),
+                        model, latency);
+            } catch (Exception e) {
+                ep.failed();
+                throw new CompletionException(e);
+            }
+        });
+        return new Attempt(http, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String finishReasonOf(Map<String, Object> json) {
+        List<Map<String, Object>> choices = (List<Map<String, Object>>) json.get("choices");
+        if (choices == null || choices.isEmpty()) return null;
+        return (String) choices.get(0).get("finish_reason");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String contentOf(Map<String, Object> json) {
+        List<Map<String, Object>> choices = (List<Map<String, Object>>) json.get("choices");
+        if (choices == null || choices.isEmpty()) return null;
+        Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
+        return message == null ? null : (String) message.get("content");
+    }
+
+    public Map<String, Object> stats() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Endpoint e : endpoints) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("url", e.url);
+            m.put("model", e.model);
+            m.put("weight", e.weight);
+            m.put("tier", e.tier);
+            m.put("ewmaMs", Math.round(e.ewmaMs));
+            m.put("hedgeDelayMs", e.hedgeDelayMs);
+            m.put("inflight", e.inflight.get());
+            m.put("calls", e.calls.get());
+            m.put("failures", e.failures.get());
+            m.put("cancelled", e.cancelled.get());
+            m.put("up", e.up(now));
+            list.add(m);
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("endpoints", list);
+        data.put("hedgesFired", hedgesFired.get());
+        data.put("hedgeWins", hedgeWins.get());
+        data.put("failovers", failovers.get());
+        return data;
+    }
+}
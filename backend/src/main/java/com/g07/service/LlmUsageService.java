@@ -0,0 +1,298 @@
+package com.g07.service;
+
+import com.g07.entity.LlmUsageDaily;
+import com.g07.entity.Tenant;
+import com.g07.mapper.LlmUsageMapper;
+import com.g07.mapper.TenantMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 大模型用量计量与租户月度额度。
+ * - 每次调用的输入、输出、缓存命中 Token 和耗时累加到内存计数器（按 租户|用户|日期|模型 分组，LongAdder 无锁累加），
+ *   定时把增量 upsert 到 llm_usage_daily 汇总表，请求线程不写库；
+ * - 额度按租户每月输入 + 输出 Token 计：超过软额度只告警，超过硬额度在调用前拒绝；
+ *   已用量 = 汇总表中本月合计（每次落库后刷新）+ 本节点尚未计入的增量，多节点之间有一个刷新周期的误差。
+ */
+@Service
+public class LlmUsageService {
+
+    /**
+     * 租户本月用量已达硬额度
+     */
+    public static class QuotaExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Counter {
+        final String tenantId;
+        final String userId;
+        final LocalDate date;
+        final String model;
+        final LongAdder calls = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder prompt = new LongAdder();
+        final LongAdder completion = new LongAdder();
+        final LongAdder cacheHit = new LongAdder();
+        final LongAdder latencyMs = new LongAdder();
+
+        Counter(String tenantId, String userId, LocalDate date, String model) {
+            this.tenantId = tenantId;
+            this.userId = userId;
+            this.date = date;
+            this.model = model;
+        }
+    }
+
+    private static class Quota {
+        final long soft;
+        final long hard;
+        final long loadedAt;
+
+        Quota(long soft, long hard, long loadedAt) {
+            this.soft = soft;
+            this.hard = hard;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    @Autowired
+    private LlmUsageMapper usageMapper;
+
+    @Autowired
+    private TenantMapper tenantMapper;
+
+    @Value("${usage.quota.soft-tokens:0}")
+    private long defaultSoft;
+
+    @Value("${usage.quota.hard-tokens:0}")
+    private long defaultHard;
+
+    @Value("${usage.quota.cache-ttl-ms:60000}")
+    private long quotaTtlMs;
+
+    @Value("${usage.flush-batch:500}")
+    private int flushBatch;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    // 本月汇总表中的租户用量，落库后整体替换
+    private volatile Map<String, Long> monthTotals = new HashMap<>();
+    private volatile LocalDate totalsMonth = LocalDate.now().withDayOfMonth(1);
+    // 本节点上次刷新本月合计之后新增的用量
+    private final Map<String, LongAdder> sinceReload = new ConcurrentHashMap<>();
+    private final Map<String, Quota> quotas = new ConcurrentHashMap<>();
+    private final Set<String> softWarned = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+
+    // ==================== 计量 ====================
+
+    public void record(String tenantId, String userId, String model,
+                       long promptTokens, long completionTokens, long cacheHitTokens, long latencyMs) {
+        Counter c = counter(tenantId, userId, model);
+        c.calls.increment();
+        c.prompt.add(promptTokens);
+        c.completion.add(completionTokens);
+        c.cacheHit.add(cacheHitTokens);
+        c.latencyMs.add(latencyMs);
+        if (tenantId != null) {
+            sinceReload.computeIfAbsent(tenantId, k -> new LongAdder()).add(promptTokens + completionTokens);
+        }
+    }
+
+    public void recordFailure(String tenantId, String userId, String model, long latencyMs) {
+        Counter c = counter(tenantId, userId, model);
+        c.calls.increment();
+        c.failed.increment();
+        c.latencyMs.add(latencyMs);
+    }
+
+    private Counter counter(String tenantId, String userId, String model) {
+        String t = tenantId == null ? "" : tenantId;
+        String u = userId == null ? "" : userId;
+        LocalDate today = LocalDate.now();
+        String key = t + "|" + u + "|" + today + "|" + model;
+        return counters.computeIfAbsent(key, k -> new Counter(t, u, today, model));
+    }
+
+    // ==================== 额度 ====================
+
+    /**
+     * 调用大模型前检查租户本月额度，超过硬额度时抛出 QuotaExceededException
+     */
+    public void checkQuota(String tenantId) {
+        if (tenantId == null) return;
+        Quota q = quotaOf(tenantId);
+        if (q.soft <= 0 && q.hard <= 0) return;
+        long used = usedThisMonth(tenantId);
+        if (q.hard > 0 && used >= q.hard) {
+            rejected.incrementAndGet();
+            throw new QuotaExceededException("本月大模型 Token 额度已用完（" + used + " / " + q.hard + "），请联系管理员");
+        }
+        if (q.soft > 0 && used >= q.soft && softWarned.add(tenantId + "@" + totalsMonth)) {
+            System.err.println(">>> [Usage] 租户 " + tenantId + " 本月 Token 用量 " + used + " 已超过软额度 " + q.soft);
+        }
+    }
+
+    public long usedThisMonth(String tenantId) {
+        LongAdder local = sinceReload.get(tenantId);
+        return monthTotals.getOrDefault(tenantId, 0L) + (local == null ? 0 : local.sum());
+    }
+
+    private Quota quotaOf(String tenantId) {
+        Quota q = quotas.get(tenantId);
+        long now = System.currentTimeMillis();
+        if (q != null && now - q.loadedAt < quotaTtlMs) return q;
+        Tenant t = tenantMapper.selectById(tenantId);
+        long soft = t == null || t.getTokenQuotaSoft() == null ? defaultSoft : t.getTokenQuotaSoft();
+        long hard = t == null || t.getTokenQuotaHard() == null ? defaultHard : t.getTokenQuotaHard();
+        q = new Quota(soft, hard, now);
+        quotas.put(tenantId, q);
+        return q;
+    }
+
+    public Map<String, Object> quota(String tenantId) {
+        Quota q = quotaOf(tenantId);
+        long used = usedThisMonth(tenantId);
+        Map<String, Object> data = new HashMap<>();
+        data.put("month", totalsMonth.toString().substring(0, 7));
+        data.put("usedTokens", used);
+        data.put("softTokens", q.soft);
+        data.put("hardTokens", q.hard);
+        data.put("softExceeded", q.soft > 0 && used >= q.soft);
+        data.put("hardExceeded", q.hard > 0 && used >= q.hard);
+        return data;
+    }
+
+    // ==================== 落库 ====================
+
+    /**
+     * 取出各计数器的增量批量累加到汇总表，再刷新本月各租户合计
+     */
+    @Scheduled(fixedDelayString = "${usage.flush-interval-ms:10000}", initialDelay = 10000)
+    public synchronized void flush() {
+        LocalDate today = LocalDate.now();
+        List<LlmUsageDaily> rows = new ArrayList<>();
+        Iterator<Map.Entry<String, Counter>> it = counters.entrySet().iterator();
+        while (it.hasNext()) {
+            Counter c = it.next().getValue();
+            // 前一天的计数器不会再有新调用，移除后把移除前的零星增量一起取走
+            if (c.date.isBefore(today)) it.remove();
+            LlmUsageDaily row = drain(c);
+            if (row != null) rows.add(row);
+        }
+        for (int i = 0; i < rows.size(); i += flushBatch) {
+            List<LlmUsageDaily> batch = rows.subList(i, Math.min(rows.size(), i + flushBatch));
+            try {
+                usageMapper.upsertBatch(batch);
+            } catch (Exception e) {
+                flushFailures.incrementAndGet();
+                System.err.println(">>> [Usage] 用量落库失败，下次重试: " + e.getMessage());
+                for (LlmUsageDaily row : batch) restore(row);
+            }
+        }
+        flushes.incrementAndGet();
+        reloadTotals(today.withDayOfMonth(1));
+    }
+
+    private LlmUsageDaily drain(Counter c) {
+        long calls = c.calls.sumThenReset();
+        long failed = c.failed.sumThenReset();
+        long prompt = c.prompt.sumThenReset();
+        long completion = c.completion.sumThenReset();
+        long cacheHit = c.cacheHit.sumThenReset();
+        long latency = c.latencyMs.sumThenReset();
+        if (calls == 0 && prompt == 0 && completion == 0) return null;
+        LlmUsageDaily row = new LlmUsageDaily();
+        row.setTenantId(c.tenantId);
+        row.setUserId(c.userId);
+        row.setUsageDate(c.date);
+        row.setModel(c.model);
+        row.setCalls(calls);
+        row.setFailedCalls(failed);
+        row.setPromptTokens(prompt);
+        row.setCompletionTokens(completion);
+        row.setCacheHitTokens(cacheHit);
+        row.setLatencyMs(latency);
+        return row;
+    }
+
+    private void restore(LlmUsageDaily row) {
+        String key = row.getTenantId() + "|" + row.getUserId() + "|" + row.getUsageDate() + "|" + row.getModel();
+        Counter c = counters.computeIfAbsent(key,
+                k -> new Counter(row.getTenantId(), row.getUserId(), row.getUsageDate(), row.getModel()));
+        c.calls.add(row.getCalls());
+        c.failed.add(row.getFailedCalls());
+        c.prompt.add(row.getPromptTokens());
+        c.completion.add(row.getCompletionTokens());
+        c.cacheHit.add(row.getCacheHitTokens());
+        c.latencyMs.add(row.getLatencyMs());
+    }
+
+    private void reloadTotals(LocalDate monthStart) {
+        try {
+            Map<String, Long> totals = new HashMap<>();
+            for (Map<String, Object> r : usageMapper.selectTenantTotals(monthStart)) {
+                totals.put((String) r.get("tenantId"), ((Number) r.get("tokens")).longValue());
+            }
+            // 新的合计已包含刚落库的增量；落库失败退回计数器的部分下次落库后才计入
+            for (LongAdder a : sinceReload.values()) a.reset();
+            monthTotals = totals;
+            if (!monthStart.equals(totalsMonth)) softWarned.clear();
+            totalsMonth = monthStart;
+        } catch (Exception e) {
+            System.err.println(">>> [Usage] 刷新月度用量失败: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    // ==================== 查询 ====================
+
+    /**
+     * 从汇总表查询用量，groupBy 为 day / user / model
+     * @param userId 为空时查整个租户
+     */
+    public List<Map<String, Object>> query(String tenantId, String userId, LocalDate from, LocalDate to, String groupBy) {
+        String column;
+        switch (groupBy == null ? "day" : groupBy) {
+            case "user":
+                column = "user_id";
+                break;
+            case "model":
+                column = "model";
+                break;
+            default:
+                column = "usage_date";
+        }
+        return usageMapper.selectRollup(tenantId, userId, from, to, column);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("counters", counters.size());
+        data.put("trackedTenants", monthTotals.size());
+        data.put("quotaRejected", rejected.get());
+        data.put("flushes", flushes.get());
+        data.put("flushFailures", flushFailures.get());
+        return data;
+    }
+}
@@ -0,0 +1,185 @@
+package com.g07.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模型分级：生成回答前按问题长度、参考资料规模和问题类型判断复杂度，简单问题交给更便宜更快的模型。
+ * 快模型的回答没通过检查（调用失败、被截断、过短、在有参考资料时仍表示无法回答）时升级到强模型重答。
+ * 只用本地特征，不额外调用模型；未开启时直接走 DeepSeekService.getResponse。
+ */
+@Service
+public class ModelCascadeService {
+
+    public static final String FAST = "fast";
+    public static final String STRONG = "strong";
+
+    // 需要归纳、比较、推理的问题
+    private static final String[] ANALYTIC = {"为什么", "分析", "比较", "对比", "评估", "原因", "趋势", "影响",
+            "区别", "差异", "优缺点", "利弊", "预测", "建议", "方案", "推导", "论证", "总结", "综述"};
+
+    // 回答中表示没把握的说法
+    private static final String[] UNSURE = {"无法确定", "不确定", "无法回答", "没有足够的信息", "信息不足", "无法提供"};
+
+    private static class TierStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder latencyMs = new LongAdder();
+        final AtomicLong maxLatencyMs = new AtomicLong();
+    }
+
+    @Autowired
+    private DeepSeekService deepSeekService;
+
+    @Value("${ai.cascade.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ai.cascade.fast-model:${ai.model}}")
+    private String fastModel;
+
+    @Value("${ai.cascade.strong-model:${ai.model}}")
+    private String strongModel;
+
+    @Value("${ai.cascade.escalate:true}")
+    private boolean escalate;
+
+    @Value("${ai.cascade.long-question-chars:60}")
+    private int longQuestionChars;
+
+    @Value("${ai.cascade.context-tokens:1500}")
+    private int contextTokensThreshold;
+
+    @Value("${ai.cascade.max-docs:2}")
+    private int maxDocs;
+
+    @Value("${ai.cascade.min-answer-chars:8}")
+    private int minAnswerChars;
+
+    private final Map<String, TierStats> tiers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> reasons = new ConcurrentHashMap<>();
+    private final LongAdder escalations = new LongAdder();
+
+    /**
+     * 生成回答，行为与 DeepSeekService.getResponse 一致：全部失败时原样返回问题
+     * @param contextTokens 参考资料占用的 Token
+     * @param docCount 参考资料涉及的文档数
+     */
+    public String answer(String tenantId, String userId, String question, List<String> context,
+                         int contextTokens, int docCount) {
+        if (!enabled) return deepSeekService.getResponse(tenantId, userId, question, context);
+
+        String reason = classify(question, contextTokens, docCount);
+        count(reason);
+        if (reason != null) {
+            return contentOr(call(STRONG, tenantId, userId, question, context), question);
+        }
+
+        LlmRouterService.Result fast = call(FAST, tenantId, userId, question, context);
+        String rejected = check(fast, docCount);
+        if (rejected == null) return fast.getContent();
+        count("escalate:" + rejected);
+        if (!escalate) return contentOr(fast, question);
+
+        escalations.increment();
+        LlmRouterService.Result strong = call(STRONG, tenantId, userId, question, context);
+        return strong != null ? strong.getContent() : contentOr(fast, question);
+    }
+
+    private static String contentOr(LlmRouterService.Result r, String fallback) {
+        return r != null ? r.getContent() : fallback;
+    }
+
+    /**
+     * @return 需要强模型的原因，为空表示用快模型
+     */
+    String classify(String question, int contextTokens, int docCount) {
+        if (question.length() > longQuestionChars) return "long_question";
+        if (contextTokens > contextTokensThreshold) return "large_context";
+        if (docCount > maxDocs) return "multi_document";
+        int marks = 0;
+        for (int i = 0; i < question.length(); i++) {
+            char c = question.charAt(i);
+            if (c == '?' || c == '？') marks++;
+        }
+        if (marks > 1) return "multi_part";
+        for (String w : ANALYTIC) {
+            if (question.contains(w)) return "analytic";
+        }
+        return null;
+    }
+
+    /**
+     * 快模型回答的检查
+     * @return 不通过的原因，通过时为空
+     */
+    private String check(LlmRouterService.Result r, int docCount) {
+        if (r == null) return "failed";
+        if ("length".equals(r.getFinishReason())) return "truncated";
+        String answer = r.getContent();
+        if (answer.trim().length() < minAnswerChars) return "too_short";
+        // 没有找到参考资料时模型本就会说明无法引用文档，换模型也一样
+        if (docCount > 0) {
+            for (String w : UNSURE) {
+                if (answer.contains(w)) return "unsure";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 调用失败或没有回答内容时为空
+     */
+    private LlmRouterService.Result call(String tier, String tenantId, String userId, String question, List<String> context) {
+        TierStats s = tiers.computeIfAbsent(tier, k -> new TierStats());
+        s.calls.increment();
+        long start = System.currentTimeMillis();
+        LlmRouterService.Result r = deepSeekService.answer(tenantId, userId, question, context,
+                tier, FAST.equals(tier) ? fastModel : strongModel);
+        long elapsed = System.currentTimeMillis() - start;
+        s.latencyMs.add(elapsed);
+        s.maxLatencyMs.accumulateAndGet(elapsed, Math::max);
+        if (r == null || r.getContent() == null) {
+            s.failures.increment();
+            return null;
+        }
+        return r;
+    }
+
+    private void count(String reason) {
+        reasons.computeIfAbsent(reason == null ? "simple" : reason, k -> new LongAdder()).increment();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("enabled", enabled);
+        data.put("fastModel", fastModel);
+        data.put("strongModel", strongModel);
+        Map<String, Object> perTier = new HashMap<>();
+        tiers.forEach((tier, s) -> {
+            long calls = s.calls.sum();
+            Map<String, Object> t = new HashMap<>();
+            t.put("calls", calls);
+            t.put("failures", s.failures.sum());
+            t.put("avgLatencyMs", calls == 0 ? 0 : s.latencyMs.sum() / calls);
+            t.put("maxLatencyMs", s.maxLatencyMs.get());
+            perTier.put(tier, t);
+        });
+        data.put("tiers", perTier);
+        TierStats fast = tiers.get(FAST);
+        long fastCalls = fast == null ? 0 : fast.calls.sum();
+        data.put("escalations", escalations.sum());
+        data.put("escalationRate", fastCalls == 0 ? 0.0 : (double) escalations.sum() / fastCalls);
+        Map<String, Long> r = new HashMap<>();
+        reasons.forEach((k, v) -> r.put(k, v.sum()));
+        data.put("reasons", r);
+        return data;
+    }
+}
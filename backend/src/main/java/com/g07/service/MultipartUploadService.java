@@ -0,0 +1,286 @@
+package com.g07.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.g07.config.MultipartMinioClient;
+import com.g07.entity.Document;
+import com.g07.entity.UploadPart;
+import com.g07.entity.UploadSession;
+import com.g07.mapper.UploadPartMapper;
+import com.g07.mapper.UploadSessionMapper;
+import io.minio.messages.Part;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 断点续传：initiate -> 并行上传分片 -> complete / abort，对应 MinIO 的 S3 分片上传。
+ * 已完成的分片记录在 upload_part 表中，客户端断线后查询会话即可只补传缺失的分片；
+ * 分片先边读边算校验值写入临时文件，再从文件上传到 MinIO，内存占用与分片大小无关。
+ * 会话只允许发起人（或管理员）继续操作。
+ */
+@Service
+public class MultipartUploadService {
+
+    // S3 协议要求除最后一片外每片至少 5MB，最多 10000 片
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int MAX_PARTS = 10000;
+
+    @Autowired
+    private MultipartMinioClient multipartClient;
+
+    @Autowired
+    private UploadSessionMapper sessionMapper;
+
+    @Autowired
+    private UploadPartMapper partMapper;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Value("${minio.bucketName}")
+    private String bucketName;
+
+    @Value("${upload.multipart.part-size-mb:8}")
+    private long defaultPartSizeMb;
+
+    @Value("${upload.multipart.max-part-size-mb:64}")
+    private long maxPartSizeMb;
+
+    @Value("${upload.multipart.expire-hours:24}")
+    private long expireHours;
+
+    public UploadSession initiate(String tenantId, String userId, String categoryId, String fileName,
+                                  long fileSize, String contentType, Long requestedPartSize) throws Exception {
+        if (fileName == null || fileName.trim().isEmpty()) throw new IllegalArgumentException("文件名不能为空");
+        if (fileSize <= 0) throw new IllegalArgumentException("文件大小无效");
+
+        long partSize = requestedPartSize != null ? requestedPartSize : defaultPartSizeMb * 1024 * 1024;
+        partSize = Math.max(MIN_PART_SIZE, Math.min(partSize, maxPartSizeMb * 1024 * 1024));
+        // 文件过大时放大分片，保证不超过 10000 片
+        partSize = Math.max(partSize, (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+        int totalParts = (int) ((fileSize + partSize - 1) / partSize);
+
+        String docId = UUID.randomUUID().toString().replace("-", "");
+        String objectName = tenantId + "/" + categoryId + "/" + docId + "_" + fileName;
+
+        UploadSession session = new UploadSession();
+        session.setUploadId(UUID.randomUUID().toString().replace("-", ""));
+        session.setMinioUploadId(multipartClient.initiate(bucketName, objectName, contentType));
+        session.setDocId(docId);
+        session.setTenantId(tenantId);
+        session.setUserId(userId);
+        session.setCategoryId(categoryId);
+        session.setFileName(fileName);
+        session.setObjectName(objectName);
+        session.setContentType(contentType);
+        session.setFileSize(fileSize);
+        session.setPartSize(partSize);
+        session.setTotalParts(totalParts);
+        session.setStatus("uploading");
+        session.setCreateTime(LocalDateTime.now());
+        sessionMapper.insert(session);
+        return session;
+    }
+
+    /**
+     * 上传单个分片；同一分片重复上传会覆盖之前的记录（幂等，便于重试）
+     * @param expectedSha256 客户端计算的分片 SHA-256，可为空；不为空时与服务端计算结果比对
+     */
+    public UploadPart uploadPart(String tenantId, String userId, boolean admin, String uploadId, int partNumber,
+                                 InputStream data, String expectedSha256) throws Exception {
+        UploadSession session = requireActive(tenantId, userId, admin, uploadId);
+        if (partNumber < 1 || partNumber > session.getTotalParts()) {
+            throw new IllegalArgumentException("分片号超出范围: " + partNumber);
+        }
+        long expectedSize = partNumber < session.getTotalParts()
+                ? session.getPartSize()
+                : session.getFileSize() - session.getPartSize() * (session.getTotalParts() - 1);
+
+        Path tmp = Files.createTempFile("upload-part-", ".bin");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size;
+            // 最多多读 1 字节，用来识别超长的分片而不必读完整个请求体
+            try (InputStream in = new DigestInputStream(data, digest); OutputStream out = Files.newOutputStream(tmp)) {
+                size = in.transferTo(new LimitedOutputStream(out, expectedSize + 1));
+            }
+            if (size != expectedSize) {
+                throw new IllegalArgumentException("分片大小不正确，期望 " + expectedSize + " 字节");
+            }
+
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.isEmpty() && !expectedSha256.equalsIgnoreCase(sha256)) {
+                throw new IllegalArgumentException("分片校验失败，请重新上传");
+            }
+
+            String etag;
+            try (RandomAccessFile file = new RandomAccessFile(tmp.toFile(), "r")) {
+                etag = multipartClient.uploadPart(bucketName, session.getObjectName(), session.getMinioUploadId(), partNumber, file, size);
+            }
+
+            UploadPart part = new UploadPart();
+            part.setUploadId(uploadId);
+            part.setPartNumber(partNumber);
+            part.setEtag(etag);
+            part.setSize(size);
+            part.setSha256(sha256);
+            part.setCreateTime(LocalDateTime.now());
+            partMapper.upsert(part);
+            return part;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 写满上限后拒绝继续写入，防止超长请求体占满临时目录
+     */
+    private static class LimitedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long remaining;
+
+        LimitedOutputStream(OutputStream out, long limit) {
+            this.out = out;
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) throw new IllegalArgumentException("分片大小超出上限");
+            out.write(b, off, len);
+            remaining -= len;
+        }
+    }
+
+    /**
+     * 查询会话状态与已完成的分片号，用于断点续传
+     */
+    public Map<String, Object> status(String tenantId, String userId, boolean admin, String uploadId) {
+        UploadSession session = require(tenantId, userId, admin, uploadId);
+        List<Integer> done = new ArrayList<>();
+        for (UploadPart p : listParts(uploadId)) done.add(p.getPartNumber());
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("uploadId", session.getUploadId());
+        data.put("docId", session.getDocId());
+        data.put("fileName", session.getFileName());
+        data.put("fileSize", session.getFileSize());
+        data.put("partSize", session.getPartSize());
+        data.put("totalParts", session.getTotalParts());
+        data.put("status", session.getStatus());
+        data.put("completedParts", done);
+        return data;
+    }
+
+    /**
+     * 所有分片到齐后合并对象，登记文档并异步解析入库
+     */
+    public Document complete(String tenantId, String userId, boolean admin, String uploadId) throws Exception {
+        UploadSession session = requireActive(tenantId, userId, admin, uploadId);
+        List<UploadPart> parts = listParts(uploadId);
+        if (parts.size() != session.getTotalParts()) {
+            throw new IllegalStateException("还有 " + (session.getTotalParts() - parts.size()) + " 个分片未上传");
+        }
+
+        Part[] minioParts = new Part[parts.size()];
+        for (int i = 0; i < parts.size(); i++) {
+            minioParts[i] = new Part(parts.get(i).getPartNumber(), parts.get(i).getEtag());
+        }
+        multipartClient.complete(bucketName, session.getObjectName(), session.getMinioUploadId(), minioParts);
+
+        String fileName = session.getFileName();
+        Document doc = new Document();
+        doc.setDocId(session.getDocId());
+        doc.setTenantId(session.getTenantId());
+        doc.setUserId(session.getUserId());
+        doc.setCategoryId(session.getCategoryId());
+        doc.setDocName(fileName);
+        doc.setFilePath(session.getObjectName());
+        doc.setFileType(fileName.contains(".") ? fileName.substring(fileName.lastIndexOf(".") + 1) : "unknown");
+        doc.setFileSize(session.getFileSize());
+        doc.setStatus("processing");
+        doc.setUploadTime(LocalDateTime.now());
+        ingestService.register(doc);
+        ingestService.ingestAsync(doc);
+
+        finish(session, "completed");
+        return doc;
+    }
+
+    public void abort(String tenantId, String userId, boolean admin, String uploadId) throws Exception {
+        UploadSession session = requireActive(tenantId, userId, admin, uploadId);
+        multipartClient.abort(bucketName, session.getObjectName(), session.getMinioUploadId());
+        finish(session, "aborted");
+    }
+
+    /**
+     * 定期中止长时间未完成的上传，释放 MinIO 中的未合并分片
+     */
+    @Scheduled(fixedDelayString = "${upload.multipart.cleanup-interval-ms:3600000}")
+    public void abortExpired() {
+        List<UploadSession> expired = sessionMapper.selectList(new QueryWrapper<UploadSession>()
+                .eq("status", "uploading")
+                .lt("create_time", LocalDateTime.now().minusHours(expireHours)));
+        for (UploadSession session : expired) {
+            try {
+                multipartClient.abort(bucketName, session.getObjectName(), session.getMinioUploadId());
+            } catch (Exception e) {
+                System.err.println(">>> [Multipart] 中止过期上传失败 " + session.getUploadId() + ": " + e.getMessage());
+            }
+            finish(session, "aborted");
+        }
+    }
+
+    private void finish(UploadSession session, String status) {
+        UploadSession update = new UploadSession();
+        update.setUploadId(session.getUploadId());
+        update.setStatus(status);
+        sessionMapper.updateById(update);
+        partMapper.delete(new QueryWrapper<UploadPart>().eq("upload_id", session.getUploadId()));
+    }
+
+    private List<UploadPart> listParts(String uploadId) {
+        return partMapper.selectList(new QueryWrapper<UploadPart>()
+                .eq("upload_id", uploadId)
+                .orderByAsc("part_number"));
+    }
+
+    /**
+     * 会话必须属于当前租户，且由当前用户发起；管理员可以操作租户内任意会话
+     */
+    private UploadSession require(String tenantId, String userId, boolean admin, String uploadId) {
+        UploadSession session = sessionMapper.selectById(uploadId);
+        if (session == null || !session.getTenantId().equals(tenantId)) {
+            throw new IllegalArgumentException("上传会话不存在");
+        }
+        if (!admin && !session.getUserId().equals(userId)) {
+            throw new IllegalStateException("无权操作该上传会话");
+        }
+        return session;
+    }
+
+    private UploadSession requireActive(String tenantId, String userId, boolean admin, String uploadId) {
+        UploadSession session = require(tenantId, userId, admin, uploadId);
+        if (!"uploading".equals(session.getStatus())) {
+            throw new IllegalStateException("上传会话已结束: " + session.getStatus());
+        }
+        return session;
+    }
+}
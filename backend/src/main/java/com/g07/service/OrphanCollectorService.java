@@ -0,0 +1,323 @@
+package com.g07.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.g07.config.ShardRouter;
+import com.g07.entity.*;
+import com.g07.mapper.*;
+import io.minio.*;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 后台孤儿数据回收
+ * 1. objects：遍历 MinIO 对象，没有 Document 记录引用且超过宽限期的对象隔离或删除；
+ * 2. sessions@分片：用户表只在主库，分片上的 chat_session / qa_record / citation_mapping 没有指向用户的外键，
+ *    注销用户后留下的会话、问答记录和引用在这里清理；
+ * 3. documents@分片：同理，分片上的 document 没有指向用户的外键，上传者已注销的文档按批量删除流程清理，
+ *    切片随 knowledge_chunk → document 外键级联删除。
+ * 每轮调度逐批扫完各阶段，游标持久化到 gc_checkpoint，重启后从断点继续。
+ * 单批耗时超过 target-batch-millis 说明数据库或存储较忙，批间停顿自动加倍，空闲时逐步缩短。
+ */
+@Service
+public class OrphanCollectorService {
+
+    public static final String QUARANTINE_PREFIX = "_quarantine/";
+
+    private static final String PHASE_OBJECTS = "objects";
+    private static final String PHASE_SESSIONS = "sessions@";
+    private static final String PHASE_DOCUMENTS = "documents@";
+
+    @Autowired private MinioClient minioClient;
+    @Autowired private DocumentMapper documentMapper;
+    @Autowired private ChatSessionMapper sessionMapper;
+    @Autowired private QaRecordMapper qaRecordMapper;
+    @Autowired private CitationMappingMapper citationMapper;
+    @Autowired private UserMapper userMapper;
+    @Autowired private DocumentBulkService documentBulkService;
+    @Autowired private GcCheckpointMapper checkpointMapper;
+    @Autowired private ShardRouter shardRouter;
+
+    @Value("${minio.bucketName}")
+    private String bucketName;
+
+    @Value("${gc.enabled:true}")
+    private boolean enabled;
+
+    @Value("${gc.batch-size:200}")
+    private int batchSize;
+
+    // 刚上传、还没来得及写 Document 记录的对象不能误删
+    @Value("${gc.grace-minutes:60}")
+    private long graceMinutes;
+
+    // true: 移到 _quarantine/ 前缀下；false: 直接删除
+    @Value("${gc.quarantine:true}")
+    private boolean quarantine;
+
+    // 批量导入的暂存目录由导入流程自己清理
+    @Value("${import.staging-prefix:_import/}")
+    private String stagingPrefix;
+
+    @Value("${gc.target-batch-millis:200}")
+    private long targetBatchMillis;
+
+    @Value("${gc.min-pause-millis:100}")
+    private long minPauseMillis;
+
+    @Value("${gc.max-pause-millis:10000}")
+    private long maxPauseMillis;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile long pauseMillis = 100;
+
+    @Scheduled(initialDelayString = "${gc.initial-delay-ms:60000}", fixedDelayString = "${gc.interval-ms:600000}")
+    public void tick() {
+        if (!enabled || !running.compareAndSet(false, true)) return;
+        try {
+            runPhase(PHASE_OBJECTS, this::collectObjects);
+            for (int shard : shardRouter.shardIds()) {
+                runPhase(PHASE_SESSIONS + shard, cp -> shardRouter.callOnShard(shard, () -> collectSessions(cp)));
+                runPhase(PHASE_DOCUMENTS + shard, cp -> shardRouter.callOnShard(shard, () -> collectDocuments(cp)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Batch {
+        /** 处理一批，扫完一整轮时返回 true */
+        boolean run(GcCheckpoint cp) throws Exception;
+    }
+
+    /**
+     * 逐批执行直到扫完一轮，批间按当前停顿时间休眠；出错时保留游标，下次调度从断点继续
+     */
+    private void runPhase(String phase, Batch batch) throws InterruptedException {
+        GcCheckpoint cp = loadCheckpoint(phase);
+        boolean done = false;
+        while (!done) {
+            long start = System.currentTimeMillis();
+            try {
+                done = batch.run(cp);
+                cp.setUpdateTime(LocalDateTime.now());
+                checkpointMapper.updateById(cp);
+            } catch (Exception e) {
+                System.err.println(">>> [GC] 阶段 " + phase + " 执行失败: " + e.getMessage());
+                done = true;
+            }
+            adjustPause(System.currentTimeMillis() - start);
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    /**
+     * 批次耗时超过目标值说明前台负载较高，停顿加倍；否则线性缩短
+     */
+    private void adjustPause(long elapsed) {
+        if (elapsed > targetBatchMillis) {
+            pauseMillis = Math.min(maxPauseMillis, pauseMillis * 2);
+        } else {
+            pauseMillis = Math.max(minPauseMillis, pauseMillis - minPauseMillis);
+        }
+    }
+
+    private boolean collectObjects(GcCheckpoint cp) throws Exception {
+        ListObjectsArgs.Builder args = ListObjectsArgs.builder()
+                .bucket(bucketName)
+                .recursive(true)
+                .maxKeys(batchSize);
+        if (!cp.getCursorValue().isEmpty()) args.startAfter(cp.getCursorValue());
+
+        List<Item> batch = new ArrayList<>();
+        for (Result<Item> r : minioClient.listObjects(args.build())) {
+            batch.add(r.get());
+            if (batch.size() >= batchSize) break;
+        }
+        if (batch.isEmpty()) {
+            finishCycle(cp);
+            return true;
+        }
+        cp.setCursorValue(batch.get(batch.size() - 1).objectName());
+        cp.setScanned(cp.getScanned() + batch.size());
+
+        List<String> names = new ArrayList<>();
+        for (Item item : batch) {
+            if (!isExempt(item.objectName())) names.add(item.objectName());
+        }
+        if (names.isEmpty()) return false;
+
+        // 分页文件 {filePath}.pages.gz / .pages.idx 跟随原文件，按原文件是否被引用判断
+        Set<String> sources = new HashSet<>();
+        for (String name : names) sources.add(PageStoreService.sourceOf(name));
+        // 引用对象的文档可能在任一分片上
+        Set<String> referenced = new HashSet<>();
+        for (int shard : shardRouter.shardIds()) {
+            shardRouter.runOnShard(shard, () -> {
+                for (Document d : documentMapper.selectList(new QueryWrapper<Document>().select("file_path").in("file_path", sources))) {
+                    referenced.add(d.getFilePath());
+                }
+            });
+        }
+
+        ZonedDateTime graceLine = ZonedDateTime.now().minusMinutes(graceMinutes);
+        List<Item> orphans = new ArrayList<>();
+        for (Item item : batch) {
+            String name = item.objectName();
+            if (isExempt(name) || referenced.contains(PageStoreService.sourceOf(name))) continue;
+            if (item.lastModified() != null && item.lastModified().isAfter(graceLine)) continue;
+            orphans.add(item);
+        }
+        if (orphans.isEmpty()) return false;
+
+        if (quarantine) {
+            for (Item item : orphans) {
+                minioClient.copyObject(CopyObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(QUARANTINE_PREFIX + item.objectName())
+                        .source(CopySource.builder().bucket(bucketName).object(item.objectName()).build())
+                        .build());
+            }
+        }
+
+        List<DeleteObject> objects = new ArrayList<>();
+        for (Item item : orphans) objects.add(new DeleteObject(item.objectName()));
+        Set<String> failed = new HashSet<>();
+        for (Result<DeleteError> r : minioClient.removeObjects(RemoveObjectsArgs.builder().bucket(bucketName).objects(objects).build())) {
+            failed.add(r.get().objectName());
+        }
+
+        long bytes = 0;
+        int removed = 0;
+        for (Item item : orphans) {
+            if (failed.contains(item.objectName())) continue;
+            removed++;
+            // 隔离模式下对象仍占用空间，不计入回收字节
+            if (!quarantine) bytes += item.size();
+        }
+        cp.setRemoved(cp.getRemoved() + removed);
+        cp.setReclaimedBytes(cp.getReclaimedBytes() + bytes);
+        System.out.println(">>> [GC] 清理孤儿对象 " + removed + " 个" + (quarantine ? "（已隔离）" : ""));
+        return false;
+    }
+
+    private boolean collectSessions(GcCheckpoint cp) {
+        List<ChatSession> sessions = sessionMapper.selectList(new QueryWrapper<ChatSession>()
+                .select("session_id", "user_id")
+                .gt("session_id", cp.getCursorValue())
+                .orderByAsc("session_id")
+                .last("LIMIT " + batchSize));
+        if (sessions.isEmpty()) {
+            finishCycle(cp);
+            return true;
+        }
+        cp.setCursorValue(sessions.get(sessions.size() - 1).getSessionId());
+        cp.setScanned(cp.getScanned() + sessions.size());
+
+        Set<String> existing = existingUsers(sessions.stream().map(ChatSession::getUserId).toList());
+        List<String> orphanSessions = new ArrayList<>();
+        for (ChatSession s : sessions) {
+            if (!existing.contains(s.getUserId())) orphanSessions.add(s.getSessionId());
+        }
+        if (orphanSessions.isEmpty()) return false;
+
+        List<String> recordIds = new ArrayList<>();
+        for (QaRecord r : qaRecordMapper.selectList(new QueryWrapper<QaRecord>().select("record_id").in("session_id", orphanSessions))) {
+            recordIds.add(r.getRecordId());
+        }
+        if (!recordIds.isEmpty()) {
+            citationMapper.delete(new QueryWrapper<CitationMapping>().in("record_id", recordIds));
+            qaRecordMapper.delete(new QueryWrapper<QaRecord>().in("session_id", orphanSessions));
+        }
+        sessionMapper.deleteBatchIds(orphanSessions);
+        cp.setRemoved(cp.getRemoved() + orphanSessions.size() + recordIds.size());
+        System.out.println(">>> [GC] 清理孤儿会话 " + orphanSessions.size() + " 个，问答记录 " + recordIds.size() + " 条");
+        return false;
+    }
+
+    private boolean collectDocuments(GcCheckpoint cp) {
+        List<Document> docs = documentMapper.selectList(new QueryWrapper<Document>()
+                .select("doc_id", "user_id")
+                .gt("doc_id", cp.getCursorValue())
+                .orderByAsc("doc_id")
+                .last("LIMIT " + batchSize));
+        if (docs.isEmpty()) {
+            finishCycle(cp);
+            return true;
+        }
+        cp.setCursorValue(docs.get(docs.size() - 1).getDocId());
+        cp.setScanned(cp.getScanned() + docs.size());
+
+        Set<String> existing = existingUsers(docs.stream().map(Document::getUserId).toList());
+        List<String> orphanDocs = new ArrayList<>();
+        for (Document d : docs) {
+            if (!existing.contains(d.getUserId())) orphanDocs.add(d.getDocId());
+        }
+        if (orphanDocs.isEmpty()) return false;
+
+        // 走批量删除流程：同时删除 MinIO 对象、广播事件并失效各级缓存
+        int removed = documentBulkService.deleteDocuments(orphanDocs).getSucceeded().size();
+        cp.setRemoved(cp.getRemoved() + removed);
+        System.out.println(">>> [GC] 清理上传者已注销的文档 " + removed + " 个");
+        return false;
+    }
+
+    /**
+     * 用户表只在主库，不受分片路由影响
+     */
+    private Set<String> existingUsers(Collection<String> userIds) {
+        Set<String> existing = new HashSet<>();
+        for (User u : userMapper.selectList(new QueryWrapper<User>().select("user_id").in("user_id", new HashSet<>(userIds)))) {
+            existing.add(u.getUserId());
+        }
+        return existing;
+    }
+
+    private boolean isExempt(String objectName) {
+        return objectName.startsWith(QUARANTINE_PREFIX) || objectName.startsWith(stagingPrefix);
+    }
+
+    private void finishCycle(GcCheckpoint cp) {
+        cp.setCursorValue("");
+        cp.setCycles(cp.getCycles() + 1);
+    }
+
+    private GcCheckpoint loadCheckpoint(String phase) {
+        GcCheckpoint cp = checkpointMapper.selectById(phase);
+        if (cp == null) {
+            cp = new GcCheckpoint();
+            cp.setPhase(phase);
+            cp.setCursorValue("");
+            cp.setScanned(0L);
+            cp.setRemoved(0L);
+            cp.setReclaimedBytes(0L);
+            cp.setCycles(0);
+            cp.setUpdateTime(LocalDateTime.now());
+            checkpointMapper.insert(cp);
+        }
+        return cp;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        for (GcCheckpoint cp : checkpointMapper.selectList(null)) {
+            data.put(cp.getPhase(), cp);
+        }
+        data.put("running", running.get());
+        data.put("pauseMillis", pauseMillis);
+        data.put("quarantine", quarantine);
+        return data;
+    }
+}
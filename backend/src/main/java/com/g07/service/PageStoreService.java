@@ -0,0 +1,227 @@
+package com.g07.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.errors.ErrorResponseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 按页存储的解析文本：入库时把解析结果规范化后逐页写入原文件旁边的 {filePath}.pages.gz，
+ * 每页是一个独立的 gzip 成员，页偏移索引写入 {filePath}.pages.idx。
+ * 读取时先取索引（本地缓存），再用 Range 请求只下载需要的页，不必下载原文件重新跑 Tika。
+ * knowledge_chunk.page_number 即该文件中的页码（从 1 开始）。
+ * 非 PDF 文档没有物理页，按 virtual-page-chars 切成虚拟页，索引中 paged=false。
+ */
+@Service
+public class PageStoreService {
+
+    public static final String PAGES_SUFFIX = ".pages.gz";
+    public static final String INDEX_SUFFIX = ".pages.idx";
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${minio.bucketName}")
+    private String bucketName;
+
+    @Value("${pages.virtual-page-chars:3000}")
+    private int virtualPageChars;
+
+    @Value("${pages.index-cache-entries:2000}")
+    private int indexCacheEntries;
+
+    /**
+     * 页偏移索引：第 i 页（下标 i-1）在 .pages.gz 中的字节偏移、压缩后长度和原文字符数
+     */
+    public static class PageIndex {
+        private boolean paged;
+        private long[] offsets;
+        private int[] lengths;
+        private int[] chars;
+
+        public boolean isPaged() { return paged; }
+        public void setPaged(boolean paged) { this.paged = paged; }
+
+        public long[] getOffsets() { return offsets; }
+        public void setOffsets(long[] offsets) { this.offsets = offsets; }
+
+        public int[] getLengths() { return lengths; }
+        public void setLengths(int[] lengths) { this.lengths = lengths; }
+
+        public int[] getChars() { return chars; }
+        public void setChars(int[] chars) { this.chars = chars; }
+
+        public int pageCount() { return offsets.length; }
+    }
+
+    private final Map<String, PageIndex> indexCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, PageIndex>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PageIndex> eldest) {
+                    return size() > indexCacheEntries;
+                }
+            });
+
+    /**
+     * 规范化并分页：空白折叠、去掉多余空行；没有物理页的文档切成虚拟页
+     */
+    public List<String> segment(ParseService.ParsedText parsed) {
+        List<String> pages = new ArrayList<>();
+        if (parsed.isPaged()) {
+            for (String page : parsed.getPages()) pages.add(normalize(page));
+            return pages;
+        }
+        String text = normalize(parsed.getText());
+        for (int start = 0; start < text.length(); start += virtualPageChars) {
+            pages.add(text.substring(start, Math.min(text.length(), start + virtualPageChars)));
+        }
+        if (pages.isEmpty()) pages.add("");
+        return pages;
+    }
+
+    private static String normalize(String page) {
+        return page.replaceAll("[ \\t\\x0B\\f\\u00A0\\u3000]+", " ")
+                .replaceAll(" *\\r?\\n *", "\n")
+                .replaceAll("\\n{3,}", "\n\n")
+                .trim();
+    }
+
+    public void write(String filePath, List<String> pages, boolean paged) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        PageIndex index = new PageIndex();
+        index.setPaged(paged);
+        index.setOffsets(new long[pages.size()]);
+        index.setLengths(new int[pages.size()]);
+        index.setChars(new int[pages.size()]);
+
+        for (int i = 0; i < pages.size(); i++) {
+            ByteArrayOutputStream member = new ByteArrayOutputStream();
+            try (GZIPOutputStream gz = new GZIPOutputStream(member)) {
+                gz.write(pages.get(i).getBytes(StandardCharsets.UTF_8));
+            }
+            index.getOffsets()[i] = body.size();
+            index.getLengths()[i] = member.size();
+            index.getChars()[i] = pages.get(i).length();
+            member.writeTo(body);
+        }
+
+        put(filePath + PAGES_SUFFIX, body.toByteArray(), "application/gzip");
+        put(filePath + INDEX_SUFFIX, objectMapper.writeValueAsBytes(index), "application/json");
+        indexCache.put(filePath, index);
+    }
+
+    /**
+     * @return 没有分页文件（老数据或写入失败）时返回 null
+     */
+    public PageIndex index(String filePath) throws Exception {
+        PageIndex cached = indexCache.get(filePath);
+        if (cached != null) return cached;
+        try (InputStream in = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucketName).object(filePath + INDEX_SUFFIX).build())) {
+            PageIndex index = objectMapper.readValue(in, PageIndex.class);
+            indexCache.put(filePath, index);
+            return index;
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * 读取第 from 到 to 页（含两端，从 1 开始），一次 Range 请求
+     * @return 页码 -> 文本；没有分页文件时返回空
+     */
+    public Map<Integer, String> read(String filePath, int from, int to) throws Exception {
+        Map<Integer, String> pages = new LinkedHashMap<>();
+        PageIndex index = index(filePath);
+        if (index == null || index.pageCount() == 0) return pages;
+        from = Math.max(1, from);
+        to = Math.min(index.pageCount(), to);
+        if (from > to) return pages;
+
+        long offset = index.getOffsets()[from - 1];
+        long length = index.getOffsets()[to - 1] + index.getLengths()[to - 1] - offset;
+        byte[] bytes;
+        try (InputStream in = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(filePath + PAGES_SUFFIX)
+                .offset(offset)
+                .length(length)
+                .build())) {
+            bytes = in.readAllBytes();
+        }
+
+        for (int page = from; page <= to; page++) {
+            int pos = (int) (index.getOffsets()[page - 1] - offset);
+            try (GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(bytes, pos, index.getLengths()[page - 1]))) {
+                pages.put(page, new String(gz.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * 读取全部页并拼成全文；没有分页文件时返回 null
+     */
+    public String readAll(String filePath) throws Exception {
+        PageIndex index = index(filePath);
+        if (index == null) return null;
+        return String.join("\n", read(filePath, 1, index.pageCount()).values());
+    }
+
+    /**
+     * 其他节点删除了文档：只丢弃本机缓存的索引
+     */
+    public void evict(String filePath) {
+        indexCache.remove(filePath);
+    }
+
+    public void delete(String filePath) {
+        indexCache.remove(filePath);
+        for (String name : artifactsOf(filePath)) {
+            try {
+                minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucketName).object(name).build());
+            } catch (Exception e) {
+                System.err.println(">>> [Pages] 删除分页文件失败，等待后台回收: " + name);
+            }
+        }
+    }
+
+    public static List<String> artifactsOf(String filePath) {
+        return List.of(filePath + PAGES_SUFFIX, filePath + INDEX_SUFFIX);
+    }
+
+    /**
+     * 分页文件对应的原文件对象名；不是分页文件时原样返回
+     */
+    public static String sourceOf(String objectName) {
+        if (objectName.endsWith(PAGES_SUFFIX)) return objectName.substring(0, objectName.length() - PAGES_SUFFIX.length());
+        if (objectName.endsWith(INDEX_SUFFIX)) return objectName.substring(0, objectName.length() - INDEX_SUFFIX.length());
+        return objectName;
+    }
+
+    private void put(String objectName, byte[] data, String contentType) throws Exception {
+        minioClient.putObject(PutObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .stream(new ByteArrayInputStream(data), data.length, -1)
+                .contentType(contentType)
+                .build());
+    }
+}
@@ -0,0 +1,366 @@
+package com.g07.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.tika.exception.WriteLimitReachedException;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文档解析：所有 Tika 解析都经过这里，避免单个畸形文件拖垮聊天或上传请求。
+ * - 交互（上传、问答读全文）和后台（批量导入、异步入库）各用一个固定大小的工作线程池，
+ *   后台任务排满时不会挡住交互请求；
+ * - 每个文档有解析时限，从开始解析计时，排队时间不算在内；超时后调用方立即得到失败，
+ *   工作线程通过内容回调协作取消并被中断；排队也有时限，调用方不会无限期等待；
+ * - 输出字符数有上限，超出部分截断，防止超大文本撑爆堆；
+ * - fork 模式下解析在子 JVM 中进行（Tika ForkParser），子进程崩溃或 OOM 不影响主进程。
+ */
+@Service
+public class ParseService {
+
+    /**
+     * 解析失败或超时
+     */
+    public static class ParseFailure extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean timeout;
+
+        public ParseFailure(String message, boolean timeout, Throwable cause) {
+            super(message, cause);
+            this.timeout = timeout;
+        }
+
+        public boolean isTimeout() { return timeout; }
+    }
+
+    /**
+     * 解析结果：全文及按页切分的文本。PDF 按 Tika 输出的 &lt;div class="page"&gt; 分页；
+     * 其他格式没有页的概念，paged 为 false，整篇作为一页
+     */
+    public static class ParsedText {
+        private final String text;
+        private final List<String> pages;
+        private final boolean paged;
+
+        ParsedText(String text, List<String> pages, boolean paged) {
+            this.text = text;
+            this.pages = pages;
+            this.paged = paged;
+        }
+
+        public String getText() { return text; }
+        public List<String> getPages() { return pages; }
+        public boolean isPaged() { return paged; }
+    }
+
+    /**
+     * 解析任务走哪个线程池：IMPORT 专供批量导入，大小跟随导入并行度，不与异步入库争抢后台线程
+     */
+    public enum Lane { INTERACTIVE, BULK, IMPORT }
+
+    /**
+     * 每次解析时打开输入流，流由解析方关闭
+     */
+    public interface StreamSource {
+        InputStream open() throws Exception;
+    }
+
+    @Value("${parse.threads:2}")
+    private int threads;
+
+    @Value("${parse.bulk-threads:2}")
+    private int bulkThreads;
+
+    // 与 BulkImportService 的导入线程数一致，每个导入线程同一时刻只解析一个文件
+    @Value("${import.parallelism:0}")
+    private int importParallelism;
+
+    private int importThreads;
+
+    @Value("${parse.timeout-seconds:120}")
+    private long timeoutSeconds;
+
+    // 排队等待工作线程的时限，超时的任务不再执行
+    @Value("${parse.queue-timeout-seconds:300}")
+    private long queueTimeoutSeconds;
+
+    // 单个文档最多提取的字符数
+    @Value("${parse.max-chars:5000000}")
+    private int maxChars;
+
+    // 是否解析内嵌文档（如 DOCX 里嵌入的表格、压缩包里的文件）
+    @Value("${parse.embedded:true}")
+    private boolean embedded;
+
+    @Value("${parse.fork.enabled:false}")
+    private boolean forkEnabled;
+
+    @Value("${parse.fork.java-command:java -Xmx512m}")
+    private String forkJavaCommand;
+
+    private final AutoDetectParser parser = new AutoDetectParser();
+    private ForkParser forkParser;
+    private ExecutorService workers;
+    private ExecutorService bulkWorkers;
+    private ExecutorService importWorkers;
+    private ScheduledExecutorService watchdog;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "parse-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        bulkWorkers = Executors.newFixedThreadPool(bulkThreads, r -> {
+            Thread t = new Thread(r, "parse-bulk-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        importThreads = importParallelism > 0 ? importParallelism : Runtime.getRuntime().availableProcessors();
+        importWorkers = Executors.newFixedThreadPool(importThreads, r -> {
+            Thread t = new Thread(r, "parse-import-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "parse-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        if (forkEnabled) {
+            forkParser = new ForkParser(ParseService.class.getClassLoader(), parser);
+            forkParser.setPoolSize(threads + bulkThreads + importThreads);
+            forkParser.setJavaCommand(Arrays.asList(forkJavaCommand.trim().split("\\s+")));
+            forkParser.setServerParseTimeoutMillis(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        }
+    }
+
+    /**
+     * 在工作线程中解析，阻塞到完成、失败或超时
+     * @param name 用于日志的文件名或对象名
+     */
+    public String parse(String name, StreamSource source) throws ParseFailure {
+        return parsePages(name, source).getText();
+    }
+
+    public ParsedText parsePages(String name, StreamSource source) throws ParseFailure {
+        return parsePages(name, source, Lane.INTERACTIVE);
+    }
+
+    public ParsedText parsePages(String name, StreamSource source, Lane lane) throws ParseFailure {
+        CompletableFuture<ParsedText> result = new CompletableFuture<>();
+        ExecutorService pool = switch (lane) {
+            case BULK -> bulkWorkers;
+            case IMPORT -> importWorkers;
+            default -> workers;
+        };
+        pool.execute(() -> {
+            // 调用方已经排队超时放弃了
+            if (result.isDone()) return;
+            Cancellation cancel = new Cancellation(Thread.currentThread());
+            ScheduledFuture<?> timer = watchdog.schedule(() -> {
+                if (result.completeExceptionally(new ParseFailure("解析超时（超过 " + timeoutSeconds + " 秒）", true, null))) {
+                    timeouts.incrementAndGet();
+                    cancel.cancel();
+                    System.err.println(">>> [Parse] 解析超时，已取消: " + name);
+                }
+            }, timeoutSeconds, TimeUnit.SECONDS);
+            active.incrementAndGet();
+            try {
+                ParsedText text = doParse(source, cancel);
+                if (result.complete(text)) completed.incrementAndGet();
+            } catch (Throwable e) {
+                // OutOfMemoryError 等也只让当前文档失败
+                if (result.completeExceptionally(new ParseFailure("解析失败: " + e.getMessage(), false, e))) {
+                    failed.incrementAndGet();
+                }
+            } finally {
+                timer.cancel(false);
+                active.decrementAndGet();
+                // 清掉取消时设置的中断标记，线程还要继续服务下一个文档
+                cancel.finish();
+            }
+        });
+
+        try {
+            return result.get(queueTimeoutSeconds + timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // 解析开始后由看门狗负责超时，走到这里说明一直在排队
+            if (result.completeExceptionally(new ParseFailure("解析排队超时", true, e))) timeouts.incrementAndGet();
+            System.err.println(">>> [Parse] 排队超时，已放弃: " + name);
+            throw new ParseFailure("解析排队超时（超过 " + (queueTimeoutSeconds + timeoutSeconds) + " 秒）", true, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ParseFailure) throw (ParseFailure) e.getCause();
+            throw new ParseFailure("解析失败: " + e.getCause().getMessage(), false, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParseFailure("解析被中断", false, e);
+        }
+    }
+
+    private ParsedText doParse(StreamSource source, Cancellation cancel) throws Exception {
+        StringWriter writer = new StringWriter();
+        WriteOutContentHandler limited = new WriteOutContentHandler(writer, maxChars);
+        PageMarker pages = new PageMarker(limited, writer);
+        ContentHandler handler = new CancellableHandler(new BodyContentHandler(pages), cancel);
+
+        ParseContext context = new ParseContext();
+        if (embedded) context.set(Parser.class, parser);
+
+        try (InputStream stream = source.open()) {
+            if (forkParser != null) {
+                forkParser.parse(stream, handler, new Metadata(), context);
+            } else {
+                parser.parse(stream, handler, new Metadata(), context);
+            }
+        } catch (Exception e) {
+            if (!WriteLimitReachedException.isWriteLimitReached(e)) throw e;
+            // 超出字符上限：保留已提取的部分
+            truncated.incrementAndGet();
+        }
+        return pages.result();
+    }
+
+    /**
+     * 记录每个 &lt;div class="page"&gt; 开始时已输出的字符数，解析结束后按这些位置切分页面
+     */
+    private static class PageMarker extends ContentHandlerDecorator {
+        private final StringWriter writer;
+        private final List<Integer> starts = new ArrayList<>();
+
+        PageMarker(ContentHandler handler, StringWriter writer) {
+            super(handler);
+            this.writer = writer;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes atts) throws SAXException {
+            if ("div".equals(localName) && "page".equals(atts.getValue("class"))) {
+                starts.add(writer.getBuffer().length());
+            }
+            super.startElement(uri, localName, name, atts);
+        }
+
+        ParsedText result() {
+            String text = writer.toString();
+            if (starts.isEmpty()) return new ParsedText(text, List.of(text), false);
+            List<String> pages = new ArrayList<>();
+            for (int i = 0; i < starts.size(); i++) {
+                // 第一页之前的内容（如文档元信息）并入第一页
+                int from = i == 0 ? 0 : Math.min(starts.get(i), text.length());
+                int to = i + 1 < starts.size() ? Math.min(starts.get(i + 1), text.length()) : text.length();
+                pages.add(text.substring(from, to));
+            }
+            return new ParsedText(text, pages, true);
+        }
+    }
+
+    /**
+     * 超时后设置取消标记并中断工作线程
+     */
+    private static class Cancellation {
+        private final Thread worker;
+        private volatile boolean cancelled;
+        private boolean finished;
+
+        Cancellation(Thread worker) { this.worker = worker; }
+
+        synchronized void cancel() {
+            cancelled = true;
+            // 工作线程已经结束本次解析时不能再中断，否则会打断它处理的下一个文档
+            if (!finished) worker.interrupt();
+        }
+
+        synchronized void finish() {
+            finished = true;
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * 解析器每输出一段内容都会回调这里，发现已取消就抛异常中止解析
+     */
+    private static class CancellableHandler extends ContentHandlerDecorator {
+        private final Cancellation cancel;
+
+        CancellableHandler(ContentHandler handler, Cancellation cancel) {
+            super(handler);
+            this.cancel = cancel;
+        }
+
+        private void check() throws SAXException {
+            if (cancel.cancelled) throw new SAXException("解析已取消");
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes atts) throws SAXException {
+            check();
+            super.startElement(uri, localName, name, atts);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            check();
+            super.characters(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            check();
+            super.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("threads", threads);
+        data.put("bulkThreads", bulkThreads);
+        data.put("importThreads", importThreads);
+        data.put("active", active.get());
+        data.put("completed", completed.get());
+        data.put("failed", failed.get());
+        data.put("timeouts", timeouts.get());
+        data.put("truncated", truncated.get());
+        data.put("fork", forkParser != null);
+        return data;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+        bulkWorkers.shutdownNow();
+        importWorkers.shutdownNow();
+        watchdog.shutdownNow();
+        if (forkParser != null) forkParser.close();
+    }
+}
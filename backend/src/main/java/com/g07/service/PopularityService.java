@@ -0,0 +1,413 @@
+package com.g07.service;
+
+import com.g07.config.ShardRouter;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.mapper.CitationMappingMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点切片常驻内存（可选，popularity.enabled）
+ * 每次回答引用的切片和文档各记一次命中，命中分按 half-life-hours 指数衰减，反映的是近期的真实使用频率而不是最近一次访问。
+ * 定时按分数重选常驻集合：
+ * - 分数最高的 pinned-docs 个文档，常驻其切片列表（元数据和二元词签名），打包上下文时不再查段存储或数据库；
+ * - 分数最高的切片按 pinned-mb 预算常驻解压后的正文。
+ * 启动时从 citation_mapping 最近 warmup-days 天的引用记录重建分数并立即装载，重启后不用重新积累。
+ * 文档删除（本节点删除或 DOC_DELETE 事件）时立即清掉其计分和常驻数据，不占用常驻名额。
+ */
+@Service
+public class PopularityService {
+
+    private static final double LN2 = Math.log(2);
+    // 每轮重选最多新装载的切片正文数，其余留到下一轮
+    private static final int LOAD_PER_REFRESH = 1000;
+
+    @Autowired
+    private CitationMappingMapper citationMapper;
+
+    @Autowired
+    private KnowledgeChunkMapper chunkMapper;
+
+    @Autowired
+    private ChunkSegmentService chunkSegmentService;
+
+    @Autowired
+    private ChunkStorageService chunkStorageService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${popularity.enabled:false}")
+    private boolean enabled;
+
+    @Value("${popularity.half-life-hours:24}")
+    private double halfLifeHours;
+
+    @Value("${popularity.pinned-docs:200}")
+    private int pinnedDocs;
+
+    @Value("${popularity.pinned-mb:64}")
+    private int pinnedMb;
+
+    // 参与计分的切片数上限，超出时重选阶段淘汰分数最低的
+    @Value("${popularity.max-tracked:100000}")
+    private int maxTracked;
+
+    @Value("${popularity.warmup-days:7}")
+    private int warmupDays;
+
+    @Value("${popularity.warmup-limit:50000}")
+    private int warmupLimit;
+
+    /**
+     * 衰减计数：score 是 updatedAt 时刻的分数
+     */
+    private static class Counter {
+        final String key;
+        final String tenantId;
+        final String docId;
+        double score;
+        long updatedAt;
+
+        Counter(String key, String tenantId, String docId, long now) {
+            this.key = key;
+            this.tenantId = tenantId;
+            this.docId = docId;
+            this.updatedAt = now;
+        }
+    }
+
+    private final Map<String, Counter> chunkScores = new ConcurrentHashMap<>();
+    private final Map<String, Counter> docScores = new ConcurrentHashMap<>();
+
+    // 常驻集合整体替换，读取方不加锁；替换时持有 pinLock
+    private volatile Map<String, List<KnowledgeChunk>> pinnedChunkLists = Collections.emptyMap();
+    private volatile Map<String, String> pinnedContents = Collections.emptyMap();
+    private volatile long pinnedBytes;
+    private volatile boolean ready;
+
+    private final Object pinLock = new Object();
+    // 重选过程中被删除的文档和切片，重选结果发布时剔除
+    private boolean refreshing;
+    private final Set<String> removedDocs = new HashSet<>();
+    private final Set<String> removedChunks = new HashSet<>();
+
+    private final AtomicLong listHits = new AtomicLong();
+    private final AtomicLong contentHits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) return;
+        Thread warmup = new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                int rows = warmup();
+                refresh();
+                System.out.println(">>> [Popularity] 预热完成：" + rows + " 条引用统计，常驻文档 " + pinnedChunkLists.size()
+                        + " 个、切片 " + pinnedContents.size() + " 条，耗时 " + (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                System.err.println(">>> [Popularity] 预热失败: " + e.getMessage());
+            } finally {
+                ready = true;
+            }
+        }, "popularity-warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+    }
+
+    // ==================== 计分 ====================
+
+    public void hit(String tenantId, Collection<ContextPackService.CitedChunk> cited) {
+        if (!enabled || cited.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        Set<String> docs = new HashSet<>();
+        for (ContextPackService.CitedChunk c : cited) {
+            add(chunkScores, c.getChunkId(), tenantId, c.getDocId(), 1, now);
+            docs.add(c.getDocId());
+        }
+        // 一次回答对同一文档只算一次
+        for (String docId : docs) add(docScores, docId, tenantId, docId, 1, now);
+    }
+
+    private void add(Map<String, Counter> scores, String key, String tenantId, String docId, double amount, long at) {
+        scores.compute(key, (k, c) -> {
+            if (c == null) c = new Counter(k, tenantId, docId, at);
+            if (at >= c.updatedAt) {
+                c.score = decay(c.score, at - c.updatedAt) + amount;
+                c.updatedAt = at;
+            } else {
+                // 预热时补入的历史命中
+                c.score += decay(amount, c.updatedAt - at);
+            }
+            return c;
+        });
+    }
+
+    private double decay(double score, long elapsedMillis) {
+        return score * Math.exp(-LN2 * elapsedMillis / (halfLifeHours * 3600_000));
+    }
+
+    private double scoreAt(Counter c, long now) {
+        return decay(c.score, now - c.updatedAt);
+    }
+
+    /**
+     * 从各分片最近的引用记录重建分数：每个切片按引用次数计分，并按最后一次引用时间衰减
+     * @return 读取的统计行数
+     */
+    private int warmup() throws Exception {
+        LocalDateTime since = LocalDateTime.now().minusDays(warmupDays);
+        int total = 0;
+        for (int shard : shardRouter.shardIds()) {
+            List<Map<String, Object>> rows = shardRouter.callOnShard(shard, () -> citationMapper.selectPopular(since, warmupLimit));
+            for (Map<String, Object> row : rows) {
+                String chunkId = (String) row.get("chunkId");
+                String docId = (String) row.get("docId");
+                String tenantId = (String) row.get("tenantId");
+                double hits = ((Number) row.get("hits")).doubleValue();
+                long at = toMillis(row.get("lastTime"));
+                add(chunkScores, chunkId, tenantId, docId, hits, at);
+                add(docScores, docId, tenantId, docId, hits, at);
+            }
+            total += rows.size();
+        }
+        return total;
+    }
+
+    private static long toMillis(Object time) {
+        if (time instanceof LocalDateTime) return ((LocalDateTime) time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (time instanceof java.util.Date) return ((java.util.Date) time).getTime();
+        return System.currentTimeMillis();
+    }
+
+    // ==================== 常驻集合 ====================
+
+    /**
+     * 按当前分数重选常驻的文档和切片，已常驻的沿用，新入选的按租户到对应分片装载
+     */
+    @Scheduled(initialDelayString = "${popularity.refresh-interval-ms:60000}", fixedDelayString = "${popularity.refresh-interval-ms:60000}")
+    public synchronized void refresh() {
+        if (!enabled) return;
+        synchronized (pinLock) {
+            refreshing = true;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            prune(chunkScores, maxTracked, now);
+            prune(docScores, maxTracked, now);
+
+            Map<String, List<KnowledgeChunk>> lists = new HashMap<>();
+            Map<String, List<String>> docsToLoad = new HashMap<>();
+            for (Counter c : top(docScores, pinnedDocs, now)) {
+                List<KnowledgeChunk> existing = pinnedChunkLists.get(c.docId);
+                if (existing != null) {
+                    lists.put(c.docId, existing);
+                } else {
+                    docsToLoad.computeIfAbsent(c.tenantId, k -> new ArrayList<>()).add(c.docId);
+                }
+            }
+            for (Map.Entry<String, List<String>> e : docsToLoad.entrySet()) {
+                shardRouter.run(e.getKey(), () -> {
+                    for (String docId : e.getValue()) {
+                        List<KnowledgeChunk> chunks = chunkMapper.selectForPacking(docId);
+                        if (chunks == null || chunks.isEmpty()) continue;
+                        // 有签名的切片打分不需要正文，正文交给切片常驻或下层存储
+                        for (KnowledgeChunk k : chunks) {
+                            if (k.getBigramSig() != null) k.setContent(null);
+                        }
+                        lists.put(docId, chunks);
+                    }
+                });
+            }
+
+            long budget = (long) pinnedMb * 1024 * 1024;
+            long bytes = 0;
+            Map<String, String> contents = new HashMap<>();
+            Map<String, List<KnowledgeChunk>> chunksToLoad = new HashMap<>();
+            int toLoad = 0;
+            for (Counter c : top(chunkScores, chunkScores.size(), now)) {
+                String content = pinnedContents.get(c.key);
+                if (content != null) {
+                    long size = utf8Bytes(content);
+                    if (bytes + size > budget) break;
+                    contents.put(c.key, content);
+                    bytes += size;
+                } else if (toLoad < LOAD_PER_REFRESH) {
+                    KnowledgeChunk k = new KnowledgeChunk();
+                    k.setChunkId(c.key);
+                    chunksToLoad.computeIfAbsent(c.tenantId, t -> new ArrayList<>()).add(k);
+                    toLoad++;
+                }
+            }
+            for (Map.Entry<String, List<KnowledgeChunk>> e : chunksToLoad.entrySet()) {
+                shardRouter.run(e.getKey(), () -> {
+                    chunkSegmentService.loadContents(e.getValue());
+                    chunkStorageService.loadContents(e.getValue());
+                });
+            }
+            for (List<KnowledgeChunk> loaded : chunksToLoad.values()) {
+                for (KnowledgeChunk k : loaded) {
+                    if (k.getContent() == null || k.getContent().isEmpty()) continue;
+                    long size = utf8Bytes(k.getContent());
+                    if (bytes + size > budget) continue;
+                    contents.put(k.getChunkId(), k.getContent());
+                    bytes += size;
+                }
+            }
+
+            synchronized (pinLock) {
+                lists.keySet().removeAll(removedDocs);
+                for (String chunkId : removedChunks) {
+                    String removed = contents.remove(chunkId);
+                    if (removed != null) bytes -= utf8Bytes(removed);
+                }
+                pinnedChunkLists = lists;
+                pinnedContents = contents;
+                pinnedBytes = bytes;
+            }
+            refreshes.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println(">>> [Popularity] 重选常驻集合失败: " + e.getMessage());
+        } finally {
+            synchronized (pinLock) {
+                refreshing = false;
+                removedDocs.clear();
+                removedChunks.clear();
+            }
+        }
+    }
+
+    /**
+     * 文档已删除：清掉文档和其切片的计分，常驻集合中去掉该文档，不等下一轮重选
+     */
+    public void onDocumentsDeleted(Collection<String> docIds) {
+        if (!enabled || docIds.isEmpty()) return;
+        Set<String> docs = new HashSet<>(docIds);
+        docScores.keySet().removeAll(docs);
+        Set<String> chunks = new HashSet<>();
+        for (Counter c : chunkScores.values()) {
+            if (docs.contains(c.docId) && chunkScores.remove(c.key, c)) chunks.add(c.key);
+        }
+
+        synchronized (pinLock) {
+            Map<String, List<KnowledgeChunk>> lists = pinnedChunkLists;
+            for (String docId : docs) {
+                List<KnowledgeChunk> pinned = lists.get(docId);
+                if (pinned != null) {
+                    for (KnowledgeChunk k : pinned) chunks.add(k.getChunkId());
+                }
+            }
+            if (refreshing) {
+                removedDocs.addAll(docs);
+                removedChunks.addAll(chunks);
+            }
+            if (!Collections.disjoint(lists.keySet(), docs)) {
+                lists = new HashMap<>(lists);
+                lists.keySet().removeAll(docs);
+                pinnedChunkLists = lists;
+            }
+            Map<String, String> contents = pinnedContents;
+            if (!Collections.disjoint(contents.keySet(), chunks)) {
+                contents = new HashMap<>(contents);
+                long bytes = pinnedBytes;
+                for (String chunkId : chunks) {
+                    String removed = contents.remove(chunkId);
+                    if (removed != null) bytes -= utf8Bytes(removed);
+                }
+                pinnedContents = contents;
+                pinnedBytes = bytes;
+            }
+        }
+    }
+
+    /**
+     * 按分数从高到低排序；先取快照再排序，避免计分线程同时修改导致比较结果前后不一致
+     */
+    private List<Counter> top(Map<String, Counter> scores, int n, long now) {
+        Map<Counter, Double> snapshot = new HashMap<>();
+        for (Counter c : scores.values()) snapshot.put(c, scoreAt(c, now));
+        List<Counter> all = new ArrayList<>(snapshot.keySet());
+        all.sort((a, b) -> Double.compare(snapshot.get(b), snapshot.get(a)));
+        return all.size() > n ? all.subList(0, n) : all;
+    }
+
+    private void prune(Map<String, Counter> scores, int max, long now) {
+        if (scores.size() <= max) return;
+        List<Counter> ranked = top(scores, Integer.MAX_VALUE, now);
+        for (Counter c : ranked.subList(max, ranked.size())) scores.remove(c.key, c);
+    }
+
+    private static long utf8Bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // ==================== 读取 ====================
+
+    /**
+     * 常驻文档的切片列表（副本，调用方可以修改）
+     * @return 未常驻时返回 null
+     */
+    public List<KnowledgeChunk> chunksOf(String docId) {
+        if (!enabled || !ready) return null;
+        List<KnowledgeChunk> pinned = pinnedChunkLists.get(docId);
+        if (pinned == null) return null;
+        listHits.incrementAndGet();
+        List<KnowledgeChunk> copy = new ArrayList<>(pinned.size());
+        for (KnowledgeChunk k : pinned) {
+            KnowledgeChunk c = new KnowledgeChunk();
+            c.setChunkId(k.getChunkId());
+            c.setDocId(k.getDocId());
+            c.setChunkIndex(k.getChunkIndex());
+            c.setPageNumber(k.getPageNumber());
+            c.setTokenCount(k.getTokenCount());
+            c.setDictId(k.getDictId());
+            c.setBigramSig(k.getBigramSig());
+            c.setContent(k.getContent());
+            copy.add(c);
+        }
+        return copy;
+    }
+
+    /**
+     * 给还没有正文的切片填入常驻正文，没有常驻的保持为空
+     */
+    public void loadContents(Collection<KnowledgeChunk> chunks) {
+        if (!enabled || !ready) return;
+        Map<String, String> contents = pinnedContents;
+        for (KnowledgeChunk c : chunks) {
+            if (c.getContent() != null && !c.getContent().isEmpty()) continue;
+            String content = contents.get(c.getChunkId());
+            if (content != null) {
+                c.setContent(content);
+                contentHits.incrementAndGet();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("enabled", enabled);
+        data.put("ready", ready);
+        data.put("trackedChunks", chunkScores.size());
+        data.put("trackedDocs", docScores.size());
+        data.put("pinnedDocs", pinnedChunkLists.size());
+        data.put("pinnedChunks", pinnedContents.size());
+        data.put("pinnedBytes", pinnedBytes);
+        data.put("listHits", listHits.get());
+        data.put("contentHits", contentHits.get());
+        data.put("refreshes", refreshes.get());
+        return data;
+    }
+}
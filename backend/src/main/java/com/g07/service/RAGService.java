@@ -2,38 +2,57 @@ package com.g07.service;
 
 import com.g07.entity.KnowledgeChunk;
 import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.utils.TextUtils;
+import com.g07.utils.TokenUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @Service
 public class RAGService {
 
+    // 最多返回的切片数
+    private static final int LIMIT = 5;
+
     @Autowired
     private KnowledgeChunkMapper chunkMapper;
 
+    @Autowired
+    private ChunkStorageService chunkStorageService;
+
     public List<String> retrieve(String question, String tenantId) {
-        List<String> results = new ArrayList<>();
-        
+        return retrievePacked(question, tenantId).getContext();
+    }
+
+    /**
+     * 与 retrieve 相同，返回打包结果本身（含入选切片，按写入时间倒序）
+     */
+    public ContextPackService.PackedContext retrievePacked(String question, String tenantId) {
+        ContextPackService.PackedContext packed = new ContextPackService.PackedContext();
         if (question == null || question.trim().isEmpty()) {
-            return results;
+            return packed;
         }
 
-        // 简单的关键词提取：暂时取前 4 个字作为关键词进行模糊匹配
-        // 如果想更精确，可以将 question 原样传进去，在 Mapper 中做更复杂的 LIKE 查询
+        // 简单的关键词提取：暂时取前 4 个字作为关键词对切片内容做模糊匹配
         String keyword = question.length() > 4 ? question.substring(0, 4) : question;
 
-        // 调用 Mapper 查询数据库
-        // 注意：KnowledgeChunkMapper 必须包含 searchByKeyword 方法
-        List<KnowledgeChunk> chunks = chunkMapper.searchByKeyword(tenantId, keyword);
-
-        if (chunks == null) return results;
-
-        return chunks.stream()
-                .map(KnowledgeChunk::getContent)
-                .collect(Collectors.toList());
+        // 压缩存储的切片不能直接 LIKE，先用二元词签名预筛再解压比对
+        List<KnowledgeChunk> chunks = chunkStorageService.isEnabled()
+                ? chunkStorageService.searchContent(tenantId, keyword, LIMIT)
+                : chunkMapper.searchByKeyword(tenantId, keyword, LIMIT);
+        if (chunks == null) return packed;
+
+        Set<String> terms = TextUtils.bigrams(question);
+        for (KnowledgeChunk c : chunks) {
+            int hits = chunkStorageService.countHits(c, terms);
+            packed.getContext().add(c.getContent());
+            packed.getCitedChunks().add(new ContextPackService.CitedChunk(c.getChunkId(), c.getDocId(),
+                    terms.isEmpty() ? 0f : (float) hits / terms.size()));
+            if (!packed.getCitedDocIds().contains(c.getDocId())) packed.getCitedDocIds().add(c.getDocId());
+            packed.addTokens(c.getTokenCount() != null ? c.getTokenCount() : TokenUtils.estimateTokens(c.getContent()));
+        }
+        return packed;
     }
-}
\ No newline at end of file
+}
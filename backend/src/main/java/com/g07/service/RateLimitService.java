@@ -0,0 +1,346 @@
+package com.g07.service;
+
+import com.g07.entity.Tenant;
+import com.g07.entity.User;
+import com.g07.mapper.TenantMapper;
+import com.g07.mapper.UserMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 接口限流：按用户和按租户各一个令牌桶，两者都有令牌才放行。
+ * - 用户桶的速率按角色配置，租户桶的速率取 tenant 表上的 chat_rpm / upload_rpm，为空时用全局默认；
+ * - 令牌桶用 GCRA 实现，桶的全部状态是一个"理论到达时间"，放在 AtomicLong 里 CAS 更新，不加锁；
+ * - 桶按 key 的哈希分散在多个 ConcurrentHashMap 中，定时清扫已经回满的桶（删掉与新建等价），
+ *   单个分段超过容量时就地淘汰最久未用的桶，内存有上限。
+ * 限流只在本节点生效，多节点部署时每个节点各自计数。
+ */
+@Service
+public class RateLimitService {
+
+    public static final String CHAT = "chat";
+    public static final String UPLOAD = "upload";
+
+    private static final int STRIPES = 16;
+    private static final long MICROS_PER_MINUTE = 60_000_000L;
+
+    /**
+     * 一次判定的结果，limit / remaining / resetSeconds 取用户桶和租户桶中更紧的那个
+     */
+    public static class Decision {
+        private final boolean allowed;
+        private final int limit;
+        private final int remaining;
+        private final long resetSeconds;
+        private final long retryAfterSeconds;
+
+        Decision(boolean allowed, int limit, int remaining, long resetSeconds, long retryAfterSeconds) {
+            this.allowed = allowed;
+            this.limit = limit;
+            this.remaining = remaining;
+            this.resetSeconds = resetSeconds;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public boolean isAllowed() { return allowed; }
+        public int getLimit() { return limit; }
+        public int getRemaining() { return remaining; }
+        public long getResetSeconds() { return resetSeconds; }
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    private static class Bucket {
+        // 理论到达时间（微秒）：不超过当前时间表示桶是满的
+        final AtomicLong tat = new AtomicLong();
+    }
+
+    private static class Limits {
+        final String role;
+        final Integer chatRpm;
+        final Integer uploadRpm;
+        final long loadedAt;
+
+        Limits(String role, Integer chatRpm, Integer uploadRpm, long loadedAt) {
+            this.role = role;
+            this.chatRpm = chatRpm;
+            this.uploadRpm = uploadRpm;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private TenantMapper tenantMapper;
+
+    @Value("${ratelimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ratelimit.max-buckets:100000}")
+    private int maxBuckets;
+
+    @Value("${ratelimit.cache-ttl-ms:60000}")
+    private long cacheTtlMs;
+
+    @Value("${ratelimit.chat.admin-per-minute:60}")
+    private int chatAdmin;
+
+    @Value("${ratelimit.chat.researcher-per-minute:30}")
+    private int chatResearcher;
+
+    @Value("${ratelimit.chat.viewer-per-minute:10}")
+    private int chatViewer;
+
+    @Value("${ratelimit.chat.user-burst:5}")
+    private int chatUserBurst;
+
+    @Value("${ratelimit.chat.tenant-per-minute:300}")
+    private int chatTenant;
+
+    @Value("${ratelimit.chat.tenant-burst:30}")
+    private int chatTenantBurst;
+
+    @Value("${ratelimit.upload.admin-per-minute:120}")
+    private int uploadAdmin;
+
+    @Value("${ratelimit.upload.researcher-per-minute:60}")
+    private int uploadResearcher;
+
+    @Value("${ratelimit.upload.viewer-per-minute:10}")
+    private int uploadViewer;
+
+    @Value("${ratelimit.upload.user-burst:20}")
+    private int uploadUserBurst;
+
+    @Value("${ratelimit.upload.tenant-per-minute:600}")
+    private int uploadTenant;
+
+    @Value("${ratelimit.upload.tenant-burst:100}")
+    private int uploadTenantBurst;
+
+    private final List<Map<String, Bucket>> stripes = new ArrayList<>(STRIPES);
+    private final Map<String, Limits> users = new ConcurrentHashMap<>();
+    private final Map<String, Limits> tenants = new ConcurrentHashMap<>();
+    private final long origin = System.nanoTime();
+
+    private final AtomicLong allowedCount = new AtomicLong();
+    private final AtomicLong rejectedUser = new AtomicLong();
+    private final AtomicLong rejectedTenant = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public RateLimitService() {
+        for (int i = 0; i < STRIPES; i++) stripes.add(new ConcurrentHashMap<>());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 判定一次请求，放行时同时扣掉用户桶和租户桶各一个令牌
+     * @param group CHAT 或 UPLOAD
+     */
+    public Decision acquire(String group, String userId, String tenantId) {
+        return acquire(group, userId, tenantId, 1);
+    }
+
+    /**
+     * 一次请求按 permits 个令牌计（批量问答每个问题一个）。
+     * 桶里的令牌不够时整体拒绝；permits 超过桶容量时要求桶是满的，超出的部分记为欠账，
+     * 之后的请求要等令牌补回来才放行
+     */
+    public Decision acquire(String group, String userId, String tenantId, int permits) {
+        int n = Math.max(1, permits);
+        long now = nowMicros();
+        boolean chat = CHAT.equals(group);
+        int userRpm = userId == null ? 0 : userRpm(chat, roleOf(userId));
+        int tenantRpm = tenantId == null ? 0 : tenantRpm(chat, tenantId);
+
+        Decision user = userRpm <= 0 ? null
+                : take(group + ":u:" + userId, userRpm, chat ? chatUserBurst : uploadUserBurst, n, now);
+        if (user != null && !user.allowed) {
+            rejectedUser.incrementAndGet();
+            return user;
+        }
+        Decision tenant = tenantRpm <= 0 ? null
+                : take(group + ":t:" + tenantId, tenantRpm, chat ? chatTenantBurst : uploadTenantBurst, n, now);
+        if (tenant != null && !tenant.allowed) {
+            // 租户桶拒绝时把用户桶的令牌还回去
+            if (user != null) giveBack(group + ":u:" + userId, userRpm, n);
+            rejectedTenant.incrementAndGet();
+            return tenant;
+        }
+        allowedCount.incrementAndGet();
+        if (user == null) return tenant;
+        if (tenant == null) return user;
+        return tenant.remaining < user.remaining ? tenant : user;
+    }
+
+    /**
+     * GCRA：每个令牌对应 interval 微秒，桶容量 burst 允许理论到达时间最多领先当前时间 interval * burst。
+     * 一次取 permits 个令牌时理论到达时间前移 interval * permits，放行条件按 min(permits, burst) 个令牌判断
+     */
+    private Decision take(String key, int rpm, int burst, int permits, long now) {
+        long interval = Math.max(1, MICROS_PER_MINUTE / rpm);
+        int capacity = Math.max(1, burst);
+        long tolerance = interval * (capacity - 1);
+        long need = interval * (Math.min(permits, capacity) - 1);
+        Bucket b = bucket(key, now);
+        while (true) {
+            long tat = b.tat.get();
+            long base = Math.max(tat, now);
+            if (base + need - now > tolerance) {
+                long retryAfter = base + need - tolerance - now;
+                return new Decision(false, rpm, 0, ceilSeconds(base - now), Math.max(1, ceilSeconds(retryAfter)));
+            }
+            long next = base + interval * permits;
+            if (b.tat.compareAndSet(tat, next)) {
+                int remaining = (int) Math.max(0, (tolerance + interval - (next - now)) / interval);
+                return new Decision(true, rpm, remaining, ceilSeconds(next - now), 0);
+            }
+        }
+    }
+
+    private void giveBack(String key, int rpm, int permits) {
+        Bucket b = stripe(key).get(key);
+        if (b != null) b.tat.addAndGet(-Math.max(1, MICROS_PER_MINUTE / rpm) * permits);
+    }
+
+    private Bucket bucket(String key, long now) {
+        Map<String, Bucket> stripe = stripe(key);
+        Bucket b = stripe.get(key);
+        if (b != null) return b;
+        if (stripe.size() >= Math.max(1, maxBuckets / STRIPES)) shrink(stripe, now);
+        return stripe.computeIfAbsent(key, k -> new Bucket());
+    }
+
+    private Map<String, Bucket> stripe(String key) {
+        int h = key.hashCode();
+        return stripes.get((h ^ (h >>> 16)) & (STRIPES - 1));
+    }
+
+    /**
+     * 分段已满：先清掉回满的桶，仍然不够时淘汰理论到达时间最早（最久未用）的桶
+     */
+    private void shrink(Map<String, Bucket> stripe, long now) {
+        int before = stripe.size();
+        stripe.entrySet().removeIf(e -> e.getValue().tat.get() <= now);
+        if (stripe.size() >= Math.max(1, maxBuckets / STRIPES)) {
+            String oldest = null;
+            long min = Long.MAX_VALUE;
+            for (Map.Entry<String, Bucket> e : stripe.entrySet()) {
+                long t = e.getValue().tat.get();
+                if (t < min) {
+                    min = t;
+                    oldest = e.getKey();
+                }
+            }
+            if (oldest != null) stripe.remove(oldest);
+        }
+        evicted.addAndGet(Math.max(0, before - stripe.size()));
+    }
+
+    // ==================== 限额 ====================
+
+    private int userRpm(boolean chat, String role) {
+        if ("admin".equals(role)) return chat ? chatAdmin : uploadAdmin;
+        if ("researcher".equals(role)) return chat ? chatResearcher : uploadResearcher;
+        return chat ? chatViewer : uploadViewer;
+    }
+
+    private int tenantRpm(boolean chat, String tenantId) {
+        Limits l = cached(tenants, tenantId, () -> {
+            Tenant t = tenantMapper.selectById(tenantId);
+            return t == null ? new Limits(null, null, null, System.currentTimeMillis())
+                    : new Limits(null, t.getChatRpm(), t.getUploadRpm(), System.currentTimeMillis());
+        });
+        Integer rpm = chat ? l.chatRpm : l.uploadRpm;
+        if (rpm != null) return rpm;
+        return chat ? chatTenant : uploadTenant;
+    }
+
+    private String roleOf(String userId) {
+        // 查不到的用户按 viewer 限额
+        return cached(users, userId, () -> {
+            User u = userMapper.selectById(userId);
+            return new Limits(u == null ? null : u.getRole(), null, null, System.currentTimeMillis());
+        }).role;
+    }
+
+    private Limits cached(Map<String, Limits> cache, String key, Supplier<Limits> loader) {
+        Limits l = cache.get(key);
+        if (l != null && System.currentTimeMillis() - l.loadedAt < cacheTtlMs) return l;
+        l = loader.get();
+        if (cache.size() >= maxBuckets) cache.clear();
+        cache.put(key, l);
+        return l;
+    }
+
+    /**
+     * 修改租户限额或用户角色后调用，不调用时最多 cache-ttl-ms 后生效
+     */
+    public void evict(String tenantId, String userId) {
+        if (tenantId != null) tenants.remove(tenantId);
+        if (userId != null) users.remove(userId);
+    }
+
+    // ==================== 清扫 ====================
+
+    /**
+     * 回满的桶与新建的桶等价，直接删除；过期的限额缓存一并清掉
+     */
+    @Scheduled(fixedDelayString = "${ratelimit.sweep-interval-ms:60000}")
+    public void sweep() {
+        long now = nowMicros();
+        long removed = 0;
+        for (Map<String, Bucket> stripe : stripes) {
+            Iterator<Map.Entry<String, Bucket>> it = stripe.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue().tat.get() <= now) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        evicted.addAndGet(removed);
+        long expiredBefore = System.currentTimeMillis() - cacheTtlMs;
+        users.values().removeIf(l -> l.loadedAt < expiredBefore);
+        tenants.values().removeIf(l -> l.loadedAt < expiredBefore);
+    }
+
+    private long nowMicros() {
+        // 加一分钟的偏移，新建桶（理论到达时间为 0）一定是满的
+        return (System.nanoTime() - origin) / 1000 + MICROS_PER_MINUTE;
+    }
+
+    private static long ceilSeconds(long micros) {
+        return (micros + 999_999) / 1_000_000;
+    }
+
+    public Map<String, Object> stats() {
+        int buckets = 0;
+        for (Map<String, Bucket> stripe : stripes) buckets += stripe.size();
+        Map<String, Object> data = new HashMap<>();
+        data.put("enabled", enabled);
+        data.put("buckets", buckets);
+        data.put("cachedUsers", users.size());
+        data.put("cachedTenants", tenants.size());
+        data.put("allowed", allowedCount.get());
+        data.put("rejectedByUser", rejectedUser.get());
+        data.put("rejectedByTenant", rejectedTenant.get());
+        data.put("evicted", evicted.get());
+        return data;
+    }
+}
@@ -0,0 +1,409 @@
+package com.g07.service;
+
+import com.g07.config.ShardRouter;
+import com.g07.mapper.TenantShardMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在线把一个租户从当前分片搬到另一个分片，后台单线程执行，同一时间只搬一个租户：
+ * 1. tenant_shard 标记 moving，租户照常读写源分片，后台按主键分批复制到目标分片（存在则覆盖）；
+ * 2. 标记 frozen 并广播。ShardingDataSource 提交写过该租户的事务前会锁住 tenant_shard 行重新检查，
+ *    改状态要等正在提交的事务结束，此后提交的写入一律回滚，与各节点缓存和请求时长无关；
+ *    再等 freeze-wait-ms，让执行前检查过的自动提交语句执行完；
+ * 3. 补一轮增量：文档、摘要、会话全量覆盖，切片和问答记录补 move 开始前后的新数据，
+ *    另按主键补上目标分片缺少的行（时间戳早于搬迁开始、但复制之后才提交的写入），
+ *    源分片已删除的文档和会话在目标分片上同步删除，引用记录整体重建；
+ * 4. tenant_shard 指向目标分片并恢复 active，广播后至少等一个分片缓存周期（其他节点可能仍在读源分片），
+ *    核对源分片上没有目标分片缺少的行，最后分批删除源分片上的数据；核对不通过时保留源分片数据待人工处理。
+ * 中途失败时租户回到源分片，目标分片上复制了一半的数据尽量清理掉。
+ */
+@Service
+public class ShardMigrationService {
+
+    // 增量补数据时向前多看的时间，覆盖搬迁开始前已分配时间戳但晚提交的写入
+    private static final int SINCE_MARGIN_MINUTES = 10;
+
+    /**
+     * 租户表按外键依赖顺序排列；filter 中的 ? 为租户 ID
+     */
+    private static class Table {
+        final String name;
+        final String key;
+        final String filter;
+        final String sinceColumn;
+
+        Table(String name, String key, String filter, String sinceColumn) {
+            this.name = name;
+            this.key = key;
+            this.filter = filter;
+            this.sinceColumn = sinceColumn;
+        }
+    }
+
+    private static final String TENANT_SESSIONS = "SELECT session_id FROM chat_session WHERE tenant_id = ?";
+    private static final String TENANT_RECORDS = "SELECT q.record_id FROM qa_record q JOIN chat_session s ON q.session_id = s.session_id WHERE s.tenant_id = ?";
+
+    private static final Table DOCUMENT = new Table("document", "doc_id", "tenant_id = ?", null);
+    private static final Table SESSION = new Table("chat_session", "session_id", "tenant_id = ?", null);
+    private static final List<Table> TABLES = List.of(
+            DOCUMENT,
+            new Table("document_summary", "doc_id", "tenant_id = ?", null),
+            new Table("knowledge_chunk", "chunk_id", "tenant_id = ?", "create_time"),
+            SESSION,
+            new Table("qa_record", "record_id", "session_id IN (" + TENANT_SESSIONS + ")", "qa_time"));
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private TenantShardMapper tenantShardMapper;
+
+    @Autowired
+    private ClusterEventService clusterEventService;
+
+    @Value("${datasource.shards.move-batch:500}")
+    private int batchSize;
+
+    // 冻结后等待已通过检查的自动提交语句执行完；切换后等待时间不短于分片缓存周期
+    @Value("${datasource.shards.freeze-wait-ms:5000}")
+    private long freezeWaitMs;
+
+    private final ExecutorService mover = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "shard-mover");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicBoolean moving = new AtomicBoolean(false);
+    private final AtomicLong copiedRows = new AtomicLong();
+    private final AtomicLong deletedRows = new AtomicLong();
+    private volatile String moveState = "idle";
+    private volatile long frozenMillis;
+
+    /**
+     * @return false 表示已有搬迁任务在运行
+     */
+    public boolean move(String tenantId, int target) {
+        if (target < 0 || target >= shardRouter.shardCount()) throw new IllegalArgumentException("分片不存在: " + target);
+        int source = shardRouter.shardOf(tenantId);
+        if (source == target) throw new IllegalArgumentException("租户已在分片 " + target);
+        if (!moving.compareAndSet(false, true)) return false;
+        copiedRows.set(0);
+        deletedRows.set(0);
+        frozenMillis = 0;
+        mover.execute(() -> {
+            try {
+                moveTenant(tenantId, source, target);
+            } finally {
+                moving.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void moveTenant(String tenantId, int source, int target) {
+        DataSource from = shardRouter.shardDataSource(source);
+        DataSource to = shardRouter.shardDataSource(target);
+        LocalDateTime since = LocalDateTime.now().minusMinutes(SINCE_MARGIN_MINUTES);
+        System.out.println(">>> [Shard] 开始搬迁租户 " + tenantId + "：分片 " + source + " -> " + target);
+        try {
+            setStatus(tenantId, source, ShardRouter.MOVING);
+            for (Table t : TABLES) {
+                moveState = "copy " + t.name;
+                copy(t, from, to, tenantId, null);
+            }
+
+            moveState = "freeze";
+            setStatus(tenantId, source, ShardRouter.FROZEN);
+            Thread.sleep(freezeWaitMs);
+            long frozenAt = System.currentTimeMillis();
+            for (Table t : TABLES) {
+                moveState = "catch-up " + t.name;
+                copy(t, from, to, tenantId, t.sinceColumn == null ? null : since);
+            }
+            moveState = "reconcile";
+            for (Table t : TABLES) {
+                if (t.sinceColumn != null) copyMissing(t, from, to, tenantId);
+            }
+            removeMissing(DOCUMENT, from, to, tenantId);
+            removeMissing(SESSION, from, to, tenantId);
+            copyCitations(from, to, tenantId);
+
+            setStatus(tenantId, target, ShardRouter.ACTIVE);
+            frozenMillis = System.currentTimeMillis() - frozenAt;
+        } catch (Exception e) {
+            moveState = "failed: " + e.getMessage();
+            System.err.println(">>> [Shard] 搬迁租户 " + tenantId + " 失败，回到分片 " + source + ": " + e.getMessage());
+            try {
+                setStatus(tenantId, source, ShardRouter.ACTIVE);
+                deleteTenant(to, tenantId);
+            } catch (Exception ex) {
+                System.err.println(">>> [Shard] 清理目标分片失败: " + ex.getMessage());
+            }
+            return;
+        }
+
+        try {
+            // 其他节点在缓存过期前仍可能读源分片
+            moveState = "cleanup";
+            Thread.sleep(Math.max(freezeWaitMs, shardRouter.cacheTtlMs()));
+            long unsynced = 0;
+            for (Table t : TABLES) unsynced += forEachMissing(t, from, to, tenantId, (scanned, other, keys) -> { });
+            if (unsynced > 0) {
+                moveState = "cleanup skipped: " + unsynced + " rows only on source";
+                System.err.println(">>> [Shard] 租户 " + tenantId + " 在分片 " + source + " 上有 " + unsynced
+                        + " 行目标分片没有，未删除源分片数据，需人工核对");
+                return;
+            }
+            deleteTenant(from, tenantId);
+            moveState = "done";
+            System.out.println(">>> [Shard] 租户 " + tenantId + " 已搬到分片 " + target + "，复制 " + copiedRows.get()
+                    + " 行，冻结 " + frozenMillis + " ms");
+        } catch (Exception e) {
+            moveState = "cleanup failed: " + e.getMessage();
+            System.err.println(">>> [Shard] 清理源分片失败，需手工删除租户 " + tenantId + " 在分片 " + source + " 上的数据: " + e.getMessage());
+        }
+    }
+
+    private void setStatus(String tenantId, int shard, String status) {
+        tenantShardMapper.upsert(tenantId, shard, status);
+        shardRouter.evict(tenantId);
+        clusterEventService.publish(tenantId, ClusterEventService.TENANT_SHARD, null, shard + ":" + status);
+    }
+
+    // ==================== 复制 ====================
+
+    /**
+     * 按主键分批复制，目标已有的行整行覆盖（不用 REPLACE，避免触发外键级联删除）
+     * @param since 不为空时只复制 sinceColumn 不早于该时间的行
+     */
+    private void copy(Table t, DataSource from, DataSource to, String tenantId, LocalDateTime since) throws SQLException {
+        String select = "SELECT * FROM " + t.name + " WHERE " + t.filter
+                + (since != null ? " AND " + t.sinceColumn + " >= ?" : "")
+                + " AND " + t.key + " > ? ORDER BY " + t.key + " LIMIT " + batchSize;
+        String cursor = "";
+        try (Connection src = from.getConnection(); Connection dst = to.getConnection()) {
+            while (true) {
+                List<String> columns = new ArrayList<>();
+                List<Object[]> rows = new ArrayList<>();
+                try (PreparedStatement ps = src.prepareStatement(select)) {
+                    int i = 1;
+                    ps.setString(i++, tenantId);
+                    if (since != null) ps.setObject(i++, since);
+                    ps.setString(i, cursor);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        ResultSetMetaData meta = rs.getMetaData();
+                        for (int c = 1; c <= meta.getColumnCount(); c++) columns.add(meta.getColumnName(c));
+                        while (rs.next()) {
+                            Object[] row = new Object[columns.size()];
+                            for (int c = 0; c < row.length; c++) row[c] = rs.getObject(c + 1);
+                            rows.add(row);
+                        }
+                    }
+                }
+                if (rows.isEmpty()) return;
+                upsert(dst, t.name, columns, rows);
+                copiedRows.addAndGet(rows.size());
+                cursor = String.valueOf(rows.get(rows.size() - 1)[columns.indexOf(t.key)]);
+                if (rows.size() < batchSize) return;
+            }
+        }
+    }
+
+    private static void upsert(Connection dst, String table, List<String> columns, List<Object[]> rows) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                .append(String.join(", ", columns)).append(") VALUES (")
+                .append(String.join(", ", Collections.nCopies(columns.size(), "?")))
+                .append(") ON DUPLICATE KEY UPDATE ");
+        for (int c = 0; c < columns.size(); c++) {
+            if (c > 0) sql.append(", ");
+            sql.append(columns.get(c)).append(" = VALUES(").append(columns.get(c)).append(")");
+        }
+        try (PreparedStatement ps = dst.prepareStatement(sql.toString())) {
+            for (Object[] row : rows) {
+                for (int c = 0; c < row.length; c++) ps.setObject(c + 1, row[c]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    @FunctionalInterface
+    private interface MissingKeys {
+        void apply(Connection scanned, Connection other, List<String> keys) throws SQLException;
+    }
+
+    /**
+     * 按主键分批扫描 scanned 上该租户的行，找出 other 上不存在的键交给 action
+     * @return 不存在的键总数
+     */
+    private long forEachMissing(Table t, DataSource scanned, DataSource other, String tenantId, MissingKeys action) throws SQLException {
+        long total = 0;
+        String cursor = "";
+        try (Connection a = scanned.getConnection(); Connection b = other.getConnection()) {
+            while (true) {
+                List<String> keys = new ArrayList<>();
+                try (PreparedStatement ps = a.prepareStatement("SELECT " + t.key + " FROM " + t.name + " WHERE " + t.filter
+                        + " AND " + t.key + " > ? ORDER BY " + t.key + " LIMIT " + batchSize)) {
+                    ps.setString(1, tenantId);
+                    ps.setString(2, cursor);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) keys.add(rs.getString(1));
+                    }
+                }
+                if (keys.isEmpty()) return total;
+                cursor = keys.get(keys.size() - 1);
+
+                Set<String> existing = new HashSet<>();
+                try (PreparedStatement ps = b.prepareStatement("SELECT " + t.key + " FROM " + t.name
+                        + " WHERE " + t.key + " IN (" + placeholders(keys.size()) + ")")) {
+                    for (int i = 0; i < keys.size(); i++) ps.setString(i + 1, keys.get(i));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) existing.add(rs.getString(1));
+                    }
+                }
+                List<String> missing = new ArrayList<>(keys);
+                missing.removeAll(existing);
+                if (!missing.isEmpty()) {
+                    total += missing.size();
+                    action.apply(a, b, missing);
+                }
+                if (keys.size() < batchSize) return total;
+            }
+        }
+    }
+
+    /**
+     * 源分片上已经不存在的文档或会话（复制期间被删除）从目标分片删除；文档的切片、摘要由外键级联删除
+     */
+    private void removeMissing(Table t, DataSource from, DataSource to, String tenantId) throws SQLException {
+        forEachMissing(t, to, from, tenantId, (dst, src, missing) -> {
+            if (t == SESSION) deleteIn(dst, "qa_record", "session_id", missing);
+            deleteIn(dst, t.name, t.key, missing);
+        });
+    }
+
+    /**
+     * 按时间戳补增量会漏掉时间戳早于搬迁开始、却在复制之后才提交的行，按主键补上
+     */
+    private void copyMissing(Table t, DataSource from, DataSource to, String tenantId) throws SQLException {
+        forEachMissing(t, from, to, tenantId, (src, dst, missing) -> {
+            List<String> columns = new ArrayList<>();
+            List<Object[]> rows = new ArrayList<>();
+            try (PreparedStatement ps = src.prepareStatement("SELECT * FROM " + t.name
+                    + " WHERE " + t.key + " IN (" + placeholders(missing.size()) + ")")) {
+                for (int i = 0; i < missing.size(); i++) ps.setString(i + 1, missing.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    for (int c = 1; c <= meta.getColumnCount(); c++) columns.add(meta.getColumnName(c));
+                    while (rs.next()) {
+                        Object[] row = new Object[columns.size()];
+                        for (int c = 0; c < row.length; c++) row[c] = rs.getObject(c + 1);
+                        rows.add(row);
+                    }
+                }
+            }
+            if (rows.isEmpty()) return;
+            upsert(dst, t.name, columns, rows);
+            copiedRows.addAndGet(rows.size());
+        });
+    }
+
+    /**
+     * 引用记录的自增 ID 在各分片上独立分配，不能按 ID 覆盖：目标分片上该租户的引用先整体删除，再不带 ID 重新插入
+     */
+    private void copyCitations(DataSource from, DataSource to, String tenantId) throws SQLException {
+        try (Connection src = from.getConnection(); Connection dst = to.getConnection()) {
+            try (PreparedStatement ps = dst.prepareStatement("DELETE FROM citation_mapping WHERE record_id IN (" + TENANT_RECORDS + ")")) {
+                ps.setString(1, tenantId);
+                ps.executeUpdate();
+            }
+            long cursor = 0;
+            while (true) {
+                List<Object[]> rows = new ArrayList<>();
+                try (PreparedStatement ps = src.prepareStatement("SELECT id, record_id, chunk_id, similarity_score FROM citation_mapping"
+                        + " WHERE record_id IN (" + TENANT_RECORDS + ") AND id > ? ORDER BY id LIMIT " + batchSize)) {
+                    ps.setString(1, tenantId);
+                    ps.setLong(2, cursor);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            cursor = rs.getLong(1);
+                            rows.add(new Object[]{rs.getString(2), rs.getString(3), rs.getObject(4)});
+                        }
+                    }
+                }
+                if (rows.isEmpty()) return;
+                try (PreparedStatement ps = dst.prepareStatement(
+                        "INSERT INTO citation_mapping (record_id, chunk_id, similarity_score) VALUES (?, ?, ?)")) {
+                    for (Object[] row : rows) {
+                        for (int c = 0; c < row.length; c++) ps.setObject(c + 1, row[c]);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                copiedRows.addAndGet(rows.size());
+                if (rows.size() < batchSize) return;
+            }
+        }
+    }
+
+    // ==================== 删除 ====================
+
+    /**
+     * 分批删除租户在某个分片上的全部数据，子表在前
+     */
+    private void deleteTenant(DataSource ds, String tenantId) throws SQLException {
+        String[] deletes = {
+                "DELETE FROM citation_mapping WHERE record_id IN (" + TENANT_RECORDS + ")",
+                "DELETE FROM qa_record WHERE session_id IN (" + TENANT_SESSIONS + ")",
+                "DELETE FROM chat_session WHERE tenant_id = ?",
+                "DELETE FROM knowledge_chunk WHERE tenant_id = ?",
+                "DELETE FROM document_summary WHERE tenant_id = ?",
+                "DELETE FROM document WHERE tenant_id = ?"
+        };
+        try (Connection c = ds.getConnection()) {
+            for (String sql : deletes) {
+                int n;
+                do {
+                    try (PreparedStatement ps = c.prepareStatement(sql + " LIMIT " + batchSize)) {
+                        ps.setString(1, tenantId);
+                        n = ps.executeUpdate();
+                    }
+                    deletedRows.addAndGet(n);
+                } while (n == batchSize);
+            }
+        }
+    }
+
+    private static void deleteIn(Connection c, String table, String column, List<String> values) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("DELETE FROM " + table + " WHERE " + column + " IN (" + placeholders(values.size()) + ")")) {
+            for (int i = 0; i < values.size(); i++) ps.setString(i + 1, values.get(i));
+            ps.executeUpdate();
+        }
+    }
+
+    private static String placeholders(int n) {
+        return String.join(", ", Collections.nCopies(n, "?"));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("moving", moving.get());
+        data.put("state", moveState);
+        data.put("copiedRows", copiedRows.get());
+        data.put("deletedRows", deletedRows.get());
+        data.put("frozenMillis", frozenMillis);
+        return data;
+    }
+}
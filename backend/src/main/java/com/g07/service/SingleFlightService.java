@@ -0,0 +1,87 @@
+package com.g07.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 请求合并 (single-flight)
+ * 相同 group + key 的并发调用只真正执行一次，其余调用等待同一个结果。
+ * 执行失败时，异常会原样抛给每一个等待者；等待超时抛出 TimeoutException，不影响正在执行的那一次。
+ */
+@Service
+public class SingleFlightService {
+
+    @Value("${singleflight.wait-timeout-seconds:120}")
+    private long waitTimeoutSeconds;
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, GroupStats> stats = new ConcurrentHashMap<>();
+
+    private static class GroupStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder coalesced = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T run(String group, String key, Callable<T> task) throws Exception {
+        GroupStats s = stats.computeIfAbsent(group, k -> new GroupStats());
+        s.calls.increment();
+
+        String flightKey = group + ":" + key;
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(flightKey, mine);
+
+        // 已有相同的调用在执行：等待它的结果
+        if (existing != null) {
+            s.coalesced.increment();
+            try {
+                return (T) existing.get(waitTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw e;
+            } catch (TimeoutException e) {
+                s.timeouts.increment();
+                throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+
+        // 自己是第一个：在当前线程执行，结束后把结果/异常交给所有等待者
+        try {
+            T value = task.call();
+            mine.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            s.failures.increment();
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, mine);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> data = new HashMap<>();
+        stats.forEach((group, s) -> {
+            Map<String, Object> g = new HashMap<>();
+            g.put("calls", s.calls.sum());
+            g.put("coalesced", s.coalesced.sum());
+            g.put("failures", s.failures.sum());
+            g.put("timeouts", s.timeouts.sum());
+            data.put(group, g);
+        });
+        data.put("inFlight", inFlight.size());
+        return data;
+    }
+}
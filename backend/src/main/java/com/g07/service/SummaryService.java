@@ -0,0 +1,376 @@
+package com.g07.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.g07.config.ShardRouter;
+import com.g07.entity.Document;
+import com.g07.entity.DocumentSummary;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.mapper.DocumentSummaryMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.utils.TextUtils;
+import com.g07.utils.TokenUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 文档摘要：入库时为每个文档生成"全文摘要 + 章节提纲(每节一两句摘要)"，存入 document_summary。
+ * "总结一下XX报告"这类问题只需几百 Token 的摘要加少量相关切片，不必把原文开头整段塞进 Prompt。
+ * 默认使用抽取式算法（句子级 TextRank，相似度为二元词 Jaccard），不依赖外部服务；
+ * 开启 summary.llm.enabled 后，后台任务再用大模型把抽取结果改写成通顺的摘要；改写失败的摘要按失败次数指数退避，
+ * 不会每轮都占满一批而饿死其他文档。
+ */
+@Service
+public class SummaryService {
+
+    // 章节标题：第X章/节、一、(一)、1. / 1.2 等编号，以及常见的无编号标题
+    private static final Pattern HEADING = Pattern.compile(
+            "^(第[一二三四五六七八九十百零〇\\d]+[章节部分篇条]|[一二三四五六七八九十]+[、.．]|[（(][一二三四五六七八九十]+[）)]" +
+            "|\\d{1,2}(\\.\\d{1,2}){0,2}[、.．\\s]|摘要|前言|引言|背景|结论|总结|附录).*");
+
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[。！？!?；;])|\\r?\\n");
+
+    private static final Pattern SUMMARY_INTENT = Pattern.compile(
+            "总结|概括|摘要|概述|大意|主要内容|讲了什么|讲的什么|说了什么|简介|梗概|提纲|summar|overview",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final double DAMPING = 0.85;
+    private static final int ITERATIONS = 30;
+
+    @Autowired
+    private DocumentSummaryMapper summaryMapper;
+
+    @Autowired
+    private KnowledgeChunkMapper chunkMapper;
+
+    @Autowired
+    private DeepSeekService deepSeekService;
+
+    @Autowired
+    private ChunkStorageService chunkStorageService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    // 单个文档摘要（全文摘要 + 提纲）的 Token 上限
+    @Value("${summary.max-tokens:400}")
+    private int maxTokens;
+
+    @Value("${summary.section-tokens:60}")
+    private int sectionTokens;
+
+    @Value("${summary.max-sections:12}")
+    private int maxSections;
+
+    // TextRank 是 O(n²)，句子过多时均匀抽样
+    @Value("${summary.max-sentences:80}")
+    private int maxSentences;
+
+    @Value("${summary.backfill-batch:20}")
+    private int backfillBatch;
+
+    // 每轮补算沿 doc_id 向后扫描的文档数，扫到表尾后从头开始
+    @Value("${summary.backfill-scan:1000}")
+    private int backfillScan;
+
+    // 改写失败后的首次退避时间，之后每次翻倍，最长一天
+    @Value("${summary.llm.retry-minutes:10}")
+    private long retryMinutes;
+
+    @Value("${summary.llm.enabled:false}")
+    private boolean llmEnabled;
+
+    // 每个分片的补算扫描位置
+    private final Map<Integer, String> backfillCursor = new ConcurrentHashMap<>();
+
+    private static class Section {
+        final String title;
+        final StringBuilder body = new StringBuilder();
+
+        Section(String title) { this.title = title; }
+    }
+
+    public static boolean isSummaryQuestion(String question) {
+        return question != null && SUMMARY_INTENT.matcher(question).find();
+    }
+
+    /**
+     * 由解析出的全文生成抽取式摘要，不落库
+     */
+    public DocumentSummary build(Document doc, String fullText) {
+        DocumentSummary s = new DocumentSummary();
+        s.setDocId(doc.getDocId());
+        s.setTenantId(doc.getTenantId());
+        s.setMethod("extractive");
+        s.setCreateTime(LocalDateTime.now());
+        if (fullText == null || fullText.trim().isEmpty()) {
+            s.setSummary("");
+            s.setOutline("");
+            s.setTokenCount(0);
+            return s;
+        }
+
+        // 全文摘要约占预算的三分之一，其余留给提纲
+        String summary = extract(fullText, maxTokens / 3);
+        int used = TokenUtils.estimateTokens(summary);
+
+        StringBuilder outline = new StringBuilder();
+        for (Section section : splitSections(fullText)) {
+            String line = section.title + "：" + extract(section.body.toString(), sectionTokens);
+            int cost = TokenUtils.estimateTokens(line);
+            if (used + cost > maxTokens) break;
+            outline.append(line).append('\n');
+            used += cost;
+        }
+
+        s.setSummary(summary);
+        s.setOutline(outline.toString().trim());
+        s.setTokenCount(used);
+        return s;
+    }
+
+    public void save(DocumentSummary summary) {
+        summaryMapper.upsertBatch(List.of(summary));
+    }
+
+    public void saveBatch(List<DocumentSummary> summaries) {
+        if (!summaries.isEmpty()) summaryMapper.upsertBatch(summaries);
+    }
+
+    public Map<String, DocumentSummary> getAll(Collection<String> docIds) {
+        Map<String, DocumentSummary> result = new HashMap<>();
+        if (docIds == null || docIds.isEmpty()) return result;
+        for (DocumentSummary s : summaryMapper.selectBatchIds(docIds)) {
+            if (s.getSummary() != null && !s.getSummary().isEmpty()) result.put(s.getDocId(), s);
+        }
+        return result;
+    }
+
+    /**
+     * 拼进 Prompt 的摘要文本
+     */
+    public String render(DocumentSummary s) {
+        StringBuilder sb = new StringBuilder("【摘要】").append(s.getSummary());
+        if (s.getOutline() != null && !s.getOutline().isEmpty()) {
+            sb.append("\n【提纲】\n").append(s.getOutline());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 后台补算：老文档没有摘要时用已有切片补算；开启大模型改写时，顺带把抽取式摘要改写一批。每个分片各处理一批
+     */
+    @Scheduled(initialDelayString = "${summary.initial-delay-ms:120000}", fixedDelayString = "${summary.interval-ms:60000}")
+    public void backfill() {
+        for (int shard : shardRouter.shardIds()) {
+            shardRouter.runOnShard(shard, () -> backfillShard(shard));
+        }
+    }
+
+    private void backfillShard(int shard) {
+        try {
+            String after = backfillCursor.getOrDefault(shard, "");
+            List<Document> docs = summaryMapper.selectDocsWithoutSummary(after, backfillScan);
+            String next = summaryMapper.selectScanEnd(after, backfillScan);
+            if (docs.size() > backfillBatch) {
+                // 这一段缺摘要的文档多于一批，下一轮从本批最后一个接着处理
+                docs = docs.subList(0, backfillBatch);
+                next = docs.get(docs.size() - 1).getDocId();
+            }
+            backfillCursor.put(shard, next != null ? next : "");
+            for (Document doc : docs) {
+                List<KnowledgeChunk> chunks = chunkMapper.selectList(new QueryWrapper<KnowledgeChunk>()
+                        .select("content", "content_z", "dict_id")
+                        .eq("doc_id", doc.getDocId())
+                        .orderByAsc("chunk_index"));
+                StringBuilder text = new StringBuilder();
+                for (KnowledgeChunk c : chunks) text.append(chunkStorageService.contentOf(c)).append('\n');
+                // 没有切片的文档也写一条空摘要，避免反复补算
+                save(build(doc, text.toString()));
+            }
+            if (llmEnabled) refineWithLlm();
+        } catch (Exception e) {
+            System.err.println(">>> [Summary] 补算摘要失败: " + e.getMessage());
+        }
+    }
+
+    private void refineWithLlm() {
+        Set<String> exhausted = new HashSet<>();
+        for (DocumentSummary draft : summaryMapper.selectRefinable(backfillBatch)) {
+            if (exhausted.contains(draft.getTenantId())) {
+                deferRefine(draft);
+                continue;
+            }
+            String rewritten;
+            try {
+                rewritten = deepSeekService.refineSummary(draft.getTenantId(), render(draft));
+            } catch (LlmUsageService.QuotaExceededException e) {
+                // 租户额度用完，保留抽取式结果，本轮不再为该租户调用
+                exhausted.add(draft.getTenantId());
+                deferRefine(draft);
+                continue;
+            }
+            // 调用失败时 callDeepSeek 原样返回输入，保留抽取式结果，退避后再试
+            if (rewritten == null || rewritten.equals(render(draft))) {
+                deferRefine(draft);
+                continue;
+            }
+
+            DocumentSummary update = new DocumentSummary();
+            update.setDocId(draft.getDocId());
+            update.setSummary(rewritten.trim());
+            update.setMethod("llm");
+            update.setTokenCount(TokenUtils.estimateTokens(rewritten) + TokenUtils.estimateTokens(draft.getOutline()));
+            summaryMapper.updateById(update);
+        }
+    }
+
+    /**
+     * 记一次改写失败，按失败次数指数退避
+     */
+    private void deferRefine(DocumentSummary draft) {
+        int attempts = (draft.getRefineAttempts() != null ? draft.getRefineAttempts() : 0) + 1;
+        long minutes = Math.min(retryMinutes << Math.min(attempts - 1, 20), 24 * 60);
+        DocumentSummary update = new DocumentSummary();
+        update.setDocId(draft.getDocId());
+        update.setRefineAttempts(Math.min(attempts, 255));
+        update.setNextRefineTime(LocalDateTime.now().plusMinutes(minutes));
+        summaryMapper.updateById(update);
+    }
+
+    /**
+     * 按标题行切分章节；识别不出章节结构时按位置等分，保证提纲覆盖全文
+     */
+    private List<Section> splitSections(String text) {
+        List<Section> sections = new ArrayList<>();
+        Section current = null;
+        for (String raw : text.split("\\r?\\n")) {
+            String line = raw.trim();
+            if (line.isEmpty()) continue;
+            if (isHeading(line)) {
+                current = new Section(line);
+                sections.add(current);
+            } else {
+                if (current == null) {
+                    current = new Section("开篇");
+                    sections.add(current);
+                }
+                current.body.append(line).append('\n');
+            }
+        }
+        sections.removeIf(sec -> sec.body.length() == 0);
+
+        if (sections.size() < 2) {
+            sections.clear();
+            String clean = text.trim();
+            int parts = Math.max(1, Math.min(maxSections, clean.length() / 2000));
+            int size = (clean.length() + parts - 1) / parts;
+            for (int i = 0; i < parts; i++) {
+                Section sec = new Section("第" + (i + 1) + "部分");
+                sec.body.append(clean, i * size, Math.min(clean.length(), (i + 1) * size));
+                sections.add(sec);
+            }
+            return sections;
+        }
+
+        // 章节过多时把相邻章节合并成 maxSections 组，标题取每组第一个
+        if (sections.size() > maxSections) {
+            List<Section> merged = new ArrayList<>();
+            int per = (sections.size() + maxSections - 1) / maxSections;
+            for (int i = 0; i < sections.size(); i += per) {
+                Section group = new Section(sections.get(i).title);
+                for (int j = i; j < Math.min(i + per, sections.size()); j++) {
+                    group.body.append(sections.get(j).body);
+                }
+                merged.add(group);
+            }
+            return merged;
+        }
+        return sections;
+    }
+
+    private boolean isHeading(String line) {
+        if (line.length() < 2 || line.length() > 40) return false;
+        char last = line.charAt(line.length() - 1);
+        if ("。，,；;！!？?".indexOf(last) >= 0) return false;
+        return HEADING.matcher(line).matches();
+    }
+
+    /**
+     * 句子级 TextRank：以句子间二元词 Jaccard 相似度为边权迭代打分，
+     * 按分数挑句子直到用完预算，再按原文顺序输出
+     */
+    private String extract(String text, int budget) {
+        List<String> sentences = new ArrayList<>();
+        for (String s : SENTENCE_END.split(text)) {
+            String t = s.trim();
+            if (t.length() >= 8) sentences.add(t);
+        }
+        if (sentences.isEmpty()) return "";
+        if (sentences.size() > maxSentences) {
+            List<String> sampled = new ArrayList<>();
+            double step = (double) sentences.size() / maxSentences;
+            for (int i = 0; i < maxSentences; i++) sampled.add(sentences.get((int) (i * step)));
+            sentences = sampled;
+        }
+
+        int n = sentences.size();
+        List<Set<String>> grams = new ArrayList<>();
+        for (String s : sentences) grams.add(TextUtils.bigrams(s));
+        double[][] w = new double[n][n];
+        double[] out = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double sim = TextUtils.jaccard(grams.get(i), grams.get(j));
+                w[i][j] = sim;
+                w[j][i] = sim;
+                out[i] += sim;
+                out[j] += sim;
+            }
+        }
+
+        double[] score = new double[n];
+        Arrays.fill(score, 1.0);
+        for (int it = 0; it < ITERATIONS; it++) {
+            double[] next = new double[n];
+            for (int i = 0; i < n; i++) {
+                double sum = 0;
+                for (int j = 0; j < n; j++) {
+                    if (w[j][i] > 0 && out[j] > 0) sum += w[j][i] / out[j] * score[j];
+                }
+                next[i] = (1 - DAMPING) + DAMPING * sum;
+            }
+            score = next;
+        }
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        final double[] ranked = score;
+        Arrays.sort(order, (a, b) -> Double.compare(ranked[b], ranked[a]));
+
+        TreeSet<Integer> picked = new TreeSet<>();
+        int used = 0;
+        for (int i : order) {
+            int cost = TokenUtils.estimateTokens(sentences.get(i));
+            if (used + cost > budget) {
+                if (picked.isEmpty()) {
+                    // 第一句就超预算时截断，保证每节至少有一句
+                    String s = sentences.get(i);
+                    return s.substring(0, Math.min(s.length(), budget)) + "…";
+                }
+                continue;
+            }
+            picked.add(i);
+            used += cost;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i : picked) sb.append(sentences.get(i));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package com.g07.utils;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick 多模式匹配自动机
+ * 一次线性扫描文本，找出所有出现在文本中的模式串，返回模式串绑定的值。
+ * 构建后只读，可多线程并发查询；模式集变化时重新 build 一个新实例。
+ */
+public class AhoCorasick<V> {
+
+    private final List<Map<Character, Integer>> next = new ArrayList<>();
+    private final List<List<V>> outputs = new ArrayList<>();
+    private int[] fail;
+
+    public AhoCorasick(Map<String, ? extends Collection<V>> patterns) {
+        newNode();
+        for (Map.Entry<String, ? extends Collection<V>> e : patterns.entrySet()) {
+            String p = e.getKey();
+            if (p == null || p.isEmpty()) continue;
+            int node = 0;
+            for (int i = 0; i < p.length(); i++) {
+                char c = p.charAt(i);
+                Integer child = next.get(node).get(c);
+                if (child == null) {
+                    child = newNode();
+                    next.get(node).put(c, child);
+                }
+                node = child;
+            }
+            outputs.get(node).addAll(e.getValue());
+        }
+        buildFailLinks();
+    }
+
+    /**
+     * 返回所有在 text 中出现过的模式串对应的值（去重，按首次出现顺序）
+     */
+    public Set<V> findAll(String text) {
+        Set<V> found = new LinkedHashSet<>();
+        if (text == null) return found;
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            while (node != 0 && !next.get(node).containsKey(c)) {
+                node = fail[node];
+            }
+            node = next.get(node).getOrDefault(c, 0);
+            found.addAll(outputs.get(node));
+        }
+        return found;
+    }
+
+    private int newNode() {
+        next.add(new HashMap<>());
+        outputs.add(new ArrayList<>());
+        return next.size() - 1;
+    }
+
+    private void buildFailLinks() {
+        fail = new int[next.size()];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : next.get(0).values()) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> e : next.get(node).entrySet()) {
+                char c = e.getKey();
+                int child = e.getValue();
+                int f = fail[node];
+                while (f != 0 && !next.get(f).containsKey(c)) {
+                    f = fail[f];
+                }
+                Integer target = next.get(f).get(c);
+                fail[child] = (target != null && target != child) ? target : 0;
+                // 合并后缀节点的输出，查询时无需再沿 fail 链回溯
+                outputs.get(child).addAll(outputs.get(fail[child]));
+                queue.add(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.g07.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 文本归一化与二元词(bigram)工具，检索打分和问题相似度判断共用
+ */
+public final class TextUtils {
+
+    private static final String PUNCT_REGEX = "[\\s\\p{Punct}\\p{IsPunctuation}，。？！、：；“”‘’（）《》【】]+";
+
+    private TextUtils() {
+    }
+
+    /**
+     * 全角转半角、转小写、去掉空白和标点
+     */
+    public static String normalize(String text) {
+        if (text == null) return "";
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase();
+        return s.replaceAll(PUNCT_REGEX, "");
+    }
+
+    public static Set<String> bigrams(String text) {
+        Set<String> grams = new HashSet<>();
+        String clean = normalize(text);
+        if (clean.length() == 1) grams.add(clean);
+        for (int i = 0; i + 2 <= clean.length(); i++) {
+            grams.add(clean.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * 两个二元词集合的 Jaccard 相似度，取值 [0, 1]
+     */
+    public static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) return 0;
+        Set<String> small = a.size() <= b.size() ? a : b;
+        Set<String> large = small == a ? b : a;
+        int inter = 0;
+        for (String g : small) {
+            if (large.contains(g)) inter++;
+        }
+        return (double) inter / (a.size() + b.size() - inter);
+    }
+
+    /**
+     * 计算文本的 SHA-256 十六进制摘要，用作 Prompt 等长文本的去重键
+     */
+    public static String sha256Hex(String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.g07.utils;
+
+/**
+ * 本地 Token 估算工具
+ * 按 DeepSeek 官方给出的换算比例近似：1 个中文字符 ≈ 0.6 token，1 个英文字符 ≈ 0.3 token。
+ * 不调用远程分词器，入库切片和组装 Prompt 时都可以放心使用。
+ */
+public final class TokenUtils {
+
+    private static final double CJK_TOKEN_RATE = 0.6;
+    private static final double OTHER_TOKEN_RATE = 0.3;
+
+    private TokenUtils() {
+    }
+
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) return 0;
+
+        double tokens = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            tokens += isCjk(cp) ? CJK_TOKEN_RATE : OTHER_TOKEN_RATE;
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,38 @@
+package com.g07.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 事务相关的小工具
+ */
+public final class TxUtils {
+
+    private TxUtils() {
+    }
+
+    /**
+     * 在当前事务提交后执行；回滚时不执行；没有事务时立即执行。
+     * 用于对象存储删除、内存缓存失效等无法随事务回滚的副作用，异常只记录不抛出，不影响已提交的事务
+     */
+    public static void afterCommit(String name, Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            run(name, action);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                run(name, action);
+            }
+        });
+    }
+
+    private static void run(String name, Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            System.err.println(">>> [Tx] 提交后处理失败(" + name + "): " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.g07.config;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 读己之写：主库和从库是两个独立的内存库（之间没有复制），读到的行数即可判断查询落在哪个库
+ */
+class ReplicaRouterTest {
+
+    private ReplicaRouter router;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate tx;
+    private TransactionTemplate readOnly;
+
+    @BeforeEach
+    void setUp() {
+        DataSource primary = h2("primary");
+        DataSource replica = h2("replica");
+
+        router = new ReplicaRouter();
+        ReflectionTestUtils.setField(router, "stickyMs", 60_000L);
+        router.setPrimary(primary);
+        router.addReplica("replica-1", replica);
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(ReplicaRouter.PRIMARY, primary);
+        targets.put("replica-1", replica);
+        RoutingDataSource routing = new RoutingDataSource(router);
+        routing.setTargetDataSources(targets);
+        routing.setDefaultTargetDataSource(primary);
+        routing.afterPropertiesSet();
+
+        DataSource ds = new LazyConnectionDataSourceProxy(routing);
+        DataSourceTransactionManager tm = new DataSourceTransactionManager(ds);
+        jdbc = new JdbcTemplate(ds);
+        tx = new TransactionTemplate(tm);
+        readOnly = new TransactionTemplate(tm);
+        readOnly.setReadOnly(true);
+    }
+
+    private static DataSource h2(String name) {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        new JdbcTemplate(ds).execute("CREATE TABLE note (id INT PRIMARY KEY, body VARCHAR(50))");
+        return ds;
+    }
+
+    private int readAs(String userId) {
+        router.beginRequest(userId, false);
+        try {
+            return readOnly.execute(s -> jdbc.queryForObject("SELECT COUNT(*) FROM note", Integer.class));
+        } finally {
+            router.endRequest(userId, false);
+        }
+    }
+
+    private void insert(int id) {
+        jdbc.update("INSERT INTO note (id, body) VALUES (?, ?)", id, "n" + id);
+    }
+
+    @Test
+    void stickinessStartsWhenAsyncWriteCommitsNotWhenRequestEnds() throws Exception {
+        // 流式请求：请求线程在 afterConcurrentHandlingStarted 时就结束了，写入还没发生
+        router.beginRequest("u1", true);
+        router.endRequest("u1", true);
+        assertEquals(0, router.stats().get("stickyUsers"));
+        assertEquals(0, readAs("u1"));
+
+        CompletableFuture.runAsync(() -> router.runAs("u1", () -> tx.executeWithoutResult(s -> insert(1)))).get();
+
+        assertEquals(1, router.stats().get("stickyUsers"));
+        assertEquals(1, readAs("u1"));
+        // 其他用户照常读从库
+        assertEquals(0, readAs("u2"));
+    }
+
+    @Test
+    void rolledBackWriteDoesNotStartStickiness() {
+        router.runAs("u1", () -> tx.executeWithoutResult(s -> {
+            insert(1);
+            s.setRollbackOnly();
+        }));
+
+        assertEquals(0, router.stats().get("stickyUsers"));
+        assertEquals(0, readAs("u1"));
+    }
+
+    @Test
+    void readsOnPrimaryDoNotStartStickiness() {
+        // 和 MyBatis 一样走 prepareStatement；createStatement 看不到 SQL，按写处理
+        router.runAs("u1", () -> tx.executeWithoutResult(s -> jdbc.queryForObject("SELECT COUNT(*) FROM note WHERE id > ?", Integer.class, 0)));
+
+        assertEquals(0, router.stats().get("stickyUsers"));
+    }
+
+    @Test
+    void autoCommitWriteStartsStickinessWhenConnectionCloses() {
+        router.runAs("u1", () -> insert(1));
+
+        assertEquals(1, readAs("u1"));
+    }
+
+    @Test
+    void writeRequestReadsPrimaryWithinTheRequest() {
+        router.runAs("u1", () -> insert(1));
+
+        router.beginRequest("u2", true);
+        try {
+            int count = readOnly.execute(s -> jdbc.queryForObject("SELECT COUNT(*) FROM note", Integer.class));
+            assertEquals(1, count);
+        } finally {
+            router.endRequest("u2", true);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.g07.config;
+
+import com.g07.entity.TenantShard;
+import com.g07.mapper.TenantShardMapper;
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 分片测试环境：每个分片是一个独立的 H2 内存库，tenant_shard 读写 0 号分片，
+ * TenantShardMapper 用 JDBC 桩代替 MyBatis
+ */
+public class ShardFixture {
+
+    private final List<DataSource> shards = new ArrayList<>();
+    private final TenantShardMapper tenantShardMapper = mock(TenantShardMapper.class);
+
+    public ShardFixture(int count) {
+        for (int i = 0; i < count; i++) {
+            JdbcDataSource ds = new JdbcDataSource();
+            ds.setURL("jdbc:h2:mem:shard" + i + "-" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+            new ResourceDatabasePopulator(new ClassPathResource("db/shard-test.sql")).execute(ds);
+            shards.add(ds);
+        }
+        JdbcTemplate registry = jdbc(0);
+        when(tenantShardMapper.selectById(any())).thenAnswer(inv -> registry.query(
+                "SELECT tenant_id, shard_id, status FROM tenant_shard WHERE tenant_id = ?", rs -> {
+                    if (!rs.next()) return null;
+                    TenantShard ts = new TenantShard();
+                    ts.setTenantId(rs.getString(1));
+                    ts.setShardId(rs.getInt(2));
+                    ts.setStatus(rs.getString(3));
+                    return ts;
+                }, inv.getArgument(0).toString()));
+        doAnswer(inv -> {
+            setTenant(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2));
+            return 1;
+        }).when(tenantShardMapper).upsert(anyString(), anyInt(), anyString());
+    }
+
+    public DataSource shard(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * 直接连某个物理分片，不经过路由
+     */
+    public JdbcTemplate jdbc(int shard) {
+        return new JdbcTemplate(shards.get(shard));
+    }
+
+    public TenantShardMapper tenantShardMapper() {
+        return tenantShardMapper;
+    }
+
+    public ShardingDataSource dataSource() {
+        return new ShardingDataSource(shards);
+    }
+
+    public ShardRouter router(DataSource dataSource, long cacheTtlMs) {
+        ShardRouter router = new ShardRouter();
+        ReflectionTestUtils.setField(router, "dataSource", dataSource);
+        ReflectionTestUtils.setField(router, "tenantShardMapper", tenantShardMapper);
+        ReflectionTestUtils.setField(router, "cacheTtlMs", cacheTtlMs);
+        return router;
+    }
+
+    public void setTenant(String tenantId, int shard, String status) {
+        jdbc(0).update("INSERT INTO tenant_shard (tenant_id, shard_id, status, update_time) VALUES (?, ?, ?, NOW(6)) "
+                + "ON DUPLICATE KEY UPDATE shard_id = VALUES(shard_id), status = VALUES(status)", tenantId, shard, status);
+    }
+
+    public void insertDocument(int shard, String tenantId, String docId, String categoryId) {
+        jdbc(shard).update("INSERT INTO document (doc_id, tenant_id, user_id, doc_name, file_path, file_type, file_size, category_id) "
+                + "VALUES (?, ?, 'u', ?, ?, 'txt', 1, ?)", docId, tenantId, docId + ".txt", "obj/" + docId, categoryId);
+    }
+
+    public int count(int shard, String table, String tenantId) {
+        return jdbc(shard).queryForObject("SELECT COUNT(*) FROM " + table + " WHERE tenant_id = ?", Integer.class, tenantId);
+    }
+}
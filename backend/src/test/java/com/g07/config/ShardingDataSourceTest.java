@@ -0,0 +1,120 @@
+package com.g07.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardingDataSourceTest {
+
+    private ShardFixture fixture;
+    private ShardRouter router;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new ShardFixture(2);
+        use(fixture.dataSource());
+        fixture.setTenant("t1", 1, ShardRouter.ACTIVE);
+    }
+
+    private void use(DataSource sharding) {
+        router = fixture.router(sharding, 60_000);
+        jdbc = new JdbcTemplate(sharding);
+        tx = new TransactionTemplate(new DataSourceTransactionManager(sharding));
+    }
+
+    private void insertDocument(String docId) {
+        jdbc.update("INSERT INTO document (doc_id, tenant_id, user_id, doc_name, file_path, file_type, file_size) "
+                + "VALUES (?, 't1', 'u', 'a.txt', 'obj', 'txt', 1)", docId);
+    }
+
+    private void insertEvent() {
+        jdbc.update("INSERT INTO change_event (tenant_id, event_type, resource_id) VALUES ('t1', 'DOC_UPLOAD', 'd1')");
+    }
+
+    @Test
+    void tenantTablesGoToTheBoundShardAndOthersToShardZero() {
+        router.run("t1", () -> tx.executeWithoutResult(s -> {
+            insertDocument("d1");
+            insertEvent();
+        }));
+
+        assertEquals(1, fixture.count(1, "document", "t1"));
+        assertEquals(0, fixture.count(0, "document", "t1"));
+        assertEquals(1, fixture.count(0, "change_event", "t1"));
+        assertEquals(0, fixture.count(1, "change_event", "t1"));
+    }
+
+    @Test
+    void transactionCommittingAfterFreezeIsRolledBack() {
+        // 请求绑定时租户还是 active，提交前被冻结
+        assertThrows(Exception.class, () -> router.run("t1", () -> tx.executeWithoutResult(s -> {
+            insertDocument("d1");
+            insertEvent();
+            fixture.setTenant("t1", 1, ShardRouter.FROZEN);
+        })));
+
+        assertEquals(0, fixture.count(1, "document", "t1"));
+        assertEquals(0, fixture.count(0, "change_event", "t1"));
+    }
+
+    @Test
+    void autoCommitWriteAfterCutoverIsRejected() {
+        router.run("t1", () -> {
+            // 本节点缓存仍指向 1 号分片，租户已经搬回 0 号分片
+            fixture.setTenant("t1", 0, ShardRouter.ACTIVE);
+            assertThrows(Exception.class, () -> insertDocument("d1"));
+        });
+
+        assertEquals(0, fixture.count(1, "document", "t1"));
+    }
+
+    @Test
+    void readsAreNotCheckedWhileFrozen() {
+        fixture.insertDocument(1, "t1", "d1", null);
+        fixture.setTenant("t1", 1, ShardRouter.FROZEN);
+
+        int n = router.withTenant("t1", () -> jdbc.queryForObject("SELECT COUNT(*) FROM document WHERE tenant_id = ?", Integer.class, "t1"));
+        assertEquals(1, n);
+    }
+
+    @Test
+    void failedTenantShardCommitRollsBackShardZero() {
+        use(new ShardingDataSource(List.of(fixture.shard(0), failingCommits(fixture.shard(1)))));
+
+        assertThrows(Exception.class, () -> router.run("t1", () -> tx.executeWithoutResult(s -> {
+            insertDocument("d1");
+            insertEvent();
+        })));
+
+        assertEquals(0, fixture.count(0, "change_event", "t1"));
+        assertEquals(0, fixture.count(1, "document", "t1"));
+    }
+
+    private static DataSource failingCommits(DataSource target) {
+        return new DelegatingDataSource(target) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection c = super.getConnection();
+                return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                        (proxy, method, args) -> {
+                            if ("commit".equals(method.getName())) throw new SQLException("commit failed");
+                            return method.invoke(c, args);
+                        });
+            }
+        };
+    }
+}
@@ -0,0 +1,181 @@
+package com.g07.controller;
+
+import com.g07.common.R;
+import com.g07.config.ShardFixture;
+import com.g07.config.ShardRouter;
+import com.g07.entity.Category;
+import com.g07.entity.Document;
+import com.g07.entity.User;
+import com.g07.mapper.CategoryMapper;
+import com.g07.mapper.DocumentMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.mapper.UserMapper;
+import com.g07.service.AnswerCacheService;
+import com.g07.service.AuditService;
+import com.g07.service.CategoryCacheService;
+import com.g07.service.ChunkSegmentService;
+import com.g07.service.ClusterEventService;
+import com.g07.service.DocumentBulkService;
+import com.g07.service.DocumentIndexService;
+import com.g07.service.DocumentUrlService;
+import com.g07.service.PageStoreService;
+import com.g07.service.PopularityService;
+import io.minio.MinioClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 管理员跨企业操作：请求头是管理员自己的企业（0 号分片），目标文档在另一个企业（1 号分片）。
+ * Mapper 用 JDBC 桩代替，SQL 经过 ShardingDataSource 路由
+ */
+class KnowledgeControllerShardTest {
+
+    private static final RowMapper<Document> DOCUMENT = (rs, i) -> {
+        Document d = new Document();
+        d.setDocId(rs.getString("doc_id"));
+        d.setTenantId(rs.getString("tenant_id"));
+        d.setDocName(rs.getString("doc_name"));
+        d.setFilePath(rs.getString("file_path"));
+        d.setCategoryId(rs.getString("category_id"));
+        return d;
+    };
+
+    private ShardFixture fixture;
+    private ShardRouter router;
+    private KnowledgeController controller;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new ShardFixture(2);
+        var sharding = fixture.dataSource();
+        router = fixture.router(sharding, 60_000);
+        JdbcTemplate jdbc = new JdbcTemplate(sharding);
+        fixture.setTenant("tb", 1, ShardRouter.ACTIVE);
+        fixture.insertDocument(0, "ta", "a1", "ca");
+        fixture.insertDocument(1, "tb", "b1", "cb");
+        fixture.insertDocument(1, "tb", "b2", "cb");
+
+        DocumentMapper documentMapper = mock(DocumentMapper.class);
+        when(documentMapper.selectById(any())).thenAnswer(inv -> jdbc.query(
+                "SELECT * FROM document WHERE doc_id = ?", DOCUMENT, inv.getArgument(0).toString()).stream().findFirst().orElse(null));
+        when(documentMapper.selectListByCategory(anyString())).thenAnswer(inv -> jdbc.query(
+                "SELECT * FROM document WHERE category_id = ?", DOCUMENT, inv.getArgument(0).toString()));
+        when(documentMapper.deleteById(any(java.io.Serializable.class))).thenAnswer(inv -> jdbc.update(
+                "DELETE FROM document WHERE doc_id = ?", inv.getArgument(0).toString()));
+        when(documentMapper.selectBatchIds(any())).thenAnswer(inv -> {
+            Collection<?> ids = inv.getArgument(0);
+            return jdbc.query("SELECT * FROM document WHERE doc_id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")",
+                    DOCUMENT, ids.toArray());
+        });
+        when(documentMapper.deleteBatchIds(any())).thenAnswer(inv -> {
+            Collection<?> ids = inv.getArgument(0);
+            return jdbc.update("DELETE FROM document WHERE doc_id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")",
+                    ids.toArray());
+        });
+
+        KnowledgeChunkMapper chunkMapper = mock(KnowledgeChunkMapper.class);
+        when(chunkMapper.deleteByDocIds(anyList())).thenReturn(0);
+
+        CategoryMapper categoryMapper = mock(CategoryMapper.class);
+        Category cb = new Category();
+        cb.setId("cb");
+        cb.setTenantId("tb");
+        when(categoryMapper.selectById("cb")).thenReturn(cb);
+
+        UserMapper userMapper = mock(UserMapper.class);
+        User admin = new User();
+        admin.setUserId("admin");
+        admin.setTenantId("ta");
+        admin.setRole("admin");
+        when(userMapper.selectById("admin")).thenReturn(admin);
+
+        MinioClient minioClient = mock(MinioClient.class);
+        when(minioClient.removeObjects(any())).thenReturn(List.of());
+
+        DocumentBulkService bulk = new DocumentBulkService();
+        ReflectionTestUtils.setField(bulk, "minioClient", minioClient);
+        ReflectionTestUtils.setField(bulk, "documentMapper", documentMapper);
+        ReflectionTestUtils.setField(bulk, "chunkMapper", chunkMapper);
+        ReflectionTestUtils.setField(bulk, "clusterEventService", mock(ClusterEventService.class));
+        ReflectionTestUtils.setField(bulk, "answerCacheService", mock(AnswerCacheService.class));
+        ReflectionTestUtils.setField(bulk, "documentIndexService", mock(DocumentIndexService.class));
+        ReflectionTestUtils.setField(bulk, "documentUrlService", mock(DocumentUrlService.class));
+        ReflectionTestUtils.setField(bulk, "chunkSegmentService", mock(ChunkSegmentService.class));
+        ReflectionTestUtils.setField(bulk, "pageStoreService", mock(PageStoreService.class));
+        ReflectionTestUtils.setField(bulk, "categoryCacheService", mock(CategoryCacheService.class));
+        ReflectionTestUtils.setField(bulk, "shardRouter", router);
+        ReflectionTestUtils.setField(bulk, "popularityService", mock(PopularityService.class));
+        ReflectionTestUtils.setField(bulk, "bucketName", "test");
+        ReflectionTestUtils.setField(bulk, "batchSize", 500);
+
+        controller = new KnowledgeController();
+        ReflectionTestUtils.setField(controller, "minioClient", minioClient);
+        ReflectionTestUtils.setField(controller, "documentMapper", documentMapper);
+        ReflectionTestUtils.setField(controller, "categoryMapper", categoryMapper);
+        ReflectionTestUtils.setField(controller, "userMapper", userMapper);
+        ReflectionTestUtils.setField(controller, "chunkMapper", chunkMapper);
+        ReflectionTestUtils.setField(controller, "answerCacheService", mock(AnswerCacheService.class));
+        ReflectionTestUtils.setField(controller, "documentIndexService", mock(DocumentIndexService.class));
+        ReflectionTestUtils.setField(controller, "documentUrlService", mock(DocumentUrlService.class));
+        ReflectionTestUtils.setField(controller, "auditService", mock(AuditService.class));
+        ReflectionTestUtils.setField(controller, "categoryCacheService", mock(CategoryCacheService.class));
+        ReflectionTestUtils.setField(controller, "documentBulkService", bulk);
+        ReflectionTestUtils.setField(controller, "pageStoreService", mock(PageStoreService.class));
+        ReflectionTestUtils.setField(controller, "chunkSegmentService", mock(ChunkSegmentService.class));
+        ReflectionTestUtils.setField(controller, "clusterEventService", mock(ClusterEventService.class));
+        ReflectionTestUtils.setField(controller, "shardRouter", router);
+        ReflectionTestUtils.setField(controller, "popularityService", mock(PopularityService.class));
+        ReflectionTestUtils.setField(controller, "bucketName", "test");
+
+        // 与 ShardInterceptor 相同：按请求头里管理员自己的企业绑定
+        router.bind("ta");
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.clear();
+    }
+
+    @Test
+    void listOtherTenantsCategory() {
+        R<List<Document>> r = controller.list("cb");
+
+        assertEquals(200, r.getCode());
+        assertEquals(2, r.getData().size());
+    }
+
+    @Test
+    void deleteOtherTenantsDocument() {
+        R<String> r = controller.delete("b1", "admin");
+
+        assertEquals(200, r.getCode(), r.getMsg());
+        assertEquals(1, fixture.count(1, "document", "tb"));
+    }
+
+    @Test
+    void batchDeleteAcrossTenants() {
+        R<Map<String, Object>> r = controller.batchDelete(Map.of("docIds", List.of("a1", "b1", "b2", "missing")), "admin");
+
+        assertEquals(200, r.getCode(), r.getMsg());
+        assertEquals(List.of("a1", "b1", "b2"), r.getData().get("succeeded"));
+        assertEquals(Map.of("missing", "文档不存在"), r.getData().get("failed"));
+        assertEquals(0, fixture.count(0, "document", "ta"));
+        assertEquals(0, fixture.count(1, "document", "tb"));
+    }
+}
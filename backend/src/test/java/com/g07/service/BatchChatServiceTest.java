@@ -0,0 +1,130 @@
+package com.g07.service;
+
+import com.g07.config.ReplicaRouter;
+import com.g07.config.ShardRouter;
+import com.g07.entity.QaRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 结果行只在调用线程上输出，且问答记录写入成功后才带 recordId
+ */
+class BatchChatServiceTest {
+
+    private ChatService chatService;
+    private CitationService citationService;
+    private BatchChatService service;
+    private final Set<String> saved = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        chatService = mock(ChatService.class);
+        when(chatService.createSession(anyString(), anyString(), anyString())).thenReturn("s1");
+        when(chatService.answer(anyString(), anyString(), anyString(), any())).thenAnswer(inv ->
+                new ChatService.Answer("答: " + inv.getArgument(2), List.of(), List.of(), false));
+        doAnswer(inv -> {
+            List<QaRecord> records = inv.getArgument(0);
+            for (QaRecord r : records) saved.add(r.getRecordId());
+            return null;
+        }).when(chatService).saveRecords(anyList());
+        citationService = mock(CitationService.class);
+
+        ShardRouter shardRouter = mock(ShardRouter.class);
+        when(shardRouter.call(anyString(), any())).thenAnswer(inv -> ((Callable<?>) inv.getArgument(1)).call());
+        ReplicaRouter replicaRouter = mock(ReplicaRouter.class);
+        when(replicaRouter.callAs(anyString(), any())).thenAnswer(inv -> ((Callable<?>) inv.getArgument(1)).call());
+
+        service = new BatchChatService();
+        ReflectionTestUtils.setField(service, "chatService", chatService);
+        ReflectionTestUtils.setField(service, "citationService", citationService);
+        ReflectionTestUtils.setField(service, "shardRouter", shardRouter);
+        ReflectionTestUtils.setField(service, "replicaRouter", replicaRouter);
+        ReflectionTestUtils.setField(service, "poolSize", 4);
+        ReflectionTestUtils.setField(service, "maxConcurrency", 3);
+        ReflectionTestUtils.setField(service, "recordBatch", 2);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    private static List<String> questions(int n) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < n; i++) list.add("问题" + i);
+        return list;
+    }
+
+    @Test
+    void recordIdsAreEmittedOnlyAfterTheRecordsAreSaved() throws Exception {
+        Thread caller = Thread.currentThread();
+        List<Map<String, Object>> lines = Collections.synchronizedList(new ArrayList<>());
+
+        Map<String, Object> summary = service.run("u", "t", "批量", questions(7), 8, group -> {
+            assertEquals(caller, Thread.currentThread());
+            assertTrue(group.size() <= 2);
+            for (Map<String, Object> line : group) {
+                assertTrue(saved.contains((String) line.get("recordId")), line.toString());
+                lines.add(line);
+            }
+        });
+
+        assertEquals(7, lines.size());
+        assertEquals(7, saved.size());
+        assertEquals(7, summary.get("succeeded"));
+        assertNull(summary.get("unsaved"));
+    }
+
+    @Test
+    void failedSaveEmitsResultsWithoutRecordIds() throws Exception {
+        doThrow(new RuntimeException("db down")).when(chatService).saveRecords(anyList());
+        List<Map<String, Object>> lines = Collections.synchronizedList(new ArrayList<>());
+
+        Map<String, Object> summary = service.run("u", "t", "批量", questions(3), 8, lines::addAll);
+
+        assertEquals(3, lines.size());
+        for (Map<String, Object> line : lines) {
+            assertNull(line.get("recordId"));
+            assertEquals("问答记录写入失败", line.get("saveError"));
+        }
+        assertEquals(3, summary.get("unsaved"));
+        verify(citationService, never()).record(anyString(), anyString(), any());
+    }
+
+    @Test
+    void failedAnswerHasNoRecord() throws Exception {
+        when(chatService.answer(anyString(), anyString(), anyString(), any())).thenThrow(new RuntimeException("upstream"));
+        List<Map<String, Object>> lines = Collections.synchronizedList(new ArrayList<>());
+
+        Map<String, Object> summary = service.run("u", "t", "批量", questions(2), 8, lines::addAll);
+
+        assertEquals(2, summary.get("failed"));
+        assertEquals("upstream", lines.get(0).get("error"));
+        verify(chatService, never()).saveRecords(anyList());
+        assertTrue(saved.isEmpty());
+    }
+}
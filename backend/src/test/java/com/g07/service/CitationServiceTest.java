@@ -0,0 +1,88 @@
+package com.g07.service;
+
+import com.g07.config.ShardFixture;
+import com.g07.config.ShardRouter;
+import com.g07.entity.CitationMapping;
+import com.g07.mapper.CitationMappingMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 租户冻结期间的引用记录暂存，解冻后补写到租户所在分片
+ */
+class CitationServiceTest {
+
+    private ShardFixture fixture;
+    private ShardRouter router;
+    private CitationService service;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new ShardFixture(2);
+        var sharding = fixture.dataSource();
+        router = fixture.router(sharding, 60_000);
+        JdbcTemplate jdbc = new JdbcTemplate(sharding);
+
+        CitationMappingMapper mapper = mock(CitationMappingMapper.class);
+        when(mapper.insertBatch(anyList())).thenAnswer(inv -> {
+            List<CitationMapping> rows = inv.getArgument(0);
+            for (CitationMapping m : rows) {
+                jdbc.update("INSERT INTO citation_mapping (record_id, chunk_id, similarity_score) VALUES (?, ?, ?)",
+                        m.getRecordId(), m.getChunkId(), m.getSimilarityScore());
+            }
+            return rows.size();
+        });
+
+        service = new CitationService();
+        ReflectionTestUtils.setField(service, "citationMapper", mapper);
+        ReflectionTestUtils.setField(service, "popularityService", mock(PopularityService.class));
+        ReflectionTestUtils.setField(service, "shardRouter", router);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "batchSize", 500);
+        ReflectionTestUtils.setField(service, "flushIntervalMs", 20L);
+        ReflectionTestUtils.setField(service, "queueCapacity", 100);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.shutdown();
+    }
+
+    private int citations(int shard) {
+        return fixture.jdbc(shard).queryForObject("SELECT COUNT(*) FROM citation_mapping", Integer.class);
+    }
+
+    private void waitFor(String stat, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (((Number) service.stats().get(stat)).longValue() != expected && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    }
+
+    @Test
+    void citationsOfFrozenTenantAreWrittenAfterThaw() throws Exception {
+        fixture.setTenant("t1", 1, ShardRouter.FROZEN);
+
+        service.record("t1", "r1", List.of(new ContextPackService.CitedChunk("k1", "d1", 0.9f)));
+        waitFor("deferred", 1);
+        assertEquals(1, service.stats().get("deferred"));
+        assertEquals(0, citations(1));
+
+        fixture.setTenant("t1", 1, ShardRouter.ACTIVE);
+        router.evict("t1");
+        waitFor("written", 1);
+
+        assertEquals(0, service.stats().get("deferred"));
+        assertEquals(1, citations(1));
+        assertEquals(0, citations(0));
+    }
+}
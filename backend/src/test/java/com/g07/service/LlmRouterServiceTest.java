@@ -0,0 +1,170 @@
+package com.g07.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 路由、对冲和失败转移，上游是本地的 JDK HttpServer 桩服务。
+ * 两个端点分别标记为 fast、strong 档，按 fast 档调用时第一个总是主请求，第二个只在对冲或转移时被选中（没有同档端点时不限档位）
+ */
+class LlmRouterServiceTest {
+
+    /**
+     * 桩服务：固定延迟后返回固定状态码，回答内容为端点名
+     */
+    private static class Stub {
+        final HttpServer server;
+        final AtomicInteger requests = new AtomicInteger();
+
+        Stub(String name, int status, long delayMs) throws Exception {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/v1/chat/completions", exchange -> {
+                requests.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = ("{\"choices\":[{\"message\":{\"content\":\"" + name + "\"},\"finish_reason\":\"stop\"}],"
+                        + "\"usage\":{\"total_tokens\":3}}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                } catch (Exception ignored) {
+                    // 对冲输的一方被客户端断开
+                }
+            });
+            server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+        }
+    }
+
+    private final List<Stub> stubs = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        for (Stub s : stubs) s.server.stop(0);
+    }
+
+    private Stub stub(String name, int status, long delayMs) throws Exception {
+        Stub s = new Stub(name, status, delayMs);
+        stubs.add(s);
+        return s;
+    }
+
+    private LlmRouterService router(String tiers, Stub... endpoints) {
+        List<String> urls = new ArrayList<>();
+        for (Stub s : endpoints) urls.add(s.url());
+        LlmRouterService router = new LlmRouterService();
+        ReflectionTestUtils.setField(router, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(router, "defaultUrl", urls.get(0));
+        ReflectionTestUtils.setField(router, "defaultKey", "");
+        ReflectionTestUtils.setField(router, "defaultModel", "stub");
+        ReflectionTestUtils.setField(router, "urls", endpoints.length > 1 ? String.join(",", urls) : "");
+        ReflectionTestUtils.setField(router, "keys", "");
+        ReflectionTestUtils.setField(router, "models", "");
+        ReflectionTestUtils.setField(router, "weights", "");
+        ReflectionTestUtils.setField(router, "tiers", tiers);
+        ReflectionTestUtils.setField(router, "ewmaAlpha", 0.2);
+        ReflectionTestUtils.setField(router, "downAfterFailures", 3);
+        ReflectionTestUtils.setField(router, "downMs", 30_000L);
+        ReflectionTestUtils.setField(router, "connectTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(router, "requestTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(router, "hedgeEnabled", true);
+        ReflectionTestUtils.setField(router, "hedgeCalls", "keywords");
+        ReflectionTestUtils.setField(router, "hedgePercentile", 95.0);
+        ReflectionTestUtils.setField(router, "minDelayMs", 10L);
+        ReflectionTestUtils.setField(router, "defaultDelayMs", 100L);
+        router.init();
+        return router;
+    }
+
+    private static Map<String, Object> body() {
+        return Map.of("messages", List.of(Map.of("role", "user", "content", "hi")));
+    }
+
+    @Test
+    void slowPrimaryIsHedgedToTheOtherEndpoint() throws Exception {
+        Stub slow = stub("slow", 200, 2000);
+        Stub fast = stub("fast", 200, 0);
+        LlmRouterService router = router("fast,strong", slow, fast);
+
+        long start = System.currentTimeMillis();
+        LlmRouterService.Result r = router.call("keywords", "fast", body());
+
+        assertEquals("fast", r.getContent());
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(1L, router.stats().get("hedgesFired"));
+        assertEquals(1L, router.stats().get("hedgeWins"));
+        assertEquals(1, slow.requests.get());
+        assertEquals(1, fast.requests.get());
+    }
+
+    @Test
+    void singleEndpointIsNeverHedged() throws Exception {
+        Stub only = stub("only", 200, 300);
+        LlmRouterService router = router("", only);
+
+        assertEquals("only", router.call("keywords", body()).getContent());
+        assertEquals(0L, router.stats().get("hedgesFired"));
+        assertEquals(1, only.requests.get());
+    }
+
+    @Test
+    void serverErrorFailsOver() throws Exception {
+        Stub broken = stub("broken", 500, 0);
+        Stub ok = stub("ok", 200, 0);
+        LlmRouterService router = router("fast,strong", broken, ok);
+
+        assertEquals("ok", router.call("answer", "fast", body()).getContent());
+        assertEquals(1L, router.stats().get("failovers"));
+    }
+
+    @Test
+    void clientErrorFailsFastWithoutFailover() throws Exception {
+        Stub rejecting = stub("rejecting", 400, 0);
+        Stub ok = stub("ok", 200, 0);
+        LlmRouterService router = router("fast,strong", rejecting, ok);
+
+        LlmRouterService.ClientError e = assertThrows(LlmRouterService.ClientError.class,
+                () -> router.call("answer", "fast", body()));
+        assertEquals(400, e.getStatus());
+        assertEquals(0L, router.stats().get("failovers"));
+        assertEquals(0, ok.requests.get());
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> endpoints = (List<Map<String, Object>>) router.stats().get("endpoints");
+        assertEquals(0L, endpoints.get(0).get("failures"));
+    }
+
+    @Test
+    void rateLimitedPrimaryStillFailsOver() throws Exception {
+        Stub limited = stub("limited", 429, 0);
+        Stub ok = stub("ok", 200, 0);
+        LlmRouterService router = router("fast,strong", limited, ok);
+
+        assertEquals("ok", router.call("answer", "fast", body()).getContent());
+        assertEquals(1L, router.stats().get("failovers"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.g07.service;
+
+import com.g07.entity.KnowledgeChunk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PopularityServiceTest {
+
+    private PopularityService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new PopularityService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "ready", true);
+        ReflectionTestUtils.setField(service, "halfLifeHours", 24.0);
+
+        service.hit("t1", List.of(new ContextPackService.CitedChunk("k1", "d1", 0.9f),
+                new ContextPackService.CitedChunk("k2", "d2", 0.8f)));
+        ReflectionTestUtils.setField(service, "pinnedChunkLists", Map.of("d1", chunks("k1", "d1"), "d2", chunks("k2", "d2")));
+        ReflectionTestUtils.setField(service, "pinnedContents", Map.of("k1", "正文一", "k2", "正文二"));
+        ReflectionTestUtils.setField(service, "pinnedBytes", 18L);
+    }
+
+    private static List<KnowledgeChunk> chunks(String chunkId, String docId) {
+        KnowledgeChunk k = new KnowledgeChunk();
+        k.setChunkId(chunkId);
+        k.setDocId(docId);
+        List<KnowledgeChunk> list = new ArrayList<>();
+        list.add(k);
+        return list;
+    }
+
+    @Test
+    void deletedDocumentIsUnpinnedImmediately() {
+        service.onDocumentsDeleted(List.of("d1"));
+
+        assertNull(service.chunksOf("d1"));
+        assertNotNull(service.chunksOf("d2"));
+        List<KnowledgeChunk> loaded = new ArrayList<>(chunks("k1", "d1"));
+        loaded.addAll(chunks("k2", "d2"));
+        service.loadContents(loaded);
+        assertNull(loaded.get(0).getContent());
+        assertEquals("正文二", loaded.get(1).getContent());
+
+        Map<String, Object> stats = service.stats();
+        assertEquals(1, stats.get("trackedDocs"));
+        assertEquals(1, stats.get("trackedChunks"));
+        assertEquals(9L, stats.get("pinnedBytes"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.g07.service;
+
+import com.g07.entity.User;
+import com.g07.mapper.TenantMapper;
+import com.g07.mapper.UserMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 批量问答按问题数扣令牌：viewer 每分钟 10 个（每 6 秒一个），桶容量 5
+ */
+class RateLimitServiceTest {
+
+    private RateLimitService service;
+
+    @BeforeEach
+    void setUp() {
+        UserMapper userMapper = mock(UserMapper.class);
+        User viewer = new User();
+        viewer.setRole("viewer");
+        when(userMapper.selectById(any())).thenReturn(viewer);
+
+        service = new RateLimitService();
+        ReflectionTestUtils.setField(service, "userMapper", userMapper);
+        ReflectionTestUtils.setField(service, "tenantMapper", mock(TenantMapper.class));
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "maxBuckets", 1000);
+        ReflectionTestUtils.setField(service, "cacheTtlMs", 60_000L);
+        ReflectionTestUtils.setField(service, "chatViewer", 10);
+        ReflectionTestUtils.setField(service, "chatUserBurst", 5);
+        ReflectionTestUtils.setField(service, "chatTenant", 300);
+        ReflectionTestUtils.setField(service, "chatTenantBurst", 30);
+    }
+
+    @Test
+    void batchTakesOneTokenPerQuestion() {
+        RateLimitService.Decision d = service.acquire(RateLimitService.CHAT, "u", "t", 3);
+        assertTrue(d.isAllowed());
+        assertEquals(2, d.getRemaining());
+
+        assertFalse(service.acquire(RateLimitService.CHAT, "u", "t", 3).isAllowed());
+        assertTrue(service.acquire(RateLimitService.CHAT, "u", "t", 2).isAllowed());
+        assertFalse(service.acquire(RateLimitService.CHAT, "u", "t").isAllowed());
+    }
+
+    @Test
+    void oversizedBatchIsRejectedUnlessTheBucketIsFull() {
+        assertTrue(service.acquire(RateLimitService.CHAT, "u", "t").isAllowed());
+
+        assertFalse(service.acquire(RateLimitService.CHAT, "u", "t", 8).isAllowed());
+    }
+
+    @Test
+    void oversizedBatchNeedsAFullBucketAndBlocksLaterRequests() {
+        assertTrue(service.acquire(RateLimitService.CHAT, "u", "t", 8).isAllowed());
+
+        RateLimitService.Decision next = service.acquire(RateLimitService.CHAT, "u", "t");
+        assertFalse(next.isAllowed());
+        // 欠下 8 - 5 个令牌，再等一个令牌：4 * 6 秒
+        assertTrue(next.getRetryAfterSeconds() >= 23 && next.getRetryAfterSeconds() <= 24, String.valueOf(next.getRetryAfterSeconds()));
+    }
+
+    @Test
+    void batchRejectedByTheTenantDoesNotChargeTheUser() {
+        ReflectionTestUtils.setField(service, "chatTenantBurst", 3);
+        assertTrue(service.acquire(RateLimitService.CHAT, "other", "t").isAllowed());
+
+        // 租户桶只剩 2 个令牌
+        assertFalse(service.acquire(RateLimitService.CHAT, "u", "t", 3).isAllowed());
+        assertTrue(service.acquire(RateLimitService.CHAT, "u", "t2", 5).isAllowed());
+    }
+}
@@ -0,0 +1,476 @@
+package com.g07.service;
+
+import com.baomidou.mybatisplus.autoconfigure.MybatisPlusAutoConfiguration;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.g07.config.ReplicaRouter;
+import com.g07.config.ShardRouter;
+import com.g07.entity.Document;
+import com.g07.entity.KnowledgeChunk;
+import com.g07.mapper.DocumentMapper;
+import com.g07.mapper.KnowledgeChunkMapper;
+import com.g07.utils.TextUtils;
+import io.minio.MinioClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.annotation.MapperScan;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * 离线检索评测：评测集（中英文文档 + 标注了期望命中原文片段的问题）载入内嵌 H2，走和正常上传相同的切片、入库、索引路径，
+ * 对每种检索策略逐题检索，计算 recall@k、MRR、nDCG@k 和单次检索耗时的 P50 / P99。
+ * - 只装配检索用到的 Bean：Mapper 和检索服务是真实的，大模型、MinIO、变更事件等用 Mock 代替，不访问网络也不连业务库；
+ * - 不调用大模型：评测集中每个问题自带 keyword，代替大模型提取的关键词；
+ * - 切片 ID 每次载入都会变，相关性按"切片正文是否包含标注片段"判定，与切片参数无关；
+ * - 每次评测在 eval.history 追加一行，报告带上同一评测集、同一 k 的上一次评测的差值。
+ * 参数用系统属性传入，例如：
+ * mvn test -Dtest=RetrievalEvalTest -Deval.k=5 -Deval.label=调整打包 -Deval.history=../eval/retrieval-runs.jsonl
+ */
+@SpringJUnitConfig(RetrievalEvalTest.Config.class)
+@TestPropertySource(properties = "minio.bucketName=eval")
+@DirtiesContext
+class RetrievalEvalTest {
+
+    private static final String EVAL_TENANT = "eval0000000000000000000000000001";
+    private static final String EVAL_USER = "eval0000000000000000000000000001";
+    private static final String FIXTURE = "eval/retrieval-fixture.json";
+
+    static final List<String> STRATEGIES = List.of("fuzzy", "index", "rag", "chat");
+
+    @Configuration
+    @ImportAutoConfiguration(MybatisPlusAutoConfiguration.class)
+    @MapperScan("com.g07.mapper")
+    @Import({ShardRouter.class, FileService.class, SingleFlightService.class, DocumentIndexService.class,
+            ChunkStorageService.class, ContextPackService.class, RAGService.class, ChatService.class, IngestService.class})
+    static class Config {
+
+        /**
+         * 每次评测一个新的内存库，上下文关闭时随之销毁
+         */
+        @Bean
+        EmbeddedDatabase dataSource() {
+            EmbeddedDatabase db = new EmbeddedDatabaseBuilder()
+                    .setType(EmbeddedDatabaseType.H2)
+                    .setName("eval-" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE")
+                    .addScript("db/eval-schema.sql")
+                    .build();
+            // DocumentMapper.searchFuzzy 用到的 MySQL 函数，H2 没有
+            new JdbcTemplate(db).execute("CREATE ALIAS substring_index AS '"
+                    + "String substringIndex(String s, String d, int n) {"
+                    + "  if (s == null || n == 0) return s == null ? null : \"\";"
+                    + "  int i = n > 0 ? -1 : s.length();"
+                    + "  for (int c = 0; c < Math.abs(n); c++) {"
+                    + "    i = n > 0 ? s.indexOf(d, i + 1) : s.lastIndexOf(d, i - 1);"
+                    + "    if (i < 0) return s;"
+                    + "  }"
+                    + "  return n > 0 ? s.substring(0, i) : s.substring(i + d.length());"
+                    + "}'");
+            return db;
+        }
+
+        @Bean
+        ObjectMapper objectMapper() {
+            return new ObjectMapper();
+        }
+    }
+
+    @MockBean private DeepSeekService deepSeekService;
+    @MockBean private ModelCascadeService modelCascadeService;
+    @MockBean private AnswerCacheService answerCacheService;
+    @MockBean private CitationService citationService;
+    @MockBean private SummaryService summaryService;
+    @MockBean private PopularityService popularityService;
+    @MockBean private ChunkSegmentService chunkSegmentService;
+    @MockBean private PageStoreService pageStoreService;
+    @MockBean private ParseService parseService;
+    @MockBean private ClusterEventService clusterEventService;
+    @MockBean private ReplicaRouter replicaRouter;
+    @MockBean private MinioClient minioClient;
+
+    @Autowired private DocumentMapper documentMapper;
+    @Autowired private KnowledgeChunkMapper chunkMapper;
+    @Autowired private IngestService ingestService;
+    @Autowired private DocumentIndexService documentIndexService;
+    @Autowired private ContextPackService contextPackService;
+    @Autowired private RAGService ragService;
+    @Autowired private ChatService chatService;
+    @Autowired private ShardRouter shardRouter;
+    @Autowired private ObjectMapper objectMapper;
+
+    private static class Question {
+        String question;
+        String keyword;
+        List<String> evidence = new ArrayList<>();
+    }
+
+    private static class Fixture {
+        String version;
+        final List<JsonNode> documents = new ArrayList<>();
+        final List<Question> questions = new ArrayList<>();
+    }
+
+    private static class Score {
+        double recall;
+        double reciprocalRank;
+        double ndcg;
+        int firstHit;
+    }
+
+    /**
+     * 热点常驻和本地段存储不参与评测：返回 null 表示没有缓存，切片从数据库读
+     */
+    @BeforeEach
+    void setUp() {
+        when(popularityService.chunksOf(anyString())).thenReturn(null);
+        when(chunkSegmentService.chunksOf(anyString())).thenReturn(null);
+    }
+
+    @Test
+    void evaluateRetrievalStrategies() throws Exception {
+        int k = Integer.getInteger("eval.k", 5);
+        // 每个策略计时的轮数（另有一轮不计时的预热），P99 取自 轮数 × 问题数 个样本
+        int rounds = Integer.getInteger("eval.rounds", 3);
+        String label = System.getProperty("eval.label");
+        List<String> strategies = System.getProperty("eval.strategies") == null ? STRATEGIES
+                : Arrays.asList(System.getProperty("eval.strategies").split(","));
+        Path history = Paths.get(System.getProperty("eval.history", "target/eval/retrieval-runs.jsonl"));
+
+        Fixture fixture = loadFixture();
+        ObjectNode run = shardRouter.call(EVAL_TENANT, () -> evaluate(fixture, k, rounds, strategies, label));
+
+        ObjectNode previous = previousRun(history, fixture.version, k);
+        if (previous != null) run.put("previousRunId", previous.path("runId").asText());
+        for (JsonNode r : run.withArray("results")) {
+            JsonNode p = previous == null ? null : find(previous, r.path("strategy").asText());
+            if (p != null) ((ObjectNode) r).set("delta", delta(p, r));
+        }
+        report(run);
+        append(history, run);
+
+        assertEquals(strategies.size(), run.withArray("results").size());
+        for (JsonNode r : run.withArray("results")) {
+            assertEquals(fixture.questions.size(), r.path("queries").asInt());
+            // 指标高低只作对比，不设门槛；全部落空说明装配或检索路径坏了
+            assertTrue(r.path("recallAtK").asDouble() > 0, r.toString());
+        }
+    }
+
+    /**
+     * 评测产生的文档和切片全部删掉；内存库在上下文关闭（@DirtiesContext）时销毁
+     */
+    @AfterEach
+    void cleanUp() {
+        shardRouter.run(EVAL_TENANT, () -> {
+            List<String> ids = new ArrayList<>();
+            for (Document d : documentMapper.selectList(new QueryWrapper<Document>().select("doc_id").eq("tenant_id", EVAL_TENANT))) {
+                ids.add(d.getDocId());
+            }
+            if (ids.isEmpty()) return;
+            chunkMapper.deleteByDocIds(ids);
+            documentMapper.deleteBatchIds(ids);
+            for (String id : ids) documentIndexService.onDelete(EVAL_TENANT, id);
+        });
+        assertEquals(0L, chunkMapper.selectCount(new QueryWrapper<KnowledgeChunk>().eq("tenant_id", EVAL_TENANT)));
+    }
+
+    private ObjectNode evaluate(Fixture fixture, int k, int rounds, List<String> strategies, String label) {
+        long start = System.currentTimeMillis();
+        Map<String, String> contents = load(fixture);
+
+        // 标注片段在所有切片中都找不到（通常是跨了切片边界），这类问题无论怎么检索都拿不到满分
+        ArrayNode unreachable = objectMapper.createArrayNode();
+        for (Question q : fixture.questions) {
+            for (String e : q.evidence) {
+                if (contents.values().stream().noneMatch(c -> c.contains(e))) unreachable.add(q.question + " / " + e);
+            }
+        }
+
+        ObjectNode run = objectMapper.createObjectNode();
+        run.put("runId", UUID.randomUUID().toString().replace("-", ""));
+        run.put("label", label);
+        run.put("k", k);
+        run.put("fixtureVersion", fixture.version);
+        run.put("createTime", LocalDateTime.now().toString());
+        run.put("documents", fixture.documents.size());
+        run.put("chunks", contents.size());
+        run.set("unreachable", unreachable);
+        ArrayNode results = run.putArray("results");
+        for (String strategy : strategies) {
+            if (!STRATEGIES.contains(strategy)) throw new IllegalArgumentException("未知的检索策略: " + strategy);
+            // 预热：加载文档名索引、JIT，不计时也不计分
+            for (Question q : fixture.questions) retrieve(strategy, q);
+
+            List<Long> samples = new ArrayList<>();
+            double recall = 0, mrr = 0, ndcg = 0;
+            ArrayNode misses = objectMapper.createArrayNode();
+            for (int round = 0; round < rounds; round++) {
+                for (Question q : fixture.questions) {
+                    long t0 = System.nanoTime();
+                    List<ContextPackService.CitedChunk> ranked = retrieve(strategy, q);
+                    samples.add(System.nanoTime() - t0);
+                    if (round > 0) continue;
+
+                    Score s = score(ranked, q.evidence, contents, k);
+                    recall += s.recall;
+                    mrr += s.reciprocalRank;
+                    ndcg += s.ndcg;
+                    if (s.recall < 1) {
+                        ObjectNode miss = misses.addObject();
+                        miss.put("question", q.question);
+                        miss.put("recall", round4(s.recall));
+                        miss.put("firstHit", s.firstHit);
+                        miss.put("retrieved", ranked.size());
+                    }
+                }
+            }
+
+            int n = fixture.questions.size();
+            Collections.sort(samples);
+            ObjectNode r = results.addObject();
+            r.put("strategy", strategy);
+            r.put("queries", n);
+            r.put("recallAtK", round4(recall / n));
+            r.put("mrr", round4(mrr / n));
+            r.put("ndcg", round4(ndcg / n));
+            r.put("p50Ms", percentileMs(samples, 0.50));
+            r.put("p99Ms", percentileMs(samples, 0.99));
+            r.set("misses", misses);
+        }
+        run.put("elapsedMs", System.currentTimeMillis() - start);
+        return run;
+    }
+
+    /**
+     * 按策略检索，返回按打包得分排好序的入选切片
+     */
+    private List<ContextPackService.CitedChunk> retrieve(String strategy, Question q) {
+        switch (strategy) {
+            case "fuzzy":
+                // 原 SQL 路径：doc_name LIKE 关键词
+                return contextPackService.pack(documentMapper.searchFuzzy(EVAL_TENANT, q.keyword), q.question, q.keyword)
+                        .getCitedChunks();
+            case "index":
+                // 内存文档名索引，不带原话兜底
+                return contextPackService.pack(documentIndexService.search(EVAL_TENANT, q.keyword), q.question, q.keyword)
+                        .getCitedChunks();
+            case "rag":
+                // 直接按正文检索切片，不经过文档名
+                return ragService.retrievePacked(q.question, EVAL_TENANT).getCitedChunks();
+            default:
+                // 问答接口的完整检索路径（关键词 + 原话兜底 + 打包）
+                return chatService.retrieve(EVAL_TENANT, q.question, q.keyword, null).getCitedChunks();
+        }
+    }
+
+    /**
+     * 每个标注片段算一个相关项：recall@k 为前 k 个切片覆盖的片段比例；
+     * MRR 取第一个包含任一片段的切片排名；nDCG@k 中切片首次覆盖某个片段时增益为 1
+     */
+    private static Score score(List<ContextPackService.CitedChunk> ranked, List<String> evidence,
+                               Map<String, String> contents, int k) {
+        Score s = new Score();
+        if (evidence.isEmpty()) return s;
+        Set<Integer> covered = new HashSet<>();
+        double dcg = 0;
+        for (int i = 0; i < Math.min(k, ranked.size()); i++) {
+            String content = contents.get(ranked.get(i).getChunkId());
+            if (content == null) continue;
+            boolean relevant = false;
+            boolean fresh = false;
+            for (int j = 0; j < evidence.size(); j++) {
+                if (!content.contains(evidence.get(j))) continue;
+                relevant = true;
+                if (covered.add(j)) fresh = true;
+            }
+            if (relevant && s.firstHit == 0) s.firstHit = i + 1;
+            if (fresh) dcg += 1 / log2(i + 2);
+        }
+        double idcg = 0;
+        for (int i = 0; i < Math.min(k, evidence.size()); i++) idcg += 1 / log2(i + 2);
+
+        s.recall = (double) covered.size() / evidence.size();
+        s.reciprocalRank = s.firstHit == 0 ? 0 : 1.0 / s.firstHit;
+        s.ndcg = Math.min(1, dcg / idcg);
+        return s;
+    }
+
+    private static double log2(int x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * 最近秩法取百分位
+     */
+    private static double percentileMs(List<Long> sortedNanos, double p) {
+        if (sortedNanos.isEmpty()) return 0;
+        int idx = (int) Math.ceil(p * sortedNanos.size()) - 1;
+        long nanos = sortedNanos.get(Math.max(0, Math.min(idx, sortedNanos.size() - 1)));
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static double round4(double v) {
+        return Math.round(v * 10000) / 10000.0;
+    }
+
+    // ==================== 评测集载入 ====================
+
+    private Fixture loadFixture() throws IOException {
+        byte[] bytes;
+        try (InputStream in = new ClassPathResource(FIXTURE).getInputStream()) {
+            bytes = in.readAllBytes();
+        }
+        JsonNode root = objectMapper.readTree(bytes);
+        Fixture f = new Fixture();
+        f.version = TextUtils.sha256Hex(new String(bytes, StandardCharsets.UTF_8)).substring(0, 12);
+        for (JsonNode d : root.path("documents")) f.documents.add(d);
+        for (JsonNode node : root.path("questions")) {
+            Question q = new Question();
+            q.question = node.path("question").asText();
+            // 没有标注关键词的按问答接口的规则处理：直接用原话
+            q.keyword = node.hasNonNull("keyword") ? node.get("keyword").asText() : q.question;
+            // 切片时空白会被合并，标注片段按同样的规则处理
+            for (JsonNode e : node.path("evidence")) q.evidence.add(e.asText().replaceAll("\\s+", " ").trim());
+            f.questions.add(q);
+        }
+        if (f.documents.isEmpty() || f.questions.isEmpty()) throw new IllegalStateException("评测集为空: " + FIXTURE);
+        return f;
+    }
+
+    /**
+     * 评测集逐篇登记、切片入库
+     * @return 切片ID → 正文（入库时可能被压缩，先记下原文）
+     */
+    private Map<String, String> load(Fixture fixture) {
+        Map<String, String> contents = new HashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < fixture.documents.size(); i++) {
+            JsonNode node = fixture.documents.get(i);
+            String name = node.path("name").asText();
+            List<String> pages = new ArrayList<>();
+            for (JsonNode p : node.path("pages")) pages.add(p.asText());
+
+            Document doc = new Document();
+            doc.setDocId(UUID.randomUUID().toString().replace("-", ""));
+            doc.setTenantId(EVAL_TENANT);
+            doc.setUserId(EVAL_USER);
+            doc.setDocName(name);
+            // 评测文档没有对应的 MinIO 对象，切片已入库，检索时不会读文件
+            doc.setFilePath(EVAL_TENANT + "/eval/" + doc.getDocId() + "_" + name);
+            doc.setFileType(name.contains(".") ? name.substring(name.lastIndexOf(".") + 1) : "txt");
+            doc.setFileSize((long) String.join("", pages).getBytes(StandardCharsets.UTF_8).length);
+            doc.setStatus("completed");
+            // 上传时间错开，文档名检索按上传时间排序时结果稳定
+            doc.setUploadTime(now.minusSeconds(i));
+            doc.setProcessedTime(now);
+            ingestService.register(doc);
+
+            List<KnowledgeChunk> chunks = ingestService.buildChunks(doc, pages);
+            for (KnowledgeChunk c : chunks) contents.put(c.getChunkId(), c.getContent());
+            ingestService.saveChunks(chunks);
+        }
+        return contents;
+    }
+
+    // ==================== 跨次对比 ====================
+
+    /**
+     * 同一评测集、同一 k 的最近一次评测；评测集或 k 不同时指标不可直接比较
+     */
+    private ObjectNode previousRun(Path history, String fixtureVersion, int k) throws IOException {
+        if (!Files.exists(history)) return null;
+        ObjectNode previous = null;
+        for (String line : Files.readAllLines(history, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            JsonNode run = objectMapper.readTree(line);
+            if (fixtureVersion.equals(run.path("fixtureVersion").asText()) && run.path("k").asInt() == k) {
+                previous = (ObjectNode) run;
+            }
+        }
+        return previous;
+    }
+
+    private static JsonNode find(JsonNode run, String strategy) {
+        for (JsonNode r : run.path("results")) {
+            if (strategy.equals(r.path("strategy").asText())) return r;
+        }
+        return null;
+    }
+
+    /**
+     * delta = 本次 - 上次
+     */
+    private ObjectNode delta(JsonNode base, JsonNode target) {
+        ObjectNode m = objectMapper.createObjectNode();
+        for (String f : List.of("recallAtK", "mrr", "ndcg", "p50Ms", "p99Ms")) {
+            m.put(f, round4(target.path(f).asDouble() - base.path(f).asDouble()));
+        }
+        return m;
+    }
+
+    private void append(Path history, ObjectNode run) throws IOException {
+        if (history.getParent() != null) Files.createDirectories(history.getParent());
+        ObjectNode line = run.deepCopy();
+        // 历史只留指标，未命中明细看当次报告
+        for (JsonNode r : line.withArray("results")) ((ObjectNode) r).remove(List.of("misses", "delta"));
+        line.remove("previousRunId");
+        Files.writeString(history, objectMapper.writeValueAsString(line) + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void report(ObjectNode run) throws IOException {
+        System.out.println(">>> [Eval] 检索评测 " + run.path("runId").asText() + "，k=" + run.path("k").asInt()
+                + "，评测集 " + run.path("fixtureVersion").asText() + "，" + run.path("chunks").asInt() + " 个切片，耗时 "
+                + run.path("elapsedMs").asLong() + " ms"
+                + (run.has("previousRunId") ? "，对比上次 " + run.path("previousRunId").asText() : ""));
+        for (JsonNode r : run.path("results")) {
+            JsonNode d = r.path("delta");
+            System.out.println(String.format(">>> [Eval] %-6s recall@k=%.4f%s  MRR=%.4f%s  nDCG=%.4f%s  P50=%.3fms%s  P99=%.3fms%s",
+                    r.path("strategy").asText(),
+                    r.path("recallAtK").asDouble(), change(d, "recallAtK"),
+                    r.path("mrr").asDouble(), change(d, "mrr"),
+                    r.path("ndcg").asDouble(), change(d, "ndcg"),
+                    r.path("p50Ms").asDouble(), change(d, "p50Ms"),
+                    r.path("p99Ms").asDouble(), change(d, "p99Ms")));
+        }
+        if (run.path("unreachable").size() > 0) {
+            System.out.println(">>> [Eval] 找不到的标注片段: " + run.path("unreachable"));
+        }
+        System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(run.path("results")));
+    }
+
+    private static String change(JsonNode delta, String field) {
+        return delta.has(field) ? String.format("(%+.4f)", delta.path(field).asDouble()) : "";
+    }
+}
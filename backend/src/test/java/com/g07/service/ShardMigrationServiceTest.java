@@ -0,0 +1,115 @@
+package com.g07.service;
+
+import com.g07.config.ShardFixture;
+import com.g07.config.ShardRouter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 在两个 H2 分片之间搬迁租户；冻结、切换时机通过变更事件的发布注入并发写入
+ */
+class ShardMigrationServiceTest {
+
+    private ShardFixture fixture;
+    private ShardMigrationService service;
+    private ClusterEventService events;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new ShardFixture(2);
+        ShardRouter router = fixture.router(fixture.dataSource(), 0);
+        events = mock(ClusterEventService.class);
+
+        service = new ShardMigrationService();
+        ReflectionTestUtils.setField(service, "shardRouter", router);
+        ReflectionTestUtils.setField(service, "tenantShardMapper", fixture.tenantShardMapper());
+        ReflectionTestUtils.setField(service, "clusterEventService", events);
+        // 每批 2 行，覆盖分页
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+        ReflectionTestUtils.setField(service, "freezeWaitMs", 0L);
+
+        JdbcTemplate src = fixture.jdbc(0);
+        for (int i = 1; i <= 3; i++) {
+            fixture.insertDocument(0, "t1", "d" + i, "c1");
+            insertChunk(src, "k" + i, "d" + i, LocalDateTime.now());
+            src.update("INSERT INTO document_summary (doc_id, tenant_id, summary, outline) VALUES (?, 't1', 's', 'o')", "d" + i);
+        }
+        src.update("INSERT INTO chat_session (session_id, tenant_id, user_id) VALUES ('s1', 't1', 'u')");
+        src.update("INSERT INTO qa_record (record_id, session_id, question, answer) VALUES ('r1', 's1', 'q', 'a')");
+        src.update("INSERT INTO citation_mapping (record_id, chunk_id, similarity_score) VALUES ('r1', 'k1', 0.9)");
+        // 其他租户不受影响
+        fixture.insertDocument(0, "t2", "x1", "c2");
+    }
+
+    private static void insertChunk(JdbcTemplate jdbc, String chunkId, String docId, LocalDateTime createTime) {
+        jdbc.update("INSERT INTO knowledge_chunk (chunk_id, tenant_id, doc_id, content_type, content, vector_id, chunk_index, create_time) "
+                + "VALUES (?, 't1', ?, 'text', 'c', ?, 0, ?)", chunkId, docId, chunkId, createTime);
+    }
+
+    private Map<String, Object> moveAndWait(String tenantId, int target) throws InterruptedException {
+        assertTrue(service.move(tenantId, target));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (Boolean.TRUE.equals(service.stats().get("moving")) && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        return service.stats();
+    }
+
+    @Test
+    void movesAllTenantRowsAndCleansTheSource() throws Exception {
+        Map<String, Object> stats = moveAndWait("t1", 1);
+
+        assertEquals("done", stats.get("state"));
+        assertEquals(3, fixture.count(1, "document", "t1"));
+        assertEquals(3, fixture.count(1, "knowledge_chunk", "t1"));
+        assertEquals(3, fixture.count(1, "document_summary", "t1"));
+        assertEquals(1, fixture.count(1, "chat_session", "t1"));
+        assertEquals(1, fixture.jdbc(1).queryForObject("SELECT COUNT(*) FROM qa_record", Integer.class));
+        assertEquals(1, fixture.jdbc(1).queryForObject("SELECT COUNT(*) FROM citation_mapping", Integer.class));
+        assertEquals(0, fixture.count(0, "document", "t1"));
+        assertEquals(0, fixture.count(0, "knowledge_chunk", "t1"));
+        assertEquals(1, fixture.count(0, "document", "t2"));
+        assertEquals(1, fixture.jdbc(0).queryForObject("SELECT shard_id FROM tenant_shard WHERE tenant_id = 't1'", Integer.class));
+        assertEquals(ShardRouter.ACTIVE, fixture.jdbc(0).queryForObject("SELECT status FROM tenant_shard WHERE tenant_id = 't1'", String.class));
+    }
+
+    @Test
+    void catchUpCopiesRowsWithOldTimestampsCommittedDuringTheCopy() throws Exception {
+        // 冻结前最后一刻提交的切片，时间戳早于搬迁开始（长时间的批量导入先建好切片对象再写库）
+        doAnswer(inv -> {
+            insertChunk(fixture.jdbc(0), "late", "d1", LocalDateTime.now().minusDays(1));
+            return null;
+        }).when(events).publish(eq("t1"), eq(ClusterEventService.TENANT_SHARD), isNull(), eq("0:" + ShardRouter.FROZEN));
+
+        Map<String, Object> stats = moveAndWait("t1", 1);
+
+        assertEquals("done", stats.get("state"));
+        assertEquals(1, fixture.jdbc(1).queryForObject("SELECT COUNT(*) FROM knowledge_chunk WHERE chunk_id = 'late'", Integer.class));
+    }
+
+    @Test
+    void sourceIsKeptWhenItHasRowsTheTargetLacks() throws Exception {
+        // 切换后仍有写入落到源分片
+        doAnswer(inv -> {
+            insertChunk(fixture.jdbc(0), "stray", "d1", LocalDateTime.now());
+            return null;
+        }).when(events).publish(eq("t1"), eq(ClusterEventService.TENANT_SHARD), isNull(), eq("1:" + ShardRouter.ACTIVE));
+
+        Map<String, Object> stats = moveAndWait("t1", 1);
+
+        assertTrue(stats.get("state").toString().startsWith("cleanup skipped"), stats.get("state").toString());
+        assertEquals(3, fixture.count(0, "document", "t1"));
+        assertEquals(4, fixture.count(0, "knowledge_chunk", "t1"));
+        assertEquals(1, fixture.jdbc(0).queryForObject("SELECT shard_id FROM tenant_shard WHERE tenant_id = 't1'", Integer.class));
+    }
+}
@@ -0,0 +1,33 @@
+-- 检索评测用的最小表结构（H2 MySQL 兼容模式），字段取自 database/db.sql，只含检索路径读写的表
+CREATE TABLE document (
+  doc_id VARCHAR(32) NOT NULL PRIMARY KEY,
+  tenant_id VARCHAR(32) NOT NULL,
+  user_id VARCHAR(32) NOT NULL,
+  category_id VARCHAR(32) NULL,
+  doc_name VARCHAR(255) NOT NULL,
+  file_path VARCHAR(500) NOT NULL,
+  file_type VARCHAR(10) NOT NULL,
+  file_size BIGINT NOT NULL,
+  status VARCHAR(16) NOT NULL DEFAULT 'processing',
+  parse_error VARCHAR(500) NULL,
+  upload_time DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
+  processed_time DATETIME(6) NULL
+);
+
+CREATE TABLE knowledge_chunk (
+  chunk_id VARCHAR(32) NOT NULL PRIMARY KEY,
+  tenant_id VARCHAR(32) NOT NULL,
+  doc_id VARCHAR(32) NOT NULL,
+  content_type VARCHAR(8) NOT NULL,
+  content LONGTEXT NOT NULL,
+  content_z LONGBLOB NULL,
+  dict_id INT NULL,
+  bigram_sig VARBINARY(2048) NULL,
+  vector_id VARCHAR(64) NOT NULL,
+  page_number INT NULL,
+  chunk_index INT NOT NULL,
+  token_count INT NULL,
+  create_time DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)
+);
+
+CREATE INDEX idx_chunk_doc ON knowledge_chunk (doc_id, chunk_index);
@@ -0,0 +1,75 @@
+-- 分片测试用的最小表结构（H2 MySQL 兼容模式），字段取自 database/shard.sql 与 db.sql，每个分片各执行一次
+CREATE TABLE tenant_shard (
+  tenant_id VARCHAR(32) NOT NULL PRIMARY KEY,
+  shard_id INT NOT NULL,
+  status VARCHAR(16) NOT NULL,
+  update_time DATETIME(6) NULL
+);
+
+CREATE TABLE change_event (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  tenant_id VARCHAR(32) NULL,
+  event_type VARCHAR(32) NOT NULL,
+  resource_id VARCHAR(64) NULL,
+  payload VARCHAR(1000) NULL,
+  create_time DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)
+);
+
+CREATE TABLE document (
+  doc_id VARCHAR(32) NOT NULL PRIMARY KEY,
+  tenant_id VARCHAR(32) NOT NULL,
+  user_id VARCHAR(32) NOT NULL,
+  doc_name VARCHAR(255) NOT NULL,
+  file_path VARCHAR(500) NOT NULL,
+  file_type VARCHAR(10) NOT NULL,
+  file_size BIGINT NOT NULL,
+  status VARCHAR(16) NOT NULL DEFAULT 'processing',
+  parse_error VARCHAR(500) NULL,
+  upload_time DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
+  processed_time DATETIME(6) NULL,
+  category_id VARCHAR(32) NULL
+);
+
+CREATE TABLE knowledge_chunk (
+  chunk_id VARCHAR(32) NOT NULL PRIMARY KEY,
+  tenant_id VARCHAR(32) NOT NULL,
+  doc_id VARCHAR(32) NOT NULL,
+  content_type VARCHAR(8) NOT NULL,
+  content LONGTEXT NOT NULL,
+  vector_id VARCHAR(64) NOT NULL,
+  chunk_index INT NOT NULL,
+  create_time DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)
+);
+
+CREATE TABLE document_summary (
+  doc_id VARCHAR(32) NOT NULL PRIMARY KEY,
+  tenant_id VARCHAR(32) NOT NULL,
+  summary TEXT NOT NULL,
+  outline TEXT NOT NULL,
+  method VARCHAR(16) NOT NULL DEFAULT 'extractive',
+  create_time DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)
+);
+
+CREATE TABLE chat_session (
+  session_id VARCHAR(32) NOT NULL PRIMARY KEY,
+  tenant_id VARCHAR(32) NOT NULL,
+  user_id VARCHAR(32) NOT NULL,
+  title VARCHAR(255) NULL,
+  start_time DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)
+);
+
+CREATE TABLE qa_record (
+  record_id VARCHAR(32) NOT NULL,
+  session_id VARCHAR(32) NOT NULL,
+  question TEXT NOT NULL,
+  answer TEXT NOT NULL,
+  qa_time DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (record_id, qa_time)
+);
+
+CREATE TABLE citation_mapping (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  record_id VARCHAR(32) NOT NULL,
+  chunk_id VARCHAR(32) NOT NULL,
+  similarity_score FLOAT NULL
+);
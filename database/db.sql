@@ -141,4 +141,158 @@ CREATE TABLE `category` (
 ALTER TABLE `document` ADD COLUMN `category_id` varchar(32) DEFAULT NULL COMMENT '所属分类ID';
 ALTER TABLE `category` ADD COLUMN `sort_order` INT DEFAULT 0 COMMENT '排序权重(越小越靠前)';
 
+/*列表查询索引：文件夹内文档游标分页、租户文件夹排序*/
+ALTER TABLE `document` ADD INDEX `idx_category_upload` (`category_id`, `upload_time`, `doc_id`);
+ALTER TABLE `category` ADD INDEX `idx_tenant_sort` (`tenant_id`, `sort_order`, `create_time`);
+
+/*孤儿数据回收检查点（Orphan GC Checkpoint）*/
+DROP TABLE IF EXISTS `gc_checkpoint`;
+CREATE TABLE `gc_checkpoint` (
+  `phase` VARCHAR(32) NOT NULL COMMENT '回收阶段(objects / sessions@分片号 / documents@分片号)',
+  `cursor_value` VARCHAR(1024) NOT NULL DEFAULT '' COMMENT '下一批的起始游标',
+  `scanned` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '累计扫描条数',
+  `removed` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '累计清理条数',
+  `reclaimed_bytes` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '累计回收字节数',
+  `cycles` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '完整扫描轮数',
+  `update_time` DATETIME(6) NULL COMMENT '最后更新时间',
+  PRIMARY KEY (`phase`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='孤儿数据回收检查点';
+
+/*按对象路径反查文档，供孤儿对象回收使用*/
+ALTER TABLE `document` ADD INDEX `idx_file_path` (`file_path`);
+
+/*分片上传会话（Upload Session）*/
+DROP TABLE IF EXISTS `upload_session`;
+CREATE TABLE `upload_session` (
+  `upload_id` CHAR(32) NOT NULL COMMENT '上传会话ID',
+  `minio_upload_id` VARCHAR(255) NOT NULL COMMENT 'MinIO 分片上传ID',
+  `doc_id` CHAR(32) NOT NULL COMMENT '完成后生成的文档ID',
+  `tenant_id` CHAR(32) NOT NULL COMMENT '租户ID',
+  `user_id` CHAR(32) NOT NULL COMMENT '上传用户ID',
+  `category_id` VARCHAR(32) NULL COMMENT '目标文件夹ID',
+  `file_name` VARCHAR(255) NOT NULL COMMENT '原始文件名',
+  `object_name` VARCHAR(500) NOT NULL COMMENT 'MinIO对象路径',
+  `content_type` VARCHAR(100) NULL COMMENT '文件MIME类型',
+  `file_size` BIGINT UNSIGNED NOT NULL COMMENT '文件总大小',
+  `part_size` BIGINT UNSIGNED NOT NULL COMMENT '分片大小',
+  `total_parts` INT UNSIGNED NOT NULL COMMENT '分片总数',
+  `status` ENUM('uploading', 'completed', 'aborted') NOT NULL DEFAULT 'uploading' COMMENT '会话状态',
+  `create_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '创建时间',
+  PRIMARY KEY (`upload_id`),
+  KEY `idx_status_time` (`status`, `create_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='分片上传会话表';
+
+/*已完成分片（Upload Part）*/
+DROP TABLE IF EXISTS `upload_part`;
+CREATE TABLE `upload_part` (
+  `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '自增主键',
+  `upload_id` CHAR(32) NOT NULL COMMENT '上传会话ID',
+  `part_number` INT UNSIGNED NOT NULL COMMENT '分片号(从1开始)',
+  `etag` VARCHAR(128) NOT NULL COMMENT 'MinIO返回的ETag',
+  `size` BIGINT UNSIGNED NOT NULL COMMENT '分片大小',
+  `sha256` CHAR(64) NOT NULL COMMENT '分片SHA-256校验值',
+  `create_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '上传时间',
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_upload_part` (`upload_id`, `part_number`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='分片上传明细表';
+
+/*解析失败或超时的原因，成功时为空*/
+ALTER TABLE `document` ADD COLUMN `parse_error` VARCHAR(500) NULL COMMENT '解析失败原因' AFTER `status`;
+
+/*文档摘要表：入库时生成的全文摘要与章节提纲*/
+DROP TABLE IF EXISTS `document_summary`;
+CREATE TABLE `document_summary` (
+  `doc_id` CHAR(32) NOT NULL COMMENT '文档ID',
+  `tenant_id` CHAR(32) NOT NULL COMMENT '所属租户ID',
+  `summary` TEXT NOT NULL COMMENT '全文摘要',
+  `outline` TEXT NOT NULL COMMENT '章节提纲，每行 标题：章节摘要',
+  `method` ENUM('extractive', 'llm') NOT NULL DEFAULT 'extractive' COMMENT '生成方式',
+  `token_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '摘要+提纲的Token数',
+  `create_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '生成时间',
+  PRIMARY KEY (`doc_id`),
+  KEY `idx_method` (`method`),
+  CONSTRAINT `fk_summary_doc` FOREIGN KEY (`doc_id`) REFERENCES `document` (`doc_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档摘要表';
+
+/*切片压缩存储：content_z 为 deflate 压缩内容（此时 content 为空串），bigram_sig 为二元词布隆过滤器*/
+ALTER TABLE `knowledge_chunk`
+  ADD COLUMN `content_z` MEDIUMBLOB NULL COMMENT '压缩后的内容' AFTER `content`,
+  ADD COLUMN `dict_id` INT UNSIGNED NULL COMMENT '压缩字典ID，0为未使用字典' AFTER `content_z`,
+  ADD COLUMN `bigram_sig` VARBINARY(2048) NULL COMMENT '内容二元词签名(布隆过滤器，位数随切片长度)' AFTER `dict_id`;
+
+/*租户压缩字典表：从租户切片抽样训练的 deflate 预置字典，只增不删*/
+DROP TABLE IF EXISTS `chunk_dictionary`;
+CREATE TABLE `chunk_dictionary` (
+  `dict_id` INT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '字典ID',
+  `tenant_id` CHAR(32) NOT NULL COMMENT '所属租户ID',
+  `dictionary` BLOB NOT NULL COMMENT '字典内容，最大32KB',
+  `sample_count` INT UNSIGNED NOT NULL COMMENT '训练样本切片数',
+  `create_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '训练时间',
+  PRIMARY KEY (`dict_id`),
+  KEY `idx_tenant` (`tenant_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='切片压缩字典表';
+
+/*本地段存储按 create_time 增量同步切片*/
+ALTER TABLE `knowledge_chunk` ADD KEY `idx_create_time` (`create_time`, `chunk_id`);
+
+/*变更事件表：各节点按自增ID增量拉取，失效本机缓存*/
+DROP TABLE IF EXISTS `change_event`;
+CREATE TABLE `change_event` (
+  `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '自增游标',
+  `tenant_id` CHAR(32) NULL COMMENT '所属租户ID，为空表示不限租户',
+  `event_type` VARCHAR(32) NOT NULL COMMENT '事件类型：DOC_UPLOAD/DOC_RENAME/DOC_MOVE/DOC_DELETE/CATEGORY/TENANT_SHARD/USER_ROLE',
+  `resource_id` CHAR(32) NULL COMMENT '文档ID',
+  `payload` VARCHAR(500) NULL COMMENT '附加信息，文档删除时为对象名',
+  `origin_node` VARCHAR(64) NOT NULL COMMENT '产生事件的节点',
+  `create_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '事件时间',
+  PRIMARY KEY (`id`),
+  KEY `idx_create_time` (`create_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='变更事件表';
+
+/*租户分片表：租户数据所在分片，未登记的租户在 0 号分片（主库），只存放在主库*/
+DROP TABLE IF EXISTS `tenant_shard`;
+CREATE TABLE `tenant_shard` (
+  `tenant_id` CHAR(32) NOT NULL COMMENT '租户ID',
+  `shard_id` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '分片编号，对应 datasource.shards.urls 中的顺序（从1开始），0为主库',
+  `status` ENUM('active', 'moving', 'frozen') NOT NULL DEFAULT 'active' COMMENT '状态：搬迁中照常读写，冻结时只读',
+  `update_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '更新时间',
+  PRIMARY KEY (`tenant_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='租户分片表';
+
+/*搬迁租户分片时按租户扫描会话*/
+ALTER TABLE `chat_session` ADD KEY `idx_tenant` (`tenant_id`);
+
+/*租户级限流：每分钟问答/上传请求数，为空时使用 ratelimit 配置中的默认值*/
+ALTER TABLE `tenant`
+  ADD COLUMN `chat_rpm` INT UNSIGNED NULL COMMENT '租户每分钟问答请求上限，为空用默认值' AFTER `max_storage`,
+  ADD COLUMN `upload_rpm` INT UNSIGNED NULL COMMENT '租户每分钟上传请求上限，为空用默认值' AFTER `chat_rpm`;
+
+/*大模型用量日汇总：各节点定时把内存中的增量累加进来，只存放在主库*/
+DROP TABLE IF EXISTS `llm_usage_daily`;
+CREATE TABLE `llm_usage_daily` (
+  `tenant_id` CHAR(32) NOT NULL DEFAULT '' COMMENT '租户ID，后台任务为空串',
+  `user_id` CHAR(32) NOT NULL DEFAULT '' COMMENT '用户ID，后台任务为空串',
+  `usage_date` DATE NOT NULL COMMENT '日期',
+  `model` VARCHAR(64) NOT NULL COMMENT '模型',
+  `calls` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '调用次数',
+  `failed_calls` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '失败次数',
+  `prompt_tokens` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '输入Token',
+  `completion_tokens` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '输出Token',
+  `cache_hit_tokens` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '命中上游缓存的输入Token',
+  `latency_ms` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '累计耗时(毫秒)',
+  PRIMARY KEY (`tenant_id`, `usage_date`, `user_id`, `model`),
+  KEY `idx_date` (`usage_date`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='大模型用量日汇总表';
+
+/*租户月度 Token 额度，为空时使用 usage.quota 配置中的默认值，0 表示不限*/
+ALTER TABLE `tenant`
+  ADD COLUMN `token_quota_soft` BIGINT UNSIGNED NULL COMMENT '每月Token软额度，超过后告警' AFTER `upload_rpm`,
+  ADD COLUMN `token_quota_hard` BIGINT UNSIGNED NULL COMMENT '每月Token硬额度，超过后拒绝调用' AFTER `token_quota_soft`;
+
+/*大模型改写摘要失败后退避重试，避免同一批失败的摘要每轮都被选中*/
+ALTER TABLE `document_summary`
+  ADD COLUMN `refine_attempts` TINYINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '大模型改写失败次数' AFTER `token_count`,
+  ADD COLUMN `next_refine_time` DATETIME(6) NULL COMMENT '下次允许改写的时间，为空表示随时' AFTER `refine_attempts`,
+  ADD KEY `idx_refine` (`method`, `next_refine_time`);
+
 SET FOREIGN_KEY_CHECKS = 1;
\ No newline at end of file
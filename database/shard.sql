@@ -0,0 +1,113 @@
+/*
+ * 租户分片库结构：datasource.shards.urls 中的每个分片库执行一次。
+ * 只包含跟随租户放置的表，字段与 db.sql 中执行完所有 ALTER 后一致；
+ * 用户、租户表只在主库，因此去掉了指向它们的外键，分片内部的外键保留。
+ */
+CREATE DATABASE IF NOT EXISTS `g07_qa_shard` CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci;
+USE `g07_qa_shard`;
+
+SET NAMES utf8mb4;
+SET FOREIGN_KEY_CHECKS = 0;
+
+/*文档表（Document）*/
+DROP TABLE IF EXISTS `document`;
+CREATE TABLE `document` (
+  `doc_id` CHAR(32) NOT NULL COMMENT '文档唯一标识',
+  `tenant_id` CHAR(32) NOT NULL COMMENT '所属租户ID',
+  `user_id` CHAR(32) NOT NULL COMMENT '上传用户ID',
+  `doc_name` VARCHAR(255) NOT NULL COMMENT '文档原始名称',
+  `file_path` VARCHAR(500) NOT NULL COMMENT 'MinIO对象存储路径',
+  `file_type` VARCHAR(10) NOT NULL COMMENT '文件扩展名',
+  `file_size` BIGINT UNSIGNED NOT NULL COMMENT '文件大小',
+  `status` ENUM('processing', 'completed', 'failed') NOT NULL DEFAULT 'processing' COMMENT '处理状态',
+  `parse_error` VARCHAR(500) NULL COMMENT '解析失败原因',
+  `upload_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '上传时间',
+  `processed_time` DATETIME(6) NULL COMMENT '处理完成时间',
+  `category_id` varchar(32) DEFAULT NULL COMMENT '所属分类ID',
+  PRIMARY KEY (`doc_id`),
+  KEY `idx_tenant_user` (`tenant_id`, `user_id`),
+  KEY `idx_category_upload` (`category_id`, `upload_time`, `doc_id`),
+  KEY `idx_file_path` (`file_path`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档元数据表';
+
+/*知识块表（Knowledge Chunk）*/
+DROP TABLE IF EXISTS `knowledge_chunk`;
+CREATE TABLE `knowledge_chunk` (
+  `chunk_id` CHAR(32) NOT NULL COMMENT '知识块唯一标识',
+  `tenant_id` CHAR(32) NOT NULL COMMENT '所属租户ID',
+  `doc_id` CHAR(32) NOT NULL COMMENT '所属文档ID',
+  `content_type` ENUM('text', 'image') NOT NULL COMMENT '内容类型',
+  `content` LONGTEXT NOT NULL COMMENT '文本内容或图片描述',
+  `content_z` MEDIUMBLOB NULL COMMENT '压缩后的内容',
+  `dict_id` INT UNSIGNED NULL COMMENT '压缩字典ID，0为未使用字典',
+  `bigram_sig` VARBINARY(2048) NULL COMMENT '内容二元词签名(布隆过滤器，位数随切片长度)',
+  `vector_id` VARCHAR(64) NOT NULL COMMENT '向量数据库中的ID',
+  `page_number` SMALLINT UNSIGNED NULL COMMENT '原文档页码',
+  `chunk_index` INT UNSIGNED NOT NULL COMMENT '切片顺序索引',
+  `token_count` INT UNSIGNED NULL COMMENT 'Token数量',
+  `create_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '创建时间',
+  PRIMARY KEY (`chunk_id`),
+  KEY `idx_tenant_doc` (`tenant_id`, `doc_id`),
+  UNIQUE KEY `idx_tenant_vector` (`tenant_id`, `vector_id`),
+  KEY `idx_tenant_content_type` (`tenant_id`, `content_type`),
+  KEY `idx_create_time` (`create_time`, `chunk_id`),
+  CONSTRAINT `fk_chunk_doc` FOREIGN KEY (`doc_id`) REFERENCES `document` (`doc_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='知识块表';
+
+/*会话表（Chat Session）*/
+DROP TABLE IF EXISTS `chat_session`;
+CREATE TABLE `chat_session` (
+  `session_id` CHAR(32) NOT NULL COMMENT '会话ID',
+  `tenant_id` CHAR(32) NOT NULL COMMENT '租户ID',
+  `user_id` CHAR(32) NOT NULL COMMENT '用户ID',
+  `title` VARCHAR(255) NULL COMMENT '会话标题',
+  `start_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '开始时间',
+  PRIMARY KEY (`session_id`),
+  KEY `idx_user_session` (`user_id`, `start_time`),
+  KEY `idx_tenant` (`tenant_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话会话表';
+
+/*问答记录表（Qa Record）*/
+DROP TABLE IF EXISTS `qa_record`;
+CREATE TABLE `qa_record` (
+  `record_id` CHAR(32) NOT NULL COMMENT '问答记录ID',
+  `session_id` CHAR(32) NOT NULL COMMENT '所属会话ID',
+  `question` TEXT NOT NULL COMMENT '用户问题',
+  `answer` TEXT NOT NULL COMMENT 'AI回答',
+  `qa_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '问答时间',
+  PRIMARY KEY (`record_id`, `qa_time`),
+  KEY `idx_session` (`session_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='问答记录表';
+
+/*引用映射表（Citation Mapping）*/
+DROP TABLE IF EXISTS `citation_mapping`;
+CREATE TABLE `citation_mapping` (
+  `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '自增主键',
+  `record_id` CHAR(32) NOT NULL COMMENT '问答记录ID',
+  `chunk_id` CHAR(32) NOT NULL COMMENT '引用的知识块ID',
+  `similarity_score` FLOAT NULL COMMENT '检索相似度得分',
+  PRIMARY KEY (`id`),
+  KEY `idx_record_id` (`record_id`),
+  KEY `idx_chunk_id` (`chunk_id`),
+  CONSTRAINT `fk_citation_chunk` FOREIGN KEY (`chunk_id`) REFERENCES `knowledge_chunk` (`chunk_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='问答引用溯源表';
+
+/*文档摘要表：入库时生成的全文摘要与章节提纲*/
+DROP TABLE IF EXISTS `document_summary`;
+CREATE TABLE `document_summary` (
+  `doc_id` CHAR(32) NOT NULL COMMENT '文档ID',
+  `tenant_id` CHAR(32) NOT NULL COMMENT '所属租户ID',
+  `summary` TEXT NOT NULL COMMENT '全文摘要',
+  `outline` TEXT NOT NULL COMMENT '章节提纲，每行 标题：章节摘要',
+  `method` ENUM('extractive', 'llm') NOT NULL DEFAULT 'extractive' COMMENT '生成方式',
+  `token_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '摘要+提纲的Token数',
+  `refine_attempts` TINYINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '大模型改写失败次数',
+  `next_refine_time` DATETIME(6) NULL COMMENT '下次允许改写的时间，为空表示随时',
+  `create_time` DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) COMMENT '生成时间',
+  PRIMARY KEY (`doc_id`),
+  KEY `idx_method` (`method`),
+  KEY `idx_refine` (`method`, `next_refine_time`),
+  CONSTRAINT `fk_summary_doc` FOREIGN KEY (`doc_id`) REFERENCES `document` (`doc_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档摘要表';
+
+SET FOREIGN_KEY_CHECKS = 1;